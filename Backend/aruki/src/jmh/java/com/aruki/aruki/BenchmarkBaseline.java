@@ -0,0 +1,109 @@
+package com.aruki.aruki;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * The {@code BenchmarkBaseline} class compares the results of a JMH run with the stored baseline, and fails the
+ * build if any benchmark got slower than the allowed regression.
+ * <p>
+ * Both files are in the JSON format JMH writes with {@code -rf json}. Benchmarks are matched by name and
+ * parameters; a benchmark without a baseline is reported but does not fail. For average-time benchmarks a higher
+ * score is worse, and for throughput benchmarks a lower one.
+ * </p>
+ * <p>
+ * The baseline is only meaningful on the machine it was recorded on. To accept new numbers, for instance after an
+ * intended change to the scoring engine, copy {@code target/jmh-result.json} over {@code src/jmh/baseline.json}.
+ * </p>
+ * <p>
+ * Example usage:
+ * <pre>
+ *     java -cp ... com.aruki.aruki.BenchmarkBaseline src/jmh/baseline.json target/jmh-result.json 0.25
+ * </pre>
+ * </p>
+ *
+ * @see ScoringBenchmark
+ * @see LocationBenchmark
+ * @see SerializationBenchmark
+ */
+public class BenchmarkBaseline {
+
+    /**
+     * Compares a JMH result file with the baseline.
+     *
+     * @param args the baseline file, the result file and the allowed regression as a fraction (e.g. 0.25)
+     * @throws IOException if either file cannot be read
+     * @throws IllegalStateException if a benchmark regressed by more than the allowed fraction
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            throw new IllegalArgumentException("Usage: BenchmarkBaseline <baseline.json> <result.json> <max-regression>");
+        }
+
+        if (!Files.exists(Path.of(args[0]))) {
+            System.out.println("No baseline at " + args[0] + ", copy " + args[1] + " there to create one");
+            return;
+        }
+
+        Map<String, JsonNode> baseline = read(Path.of(args[0]));
+        Map<String, JsonNode> results = read(Path.of(args[1]));
+        double maxRegression = Double.parseDouble(args[2]);
+        int regressions = 0;
+
+        for (Map.Entry<String, JsonNode> entry : results.entrySet()) {
+            JsonNode result = entry.getValue();
+            JsonNode base = baseline.get(entry.getKey());
+            double score = result.path("primaryMetric").path("score").asDouble();
+            String unit = result.path("primaryMetric").path("scoreUnit").asText();
+
+            if (base == null) {
+                System.out.println(String.format(Locale.ROOT, "NEW        %-70s %12.3f %s", entry.getKey(), score, unit));
+                continue;
+            }
+
+            double error = result.path("primaryMetric").path("scoreError").asDouble(0);
+            double baseScore = base.path("primaryMetric").path("score").asDouble();
+            boolean higherIsBetter = "thrpt".equals(result.path("mode").asText());
+            double change = higherIsBetter ? (baseScore - score) / baseScore : (score - baseScore) / baseScore; // Positive is slower
+
+            // Only count it if even the best end of the confidence interval is slower, so noisy runs do not fail the build
+            double bestChange = higherIsBetter ? (baseScore - (score + error)) / baseScore : ((score - error) - baseScore) / baseScore;
+            boolean regressed = bestChange > maxRegression;
+
+            if (regressed) {
+                regressions++;
+            }
+            System.out.println(String.format(Locale.ROOT, "%-10s %-70s %12.3f +/- %.3f %s (baseline %.3f, %+.1f%%)",
+                    regressed ? "REGRESSED" : "OK", entry.getKey(), score, error, unit, baseScore, change * 100));
+        }
+
+        if (regressions > 0) {
+            throw new IllegalStateException(regressions + " benchmark(s) regressed by more than " + Math.round(maxRegression * 100) + "% against " + args[0]);
+        }
+    }
+
+    /**
+     * Reads a JMH result file, keyed by benchmark name and parameters.
+     */
+    private static Map<String, JsonNode> read(Path file) throws IOException {
+        Map<String, JsonNode> benchmarks = new LinkedHashMap<String, JsonNode>();
+
+        for (JsonNode benchmark : new ObjectMapper().readTree(Files.readAllBytes(file))) {
+            Map<String, String> params = new TreeMap<String, String>();
+            benchmark.path("params").fields().forEachRemaining(param -> params.put(param.getKey(), param.getValue().asText()));
+
+            String name = benchmark.path("benchmark").asText().replace("com.aruki.aruki.", "");
+            benchmarks.put(params.isEmpty() ? name : name + params, benchmark);
+        }
+
+        return benchmarks;
+    }
+}
@@ -0,0 +1,71 @@
+package com.aruki.aruki;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The {@code LocationBenchmark} class measures the per-place lookups of the pipeline: parsing a walking distance
+ * with {@link Location#parseDistanceMeters(String)}, and mapping a type string to its scored category with
+ * {@link ScoringEngine#categoryIndex(String)}.
+ * <p>
+ * Each invocation goes through a fixed mix of inputs, so the result is the cost per batch of
+ * {@value #INPUTS} lookups rather than of the single best-predicted one.
+ * </p>
+ *
+ * @see BenchmarkBaseline
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocationBenchmark {
+
+    private static final int INPUTS = 64;
+    private static final String[] UNITS = {"km", " km", "m", " m", " mi", "ft", " kilometers", ""};
+    private static final String[] TYPES = {"restaurant", "park", "school", "point_of_interest", "establishment", "gym", "bus_station", "store"};
+
+    private String[] distances;
+    private String[] types;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        distances = new String[INPUTS];
+        types = new String[INPUTS];
+
+        for (int i = 0; i < INPUTS; i++) {
+            distances[i] = String.format(Locale.ROOT, "%.1f", random.nextDouble() * 3) + UNITS[random.nextInt(UNITS.length)];
+            types[i] = TYPES[random.nextInt(TYPES.length)];
+        }
+    }
+
+    @Benchmark
+    public void parseDistance(Blackhole blackhole) {
+        for (String distance : distances) {
+            blackhole.consume(Location.parseDistanceMeters(distance));
+        }
+    }
+
+    @Benchmark
+    public void categoryLookup(Blackhole blackhole) {
+        for (String type : types) {
+            blackhole.consume(LocationManager.SCORING_ENGINE.categoryIndex(type));
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.aruki.aruki;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.maps.model.PlaceType;
+
+/**
+ * The {@code ScoringBenchmark} class measures the scoring of a location by the {@link ScoringEngine} that
+ * {@link LocationManager#getScore(GeocodedLocation, PipelineStats, boolean)} uses, once its places have been
+ * retrieved and verified.
+ * <p>
+ * The places are synthetic but shaped like real results: most have one or two scored categories along with
+ * types that are not scored, and their walking distances are spread over the search radius. The same seed is used
+ * on every run, so results are comparable with the baseline.
+ * </p>
+ *
+ * @see BenchmarkBaseline
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScoringBenchmark {
+
+    private static final String[] UNSCORED_TYPES = {"point_of_interest", "establishment", "food", "store"};
+
+    @Param({"10", "100", "1000", "10000"})
+    private int placeCount;
+
+    private List<Location> places;
+    private ScoringEngine.Accumulator accumulator;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        places = syntheticPlaces(placeCount, new Random(42));
+        accumulator = LocationManager.SCORING_ENGINE.newAccumulator();
+    }
+
+    @Benchmark
+    public ScoreResponse score() {
+        return LocationManager.SCORING_ENGINE.score(places);
+    }
+
+    @Benchmark
+    public double scoreWithReusedAccumulator() {
+        accumulator.reset();
+        accumulator.addAll(places);
+        return accumulator.getWalkabilityScore();
+    }
+
+    /**
+     * Creates places with random scored and unscored types, and random walking distances within the search radius.
+     *
+     * @param count the number of places
+     * @param random the source of randomness
+     * @return the places
+     */
+    static List<Location> syntheticPlaces(int count, Random random) {
+        List<PlaceType> categories = LocationManager.SCORING_ENGINE.getCategories();
+        double searchRadius = LocationManager.SCORING_ENGINE.getSearchRadiusMeters();
+        List<Location> places = new ArrayList<Location>(count);
+
+        for (int i = 0; i < count; i++) {
+            String[] types = new String[1 + random.nextInt(3)];
+            types[0] = categories.get(random.nextInt(categories.size())).toString();
+            for (int t = 1; t < types.length; t++) {
+                types[t] = random.nextBoolean() ? categories.get(random.nextInt(categories.size())).toString() : UNSCORED_TYPES[random.nextInt(UNSCORED_TYPES.length)];
+            }
+
+            double latitude = 36.85 + random.nextGaussian() * 0.01;
+            double longitude = -75.98 + random.nextGaussian() * 0.01;
+            places.add(new Location("Place " + i, i + " Main Street", types, "place" + i, latitude, longitude)
+                    .withDistanceMeters(random.nextDouble() * searchRadius));
+        }
+
+        return places;
+    }
+}
@@ -0,0 +1,64 @@
+package com.aruki.aruki;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+/**
+ * The {@code SerializationBenchmark} class measures the JSON serialization of the responses of {@code /getScore}
+ * and {@code /getPlaces}, which the controller times as the {@code serialization} stage.
+ * <p>
+ * The {@link ObjectMapper} is built by {@link Jackson2ObjectMapperBuilder}, which Spring Boot builds its own from.
+ * </p>
+ *
+ * @see BenchmarkBaseline
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    @Param({"20", "200"})
+    private int placeCount;
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private List<Location> places;
+    private ScoreResponse score;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        places = ScoringBenchmark.syntheticPlaces(placeCount, new Random(42));
+        score = LocationManager.SCORING_ENGINE.score(places);
+    }
+
+    @Benchmark
+    public byte[] scoreResponse() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(score);
+    }
+
+    @Benchmark
+    public byte[] placeList() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(places);
+    }
+}
@@ -0,0 +1,351 @@
+package com.aruki.aruki;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * The {@code LoadTest} class drives the backend under concurrency against a {@link GoogleMapsStub}, and reports
+ * its throughput, latency percentiles and thread and heap usage, to size instances before traffic events.
+ * <p>
+ * By default the stub and the application are started in this JVM, with the application sending its Google Maps
+ * requests to the stub and listening on a free port. Thread and heap usage then include the stub and the load
+ * generator. For numbers of the application alone, start it separately with {@code aruki.google.base-url} pointing at
+ * {@code --stub-port}, and pass its URL as {@code --target}.
+ * </p>
+ * <p>
+ * Options, all optional:
+ * <ul>
+ *   <li>{@code --endpoint /getScore}: the endpoint to call, with a {@code location} parameter</li>
+ *   <li>{@code --concurrency 32}: the number of clients, each sending its next request when the last one is answered</li>
+ *   <li>{@code --rate 0}: if set, requests per second sent at a fixed rate instead, whatever the response times;
+ *       latencies are then measured from when each request was due, so a stalled server is not hidden</li>
+ *   <li>{@code --duration 30s} and {@code --warmup 10s}: how long to measure, after a warmup that is not measured</li>
+ *   <li>{@code --addresses 1000}: the number of distinct addresses requested, which sets the cache hit rate</li>
+ *   <li>{@code --latency lognormal:80:400}: the latency of every stubbed API (see {@link LatencyDistribution}), or
+ *       of one API with {@code --geocoding-latency}, {@code --places-latency} or {@code --distance-matrix-latency}</li>
+ *   <li>{@code --error-rate 0}: the share of stubbed calls that fail with {@code UNKNOWN_ERROR}</li>
+ *   <li>{@code --places-per-search 20} and {@code --padding 0}: the size of the stubbed answers</li>
+ *   <li>{@code --target URL} and {@code --stub-port 0}: an application that is already running, and the port of the stub</li>
+ *   <li>{@code --report target/loadtest-report.json}: where to write the report as JSON</li>
+ * </ul>
+ * Any other {@code --name=value} option, e.g. {@code --aruki.pipeline.non-blocking=true}, is passed to the
+ * application as a property.
+ * </p>
+ * <p>
+ * Example usage:
+ * <pre>
+ *     ./mvnw -P loadtest verify -DskipTests -Dloadtest.args="--concurrency 64 --duration 60s --latency lognormal:80:400 --error-rate 0.01"
+ * </pre>
+ * </p>
+ *
+ * @see GoogleMapsStub
+ */
+public class LoadTest {
+
+    private static final long MAX_LATENCY_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private final Map<String, String> options;
+    private final HttpClient client;
+    private final ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    private final Histogram latencies = new ConcurrentHistogram(MAX_LATENCY_MILLIS, 3);
+    private final Map<String, LongAdder> outcomes = new ConcurrentHashMap<String, LongAdder>();
+    private final List<Map<String, Double>> samples = new ArrayList<Map<String, Double>>();
+
+    private volatile boolean measuring;
+
+    private LoadTest(Map<String, String> options) {
+        this.options = options;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+    }
+
+    /**
+     * Runs a load test.
+     *
+     * @param args the options of the load test
+     * @throws Exception if the stub or the application cannot be started, or the report cannot be written
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<String, String>();
+        List<String> appArgs = new ArrayList<String>();
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].contains("=")) {
+                appArgs.add(args[i]);
+            } else if (args[i].startsWith("--") && i + 1 < args.length) {
+                options.put(args[i].substring(2), args[++i]);
+            } else {
+                throw new IllegalArgumentException("Invalid option: " + args[i]);
+            }
+        }
+
+        new LoadTest(options).run(appArgs);
+        System.exit(0); // The client and stub threads are not daemons
+    }
+
+    private void run(List<String> appArgs) throws Exception {
+        Map<UpstreamApi, LatencyDistribution> apiLatencies = new EnumMap<>(UpstreamApi.class);
+        for (UpstreamApi api : UpstreamApi.values()) {
+            String spec = options.get(api.getTag().replace('_', '-') + "-latency");
+            if (spec != null) {
+                apiLatencies.put(api, LatencyDistribution.parse(spec));
+            }
+        }
+
+        try (GoogleMapsStub stub = new GoogleMapsStub(apiLatencies, LatencyDistribution.parse(option("latency", "lognormal:80:400")),
+                Double.parseDouble(option("error-rate", "0")), Integer.parseInt(option("places-per-search", "20")), Integer.parseInt(option("padding", "0")))) {
+            stub.start(Integer.parseInt(option("stub-port", "0")));
+            System.out.println("Google Maps stub listening at " + stub.getBaseUrl());
+
+            String target = options.get("target");
+            ConfigurableApplicationContext app = null;
+
+            if (target == null) {
+                app = startApplication(stub.getBaseUrl(), appArgs);
+                target = "http://localhost:" + app.getEnvironment().getProperty("local.server.port");
+            }
+
+            try {
+                Map<String, Object> report = drive(target);
+                report.put("googleRequests", requestCounts(stub));
+                writeReport(report);
+            } finally {
+                if (app != null) {
+                    app.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts the application in this JVM, sending its Google Maps requests to the stub and keeping its files apart
+     * from those of a real instance.
+     */
+    private static ConfigurableApplicationContext startApplication(String stubUrl, List<String> appArgs) throws IOException {
+        Path directory = Files.createTempDirectory(Files.createDirectories(Path.of("target", "loadtest")), "run-");
+        List<String> args = new ArrayList<String>(List.of(
+                "--server.port=0",
+                "--aruki.google.base-url=" + stubUrl,
+                "--aruki.jobs.directory=" + directory.resolve("jobs"),
+                "--aruki.grid.directory=" + directory.resolve("grids"),
+                "--aruki.score-store.file=" + directory.resolve("scores.log")));
+        args.addAll(appArgs); // Given last, so they win
+
+        return SpringApplication.run(ArukiApplication.class, args.toArray(new String[0]));
+    }
+
+    /**
+     * Sends the load, sampling the resource usage of the application every second, and summarizes the results.
+     */
+    private Map<String, Object> drive(String target) throws Exception {
+        String endpoint = option("endpoint", "/getScore");
+        int concurrency = Integer.parseInt(option("concurrency", "32"));
+        double rate = Double.parseDouble(option("rate", "0"));
+        int addresses = Integer.parseInt(option("addresses", "1000"));
+        Duration warmup = DurationStyle.detectAndParse(option("warmup", "10s"));
+        Duration duration = DurationStyle.detectAndParse(option("duration", "30s"));
+
+        long start = System.nanoTime();
+        long measureFrom = start + warmup.toNanos();
+        long end = measureFrom + duration.toNanos();
+
+        System.out.println("Sending " + ((rate > 0) ? rate + " requests per second" : concurrency + " concurrent clients") + " to " + target + endpoint
+                + " for " + warmup.toSeconds() + "s of warmup and " + duration.toSeconds() + "s of measurement");
+
+        Thread sampler = Thread.ofPlatform().daemon().start(() -> sample(target, measureFrom, end));
+
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            if (rate > 0) {
+                long intervalNanos = (long) (1e9 / rate);
+
+                for (long due = start; due < end; due += intervalNanos) {
+                    long sleepNanos = due - System.nanoTime();
+                    if (sleepNanos > 0) {
+                        TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                    }
+
+                    long dueAt = due;
+                    clients.submit(() -> send(target, endpoint, addresses, dueAt, measureFrom));
+                }
+            } else {
+                for (int i = 0; i < concurrency; i++) {
+                    clients.submit(() -> {
+                        while (System.nanoTime() < end) {
+                            send(target, endpoint, addresses, System.nanoTime(), measureFrom);
+                        }
+                    });
+                }
+            }
+        }
+
+        measuring = false;
+        sampler.join();
+
+        return summarize(endpoint, (rate > 0) ? "open" : "closed", concurrency, rate, duration);
+    }
+
+    /**
+     * Sends one request and records its latency and outcome, if it was sent after the warmup.
+     */
+    private void send(String target, String endpoint, int addresses, long startNanos, long measureFrom) {
+        String location = (ThreadLocalRandom.current().nextInt(addresses) + 1) + " Load Test Street, Norfolk, VA";
+        HttpRequest request = HttpRequest.newBuilder(URI.create(target + endpoint + "?location=" + URLEncoder.encode(location, StandardCharsets.UTF_8)))
+                .timeout(Duration.ofMinutes(1))
+                .GET()
+                .build();
+        String outcome;
+
+        try {
+            outcome = String.valueOf(client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode());
+        } catch (IOException e) {
+            outcome = e.getClass().getSimpleName();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        if (startNanos >= measureFrom) {
+            latencies.recordValue(Math.min(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos), MAX_LATENCY_MILLIS));
+            outcomes.computeIfAbsent(outcome, key -> new LongAdder()).increment();
+        }
+    }
+
+    /**
+     * Reads the thread, heap and CPU usage of the application from its actuator every second of the measurement.
+     */
+    private void sample(String target, long measureFrom, long end) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(Math.max(0, measureFrom - System.nanoTime()));
+            measuring = true;
+
+            while (measuring && System.nanoTime() < end) {
+                Map<String, Double> sample = new LinkedHashMap<String, Double>();
+                sample.put("threads", metric(target, "jvm.threads.live", null));
+                sample.put("heapUsedMb", metric(target, "jvm.memory.used", "area:heap") / (1024 * 1024));
+                sample.put("cpu", metric(target, "process.cpu.usage", null));
+
+                synchronized (samples) {
+                    samples.add(sample);
+                }
+                TimeUnit.SECONDS.sleep(1);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.out.println("Could not read the metrics of the application: " + e.getMessage());
+        }
+    }
+
+    private double metric(String target, String name, String tag) throws IOException, InterruptedException {
+        String url = target + "/actuator/metrics/" + name + ((tag != null) ? "?tag=" + tag : "");
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(url)).GET().build(), HttpResponse.BodyHandlers.ofString());
+        JsonNode measurements = objectMapper.readTree(response.body()).path("measurements");
+
+        return measurements.isEmpty() ? Double.NaN : measurements.get(0).path("value").asDouble();
+    }
+
+    /**
+     * Summarizes the measurement, printing it and returning it for the JSON report.
+     */
+    private Map<String, Object> summarize(String endpoint, String model, int concurrency, double rate, Duration duration) {
+        Map<String, Object> report = new LinkedHashMap<String, Object>();
+        report.put("endpoint", endpoint);
+        report.put("loadModel", model);
+        if (rate > 0) {
+            report.put("targetRate", rate);
+        } else {
+            report.put("concurrency", concurrency);
+        }
+        report.put("requests", latencies.getTotalCount());
+        report.put("throughputPerSecond", round(latencies.getTotalCount() / (double) duration.toSeconds()));
+
+        Map<String, Long> statuses = new TreeMap<String, Long>();
+        outcomes.forEach((outcome, count) -> statuses.put(outcome, count.sum()));
+        report.put("outcomes", statuses);
+
+        Map<String, Object> latency = new LinkedHashMap<String, Object>();
+        for (double percentile : new double[] {50, 90, 95, 99, 99.9}) {
+            latency.put("p" + (percentile == Math.rint(percentile) ? String.valueOf((int) percentile) : String.valueOf(percentile)), latencies.getValueAtPercentile(percentile));
+        }
+        latency.put("max", latencies.getMaxValue());
+        latency.put("mean", round(latencies.getMean()));
+        report.put("latencyMillis", latency);
+
+        Map<String, Object> resources = new LinkedHashMap<String, Object>();
+        synchronized (samples) {
+            for (String key : new String[] {"threads", "heapUsedMb", "cpu"}) {
+                double max = samples.stream().mapToDouble(sample -> sample.get(key)).filter(value -> !Double.isNaN(value)).max().orElse(Double.NaN);
+                double mean = samples.stream().mapToDouble(sample -> sample.get(key)).filter(value -> !Double.isNaN(value)).average().orElse(Double.NaN);
+                resources.put(key, Map.of("max", round(max), "mean", round(mean)));
+            }
+        }
+        resources.put("availableProcessors", Runtime.getRuntime().availableProcessors());
+        resources.put("maxHeapMb", Runtime.getRuntime().maxMemory() / (1024 * 1024));
+        resources.put("jvmArguments", ManagementFactory.getRuntimeMXBean().getInputArguments());
+        report.put("resources", resources);
+
+        System.out.println(String.format(Locale.ROOT, "%d requests, %.1f/s, latency p50 %d ms, p99 %d ms, max %d ms, outcomes %s",
+                latencies.getTotalCount(), latencies.getTotalCount() / (double) duration.toSeconds(),
+                latencies.getValueAtPercentile(50), latencies.getValueAtPercentile(99), latencies.getMaxValue(), statuses));
+        System.out.println("Resources: " + resources);
+        return report;
+    }
+
+    private static Map<String, Long> requestCounts(GoogleMapsStub stub) {
+        Map<String, Long> counts = new LinkedHashMap<String, Long>();
+        for (UpstreamApi api : UpstreamApi.values()) {
+            counts.put(api.getTag(), stub.getRequestCount(api));
+        }
+        return counts;
+    }
+
+    private void writeReport(Map<String, Object> report) throws IOException {
+        Path file = Path.of(option("report", "target/loadtest-report.json"));
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        objectMapper.writeValue(file.toFile(), report);
+        System.out.println("Report written to " + file);
+    }
+
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100.0) / 100.0;
+    }
+}
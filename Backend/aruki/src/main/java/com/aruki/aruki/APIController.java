@@ -2,17 +2,34 @@ package com.aruki.aruki;
 
 import org.springframework.web.bind.annotation.RestController;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.maps.errors.ApiException;
+import com.google.maps.errors.OverQueryLimitException;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 /**
  * The {@code APIController} class is a REST controller that handles HTTP requests for various endpoints related to location-based services.
@@ -22,6 +39,11 @@ import org.springframework.web.bind.annotation.RequestParam;
  *   <li>Check if the API is live.</li>
  *   <li>Get a list of places near a specified location, including their distances and categories.</li>
  *   <li>Get the walkability score of a location, along with scores for different categories of places.</li>
+ *   <li>Get both of the above from a single run of the places pipeline.</li>
+ *   <li>Stream the places near a location over Server-Sent Events, one category at a time.</li>
+ *   <li>Score a list of addresses in parallel, streaming the results back as they complete.</li>
+ *   <li>Submit an address file as a background scoring job, poll its progress and download its results.</li>
+ *   <li>Compute a walkability grid over a bounding box once, and serve it as a compact raster.</li>
  * </ul>
  * </p>
  * <p>
@@ -29,7 +51,15 @@ import org.springframework.web.bind.annotation.RequestParam;
  * It handles various exceptions that may occur during the API calls and returns appropriate HTTP status codes and messages.
  * </p>
  * <p>
- * Each endpoint is mapped to a specific HTTP GET request using the {@code @GetMapping} annotation.
+ * Each endpoint is mapped to a specific HTTP GET request using the {@code @GetMapping} annotation, except for the
+ * bulk, job submission and grid endpoints, which start work with a POST request.
+ * </p>
+ * <p>
+ * The endpoints that run the places pipeline return deferred results ({@code CompletableFuture}). When
+ * {@code aruki.pipeline.non-blocking} is enabled, the servlet thread is released as soon as the request is started
+ * and the response is written when the Google Maps callbacks complete, so the number of requests in flight is no
+ * longer capped by the Tomcat thread pool. Otherwise the pipeline runs on the servlet thread and the result is
+ * already complete when it is returned.
  * </p>
  * <p>
  * Example usage:
@@ -58,6 +88,35 @@ public class APIController {
     @Autowired
     private LocationManager googleMapsAPIManager;
 
+    @Autowired(required = false)
+    private PipelineMetrics pipelineMetrics;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private BulkScorer bulkScorer;
+
+    @Autowired
+    private ScoringJobManager scoringJobManager;
+
+    @Autowired
+    private GridScorer gridScorer;
+
+    @Autowired
+    private ScoreGridStore scoreGridStore;
+
+    private static final Duration GOOGLE_RETRY_AFTER = Duration.ofSeconds(1); // Google does not say when an exhausted quota recovers
+
+    @Value("${aruki.pipeline.non-blocking:false}")
+    private boolean nonBlocking; // Whether to run the places pipeline on the Google Maps callbacks instead of the servlet thread
+
+    @Value("${spring.mvc.async.request-timeout:60s}")
+    private Duration streamTimeout = Duration.ofSeconds(60); // How long a places stream may take, the same deadline as a deferred response
+
+    @Value("${aruki.bulk.timeout:10m}")
+    private Duration bulkTimeout = Duration.ofMinutes(10); // How long a bulk request may take before its remaining addresses are dropped
+
     /**
      * Checks if the API is live.
      * 
@@ -84,31 +143,65 @@ public class APIController {
      * </pre>
      * 
      * @param location The location of the user/where the user wants to investigate.
-     * @return {@code ResponseEntity<?>} A map containing the list of locations, distances, and categories of the corresponding places.
+     * @return {@code CompletableFuture<ResponseEntity<?>>} A map containing the list of locations, distances, and categories of the corresponding places.
      */
     @GetMapping("/getPlaces")
-    public ResponseEntity<?> getPlaces(@RequestParam String location) {
+    public CompletableFuture<ResponseEntity<?>> getPlaces(@RequestParam String location) {
+        if (nonBlocking) {
+            return getPlacesNonBlocking(location);
+        }
+
+        return CompletableFuture.completedFuture(getPlacesBlocking(location));
+    }
+
+    /**
+     * Gets the places near a location, running the places pipeline on the calling thread.
+     * 
+     * @param location The location of the user/where the user wants to investigate.
+     * @return {@code ResponseEntity<?>} A map containing the list of locations, distances, and categories of the corresponding places.
+     */
+    private ResponseEntity<?> getPlacesBlocking(String location) {
         System.out.println("*********************************");
         System.out.println("Received getPlaces request for location: " + location + "\n");
 
-        if (!googleMapsAPIManager.locationExists(location)) {
-            System.out.println("Invalid location: " + location);
-            System.out.println("*********************************");
-            return new ResponseEntity<>(Map.of("status", "invalid location"), HttpStatus.BAD_REQUEST);
-        }
-
         try {
-            List<Location> result = googleMapsAPIManager.getPlaces(location, false);
+            PipelineStats stats = newStats();
+
+            // Geocode once: the result validates the location and is reused by every later stage
+            GeocodedLocation origin = googleMapsAPIManager.resolveLocation(location, stats, false);
 
-            System.out.println("Successfully retrieved places for location: " + location + "\n");
-            System.out.println(result + "\n");
+            if (origin == null) {
+                System.out.println("Invalid location: " + location);
+                System.out.println("*********************************");
+                return new ResponseEntity<>(Map.of("status", "invalid location"), HttpStatus.BAD_REQUEST);
+            }
+
+            List<Location> result = googleMapsAPIManager.getPlaces(origin, stats, false);
+
+            System.out.println("Successfully retrieved " + result.size() + " places for location: " + location + "\n");
             System.out.println("*********************************");
 
-            return ResponseEntity.ok(result);
+            return okResponse(result, stats);
+        } catch (QuotaManager.QuotaExceededException e) {
+            System.out.println("Quota exhausted: " + e.getMessage());
+            System.out.println("*********************************");
+            return tooManyRequests(e.getRetryAfter());
+        } catch (ResilienceManager.CircuitOpenException e) {
+            System.out.println("Circuit open: " + e.getMessage());
+            System.out.println("*********************************");
+            return upstreamUnavailable(e.getRetryAfter());
+        } catch (OverQueryLimitException e) {
+            System.out.println("Over query limit: " + e.getMessage());
+            System.out.println("*********************************");
+            return tooManyRequests(GOOGLE_RETRY_AFTER);
         } catch (ApiException e) {
             System.out.println("API Exception: " + e.getMessage());
             System.out.println("*********************************");
             return new ResponseEntity<>(Map.of("status", "API Exception"), HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (SingleFlight.WaitTimeoutException e) {
+            System.out.println("Timed out waiting for identical request: " + e.getMessage());
+            System.out.println("*********************************");
+            return new ResponseEntity<>(Map.of("status", "timeout"), HttpStatus.GATEWAY_TIMEOUT);
         } catch (InterruptedException e) {
             System.out.println("Interrupted Exception: " + e.getMessage());
             System.out.println("*********************************");
@@ -141,19 +234,125 @@ public class APIController {
      * </pre>
      * 
      * @param location The location of the user/where the user wants to investigate.
-     * @return {@code ResponseEntity<?>} A map containing the walkability score of the location, as well as the score respective to each category of place.
+     * @return {@code CompletableFuture<ResponseEntity<?>>} A map containing the walkability score of the location, as well as the score respective to each category of place.
      */
     @GetMapping("/getScore")
-    public ResponseEntity<?> getScore(@RequestParam String location) {
-        if (!googleMapsAPIManager.locationExists(location)) {
-            return new ResponseEntity<>(Map.of("status", "invalid location"), HttpStatus.BAD_REQUEST);
+    public CompletableFuture<ResponseEntity<?>> getScore(@RequestParam String location) {
+        if (nonBlocking) {
+            return getScoreNonBlocking(location);
+        }
+
+        return CompletableFuture.completedFuture(getScoreBlocking(location));
+    }
+
+    /**
+     * Gets the walkability score of a location, running the places pipeline on the calling thread.
+     * 
+     * @param location The location of the user/where the user wants to investigate.
+     * @return {@code ResponseEntity<?>} A map containing the walkability score of the location, as well as the score respective to each category of place.
+     */
+    private ResponseEntity<?> getScoreBlocking(String location) {
+        try {
+            PipelineStats stats = newStats();
+
+            // Geocode once: the result validates the location and is reused by every later stage
+            GeocodedLocation origin = googleMapsAPIManager.resolveLocation(location, stats, false);
+
+            if (origin == null) {
+                return new ResponseEntity<>(Map.of("status", "invalid location"), HttpStatus.BAD_REQUEST);
+            }
+
+            ScoreResponse places = googleMapsAPIManager.getScore(origin, stats, false);
+            return okResponse(places, stats);
+        } catch (QuotaManager.QuotaExceededException e) {
+            return tooManyRequests(e.getRetryAfter());
+        } catch (ResilienceManager.CircuitOpenException e) {
+            return upstreamUnavailable(e.getRetryAfter());
+        } catch (OverQueryLimitException e) {
+            return tooManyRequests(GOOGLE_RETRY_AFTER);
+        } catch (ApiException e) {
+            return new ResponseEntity<>(Map.of("status", "API Exception"), HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (SingleFlight.WaitTimeoutException e) {
+            return new ResponseEntity<>(Map.of("status", "timeout"), HttpStatus.GATEWAY_TIMEOUT);
+        } catch (InterruptedException e) {
+            return new ResponseEntity<>(Map.of("status", "interrupted"), HttpStatus.SERVICE_UNAVAILABLE);
+        } catch (IOException e) {
+            return new ResponseEntity<>(Map.of("status", "IO Exception"), HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (Exception e) {
+            return new ResponseEntity<>(Map.of("status", "unknown error"), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Gets both the places near a location, grouped by category, and its walkability score, from a single run of the
+     * places pipeline. Clients that need both should call this instead of {@code /getPlaces} and {@code /getScore},
+     * which would each run the pipeline.
+     * 
+     * The {@code include} parameter selects the parts of the response: {@code places}, {@code score}, or both (the default).
+     * Parts that are not requested are returned as null.
+     * 
+     * Example Response: 
+     * <pre>
+     * { 
+     *   "placesByCategory": { 
+     *     "restaurant": [ { "name": "McDonalds", "address": "...", "types": [ "restaurant" ], "distance": "0.5 km" } ], 
+     *     "park": [ { "name": "Central Park", "address": "...", "types": [ "park" ], "distance": "1.2 km" } ] 
+     *   }, 
+     *   "score": { "walkabilityScore": 7.5, "categoryScores": [ ... ] } 
+     * }
+     * </pre>
+     * 
+     * @param location The location of the user/where the user wants to investigate.
+     * @param include The parts of the response to compute: {@code places} and/or {@code score}.
+     * @return {@code CompletableFuture<ResponseEntity<?>>} The requested places and/or score of the location.
+     */
+    @GetMapping("/getWalkAndScore")
+    public CompletableFuture<ResponseEntity<?>> getWalkAndScore(@RequestParam String location, @RequestParam(defaultValue = "places,score") List<String> include) {
+        boolean includePlaces = include.contains("places");
+        boolean includeScore = include.contains("score");
+
+        if (!includePlaces && !includeScore) {
+            return CompletableFuture.completedFuture(new ResponseEntity<>(Map.of("status", "include must contain places and/or score"), HttpStatus.BAD_REQUEST));
         }
 
+        if (nonBlocking) {
+            return getWalkAndScoreNonBlocking(location, includePlaces, includeScore);
+        }
+
+        return CompletableFuture.completedFuture(getWalkAndScoreBlocking(location, includePlaces, includeScore));
+    }
+
+    /**
+     * Gets the places and/or the walkability score of a location, running the places pipeline on the calling thread.
+     * 
+     * @param location The location of the user/where the user wants to investigate.
+     * @param includePlaces Whether to include the places, grouped by category.
+     * @param includeScore Whether to include the score.
+     * @return {@code ResponseEntity<?>} The requested places and/or score of the location.
+     */
+    private ResponseEntity<?> getWalkAndScoreBlocking(String location, boolean includePlaces, boolean includeScore) {
         try {
-            ScoreResponse places = googleMapsAPIManager.getScore(location, false);
-            return ResponseEntity.ok(places);
+            PipelineStats stats = newStats();
+
+            // Geocode once: the result validates the location and is reused by every later stage
+            GeocodedLocation origin = googleMapsAPIManager.resolveLocation(location, stats, false);
+
+            if (origin == null) {
+                return new ResponseEntity<>(Map.of("status", "invalid location"), HttpStatus.BAD_REQUEST);
+            }
+
+            WalkScoreResponse result = googleMapsAPIManager.getWalkAndScore(origin, includePlaces, includeScore, stats, false);
+            return okResponse(result, stats);
+        } catch (QuotaManager.QuotaExceededException e) {
+            return tooManyRequests(e.getRetryAfter());
+        } catch (ResilienceManager.CircuitOpenException e) {
+            return upstreamUnavailable(e.getRetryAfter());
+        } catch (OverQueryLimitException e) {
+            return tooManyRequests(GOOGLE_RETRY_AFTER);
         } catch (ApiException e) {
             return new ResponseEntity<>(Map.of("status", "API Exception"), HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (SingleFlight.WaitTimeoutException e) {
+            return new ResponseEntity<>(Map.of("status", "timeout"), HttpStatus.GATEWAY_TIMEOUT);
         } catch (InterruptedException e) {
             return new ResponseEntity<>(Map.of("status", "interrupted"), HttpStatus.SERVICE_UNAVAILABLE);
         } catch (IOException e) {
@@ -163,6 +362,525 @@ public class APIController {
         }
     }
 
+    /**
+     * Streams the places near a location over Server-Sent Events, sending each category as soon as its places have
+     * been found and their walking distances verified, instead of waiting for the slowest category.
+     * 
+     * The stream carries these events:
+     * <ul>
+     *   <li>{@code category}: one per category, in the order they finish, e.g.
+     *       <pre>{ "category": "restaurant", "places": [ { "name": "McDonalds", "address": "...", "types": [ "restaurant" ], "distance": "0.5 km" } ] }</pre></li>
+     *   <li>{@code complete}: once every category has been sent, with the stats of the request, e.g.
+     *       <pre>{ "distanceCacheHits": 12, "distanceMatrixElements": 30, "duplicateDestinations": 4 }</pre></li>
+     *   <li>{@code error}: instead of {@code complete} if the request fails, with the same body as the error responses of {@code /getPlaces}.</li>
+     * </ul>
+     * 
+     * The stream always uses the non-blocking pipeline, as no servlet thread waits for it. It is given the same
+     * deadline as a deferred response; if the deadline passes or the client goes away, the category searches still
+     * in flight are cancelled.
+     * 
+     * @param location The location of the user/where the user wants to investigate.
+     * @return {@code SseEmitter} The stream of category events.
+     */
+    @GetMapping("/getPlacesStream")
+    public SseEmitter getPlacesStream(@RequestParam String location) {
+        SseEmitter emitter = new SseEmitter(streamTimeout.toMillis());
+        PipelineStats stats = newStats();
+
+        // The category searches, once the location is resolved; replaced by a stopped marker if the stream is abandoned first
+        AtomicReference<CompletableFuture<Void>> searches = new AtomicReference<>();
+        CompletableFuture<Void> stopped = new CompletableFuture<>();
+
+        CompletableFuture<ResponseEntity<?>> stream = googleMapsAPIManager.resolveLocationAsync(location, stats, false).thenCompose(origin -> {
+            if (origin == null) {
+                return CompletableFuture.completedFuture(invalidLocation());
+            }
+
+            CompletableFuture<Void> categories = googleMapsAPIManager.streamPlacesAsync(origin, stats, false, (category, places) -> sendEvent(emitter, "category", new CategoryPlaces(category.toString(), places)));
+            if (!searches.compareAndSet(null, categories)) {
+                categories.cancel(true);
+            }
+
+            return categories.thenApply(done -> (ResponseEntity<?>) null);
+        });
+
+        // The deadline passed or the client went away: stop the category searches still in flight
+        Runnable cancel = () -> {
+            CompletableFuture<Void> categories = searches.getAndSet(stopped);
+            if (categories != null) {
+                categories.cancel(true);
+            }
+            stream.cancel(true);
+        };
+        emitter.onTimeout(cancel);
+        emitter.onError(e -> cancel.run());
+
+        stream.exceptionally(this::errorResponse).whenComplete((error, failure) -> {
+            if (error != null) {
+                sendEvent(emitter, "error", error.getBody());
+            } else {
+                sendEvent(emitter, "complete", stats);
+            }
+            emitter.complete();
+        });
+
+        return emitter;
+    }
+
+    /**
+     * Scores a list of addresses in parallel, for partners that would otherwise call {@code /getScore} once per address.
+     * 
+     * The body is a JSON array of addresses. The response is newline-delimited JSON, with one line per address,
+     * written as soon as that address is scored, so lines arrive in completion order and carry the index of their
+     * address. An address that fails gets its own error status and does not fail the batch.
+     * 
+     * Example Response:
+     * <pre>
+     * {"index":1,"location":"1 Main Street, Norfolk, VA","status":"ok","score":{"walkabilityScore":7.42,"categoryScores":[...]}}
+     * {"index":0,"location":"nowhere","status":"invalid location"}
+     * </pre>
+     * 
+     * The addresses share the caches and in-flight work of every other request, and at most {@code aruki.bulk.max-in-flight}
+     * addresses (across every bulk request) are scored at once. A batch larger than {@code aruki.bulk.max-addresses}
+     * is rejected with a single error line and status 413.
+     * 
+     * @param locations The addresses to score.
+     * @return {@code ResponseEntity<ResponseBodyEmitter>} The stream of results.
+     */
+    @PostMapping("/bulkScore")
+    public ResponseEntity<ResponseBodyEmitter> bulkScore(@RequestBody List<String> locations) {
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(bulkTimeout.toMillis());
+
+        if (locations == null || locations.isEmpty()) {
+            sendLine(emitter, Map.of("status", "no locations"));
+            emitter.complete();
+            return ResponseEntity.badRequest().contentType(MediaType.APPLICATION_NDJSON).body(emitter);
+        }
+
+        if (locations.size() > bulkScorer.getMaxAddresses()) {
+            sendLine(emitter, Map.of("status", "too many locations", "maxLocations", bulkScorer.getMaxAddresses()));
+            emitter.complete();
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).contentType(MediaType.APPLICATION_NDJSON).body(emitter);
+        }
+
+        System.out.println("Received bulkScore request for " + locations.size() + " locations");
+
+        PipelineStats stats = newStats();
+        CompletableFuture<Void> batch = bulkScorer.scoreAll(locations, stats, false, result -> sendLine(emitter, result));
+
+        // The client went away or the batch took too long: drop the addresses not yet started
+        emitter.onTimeout(() -> batch.cancel(true));
+        emitter.onError(e -> batch.cancel(true));
+
+        batch.whenComplete((done, failure) -> {
+            System.out.println("Completed bulkScore request for " + locations.size() + " locations: " + stats);
+            emitter.complete();
+        });
+
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(emitter);
+    }
+
+    /**
+     * Submits an address file, one address per line, as a background scoring job.
+     * 
+     * The file is saved before the response is sent, and scored in chunks through the same pipeline as
+     * {@code /bulkScore}. Progress is checkpointed after each chunk, so a job interrupted by a restart resumes where it
+     * left off. Poll {@code /jobs/{id}} for progress and download {@code /jobs/{id}/results} once it has completed.
+     * 
+     * Example Response (202):
+     * <pre>
+     * {"id":"7c9e6679-7425-40de-944b-e07fc1f90ae7","status":"QUEUED","total":12000,"processed":0,"failed":0,...}
+     * </pre>
+     * 
+     * @param file The address file.
+     * @return {@code ResponseEntity<?>} The new job, or an error status if the file could not be saved.
+     */
+    @PostMapping("/jobs")
+    public ResponseEntity<?> submitJob(@RequestParam("file") MultipartFile file) {
+        if (file.isEmpty()) {
+            return ResponseEntity.badRequest().body(Map.of("status", "no locations"));
+        }
+
+        try {
+            ScoringJob job = scoringJobManager.submit(file.getInputStream(), false);
+            return ResponseEntity.accepted().header(HttpHeaders.LOCATION, "/jobs/" + job.getId()).body(job);
+        } catch (IOException e) {
+            System.out.println("Could not save scoring job: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("status", "IO Exception"));
+        }
+    }
+
+    /**
+     * Gets the progress of a scoring job.
+     * 
+     * Example Response:
+     * <pre>
+     * {"id":"7c9e6679-7425-40de-944b-e07fc1f90ae7","status":"RUNNING","total":12000,"processed":4400,"failed":12,...}
+     * </pre>
+     * 
+     * @param id The id of the job.
+     * @return {@code ResponseEntity<?>} The job, or 404 if there is no such job.
+     */
+    @GetMapping("/jobs/{id}")
+    public ResponseEntity<?> getJob(@PathVariable String id) {
+        ScoringJob job = scoringJobManager.get(id);
+
+        if (job == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("status", "no such job"));
+        }
+
+        return ResponseEntity.ok(job);
+    }
+
+    /**
+     * Downloads the results of a scoring job as newline-delimited JSON, in the same format as {@code /bulkScore}.
+     * 
+     * The results of a job that has not completed yet hold the addresses processed so far; the {@code X-Job-Status}
+     * header tells the two apart.
+     * 
+     * @param id The id of the job.
+     * @return {@code ResponseEntity<?>} The results file, or 404 if there is no such job.
+     */
+    @GetMapping("/jobs/{id}/results")
+    public ResponseEntity<?> getJobResults(@PathVariable String id) {
+        ScoringJob job = scoringJobManager.get(id);
+
+        if (job == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("status", "no such job"));
+        }
+
+        return ResponseEntity.ok()
+                .header("X-Job-Status", job.getStatus().name())
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(new FileSystemResource(scoringJobManager.resultsOf(job)));
+    }
+
+    /**
+     * Computes the walkability grid covering a bounding box, unless it has already been computed.
+     * 
+     * Every cell is scored as {@code /getScore} would score its center, but the nearby searches are shared by every
+     * cell in the same area and the walking distances of adjacent cells are requested together, so a grid costs a
+     * fraction of the per-address calls. The grid is stored, and the same box and cell size always return the same id;
+     * download the raster from {@code /grid/{id}}.
+     * 
+     * Example Response:
+     * <pre>
+     * {"id":"3f2c9a1b7e4d5f60","grid":{"north":36.86,"west":-76.0,"south":36.8578,"east":-75.9972,"rows":9,"columns":11,...}}
+     * </pre>
+     * 
+     * @param south The latitude of the southern edge of the box.
+     * @param west The longitude of the western edge of the box.
+     * @param north The latitude of the northern edge of the box.
+     * @param east The longitude of the eastern edge of the box.
+     * @param cellSize The size of a cell, in meters.
+     * @return {@code ResponseEntity<?>} The id and geometry of the grid, 400 if the box is invalid, or 413 if it has too many cells.
+     */
+    @PostMapping("/grid")
+    public ResponseEntity<?> computeGrid(@RequestParam double south, @RequestParam double west, @RequestParam double north, @RequestParam double east, @RequestParam(defaultValue = "250") double cellSize) {
+        long cells;
+
+        try {
+            cells = ScoreGrid.cellCount(south, west, north, east, cellSize);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("status", "invalid grid"));
+        }
+
+        if (cells > gridScorer.getMaxCells()) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).body(Map.of("status", "too many cells", "cells", cells, "maxCells", gridScorer.getMaxCells()));
+        }
+
+        String id = ScoreGridStore.idOf(south, west, north, east, cellSize, gridScorer.getScoringIdentity());
+        PipelineStats stats = newStats();
+
+        try {
+            // Requests for a grid already being computed wait for it rather than scoring it again
+            ScoreGrid grid = gridScorer.computeOnce(id, () -> {
+                if (scoreGridStore.contains(id)) {
+                    return scoreGridStore.load(id);
+                }
+
+                System.out.println("Computing grid " + id + " of " + cells + " cells");
+                ScoreGrid computed = gridScorer.score(south, west, north, east, cellSize, stats, false);
+                scoreGridStore.save(id, computed);
+                System.out.println("Computed grid " + id + ": " + stats);
+                return computed;
+            });
+
+            return ResponseEntity.ok().headers(statsHeaders(stats)).header(HttpHeaders.LOCATION, "/grid/" + id).body(Map.of("id", id, "grid", grid));
+        } catch (Exception e) {
+            return errorResponse(e);
+        }
+    }
+
+    /**
+     * Downloads a computed walkability grid in the compact raster format described by {@link ScoreGrid}: a short
+     * header followed by one big-endian float per cell, row by row from the north-west corner.
+     * 
+     * A grid never changes once computed, since its id covers the scoring configuration and providers it was scored
+     * with, so it may be cached indefinitely.
+     * 
+     * @param id The id of the grid, as returned by {@code POST /grid}.
+     * @return {@code ResponseEntity<?>} The raster, or 404 if there is no such grid.
+     */
+    @GetMapping("/grid/{id}")
+    public ResponseEntity<?> getGrid(@PathVariable String id) {
+        if (!scoreGridStore.contains(id)) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("status", "no such grid"));
+        }
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .cacheControl(CacheControl.maxAge(Duration.ofDays(365)).cachePublic().immutable())
+                .eTag(id)
+                .body(new FileSystemResource(scoreGridStore.pathOf(id)));
+    }
+
+    /**
+     * Writes one line of newline-delimited JSON. The client may already have disconnected, in which case the line is dropped.
+     * 
+     * @param emitter The stream to write the line to
+     * @param data The data of the line, serialized as JSON
+     */
+    private void sendLine(ResponseBodyEmitter emitter, Object data) {
+        try {
+            emitter.send(data, MediaType.APPLICATION_JSON);
+            emitter.send("\n", MediaType.TEXT_PLAIN);
+        } catch (IOException | IllegalStateException e) {
+            System.out.println("Could not send bulk result: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Sends an event on a stream. The client may already have disconnected, in which case the event is dropped.
+     * 
+     * @param emitter The stream to send the event on
+     * @param name The name of the event
+     * @param data The data of the event, serialized as JSON
+     */
+    private void sendEvent(SseEmitter emitter, String name, Object data) {
+        try {
+            emitter.send(SseEmitter.event().name(name).data(data));
+        } catch (IOException | IllegalStateException e) {
+            System.out.println("Could not send " + name + " event: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the places near a location without holding the calling thread while Google is queried.
+     * 
+     * @param location The location of the user/where the user wants to investigate.
+     * @return {@code CompletableFuture<ResponseEntity<?>>} A map containing the list of locations, distances, and categories of the corresponding places.
+     */
+    private CompletableFuture<ResponseEntity<?>> getPlacesNonBlocking(String location) {
+        System.out.println("*********************************");
+        System.out.println("Received getPlaces request for location: " + location + "\n");
+
+        PipelineStats stats = newStats();
+
+        CompletableFuture<ResponseEntity<?>> response = googleMapsAPIManager.resolveLocationAsync(location, stats, false).thenCompose(origin -> {
+            if (origin == null) {
+                System.out.println("Invalid location: " + location);
+                return CompletableFuture.completedFuture(invalidLocation());
+            }
+
+            return googleMapsAPIManager.getPlacesAsync(origin, stats, false).thenApply(result -> {
+                System.out.println("Successfully retrieved " + result.size() + " places for location: " + location + "\n");
+                return okResponse(result, stats);
+            });
+        });
+
+        return response.exceptionally(this::errorResponse).whenComplete((result, failure) -> System.out.println("*********************************"));
+    }
+
+    /**
+     * Gets the walkability score of a location without holding the calling thread while Google is queried.
+     * 
+     * @param location The location of the user/where the user wants to investigate.
+     * @return {@code CompletableFuture<ResponseEntity<?>>} A map containing the walkability score of the location, as well as the score respective to each category of place.
+     */
+    private CompletableFuture<ResponseEntity<?>> getScoreNonBlocking(String location) {
+        PipelineStats stats = newStats();
+
+        CompletableFuture<ResponseEntity<?>> response = googleMapsAPIManager.resolveLocationAsync(location, stats, false).thenCompose(origin -> {
+            if (origin == null) {
+                return CompletableFuture.completedFuture(invalidLocation());
+            }
+
+            return googleMapsAPIManager.getScoreAsync(origin, stats, false).thenApply(score -> okResponse(score, stats));
+        });
+
+        return response.exceptionally(this::errorResponse);
+    }
+
+    /**
+     * Gets the places and/or the walkability score of a location without holding the calling thread while Google is queried.
+     * 
+     * @param location The location of the user/where the user wants to investigate.
+     * @param includePlaces Whether to include the places, grouped by category.
+     * @param includeScore Whether to include the score.
+     * @return {@code CompletableFuture<ResponseEntity<?>>} The requested places and/or score of the location.
+     */
+    private CompletableFuture<ResponseEntity<?>> getWalkAndScoreNonBlocking(String location, boolean includePlaces, boolean includeScore) {
+        PipelineStats stats = newStats();
+
+        CompletableFuture<ResponseEntity<?>> response = googleMapsAPIManager.resolveLocationAsync(location, stats, false).thenCompose(origin -> {
+            if (origin == null) {
+                return CompletableFuture.completedFuture(invalidLocation());
+            }
+
+            return googleMapsAPIManager.getWalkAndScoreAsync(origin, includePlaces, includeScore, stats, false)
+                    .thenApply(result -> okResponse(result, stats));
+        });
+
+        return response.exceptionally(this::errorResponse);
+    }
+
+    /**
+     * Returns the response for a location that could not be geocoded.
+     * 
+     * @return {@code ResponseEntity<?>} A bad request response.
+     */
+    private ResponseEntity<?> invalidLocation() {
+        return new ResponseEntity<>(Map.of("status", "invalid location"), HttpStatus.BAD_REQUEST);
+    }
+
+    /**
+     * Maps the failure of a non-blocking request to the same status codes as the blocking endpoints.
+     * 
+     * @param failure The failure of the request, possibly wrapped by {@code CompletableFuture}
+     * @return {@code ResponseEntity<?>} The error response.
+     */
+    private ResponseEntity<?> errorResponse(Throwable failure) {
+        Throwable cause = FanOutExecutor.causeOf(failure);
+
+        if (cause instanceof QuotaManager.QuotaExceededException quotaExceeded) {
+            System.out.println("Quota exhausted: " + cause.getMessage());
+            return tooManyRequests(quotaExceeded.getRetryAfter());
+        } else if (cause instanceof ResilienceManager.CircuitOpenException circuitOpen) {
+            System.out.println("Circuit open: " + cause.getMessage());
+            return upstreamUnavailable(circuitOpen.getRetryAfter());
+        } else if (cause instanceof OverQueryLimitException) {
+            System.out.println("Over query limit: " + cause.getMessage());
+            return tooManyRequests(GOOGLE_RETRY_AFTER);
+        } else if (cause instanceof ApiException) {
+            System.out.println("API Exception: " + cause.getMessage());
+            return new ResponseEntity<>(Map.of("status", "API Exception"), HttpStatus.INTERNAL_SERVER_ERROR);
+        } else if (cause instanceof SingleFlight.WaitTimeoutException) {
+            System.out.println("Timed out waiting for identical request: " + cause.getMessage());
+            return new ResponseEntity<>(Map.of("status", "timeout"), HttpStatus.GATEWAY_TIMEOUT);
+        } else if (cause instanceof InterruptedException) {
+            System.out.println("Interrupted Exception: " + cause.getMessage());
+            return new ResponseEntity<>(Map.of("status", "interrupted"), HttpStatus.SERVICE_UNAVAILABLE);
+        } else if (cause instanceof IOException) {
+            System.out.println("IO Exception: " + cause.getMessage());
+            return new ResponseEntity<>(Map.of("status", "IO Exception"), HttpStatus.INTERNAL_SERVER_ERROR);
+        } else {
+            System.out.println("Unknown Exception: " + cause.getMessage());
+            return new ResponseEntity<>(Map.of("status", "unknown error"), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Returns the response for a request turned away because a Google Maps quota is exhausted.
+     * 
+     * @param retryAfter How long until the quota is expected to be available again
+     * @return {@code ResponseEntity<?>} A too many requests response, with a {@code Retry-After} header in whole seconds.
+     */
+    private ResponseEntity<?> tooManyRequests(Duration retryAfter) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds(retryAfter)))
+                .body(Map.of("status", "quota exceeded"));
+    }
+
+    /**
+     * Returns the response for a request refused because Google is failing and its circuit breaker is open.
+     * 
+     * @param retryAfter How long until the circuit breaker lets a call through again
+     * @return {@code ResponseEntity<?>} A service unavailable response, with a {@code Retry-After} header in whole seconds.
+     */
+    private ResponseEntity<?> upstreamUnavailable(Duration retryAfter) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds(retryAfter)))
+                .body(Map.of("status", "upstream unavailable"));
+    }
+
+    /**
+     * Rounds a retry delay up to the whole seconds of a {@code Retry-After} header.
+     * 
+     * @param retryAfter The delay
+     * @return The delay in seconds, at least 1
+     */
+    private static long retryAfterSeconds(Duration retryAfter) {
+        return Math.max(1, (retryAfter.toMillis() + 999) / 1000);
+    }
+
+    /**
+     * Builds the response headers that report the work done for a request.
+     * <p>
+     * {@code X-Distance-Cache-Hits} is the number of walking distances served from the cache, and
+     * {@code X-Distance-Matrix-Elements} is the number of Distance Matrix elements requested from Google,
+     * {@code X-Distance-Duplicates-Collapsed} is the number of places that shared another place's element, and
+     * {@code X-Distance-Unreachable} is the number of destinations Google found no walking route to.
+     * </p>
+     * <p>
+     * {@code Server-Timing} breaks the latency of the request down by {@link PipelineStage}, with one entry per
+     * category for the nearby searches, so browser dev tools and load tests can see which stage was slow. It is left
+     * out if no stage was timed, e.g. when every result came from a cache.
+     * </p>
+     * 
+     * @param stats The stats of the request
+     * @return {@code HttpHeaders} The headers reporting the stats
+     */
+    private HttpHeaders statsHeaders(PipelineStats stats) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.add("X-Distance-Cache-Hits", String.valueOf(stats.getDistanceCacheHits()));
+        headers.add("X-Distance-Matrix-Elements", String.valueOf(stats.getDistanceMatrixElements()));
+        headers.add("X-Distance-Duplicates-Collapsed", String.valueOf(stats.getDuplicateDestinations()));
+        headers.add("X-Distance-Unreachable", String.valueOf(stats.getUnreachableDestinations()));
+        headers.add("X-Distance-Unverified", String.valueOf(stats.getUnverifiedPlaces()));
+
+        String serverTiming = stats.toServerTiming();
+        if (!serverTiming.isEmpty()) {
+            headers.add("Server-Timing", serverTiming);
+        }
+        return headers;
+    }
+
+    /**
+     * Creates the stats of a new request, publishing its stage timings if pipeline metrics are enabled.
+     * 
+     * @return {@code PipelineStats} The stats of the request
+     */
+    private PipelineStats newStats() {
+        return new PipelineStats(pipelineMetrics);
+    }
+
+    /**
+     * Builds the response of a successful pipeline request.
+     * 
+     * The body is serialized here rather than by Spring, so that serialization is timed as a stage and can be
+     * reported in the {@code Server-Timing} header of the same response.
+     * 
+     * @param body The body of the response
+     * @param stats The stats of the request
+     * @return {@code ResponseEntity<?>} The JSON response, with the stats headers
+     */
+    private ResponseEntity<?> okResponse(Object body, PipelineStats stats) {
+        long start = System.nanoTime();
+        byte[] json;
+
+        try {
+            json = objectMapper.writeValueAsBytes(body);
+        } catch (JsonProcessingException e) {
+            stats.recordStage(PipelineStage.SERIALIZATION, null, start, false);
+            System.out.println("Could not serialize response: " + e.getMessage());
+            return new ResponseEntity<>(Map.of("status", "serialization error"), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+
+        stats.recordStage(PipelineStage.SERIALIZATION, null, start, true);
+        return ResponseEntity.ok().headers(statsHeaders(stats)).contentType(MediaType.APPLICATION_JSON).body(json);
+    }
+
     /**
      * Returns a placeholder response for endpoints that have not been implemented yet.
      * 
@@ -3,6 +3,7 @@ package com.aruki.aruki;
 // Google Maps API Libraries
 import com.google.maps.GeoApiContext;
 import com.google.maps.GeocodingApi;
+import com.google.maps.PendingResult;
 import com.google.maps.PlacesApi;
 import com.google.maps.errors.ApiException;
 import com.google.maps.model.PlaceType;
@@ -10,6 +11,8 @@ import com.google.maps.model.LatLng;
 import com.google.maps.DistanceMatrixApi;
 import com.google.maps.model.DistanceMatrix;
 import com.google.maps.model.DistanceMatrixElement;
+import com.google.maps.model.DistanceMatrixElementStatus;
+import com.google.maps.model.DistanceMatrixRow;
 import com.google.maps.model.GeocodingResult;
 import com.google.maps.model.PlacesSearchResponse;
 import com.google.maps.model.PlacesSearchResult;
@@ -17,10 +20,17 @@ import com.google.maps.model.TravelMode;
 
 // Third Party Libraries
 import io.github.cdimascio.dotenv.Dotenv; // For loading .env file
+import org.springframework.beans.factory.annotation.Autowired;
 
 // Java Libraries
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.time.Duration;
+import java.util.function.Supplier;
 import java.util.random.RandomGenerator;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -48,12 +58,26 @@ import java.io.IOException;
  * 
  * <p>It also uses the Dotenv library to load environment variables from a .env file, specifically the Google Maps API key.
  * 
+ * <p>Every call to Google first takes its quota from the {@link QuotaManager}, if one is configured: one token per
+ * Geocoding or Places request, and one token per element of a Distance Matrix request. Calls that would exceed the
+ * quota fail with a {@link QuotaManager.QuotaExceededException} before anything is sent.
+ * 
+ * <p>Calls are made through the {@link ResilienceManager}, if one is configured, which adds a circuit breaker, retries
+ * of transient failures and hedged requests. The client library's own retries are disabled so that a call is never
+ * retried by both, and the connect and read timeouts bound how long a single attempt may take.
+ *
+ * <p>Nearby searches are the Google implementation of {@link PlacesProvider}; when an offline index is configured, the
+ * {@link OfflinePlacesProvider} answers them instead. Likewise, walking distances are the Google implementation of
+ * {@link WalkingDistanceProvider}, which a {@link LocalWalkingDistanceProvider} replaces when a pedestrian graph is
+ * configured.
+ *
  * <p>Usage example:
  * <pre>
  * {@code
  * APIManager apiManager = new APIManager();
- * List<Location> places = apiManager.retrievePlacesOfCategory("New York, NY", PlaceType.RESTAURANT, false);
- * List<String> distances = apiManager.getWalkingDistances("Central Park, New York, NY", Arrays.asList("Times Square, New York, NY"), false);
+ * GeocodedLocation origin = apiManager.geocode("Central Park, New York, NY", false);
+ * List<Location> places = apiManager.retrievePlacesOfCategory(origin, PlaceType.RESTAURANT, false);
+ * List<WalkingDistance> distances = apiManager.getWalkingDistances(origin, places, false);
  * }
  * </pre>
  * 
@@ -68,20 +92,30 @@ import java.io.IOException;
  * 
  * <p>Methods:
  * <ul>
- *   <li>{@link #retrievePlacesOfCategory(String, PlaceType, boolean)}: Retrieves a list of places of a specific category near a given location.</li>
- *   <li>{@link #getWalkingDistances(String, List, boolean)}: Retrieves walking distances from an origin address to a list of place addresses.</li>
+ *   <li>{@link #geocode(String, boolean)}: Resolves an address to its coordinates and place id, once per request.</li>
+ *   <li>{@link #retrievePlacesOfCategory(GeocodedLocation, PlaceType, boolean)}: Retrieves a list of places of a specific category near a geocoded location.</li>
+ *   <li>{@link #retrievePlacesOfCategory(LatLng, int, PlaceType, boolean)}: Retrieves a list of places of a specific category within a radius of a point.</li>
+ *   <li>{@link #retrievePlacesPage(LatLng, int, PlaceType, boolean)} and {@link #retrieveNextPlacesPage(String, boolean)}: Retrieve the same
+ *       search one page at a time, for callers that follow the next page token.</li>
+ *   <li>{@link #getWalkingDistances(GeocodedLocation, List, boolean)}: Retrieves walking distances, in meters, from a geocoded origin to a list of places.</li>
+ *   <li>{@link #getWalkingDistanceMatrix(List, List, boolean)}: Retrieves walking distances from several origins to the same places in a single request.</li>
+ *   <li>{@link #geocodeAsync(String, boolean)}, {@link #retrievePlacesOfCategoryAsync(LatLng, int, PlaceType, boolean)} and
+ *       {@link #getWalkingDistancesAsync(GeocodedLocation, List, boolean)}: Non-blocking versions of the above, which return as soon as
+ *       the request is sent and complete from the HTTP client's callback.</li>
  *   <li>{@link #locationExists(String)}: Checks if a location exists in the Google Maps API by trying to get the latitude and longitude of the location.</li>
  * </ul>
  * 
  * <p>Sample Data Methods:
  * <ul>
+ *   <li>{@link #sampleData_geocode(String)}: Provides sample data mimicking the output from the Google Geocoding API.</li>
  *   <li>{@link #sampleData_retrievePlacesOfCategory(String, PlaceType)}: Provides sample data mimicking the output from the Google Places API.</li>
  *   <li>{@link #sampleData_getWalkingDistances(String, List)}: Provides sample data mimicking the output from the Google Maps Distance Matrix API.</li>
+ *   <li>{@link #sampleData_getWalkingDistanceMatrix(List, List)}: Provides the same sample data for several origins.</li>
  * </ul>
  * 
  * <p>Helper Methods:
  * <ul>
- *   <li>{@link #generateAddressList(List)}: Generates a list of addresses from a list of Location objects.</li>
+ *   <li>{@link #generateDestinationList(List)}: Generates a list of Distance Matrix destinations from a list of Location objects.</li>
  * </ul>
  * 
  * <p>Main Method:
@@ -92,21 +126,78 @@ import java.io.IOException;
  * @throws FileNotFoundException if the .env file is not found
  * @throws RuntimeException if the API_KEY is not found in the .env file
  */
-public class APIManager {
+public class APIManager implements PlacesProvider, WalkingDistanceProvider {
 
+    public static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(2);
+    public static final Duration DEFAULT_READ_TIMEOUT = Duration.ofSeconds(5);
+    public static final int DISTANCE_MATRIX_MAX_DESTINATIONS = 25;
+    public static final String STUB_API_KEY = "AIzaStubKeyForLocalStubServers"; // The client rejects keys not shaped like Google's
 
     private String apiKey;
     private GeoApiContext context;
     private final int searchRadius = 2000; // Search radius in meters
 
+    @Autowired(required = false)
+    private QuotaManager quotaManager; // Request budget of each Google Maps API; null if calls are not budgeted
+
+    @Autowired(required = false)
+    private ResilienceManager resilienceManager; // Circuit breakers, retries and hedging; null if calls are made once
+
     private boolean API_LOADED = false;
 
 
+    /**
+     * Constructs an APIManager with the default timeouts.
+     * 
+     * @throws FileNotFoundException if the .env file is not found
+     * @throws RuntimeException if the API_KEY is not found in the .env file
+     */
     public APIManager() throws FileNotFoundException, RuntimeException
+    {
+        this(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+    }
+
+    /**
+     * Constructs an APIManager whose requests time out after the specified durations.
+     * 
+     * @param connectTimeout how long to wait for a connection to Google
+     * @param readTimeout how long to wait for a response once connected
+     * @throws FileNotFoundException if the .env file is not found
+     * @throws RuntimeException if the API_KEY is not found in the .env file
+     */
+    public APIManager(Duration connectTimeout, Duration readTimeout) throws FileNotFoundException, RuntimeException
+    {
+        this(connectTimeout, readTimeout, null);
+    }
+
+    /**
+     * Constructs an APIManager that sends its requests to the specified base URL instead of Google.
+     * 
+     * This is for load tests and end-to-end tests against a local stub of the Google Maps APIs, which are served
+     * from the same paths under the base URL (e.g. {@code http://localhost:8089/maps/api/geocode/json}). No API key
+     * is needed: {@code API_KEY} is used if it is set, and a placeholder otherwise.
+     * 
+     * @param connectTimeout how long to wait for a connection to Google
+     * @param readTimeout how long to wait for a response once connected
+     * @param baseUrl the base URL of the Google Maps APIs, or null or empty for Google itself
+     * @throws FileNotFoundException if the .env file is not found
+     * @throws RuntimeException if the API_KEY is not found in the .env file
+     */
+    public APIManager(Duration connectTimeout, Duration readTimeout, String baseUrl) throws FileNotFoundException, RuntimeException
     {
         this.apiKey = "";
         this.context = null;
 
+        if (baseUrl != null && !baseUrl.isEmpty()) {
+            String key = System.getenv("API_KEY");
+            this.apiKey = (key != null) ? key : STUB_API_KEY;
+
+            System.out.println("Sending Google Maps requests to " + baseUrl);
+            this.context = newContextBuilder(connectTimeout, readTimeout).baseUrlOverride(baseUrl).build();
+            API_LOADED = true;
+            return;
+        }
+
         try {
             // Check if API_KEY is in System.getenv (for Azure deployment)
             this.apiKey = System.getenv("API_KEY");
@@ -140,7 +231,7 @@ public class APIManager {
                 System.out.println("Found API_KEY in System.getenv");
             }
 
-            this.context = new GeoApiContext.Builder().apiKey(apiKey).build();
+            this.context = newContextBuilder(connectTimeout, readTimeout).build();
             API_LOADED = true;
 
         } catch (Exception e) {
@@ -152,9 +243,77 @@ public class APIManager {
 
 
     /**
-     * Retrieves a list of places of a specific category near a given location.
+     * Creates the builder of the context every request is sent through, with the API key and timeouts.
      * 
-     * @param location the location to search near
+     * @param connectTimeout how long to wait for a connection
+     * @param readTimeout how long to wait for a response once connected
+     * @return the context builder
+     */
+    private GeoApiContext.Builder newContextBuilder(Duration connectTimeout, Duration readTimeout)
+    {
+        return new GeoApiContext.Builder()
+                .apiKey(apiKey)
+                .connectTimeout(connectTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                .readTimeout(readTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                .disableRetries(); // Retried by the ResilienceManager instead
+    }
+
+    /**
+     * Resolves an address to its coordinates and place id using the Geocoding API.
+     * 
+     * This is the only Geocoding call made for a request: the returned {@link GeocodedLocation} is passed to
+     * every later stage, and a {@code null} result doubles as the validation that the address exists.
+     * 
+     * @param location the address to resolve
+     * @param test whether to use sample data for testing
+     * @return the geocoded location, or {@code null} if the Geocoding API returned no results
+     * @throws ApiException if an error occurs while making the API request
+     * @throws InterruptedException if the request is interrupted
+     * @throws IOException if an I/O error occurs
+     */
+    public GeocodedLocation geocode(String location, boolean test) throws ApiException, InterruptedException, IOException
+    {
+        if (test) // If testing, use sample data
+        {
+            return sampleData_geocode(location);
+        }
+
+        if (!API_LOADED)
+        {
+            throw new RuntimeException("API_KEY not found. Please add the API_KEY variable to the .env file with your Google Maps API key.");
+        }
+
+        GeocodingResult[] results = await(call(UpstreamApi.GEOCODING, 1, () -> GeocodingApi.geocode(context, location))); // Get the latitude and longitude of the location
+
+        return toGeocodedLocation(location, results);
+    }
+
+    /**
+     * Resolves an address to its coordinates and place id using the Geocoding API, without blocking.
+     * 
+     * @param location the address to resolve
+     * @param test whether to use sample data for testing
+     * @return a future for the geocoded location, completing with {@code null} if the Geocoding API returned no results
+     */
+    public CompletableFuture<GeocodedLocation> geocodeAsync(String location, boolean test)
+    {
+        if (test) // If testing, use sample data
+        {
+            return CompletableFuture.completedFuture(sampleData_geocode(location));
+        }
+
+        if (!API_LOADED)
+        {
+            return CompletableFuture.failedFuture(new RuntimeException("API_KEY not found. Please add the API_KEY variable to the .env file with your Google Maps API key."));
+        }
+
+        return call(UpstreamApi.GEOCODING, 1, () -> GeocodingApi.geocode(context, location)).thenApply(results -> toGeocodedLocation(location, results));
+    }
+
+    /**
+     * Retrieves a list of places of a specific category near an already geocoded location.
+     * 
+     * @param origin the geocoded location to search near
      * @param category the category of places to search for
      * @param test whether to use sample data for testing
      * @return a list of places matching the category near the location
@@ -162,69 +321,184 @@ public class APIManager {
      * @throws InterruptedException if the request is interrupted
      * @throws IOException if an I/O error occurs
      */
-    public List<Location> retrievePlacesOfCategory(String location, PlaceType category, boolean test) throws ApiException, InterruptedException, IOException
+    public List<Location> retrievePlacesOfCategory(GeocodedLocation origin, PlaceType category, boolean test) throws ApiException, InterruptedException, IOException
     {
-        
         if (test) // If testing, use sample data
         {
-            return sampleData_retrievePlacesOfCategory(location, category);
+            return sampleData_retrievePlacesOfCategory(origin.getAddress(), category);
         }
-        else
+
+        return retrievePlacesOfCategory(origin.getLatLng(), searchRadius, category, test);
+    }
+
+    /**
+     * Retrieves a list of places of a specific category within a radius of a point.
+     * 
+     * The returned places carry their place id and coordinates, so that they can be indexed and filtered locally.
+     * 
+     * @param center the point to search around
+     * @param radius the search radius in meters
+     * @param category the category of places to search for
+     * @param test whether to use sample data for testing
+     * @return a list of places matching the category within the radius
+     * @throws ApiException if an error occurs while making the API request
+     * @throws InterruptedException if the request is interrupted
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public List<Location> retrievePlacesOfCategory(LatLng center, int radius, PlaceType category, boolean test) throws ApiException, InterruptedException, IOException
+    {
+        return retrievePlacesPage(center, radius, category, test).getPlaces();
+    }
+
+    /**
+     * Retrieves the first page of places of a specific category within a radius of a point.
+     * 
+     * @param center the point to search around
+     * @param radius the search radius in meters
+     * @param category the category of places to search for
+     * @param test whether to use sample data for testing
+     * @return the first page of places, with the token of the next page if there is one
+     * @throws ApiException if an error occurs while making the API request
+     * @throws InterruptedException if the request is interrupted
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public PlacesPage retrievePlacesPage(LatLng center, int radius, PlaceType category, boolean test) throws ApiException, InterruptedException, IOException
+    {
+        if (test) // If testing, use sample data
         {
-            try{
+            return new PlacesPage(sampleData_retrievePlacesOfCategory(center.toString(), category), null);
+        }
 
-                if (!API_LOADED)
-                {
-                    throw new RuntimeException("API_KEY not found. Please add the API_KEY variable to the .env file with your Google Maps API key.");
-                }
+        if (!API_LOADED)
+        {
+            throw new RuntimeException("API_KEY not found. Please add the API_KEY variable to the .env file with your Google Maps API key.");
+        }
 
-                GeocodingResult[] results = GeocodingApi.geocode(context, location).await(); // Get the latitude and longitude of the location
+        PlacesSearchResponse response = await(call(UpstreamApi.PLACES, 1, () -> PlacesApi.nearbySearchQuery(context, center).type(category).radius(radius))); // Search for places of the specified category near the location
+        return toPlacesPage(response);
+    }
 
-                if (results.length == 0)
-                {
-                    return null;
-                }
+    /**
+     * Retrieves the next page of a nearby search.
+     * 
+     * The token only becomes valid a short time after the previous page was returned; requesting it too early fails
+     * with an {@code INVALID_REQUEST} error.
+     * 
+     * @param pageToken the next page token of the previous page
+     * @param test whether to use sample data for testing
+     * @return the next page of places, with the token of the page after it if there is one
+     * @throws ApiException if an error occurs while making the API request
+     * @throws InterruptedException if the request is interrupted
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public PlacesPage retrieveNextPlacesPage(String pageToken, boolean test) throws ApiException, InterruptedException, IOException
+    {
+        if (test) // Sample searches have a single page
+        {
+            return new PlacesPage(new ArrayList<>(), null);
+        }
 
-                //Get the latitude and longitude of the location
-                LatLng latLng = results[0].geometry.location;
+        if (!API_LOADED)
+        {
+            throw new RuntimeException("API_KEY not found. Please add the API_KEY variable to the .env file with your Google Maps API key.");
+        }
 
-                //location is an address, get the latitude and longitude of the location
-                // Get latlng of location, Don't know how
+        return toPlacesPage(await(call(UpstreamApi.PLACES, 1, () -> PlacesApi.nearbySearchNextPage(context, pageToken))));
+    }
 
-                PlacesSearchResponse response = PlacesApi.nearbySearchQuery(context, latLng).type(category).radius(searchRadius).await(); // Search for places of the specified category near the location
-                List<Location> places = new ArrayList<>();
-                for (PlacesSearchResult result : response.results) {
-                    String address = (result.formattedAddress != null) ? result.formattedAddress : result.vicinity;
-                    places.add(new Location(result.name, address, result.types));
-                }
-                return places;
-            } catch (Exception e) {
-                throw e;
-            }
+    /**
+     * Retrieves a list of places of a specific category within a radius of a point, without blocking.
+     * 
+     * @param center the point to search around
+     * @param radius the search radius in meters
+     * @param category the category of places to search for
+     * @param test whether to use sample data for testing
+     * @return a future for the list of places matching the category within the radius
+     */
+    @Override
+    public CompletableFuture<List<Location>> retrievePlacesOfCategoryAsync(LatLng center, int radius, PlaceType category, boolean test)
+    {
+        return retrievePlacesPageAsync(center, radius, category, test).thenApply(PlacesPage::getPlaces);
+    }
+
+    /**
+     * Retrieves the first page of places of a specific category within a radius of a point, without blocking.
+     * 
+     * @param center the point to search around
+     * @param radius the search radius in meters
+     * @param category the category of places to search for
+     * @param test whether to use sample data for testing
+     * @return a future for the first page of places
+     */
+    @Override
+    public CompletableFuture<PlacesPage> retrievePlacesPageAsync(LatLng center, int radius, PlaceType category, boolean test)
+    {
+        if (test) // If testing, use sample data
+        {
+            return CompletableFuture.completedFuture(new PlacesPage(sampleData_retrievePlacesOfCategory(center.toString(), category), null));
         }
+
+        if (!API_LOADED)
+        {
+            return CompletableFuture.failedFuture(new RuntimeException("API_KEY not found. Please add the API_KEY variable to the .env file with your Google Maps API key."));
+        }
+
+        return call(UpstreamApi.PLACES, 1, () -> PlacesApi.nearbySearchQuery(context, center).type(category).radius(radius)).thenApply(APIManager::toPlacesPage);
     }
 
     /**
-     * Retrieves walking distances from an origin address to a list of place addresses.
+     * Retrieves the next page of a nearby search, without blocking.
      * 
-     * @param originAddress the starting address
-     * @param placeAddresses the list of destination addresses
+     * @param pageToken the next page token of the previous page
      * @param test whether to use sample data for testing
-     * @return a list of walking distances to each destination address
+     * @return a future for the next page of places
+     */
+    @Override
+    public CompletableFuture<PlacesPage> retrieveNextPlacesPageAsync(String pageToken, boolean test)
+    {
+        if (test) // Sample searches have a single page
+        {
+            return CompletableFuture.completedFuture(new PlacesPage(new ArrayList<>(), null));
+        }
+
+        if (!API_LOADED)
+        {
+            return CompletableFuture.failedFuture(new RuntimeException("API_KEY not found. Please add the API_KEY variable to the .env file with your Google Maps API key."));
+        }
+
+        return call(UpstreamApi.PLACES, 1, () -> PlacesApi.nearbySearchNextPage(context, pageToken)).thenApply(APIManager::toPlacesPage);
+    }
+
+    /**
+     * Retrieves walking distances from a geocoded origin to a list of places.
+     * 
+     * The origin is sent as coordinates and each place as its place id (or its coordinates when it has none), so
+     * that the Distance Matrix API does not have to geocode any of them again. Places without either fall back to
+     * their address.
+     * 
+     * @param origin the geocoded starting location
+     * @param destinations the list of destination places
+     * @param test whether to use sample data for testing
+     * @return the walking distance to each destination, in destination order; destinations that cannot be walked
+     *         to are reported as unreachable
      * @throws ApiException if an error occurs while making the API request
      * @throws InterruptedException if the request is interrupted
      * @throws IOException if an I/O error occurs
      */
-    public List<String> getWalkingDistances(String originAddress, List<String> placeAddresses, boolean test) throws ApiException, InterruptedException, IOException
+    @Override
+    public List<WalkingDistance> getWalkingDistances(GeocodedLocation origin, List<Location> destinations, boolean test) throws ApiException, InterruptedException, IOException
     {
 
         if (test) 
         {
-            return sampleData_getWalkingDistances(originAddress, placeAddresses);
+            return sampleData_getWalkingDistances(origin.getAddress(), destinations);
         }
         else
         {
-            List<String> distances = new ArrayList<>();
+            List<WalkingDistance> distances = new ArrayList<>();
 
 
             try {
@@ -236,20 +510,12 @@ public class APIManager {
 
 
 
-                DistanceMatrix matrix = DistanceMatrixApi.newRequest(context) // Get walking distances from the origin address to each destination address
-                        .origins(originAddress)
-                        .destinations(placeAddresses.toArray(new String[0]))
-                        .mode(TravelMode.WALKING)
-                        .await();
+                DistanceMatrix matrix = await(call(UpstreamApi.DISTANCE_MATRIX, destinations.size(), () -> DistanceMatrixApi.newRequest(context) // Get walking distances from the origin address to each destination address
+                        .origins(origin.getLatLng())
+                        .destinations(generateDestinationList(destinations).toArray(new String[0]))
+                        .mode(TravelMode.WALKING)));
 
-                for (DistanceMatrixElement element : matrix.rows[0].elements) {
-
-                    if(element.distance != null)
-                        distances.add(element.distance.humanReadable);
-                    else // Absurdly large distance so that it is filtered out
-                        distances.add("1000 km");
-                        
-                }
+                distances = toDistances(matrix);
             } catch (Exception e) {
                 throw e;
             }
@@ -259,8 +525,294 @@ public class APIManager {
 
     }
 
+    /**
+     * Retrieves walking distances from a geocoded origin to a list of places, without blocking.
+     * 
+     * @param origin the geocoded starting location
+     * @param destinations the list of destination places
+     * @param test whether to use sample data for testing
+     * @return a future for the walking distance to each destination, in destination order
+     */
+    @Override
+    public CompletableFuture<List<WalkingDistance>> getWalkingDistancesAsync(GeocodedLocation origin, List<Location> destinations, boolean test)
+    {
+        if (test)
+        {
+            return CompletableFuture.completedFuture(sampleData_getWalkingDistances(origin.getAddress(), destinations));
+        }
+
+        if (!API_LOADED)
+        {
+            return CompletableFuture.failedFuture(new RuntimeException("API_KEY not found. Please add the API_KEY variable to the .env file with your Google Maps API key."));
+        }
+
+        return call(UpstreamApi.DISTANCE_MATRIX, destinations.size(), () -> DistanceMatrixApi.newRequest(context)
+                .origins(origin.getLatLng())
+                .destinations(generateDestinationList(destinations).toArray(new String[0]))
+                .mode(TravelMode.WALKING)).thenApply(APIManager::toDistances);
+    }
+
+    /**
+     * Retrieves walking distances from several origins to the same list of places, in a single request.
+     * 
+     * Google bills the Distance Matrix API per element (origin and destination pair) and accepts at most 25 origins,
+     * 25 destinations and 100 elements per request; callers are expected to size their blocks accordingly.
+     * 
+     * @param origins the starting points
+     * @param destinations the list of destination places
+     * @param test whether to use sample data for testing
+     * @return for each origin, in origin order, the walking distance to each destination, in destination order
+     * @throws ApiException if an error occurs while making the API request
+     * @throws InterruptedException if the request is interrupted
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public List<List<WalkingDistance>> getWalkingDistanceMatrix(List<LatLng> origins, List<Location> destinations, boolean test) throws ApiException, InterruptedException, IOException
+    {
+        if (test)
+        {
+            return sampleData_getWalkingDistanceMatrix(origins, destinations);
+        }
+
+        if (!API_LOADED)
+        {
+            throw new RuntimeException("API_KEY not found. Please add the API_KEY variable to the .env file with your Google Maps API key.");
+        }
+
+        DistanceMatrix matrix = await(call(UpstreamApi.DISTANCE_MATRIX, origins.size() * destinations.size(), () -> DistanceMatrixApi.newRequest(context)
+                .origins(origins.toArray(new LatLng[0]))
+                .destinations(generateDestinationList(destinations).toArray(new String[0]))
+                .mode(TravelMode.WALKING)));
+
+        List<List<WalkingDistance>> rows = new ArrayList<>();
+        for (DistanceMatrixRow row : matrix.rows) {
+            rows.add(toDistances(row));
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the most destinations of one Distance Matrix request.
+     *
+     * @return {@link #DISTANCE_MATRIX_MAX_DESTINATIONS}
+     */
+    @Override
+    public int getMaxDestinationsPerRequest()
+    {
+        return DISTANCE_MATRIX_MAX_DESTINATIONS;
+    }
+
+    /**
+     * Calls a Google Maps API through the {@link ResilienceManager}, if one is configured, each attempt taking its
+     * quota first.
+     * 
+     * @param downstream the API the request calls
+     * @param cost the quota tokens each attempt costs
+     * @param request builds the request to send; it is called again for every retry and hedge, since a request can
+     *        only be sent once
+     * @return a future for the response of the request
+     */
+    private <T> CompletableFuture<T> call(UpstreamApi downstream, int cost, Supplier<PendingResult<T>> request)
+    {
+        if (resilienceManager == null)
+        {
+            return send(downstream, cost, request);
+        }
+
+        return resilienceManager.call(downstream, () -> send(downstream, cost, request));
+    }
+
+    /**
+     * Builds and sends a request once its quota is available, without blocking. Cancelling the returned future
+     * cancels the request.
+     * 
+     * @param downstream the API the request calls
+     * @param cost the tokens the request costs
+     * @param request builds the request to send
+     * @return a future for the response of the request, failing with a {@link QuotaManager.QuotaExceededException}
+     *         if the quota is exhausted
+     */
+    private <T> CompletableFuture<T> send(UpstreamApi downstream, int cost, Supplier<PendingResult<T>> request)
+    {
+        if (quotaManager == null)
+        {
+            return toFuture(request.get());
+        }
+
+        AtomicReference<CompletableFuture<T>> sent = new AtomicReference<>();
+        CompletableFuture<T> future = quotaManager.acquireAsync(downstream, cost).thenCompose(ignored -> {
+            sent.set(toFuture(request.get()));
+            return sent.get();
+        });
+
+        future.whenComplete((response, failure) -> {
+            if (future.isCancelled() && sent.get() != null) {
+                sent.get().cancel(true);
+            }
+        });
+
+        return future;
+    }
+
+    /**
+     * Waits for the response of a request, rethrowing its failure as it was raised.
+     * 
+     * @param future the future for the response
+     * @return the response
+     * @throws ApiException if Google returned an error
+     * @throws InterruptedException if the thread is interrupted while waiting, in which case the request is cancelled
+     * @throws IOException if the request failed with an I/O error
+     */
+    private static <T> T await(CompletableFuture<T> future) throws ApiException, InterruptedException, IOException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (ExecutionException e)
+        {
+            throw FanOutExecutor.unwrap(FanOutExecutor.causeOf(e));
+        }
+        catch (InterruptedException e)
+        {
+            future.cancel(true);
+            throw e;
+        }
+    }
+
+    /**
+     * Sends a request and adapts its callback to a future. Cancelling the future cancels the request.
+     * 
+     * The callback runs on the HTTP client's dispatcher threads, so the stages chained onto the future should stay
+     * short and must not block.
+     * 
+     * @param request the request to send
+     * @return a future for the response of the request
+     */
+    private static <T> CompletableFuture<T> toFuture(PendingResult<T> request)
+    {
+        CompletableFuture<T> future = new CompletableFuture<>();
+
+        request.setCallback(new PendingResult.Callback<T>() {
+            @Override
+            public void onResult(T result) {
+                future.complete(result);
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+
+        future.whenComplete((result, failure) -> {
+            if (future.isCancelled()) {
+                request.cancel();
+            }
+        });
+
+        return future;
+    }
+
+    /**
+     * Converts a Geocoding API response to a geocoded location.
+     * 
+     * @param location the address that was resolved
+     * @param results the Geocoding API results
+     * @return the geocoded location, or {@code null} if there are no results
+     */
+    private static GeocodedLocation toGeocodedLocation(String location, GeocodingResult[] results)
+    {
+        if (results == null || results.length == 0)
+        {
+            return null;
+        }
+
+        GeocodingResult result = results[0];
+        return new GeocodedLocation(location, result.formattedAddress, result.placeId, result.geometry.location);
+    }
+
+    /**
+     * Converts a Places API response to a page of places.
+     * 
+     * @param response the Places API response
+     * @return the page of places
+     */
+    private static PlacesPage toPlacesPage(PlacesSearchResponse response)
+    {
+        return new PlacesPage(toLocations(response), response.nextPageToken);
+    }
+
+    /**
+     * Converts a Places API response to a list of places, keeping their place id and coordinates.
+     * 
+     * @param response the Places API response
+     * @return the list of places
+     */
+    private static List<Location> toLocations(PlacesSearchResponse response)
+    {
+        List<Location> places = new ArrayList<>();
+        for (PlacesSearchResult result : response.results) {
+            String address = (result.formattedAddress != null) ? result.formattedAddress : result.vicinity;
+            LatLng latLng = (result.geometry != null) ? result.geometry.location : null;
+
+            if (latLng != null) {
+                places.add(new Location(result.name, address, result.types, result.placeId, latLng.lat, latLng.lng));
+            } else {
+                places.add(new Location(result.name, address, result.types));
+            }
+        }
+        return places;
+    }
+
+    /**
+     * Converts a Distance Matrix API response with a single origin to a list of walking distances.
+     * 
+     * @param matrix the Distance Matrix API response
+     * @return the distance to each destination, in destination order
+     */
+    private static List<WalkingDistance> toDistances(DistanceMatrix matrix)
+    {
+        return toDistances(matrix.rows[0]);
+    }
+
+    /**
+     * Converts one row of a Distance Matrix API response to a list of walking distances.
+     * 
+     * @param row the row of a single origin
+     * @return the distance to each destination, in destination order
+     */
+    private static List<WalkingDistance> toDistances(DistanceMatrixRow row)
+    {
+        List<WalkingDistance> distances = new ArrayList<>();
+
+        for (DistanceMatrixElement element : row.elements) {
+
+            if (element.status == DistanceMatrixElementStatus.OK && element.distance != null)
+                distances.add(WalkingDistance.of(element.distance.inMeters, element.duration != null ? element.duration.inSeconds : 0));
+            else // No walking route, e.g. the destination is on an island
+                distances.add(WalkingDistance.unreachable(element.status != null ? element.status : DistanceMatrixElementStatus.NOT_FOUND));
+                
+        }
+
+        return distances;
+    }
+
     private static final RandomGenerator random = RandomGenerator.getDefault();
 
+    /**
+     * Provides sample data mimicking the output from the Google Geocoding API.
+     * 
+     * @param location the address to resolve
+     * @return a sample geocoded location for the address
+     */
+    public static GeocodedLocation sampleData_geocode(String location) {
+
+        // This method should mimic output from the Google Geocoding API
+        return new GeocodedLocation(location, location, "sample_place_id", new LatLng(36.8529, -75.9780));
+
+    }
+
     /**
      * Provides sample data mimicking the output from the Google Places API.
      * 
@@ -351,18 +903,19 @@ public class APIManager {
      * Provides sample data mimicking the output from the Google Maps Distance Matrix API.
      * 
      * @param originAddress the starting address
-     * @param placeAddresses the list of destination addresses
-     * @return a list of sample walking distances to each destination address
+     * @param destinations the list of destination places
+     * @return a list of sample walking distances to each destination
      */
-    public static List<String> sampleData_getWalkingDistances(String originAddress, List<String> placeAddresses) {
+    public static List<WalkingDistance> sampleData_getWalkingDistances(String originAddress, List<Location> destinations) {
         
         // This method should mimic output from the Google Maps Distance Matrix API
 
-        List<String> walkingDistances = new ArrayList<>();
+        List<WalkingDistance> walkingDistances = new ArrayList<>();
 
-        // Placeholder Data (units are in miles because America F*** Yeah!)
-        for (String placeAddress : placeAddresses) {
-            walkingDistances.add(String.valueOf(random.nextDouble(0.1, 2.0)));
+        // Placeholder Data (meters, at a walking pace of about 1.4 m/s)
+        for (int i = 0; i < destinations.size(); i++) {
+            long meters = random.nextLong(100, 2000);
+            walkingDistances.add(WalkingDistance.of(meters, Math.round(meters / 1.4)));
         }
 
         return walkingDistances;
@@ -370,6 +923,36 @@ public class APIManager {
     }
 
 
+    /**
+     * Provides sample data mimicking the output from the Google Maps Distance Matrix API for several origins.
+     * 
+     * Destinations with coordinates are given their great-circle distance from the origin, stretched by a typical
+     * detour factor, so that sample grids vary smoothly; the others get a random distance.
+     * 
+     * @param origins the starting points
+     * @param destinations the list of destination places
+     * @return for each origin, a list of sample walking distances to each destination
+     */
+    public static List<List<WalkingDistance>> sampleData_getWalkingDistanceMatrix(List<LatLng> origins, List<Location> destinations) {
+
+        List<List<WalkingDistance>> rows = new ArrayList<>();
+
+        for (LatLng origin : origins) {
+            List<WalkingDistance> row = new ArrayList<>();
+
+            for (Location destination : destinations) {
+                long meters = destination.hasCoordinates()
+                        ? Math.round(1.3 * GeoMath.distanceMeters(origin.lat, origin.lng, destination.getLatitude(), destination.getLongitude()))
+                        : random.nextLong(100, 2000);
+                row.add(WalkingDistance.of(meters, Math.round(meters / 1.4)));
+            }
+
+            rows.add(row);
+        }
+
+        return rows;
+    }
+
     /**
      * Main method for testing how the Google Maps API and Distance Matrix API works before implementing the real methods.
      */
@@ -386,8 +969,13 @@ public class APIManager {
             final String testAddress = dotenv.get("TEST_ADDRESS");
 
             final PlaceType[] categories = LocationManager.CATEGORY_CONSTANTS.keySet().toArray(new PlaceType[0]);
+
+            GeocodedLocation origin = apiManager.geocode(testAddress, test);
+
+            System.out.println(origin);
+            System.out.println();
         
-            List<Location> places = apiManager.retrievePlacesOfCategory(testAddress, categories[0], test);
+            List<Location> places = apiManager.retrievePlacesOfCategory(origin, categories[0], test);
 
             for (Location place : places) {
                 System.out.println(place);
@@ -395,17 +983,15 @@ public class APIManager {
 
             System.out.println();
 
-            List<String> placeAddresses = generateAddressList(places);
-
-            for (String placeAddress : placeAddresses) {
-                System.out.println(placeAddress);
+            for (String destination : generateDestinationList(places)) {
+                System.out.println(destination);
             }
 
             System.out.println();
 
-            List<String> walkingDistances = apiManager.getWalkingDistances(testAddress, placeAddresses, test);
+            List<WalkingDistance> walkingDistances = apiManager.getWalkingDistances(origin, places, test);
 
-            for (String distance : walkingDistances) {
+            for (WalkingDistance distance : walkingDistances) {
                 System.out.println(distance);
             }
         } catch (Exception e) {
@@ -418,19 +1004,26 @@ public class APIManager {
  
 
     /**
-     * Generate a list of addresses from a list of Location objects
+     * Generate a list of Distance Matrix destinations from a list of Location objects
+     * 
+     * A place is sent as "place_id:&lt;id&gt;" when it has a place id, as "lat,lng" when it only has coordinates, and
+     * as its address otherwise, so that the Distance Matrix API geocodes as few destinations as possible.
      * 
      * @param locations the list of Location objects
-     * @return a list of addresses
+     * @return a list of destinations, in the same order
      */
-    private static List<String> generateAddressList(List<Location> locations)
+    private static List<String> generateDestinationList(List<Location> locations)
     {
-        List<String> addressList = new ArrayList<>();
+        List<String> destinationList = new ArrayList<>();
         for (Location location : locations) {
-            System.out.println(location.getAddress());
-            addressList.add(location.getAddress());
+            if (location.getPlaceId() != null && !location.getPlaceId().isEmpty())
+                destinationList.add("place_id:" + location.getPlaceId());
+            else if (location.hasCoordinates())
+                destinationList.add(new LatLng(location.getLatitude(), location.getLongitude()).toUrlValue());
+            else
+                destinationList.add(location.getAddress());
         }
-        return addressList;
+        return destinationList;
     }
 
     /**
@@ -438,7 +1031,8 @@ public class APIManager {
      * 
      * If the location does not exist, return false.
      * 
-     * Uses the Geocoding API to get the latitude and longitude of the location. If the location does not exist, the Geocoding API will return an empty array.
+     * Request handlers should call {@link #geocode(String, boolean)} instead and reuse its result, so that the
+     * validation and the search share a single Geocoding call.
      *  
      * @param location the location to check
      * @return true if the location exists, false otherwise
@@ -447,16 +1041,7 @@ public class APIManager {
     {
         try
         {
-            GeocodingResult[] results = GeocodingApi.geocode(context, location).await(); // Get the latitude and longitude of the location
-
-            if (results.length == 0)
-            {
-                return false;
-            }
-            else
-            {
-                return true;
-            }
+            return geocode(location, false) != null;
         }
         catch (Exception e)
         {
@@ -0,0 +1,110 @@
+package com.aruki.aruki;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The {@code AddressCanonicalizer} class reduces a free-text address to a canonical form, so that addresses
+ * which differ only in formatting share the same cache entries.
+ * <p>
+ * Canonicalization:
+ * <ul>
+ *   <li>Lower-cases the address and drops punctuation</li>
+ *   <li>Collapses runs of whitespace into a single space</li>
+ *   <li>Abbreviates common street suffixes and directions ("Street" becomes "st", "North" becomes "n")</li>
+ *   <li>Removes unit designations ("Apt 4B", "Suite 200", "#12"), since every unit of a building has the same
+ *       surroundings</li>
+ * </ul>
+ * </p>
+ * <p>
+ * Example usage:
+ * <pre>
+ *     AddressCanonicalizer.canonicalize("123 Main Street, Apt. 4");  // "123 main st"
+ *     AddressCanonicalizer.canonicalize("123  main st");             // "123 main st"
+ * </pre>
+ * </p>
+ *
+ * @see GeocodeCache
+ */
+public final class AddressCanonicalizer {
+
+    // Full street suffix and direction words, and the abbreviation each one is reduced to
+    private static final Map<String, String> ABBREVIATIONS = Map.ofEntries(
+        Map.entry("street", "st"),
+        Map.entry("avenue", "ave"),
+        Map.entry("av", "ave"),
+        Map.entry("road", "rd"),
+        Map.entry("boulevard", "blvd"),
+        Map.entry("drive", "dr"),
+        Map.entry("lane", "ln"),
+        Map.entry("court", "ct"),
+        Map.entry("place", "pl"),
+        Map.entry("terrace", "ter"),
+        Map.entry("parkway", "pkwy"),
+        Map.entry("highway", "hwy"),
+        Map.entry("circle", "cir"),
+        Map.entry("square", "sq"),
+        Map.entry("trail", "trl"),
+        Map.entry("expressway", "expy"),
+        Map.entry("north", "n"),
+        Map.entry("south", "s"),
+        Map.entry("east", "e"),
+        Map.entry("west", "w"),
+        Map.entry("northeast", "ne"),
+        Map.entry("northwest", "nw"),
+        Map.entry("southeast", "se"),
+        Map.entry("southwest", "sw")
+    );
+
+    // Words that introduce a unit number; the word and the number after it are dropped
+    private static final Set<String> UNIT_DESIGNATORS = Set.of(
+        "apt", "apartment", "unit", "suite", "ste", "rm", "room"
+    );
+
+    private AddressCanonicalizer() {}
+
+    /**
+     * Returns the canonical form of an address.
+     *
+     * @param address the address to canonicalize
+     * @return the canonical form of the address, or an empty string if the address is null
+     */
+    public static String canonicalize(String address) {
+        if (address == null) {
+            return "";
+        }
+
+        // Keep letters, digits and '#', everything else separates words
+        String[] tokens = address.toLowerCase(Locale.ROOT).replaceAll("[^\\p{L}\\p{N}#]+", " ").trim().split(" ");
+        StringBuilder canonical = new StringBuilder(address.length());
+
+        for (int i = 0; i < tokens.length; i++) {
+            String token = tokens[i];
+
+            if (token.isEmpty()) {
+                continue;
+            }
+
+            if (token.startsWith("#")) {
+                // "#12" carries its number, a lone "#" is followed by it
+                if (token.length() == 1) {
+                    i++;
+                }
+                continue;
+            }
+
+            if (UNIT_DESIGNATORS.contains(token) && i + 1 < tokens.length) {
+                i++; // Skip the unit number as well
+                continue;
+            }
+
+            if (canonical.length() > 0) {
+                canonical.append(' ');
+            }
+            canonical.append(ABBREVIATIONS.getOrDefault(token, token));
+        }
+
+        return canonical.toString();
+    }
+}
@@ -1,7 +1,16 @@
 package com.aruki.aruki;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * The {@code AppConfig} class is a configuration class for the Spring application.
@@ -13,6 +22,19 @@ import org.springframework.context.annotation.Bean;
  * <ul>
  *   <li>A bean for {@code LocationManager}</li>
  *   <li>A bean for {@code APIManager}</li>
+ *   <li>A bean for {@code PlacesProvider}</li>
+ *   <li>A bean for {@code WalkingDistanceProvider}</li>
+ *   <li>A bean for {@code FanOutExecutor}</li>
+ *   <li>A bean for {@code QuotaManager}</li>
+ *   <li>A bean for {@code ResilienceManager}</li>
+ *   <li>A bean for {@code GeocodeCache}</li>
+ *   <li>A bean for {@code NearbySearchCache}</li>
+ *   <li>A bean for {@code WalkingDistanceCache}</li>
+ *   <li>A bean for {@code BulkScorer}</li>
+ *   <li>A bean for {@code ScoringJobManager}</li>
+ *   <li>A bean for {@code GridScorer}</li>
+ *   <li>A bean for {@code ScoreGridStore}</li>
+ *   <li>A bean for {@code ScoreStore}</li>
  * </ul>
  * </p>
  * <p>
@@ -67,12 +89,24 @@ public class AppConfig {
      * and exits the application.
      * </p>
      *
+     * <p>
+     * The timeouts of each request to Google are read from the {@code aruki.google.*} properties. If
+     * {@code aruki.google.base-url} is set, requests are sent there instead of to Google, e.g. to a stub server
+     * during a load test.
+     * </p>
+     *
+     * @param connectTimeout how long to wait for a connection to Google
+     * @param readTimeout how long to wait for a response once connected
+     * @param baseUrl the base URL to send requests to, or empty for Google
      * @return a new instance of {@code APIManager}, or {@code null} if an error occurs
      */
     @Bean
-    public APIManager apiManager() {
+    public APIManager apiManager(
+            @Value("${aruki.google.connect-timeout:2s}") Duration connectTimeout,
+            @Value("${aruki.google.read-timeout:5s}") Duration readTimeout,
+            @Value("${aruki.google.base-url:}") String baseUrl) {
         try {
-            return new APIManager();
+            return new APIManager(connectTimeout, readTimeout, baseUrl);
         } catch (Exception e) {
             // Print error
             System.out.println("Error: " + e.getMessage());
@@ -80,5 +114,279 @@ public class AppConfig {
             return null;
         }
     }
-    
+
+    /**
+     * Creates the bean for {@code PlacesProvider}, which answers every nearby search.
+     * <p>
+     * If {@code aruki.places.offline-index} names an index file built by the {@link PoiImporter}, searches are answered
+     * from it by an {@link OfflinePlacesProvider}; otherwise they go to Google through the {@code APIManager}. The bean
+     * is primary, so that it is chosen over the {@code APIManager}, which is a {@code PlacesProvider} as well.
+     * </p>
+     *
+     * @param apiManager the Google implementation
+     * @param offlineIndex the index file of imported places, or empty to search with Google
+     * @return the {@code OfflinePlacesProvider} if an index is configured, the {@code APIManager} otherwise
+     * @throws IOException if the index cannot be opened
+     */
+    @Bean
+    @Primary
+    public PlacesProvider placesProvider(APIManager apiManager, @Value("${aruki.places.offline-index:}") String offlineIndex) throws IOException {
+        if (offlineIndex.isBlank()) {
+            return apiManager;
+        }
+        return OfflinePlacesProvider.open(Path.of(offlineIndex));
+    }
+
+    /**
+     * Creates the bean for {@code WalkingDistanceProvider}, which answers every walking distance.
+     * <p>
+     * If {@code aruki.walking.graph} names a graph file built by the {@link PedestrianGraphImporter}, distances are
+     * searched on it by a {@link LocalWalkingDistanceProvider}, up to the search radius; otherwise they go to the
+     * Distance Matrix API through the {@code APIManager}. The bean is not primary: when it is the {@code APIManager},
+     * it is a {@code PlacesProvider} too and would compete with the primary one, so it is injected by name instead.
+     * </p>
+     *
+     * @param apiManager the Google implementation
+     * @param graph the pedestrian graph file, or empty to ask Google
+     * @return the {@code LocalWalkingDistanceProvider} if a graph is configured, the {@code APIManager} otherwise
+     * @throws IOException if the graph cannot be read
+     */
+    @Bean
+    public WalkingDistanceProvider walkingDistanceProvider(APIManager apiManager, @Value("${aruki.walking.graph:}") String graph) throws IOException {
+        if (graph.isBlank()) {
+            return apiManager;
+        }
+        return LocalWalkingDistanceProvider.open(Path.of(graph), LocationManager.SCORING_ENGINE.getSearchRadiusMeters());
+    }
+
+    /**
+     * Creates a bean for {@code FanOutExecutor}, the executor shared by every request.
+     * <p>
+     * The concurrency limit of each Google Maps API is read from the {@code aruki.fanout.*}
+     * properties.
+     * </p>
+     *
+     * @param geocodingConcurrency the maximum number of concurrent Geocoding calls
+     * @param placesConcurrency the maximum number of concurrent Places calls
+     * @param distanceMatrixConcurrency the maximum number of concurrent Distance Matrix calls
+     * @return a new instance of {@code FanOutExecutor}
+     */
+    @Bean
+    public FanOutExecutor fanOutExecutor(
+            @Value("${aruki.fanout.geocoding.max-concurrency:" + FanOutExecutor.DEFAULT_GEOCODING_CONCURRENCY + "}") int geocodingConcurrency,
+            @Value("${aruki.fanout.places.max-concurrency:" + FanOutExecutor.DEFAULT_PLACES_CONCURRENCY + "}") int placesConcurrency,
+            @Value("${aruki.fanout.distance-matrix.max-concurrency:" + FanOutExecutor.DEFAULT_DISTANCE_MATRIX_CONCURRENCY + "}") int distanceMatrixConcurrency) {
+        return new FanOutExecutor(geocodingConcurrency, placesConcurrency, distanceMatrixConcurrency);
+    }
+
+    /**
+     * Creates a bean for {@code QuotaManager}, the request budget shared by every request.
+     * <p>
+     * The rate of each Google Maps API is read from the {@code aruki.quota.*} properties; set them a little below
+     * the quotas of the Google Cloud project, which are shared by every instance using the same key.
+     * </p>
+     *
+     * @param geocodingRate the Geocoding requests allowed per second
+     * @param placesRate the Places requests allowed per second
+     * @param distanceMatrixRate the Distance Matrix elements allowed per second
+     * @param maxWait the longest a call waits for its quota before the request fails with 429
+     * @return a new instance of {@code QuotaManager}
+     */
+    @Bean
+    public QuotaManager quotaManager(
+            @Value("${aruki.quota.geocoding.requests-per-second:" + QuotaManager.DEFAULT_GEOCODING_RATE + "}") double geocodingRate,
+            @Value("${aruki.quota.places.requests-per-second:" + QuotaManager.DEFAULT_PLACES_RATE + "}") double placesRate,
+            @Value("${aruki.quota.distance-matrix.elements-per-second:" + QuotaManager.DEFAULT_DISTANCE_MATRIX_RATE + "}") double distanceMatrixRate,
+            @Value("${aruki.quota.max-wait:1s}") Duration maxWait) {
+        return new QuotaManager(geocodingRate, placesRate, distanceMatrixRate, maxWait);
+    }
+
+    /**
+     * Creates a bean for {@code PipelineMetrics}, which publishes the latency of each stage of the places and scoring
+     * pipeline as the {@code aruki.pipeline.stage} timer.
+     *
+     * @return a new instance of {@code PipelineMetrics}
+     */
+    @Bean
+    public PipelineMetrics pipelineMetrics() {
+        return new PipelineMetrics();
+    }
+
+    /**
+     * Creates a bean for {@code ResilienceManager}, which wraps every call to Google in a circuit breaker, retries and
+     * optional hedging.
+     * <p>
+     * The retry, circuit breaker and hedging settings are read from the {@code aruki.resilience.*} properties. A
+     * hedge delay of zero disables hedging for that API.
+     * </p>
+     *
+     * @param maxAttempts the number of attempts a call may take, including the first
+     * @param retryBaseDelay the backoff before the first retry, doubled for each later one
+     * @param retryMaxDelay the largest backoff before a retry
+     * @param windowSize the number of recent calls each circuit breaker computes its failure rate over
+     * @param minimumCalls the number of calls recorded before a circuit breaker may open
+     * @param failureRateThreshold the share of failed calls at which a circuit breaker opens
+     * @param openDuration how long an open circuit breaker refuses calls before probing
+     * @param geocodingHedgeDelay how long a Geocoding call runs before it is hedged
+     * @param placesHedgeDelay how long a Places call runs before it is hedged
+     * @param distanceMatrixHedgeDelay how long a Distance Matrix call runs before it is hedged
+     * @return a new instance of {@code ResilienceManager}
+     */
+    @Bean
+    public ResilienceManager resilienceManager(
+            @Value("${aruki.resilience.retry.max-attempts:" + ResilienceManager.DEFAULT_MAX_ATTEMPTS + "}") int maxAttempts,
+            @Value("${aruki.resilience.retry.base-delay:100ms}") Duration retryBaseDelay,
+            @Value("${aruki.resilience.retry.max-delay:1s}") Duration retryMaxDelay,
+            @Value("${aruki.resilience.circuit.window-size:" + ResilienceManager.DEFAULT_WINDOW_SIZE + "}") int windowSize,
+            @Value("${aruki.resilience.circuit.minimum-calls:" + ResilienceManager.DEFAULT_MINIMUM_CALLS + "}") int minimumCalls,
+            @Value("${aruki.resilience.circuit.failure-rate-threshold:" + ResilienceManager.DEFAULT_FAILURE_RATE_THRESHOLD + "}") double failureRateThreshold,
+            @Value("${aruki.resilience.circuit.open-duration:30s}") Duration openDuration,
+            @Value("${aruki.resilience.hedge.geocoding.delay:0ms}") Duration geocodingHedgeDelay,
+            @Value("${aruki.resilience.hedge.places.delay:0ms}") Duration placesHedgeDelay,
+            @Value("${aruki.resilience.hedge.distance-matrix.delay:0ms}") Duration distanceMatrixHedgeDelay) {
+        return new ResilienceManager(maxAttempts, retryBaseDelay, retryMaxDelay,
+                api -> new CircuitBreaker(api.getTag(), windowSize, minimumCalls, failureRateThreshold, openDuration, System::nanoTime),
+                Map.of(UpstreamApi.GEOCODING, geocodingHedgeDelay, UpstreamApi.PLACES, placesHedgeDelay, UpstreamApi.DISTANCE_MATRIX, distanceMatrixHedgeDelay));
+    }
+
+    /**
+     * Creates a bean for {@code GeocodeCache}.
+     * <p>
+     * The size and time-to-live of the cache are read from the {@code aruki.cache.geocode.*} properties.
+     * </p>
+     *
+     * @param maxSize the maximum number of addresses to cache
+     * @param ttl how long a geocode stays valid
+     * @return a new instance of {@code GeocodeCache}
+     */
+    @Bean
+    public GeocodeCache geocodeCache(
+            @Value("${aruki.cache.geocode.max-size:" + GeocodeCache.DEFAULT_MAX_SIZE + "}") int maxSize,
+            @Value("${aruki.cache.geocode.ttl:24h}") Duration ttl) {
+        return new GeocodeCache(maxSize, ttl);
+    }
+
+    /**
+     * Creates a bean for {@code NearbySearchCache}.
+     * <p>
+     * The cell precision, size and time-to-live of the cache are read from the {@code aruki.cache.nearby.*}
+     * properties.
+     * </p>
+     *
+     * @param precision the geohash precision of a cell
+     * @param maxSize the maximum number of (cell, category) entries to cache
+     * @param ttl how long a search result stays valid
+     * @return a new instance of {@code NearbySearchCache}
+     */
+    @Bean
+    public NearbySearchCache nearbySearchCache(
+            @Value("${aruki.cache.nearby.geohash-precision:" + NearbySearchCache.DEFAULT_PRECISION + "}") int precision,
+            @Value("${aruki.cache.nearby.max-size:" + NearbySearchCache.DEFAULT_MAX_SIZE + "}") int maxSize,
+            @Value("${aruki.cache.nearby.ttl:6h}") Duration ttl) {
+        return new NearbySearchCache(precision, maxSize, ttl);
+    }
+
+    /**
+     * Creates a bean for {@code WalkingDistanceCache}.
+     * <p>
+     * The snapping tolerance, size and time-to-live of the cache are read from the {@code aruki.cache.walking-distance.*}
+     * properties.
+     * </p>
+     *
+     * @param snapToleranceMeters the spacing of the grid origins are snapped to, in meters
+     * @param maxSize the maximum number of distances to cache
+     * @param ttl how long a distance stays valid
+     * @return a new instance of {@code WalkingDistanceCache}
+     */
+    @Bean
+    public WalkingDistanceCache walkingDistanceCache(
+            @Value("${aruki.cache.walking-distance.snap-tolerance-meters:" + WalkingDistanceCache.DEFAULT_SNAP_TOLERANCE_METERS + "}") double snapToleranceMeters,
+            @Value("${aruki.cache.walking-distance.max-size:" + WalkingDistanceCache.DEFAULT_MAX_SIZE + "}") int maxSize,
+            @Value("${aruki.cache.walking-distance.ttl:7d}") Duration ttl) {
+        return new WalkingDistanceCache(snapToleranceMeters, maxSize, ttl);
+    }
+
+    /**
+     * Creates a bean for {@code BulkScorer}, whose budget is shared by every bulk request.
+     * <p>
+     * The number of addresses scored at once and the size of a batch are read from the {@code aruki.bulk.*}
+     * properties.
+     * </p>
+     *
+     * @param googleMapsAPIManager the pipeline the addresses are scored with
+     * @param maxInFlight the maximum number of addresses scored at once, across every batch
+     * @param maxAddresses the maximum number of addresses in a single batch
+     * @return a new instance of {@code BulkScorer}
+     */
+    @Bean
+    public BulkScorer bulkScorer(
+            LocationManager googleMapsAPIManager,
+            @Value("${aruki.bulk.max-in-flight:" + BulkScorer.DEFAULT_MAX_IN_FLIGHT + "}") int maxInFlight,
+            @Value("${aruki.bulk.max-addresses:" + BulkScorer.DEFAULT_MAX_ADDRESSES + "}") int maxAddresses) {
+        return new BulkScorer(googleMapsAPIManager, maxInFlight, maxAddresses);
+    }
+
+    /**
+     * Creates a bean for {@code ScoringJobManager}, which resumes any unfinished jobs in its directory. The
+     * manager is closed on shutdown, leaving running jobs to resume on the next start.
+     *
+     * @param bulkScorer the scorer the addresses are scored with
+     * @param objectMapper the mapper results are written with
+     * @param directory the directory jobs are stored in
+     * @param chunkSize the number of addresses scored between checkpoints
+     * @param retryDelay how long to wait before the first retry of addresses that failed transiently
+     * @param maxRetryDelay the longest wait between retries
+     * @return a new instance of {@code ScoringJobManager}
+     * @throws IOException if the directory cannot be created or read
+     */
+    @Bean(destroyMethod = "close")
+    public ScoringJobManager scoringJobManager(
+            BulkScorer bulkScorer,
+            ObjectMapper objectMapper,
+            @Value("${aruki.jobs.directory:jobs}") Path directory,
+            @Value("${aruki.jobs.chunk-size:" + ScoringJobManager.DEFAULT_CHUNK_SIZE + "}") int chunkSize,
+            @Value("${aruki.jobs.retry-delay:1s}") Duration retryDelay,
+            @Value("${aruki.jobs.max-retry-delay:5m}") Duration maxRetryDelay) throws IOException {
+        return new ScoringJobManager(bulkScorer, objectMapper, directory, chunkSize, retryDelay, maxRetryDelay);
+    }
+
+    /**
+     * Creates a bean for {@code GridScorer}, which shares the executor and caches of the {@code LocationManager}.
+     *
+     * @return a new instance of {@code GridScorer}
+     */
+    @Bean
+    public GridScorer gridScorer() {
+        return new GridScorer();
+    }
+
+    /**
+     * Creates a bean for {@code ScoreGridStore}.
+     *
+     * @param directory the directory grids are stored in
+     * @return a new instance of {@code ScoreGridStore}
+     */
+    @Bean
+    public ScoreGridStore scoreGridStore(@Value("${aruki.grid.directory:grids}") Path directory) {
+        return new ScoreGridStore(directory);
+    }
+
+    /**
+     * Creates a bean for {@code ScoreStore}, loading the scores kept by the previous run. The store is closed on
+     * shutdown, forcing its log to disk.
+     *
+     * @param file the log file of the store
+     * @param ttl how long a score stays valid after it is stored
+     * @param garbageRatio the share of dead bytes in the log above which it is compacted
+     * @return a new instance of {@code ScoreStore}
+     * @throws IOException if the log cannot be read or created
+     */
+    @Bean(destroyMethod = "close")
+    public ScoreStore scoreStore(
+            @Value("${aruki.score-store.file:scores/scores.log}") Path file,
+            @Value("${aruki.score-store.ttl:30d}") Duration ttl,
+            @Value("${aruki.score-store.compaction-garbage-ratio:" + ScoreStore.DEFAULT_GARBAGE_RATIO + "}") double garbageRatio) throws IOException {
+        return ScoreStore.open(file, ttl, garbageRatio);
+    }
+
 }
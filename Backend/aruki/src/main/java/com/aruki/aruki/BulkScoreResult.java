@@ -0,0 +1,199 @@
+package com.aruki.aruki;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Set;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.google.maps.errors.ApiException;
+import com.google.maps.errors.OverQueryLimitException;
+
+/**
+ * The {@code BulkScoreResult} class represents the result of scoring one address of a bulk request.
+ * <p>
+ * The bulk endpoint writes one result per line as soon as its address is scored, so results arrive in completion
+ * order; the index ties each result back to its address in the request. An address that fails does not fail the
+ * rest of the batch: its result carries the same status the single-address endpoints would have answered with.
+ * </p>
+ * <p>
+ * Each {@code BulkScoreResult} object contains:
+ * <ul>
+ *   <li>The index of the address in the request ({@code int})</li>
+ *   <li>The address ({@code String})</li>
+ *   <li>The status of the result: "ok", "invalid location", "timeout", "API Exception", ... ({@code String})</li>
+ *   <li>The score of the address, only when the status is "ok" ({@code ScoreResponse})</li>
+ * </ul>
+ * </p>
+ * <p>
+ * A failure is transient when scoring the address again later may succeed: an exhausted quota, an open circuit
+ * breaker or a timeout. Such results also carry how long to wait before retrying, when known (not serialized).
+ * </p>
+ * <p>
+ * Example output:
+ * <pre>
+ *     {"index":3,"location":"1 Main Street, Norfolk, VA","status":"ok","score":{"walkabilityScore":7.42,"categoryScores":[...]}}
+ *     {"index":0,"location":"nowhere","status":"invalid location"}
+ * </pre>
+ * </p>
+ *
+ * @see BulkScorer
+ * @see APIController
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BulkScoreResult {
+
+    private static final Set<String> TRANSIENT_STATUSES = Set.of("quota exceeded", "upstream unavailable", "timeout");
+
+    private final int index;
+    private final String location;
+    private final String status;
+    private final ScoreResponse score;
+    private final Duration retryAfter;
+
+    /**
+     * Constructs a BulkScoreResult with the specified index, address, status and score.
+     *
+     * @param index the index of the address in the request
+     * @param location the address
+     * @param status the status of the result
+     * @param score the score of the address, or null if it could not be scored
+     */
+    public BulkScoreResult(int index, String location, String status, ScoreResponse score) {
+        this(index, location, status, score, null);
+    }
+
+    private BulkScoreResult(int index, String location, String status, ScoreResponse score, Duration retryAfter) {
+        this.index = index;
+        this.location = location;
+        this.status = status;
+        this.score = score;
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Returns the result of an address that was scored.
+     *
+     * @param index the index of the address in the request
+     * @param location the address
+     * @param score the score of the address
+     * @return the result
+     */
+    public static BulkScoreResult ok(int index, String location, ScoreResponse score) {
+        return new BulkScoreResult(index, location, "ok", score);
+    }
+
+    /**
+     * Returns the result of an address that could not be geocoded.
+     *
+     * @param index the index of the address in the request
+     * @param location the address
+     * @return the result
+     */
+    public static BulkScoreResult invalidLocation(int index, String location) {
+        return new BulkScoreResult(index, location, "invalid location", null);
+    }
+
+    /**
+     * Returns the result of an address whose pipeline failed, with the status the single-address endpoints use
+     * for the same failure.
+     *
+     * @param index the index of the address in the request
+     * @param location the address
+     * @param failure the failure, possibly wrapped by {@code CompletableFuture}
+     * @return the result
+     */
+    public static BulkScoreResult failed(int index, String location, Throwable failure) {
+        Throwable cause = FanOutExecutor.causeOf(failure);
+        String status;
+        Duration retryAfter = null;
+
+        if (cause instanceof QuotaManager.QuotaExceededException quotaExceeded) {
+            status = "quota exceeded";
+            retryAfter = quotaExceeded.getRetryAfter();
+        } else if (cause instanceof ResilienceManager.CircuitOpenException circuitOpen) {
+            status = "upstream unavailable";
+            retryAfter = circuitOpen.getRetryAfter();
+        } else if (cause instanceof OverQueryLimitException) {
+            status = "quota exceeded";
+        } else if (cause instanceof ApiException) {
+            status = "API Exception";
+        } else if (cause instanceof SingleFlight.WaitTimeoutException) {
+            status = "timeout";
+        } else if (cause instanceof InterruptedException) {
+            status = "interrupted";
+        } else if (cause instanceof IOException) {
+            status = "IO Exception";
+        } else {
+            status = "unknown error";
+        }
+
+        return new BulkScoreResult(index, location, status, null, retryAfter);
+    }
+
+    /**
+     * Returns the index of the address in the request.
+     *
+     * @return the index of the address
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the address.
+     *
+     * @return the address
+     */
+    public String getLocation() {
+        return location;
+    }
+
+    /**
+     * Returns the status of the result.
+     *
+     * @return "ok" if the address was scored, or the reason it was not
+     */
+    public String getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns the score of the address.
+     *
+     * @return the score, or null if the address could not be scored
+     */
+    public ScoreResponse getScore() {
+        return score;
+    }
+
+    /**
+     * Checks if the address failed for a reason that may clear by itself, so scoring it again later may succeed.
+     *
+     * @return {@code true} if the failure is transient, {@code false} if the address was scored or failed for good
+     */
+    @JsonIgnore
+    public boolean isTransient() {
+        return TRANSIENT_STATUSES.contains(status);
+    }
+
+    /**
+     * Returns how long to wait before scoring the address again, for a transient failure that says so.
+     *
+     * @return the time to wait, or null if not known
+     */
+    @JsonIgnore
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * Returns a string representation of the result in JSON format.
+     *
+     * @return a string representation of the result
+     */
+    @Override
+    public String toString() {
+        return "{\"index\":" + index + ",\"location\":\"" + location + "\",\"status\":\"" + status + "\",\"score\":" + score + "}";
+    }
+}
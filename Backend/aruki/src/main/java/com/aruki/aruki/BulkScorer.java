@@ -0,0 +1,215 @@
+package com.aruki.aruki;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * The {@code BulkScorer} class scores lists of addresses in parallel, for partners that need hundreds of scores at
+ * once.
+ * <p>
+ * Every address runs through the same non-blocking {@link LocationManager} pipeline as {@code /getScore}, so a
+ * batch shares the geocode, nearby-search and walking distance caches, and the in-flight work, with every other
+ * request: addresses in the same block cost a single nearby search per category, and a repeated address is
+ * computed once. The Google calls themselves are still bounded by the {@link FanOutExecutor} limits.
+ * </p>
+ * <p>
+ * On top of that, the number of addresses being scored at once is capped by a budget shared by every batch, so
+ * bulk traffic can never take all of the Google concurrency away from interactive requests. Addresses over the
+ * budget are queued and started, in order, as earlier ones complete; no thread waits for them.
+ * </p>
+ * <p>
+ * Example usage:
+ * <pre>
+ *     BulkScorer scorer = new BulkScorer(locationManager, 16, 500);
+ *     scorer.scoreAll(addresses, new PipelineStats(), false, result -&gt; System.out.println(result)).join();
+ * </pre>
+ * </p>
+ *
+ * @see BulkScoreResult
+ * @see LocationManager
+ * @see APIController
+ */
+public class BulkScorer {
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 16;
+    public static final int DEFAULT_MAX_ADDRESSES = 500;
+
+    private final LocationManager locationManager;
+    private final Semaphore budget;
+    private final ConcurrentLinkedQueue<Runnable> pendingStarts = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger drainRequests = new AtomicInteger(); // Non-zero while a thread drains the pending starts
+    private final int maxAddresses;
+
+    /**
+     * Constructs a BulkScorer with the specified budget.
+     *
+     * @param locationManager the pipeline the addresses are scored with
+     * @param maxInFlight the maximum number of addresses scored at once, across every batch
+     * @param maxAddresses the maximum number of addresses in a single batch
+     */
+    public BulkScorer(LocationManager locationManager, int maxInFlight, int maxAddresses) {
+        this.locationManager = locationManager;
+        this.budget = new Semaphore(maxInFlight, true);
+        this.maxAddresses = maxAddresses;
+    }
+
+    /**
+     * Returns the maximum number of addresses in a single batch.
+     *
+     * @return the maximum number of addresses
+     */
+    public int getMaxAddresses() {
+        return maxAddresses;
+    }
+
+    /**
+     * Returns the number of addresses being scored, across every batch.
+     *
+     * @return the number of addresses in flight
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Scores a list of addresses, reporting each result as soon as it is known.
+     * <p>
+     * Results are reported in completion order, from whichever thread completed them, and never more than one at a
+     * time. A failed address is reported as a failed result; it does not fail the batch.
+     * </p>
+     *
+     * @param locations the addresses to score
+     * @param stats the stats of the batch
+     * @param test whether to use test data
+     * @param onResult called with the result of each address
+     * @return a future that completes once every result has been reported; cancelling it drops the addresses not yet started
+     */
+    public CompletableFuture<Void> scoreAll(List<String> locations, PipelineStats stats, boolean test, Consumer<BulkScoreResult> onResult) {
+        List<CompletableFuture<BulkScoreResult>> items = new ArrayList<>(locations.size());
+        List<CompletableFuture<Void>> reported = new ArrayList<>(locations.size());
+        Object reportLock = new Object();
+
+        for (int i = 0; i < locations.size(); i++) {
+            int index = i;
+            String location = locations.get(i);
+
+            CompletableFuture<BulkScoreResult> item = submit(() -> scoreOne(index, location, stats, test));
+            items.add(item);
+            reported.add(item.thenAccept(result -> {
+                synchronized (reportLock) {
+                    onResult.accept(result);
+                }
+            }));
+        }
+
+        CompletableFuture<Void> all = CompletableFuture.allOf(reported.toArray(new CompletableFuture<?>[0]));
+
+        // Cancelling the batch drops its queued addresses
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        all.whenComplete((value, failure) -> result.complete(null));
+        result.whenComplete((value, failure) -> {
+            if (result.isCancelled()) {
+                items.forEach(item -> item.cancel(true));
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Scores a single address.
+     *
+     * @param index the index of the address in the batch
+     * @param location the address
+     * @param stats the stats of the batch
+     * @param test whether to use test data
+     * @return a future for the result of the address, which never fails
+     */
+    private CompletableFuture<BulkScoreResult> scoreOne(int index, String location, PipelineStats stats, boolean test) {
+        CompletableFuture<BulkScoreResult> result;
+
+        try {
+            result = locationManager.resolveLocationAsync(location, stats, test).thenCompose(origin -> {
+                if (origin == null) {
+                    return CompletableFuture.completedFuture(BulkScoreResult.invalidLocation(index, location));
+                }
+
+                return locationManager.getScoreAsync(origin, stats, test).thenApply(score -> BulkScoreResult.ok(index, location, score));
+            });
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+
+        return result.exceptionally(failure -> BulkScoreResult.failed(index, location, failure));
+    }
+
+    /**
+     * Starts a call once the shared budget has room for it, queueing it until then.
+     *
+     * @param call the call to start
+     * @return a future for the result of the call; cancelling it before it starts drops it from the queue
+     */
+    private <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+
+        pendingStarts.add(() -> {
+            if (result.isDone()) { // Cancelled while queued: give the slot to the next call
+                budget.release();
+                return;
+            }
+
+            inFlight.incrementAndGet();
+            call.get().whenComplete((value, failure) -> {
+                inFlight.decrementAndGet();
+                budget.release();
+                startPending();
+
+                if (failure != null) {
+                    result.completeExceptionally(failure);
+                } else {
+                    result.complete(value);
+                }
+            });
+        });
+        startPending();
+
+        return result;
+    }
+
+    /**
+     * Starts queued calls while the shared budget has room for them.
+     * <p>
+     * Only one thread drains the queue at a time, so an address answered at once from the caches only asks for
+     * another pass when it releases its slot, instead of starting the next address one stack frame deeper.
+     * </p>
+     */
+    private void startPending() {
+        if (drainRequests.getAndIncrement() != 0) {
+            return; // Another frame or thread is draining, and makes one more pass for this request
+        }
+
+        int missed = 1;
+
+        do {
+            while (!pendingStarts.isEmpty() && budget.tryAcquire()) {
+                Runnable start = pendingStarts.poll();
+
+                if (start == null) {
+                    budget.release();
+                    break;
+                }
+
+                start.run();
+            }
+
+            missed = drainRequests.addAndGet(-missed);
+        } while (missed != 0);
+    }
+}
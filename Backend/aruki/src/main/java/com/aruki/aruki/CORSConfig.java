@@ -22,7 +22,8 @@ public class CORSConfig {
             @Override
             public void addCorsMappings(CorsRegistry registry) {
                 registry.addMapping("/**")
-                        .allowedOrigins("http://localhost:3000", "https://arukiurban.netlify.app");
+                        .allowedOrigins("http://localhost:3000", "https://arukiurban.netlify.app")
+                        .exposedHeaders("X-Distance-Cache-Hits", "X-Distance-Matrix-Elements", "X-Distance-Duplicates-Collapsed", "X-Distance-Unreachable", "X-Job-Status", "Location");
             }
         };
     }
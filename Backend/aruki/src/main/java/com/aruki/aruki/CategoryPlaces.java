@@ -0,0 +1,87 @@
+package com.aruki.aruki;
+
+import java.util.List;
+
+/**
+ * The {@code CategoryPlaces} class represents the verified places of one category, as sent by the streaming
+ * places endpoint as soon as that category is done.
+ * <p>
+ * Each {@code CategoryPlaces} object contains:
+ * <ul>
+ *   <li>The name of the category ({@code String})</li>
+ *   <li>The verified places of the category, nearest first ({@code List<Location>})</li>
+ * </ul>
+ * </p>
+ * <p>
+ * Example usage:
+ * <pre>
+ *     CategoryPlaces restaurants = new CategoryPlaces("restaurant", places);
+ *     emitter.send(SseEmitter.event().name("category").data(restaurants));
+ * </pre>
+ * </p>
+ *
+ * @see Location
+ * @see APIController
+ */
+public class CategoryPlaces {
+
+    private String category;
+    private List<Location> places;
+
+    /**
+     * Constructs a {@code CategoryPlaces} with the specified category and places.
+     *
+     * @param category the name of the category
+     * @param places the verified places of the category, nearest first
+     */
+    public CategoryPlaces(String category, List<Location> places) {
+        this.category = category;
+        this.places = places;
+    }
+
+    /**
+     * Returns the name of the category.
+     *
+     * @return the name of the category
+     */
+    public String getCategory() {
+        return this.category;
+    }
+
+    /**
+     * Sets the name of the category.
+     *
+     * @param category the new name of the category
+     */
+    public void setCategory(String category) {
+        this.category = category;
+    }
+
+    /**
+     * Returns the verified places of the category.
+     *
+     * @return the places of the category, nearest first
+     */
+    public List<Location> getPlaces() {
+        return this.places;
+    }
+
+    /**
+     * Sets the verified places of the category.
+     *
+     * @param places the new places of the category
+     */
+    public void setPlaces(List<Location> places) {
+        this.places = places;
+    }
+
+    /**
+     * Returns a string representation of the category and its places in JSON format.
+     *
+     * @return a string representation of the category and its places
+     */
+    @Override
+    public String toString() {
+        return "{\"category\":\"" + category + "\",\"places\":" + places + "}";
+    }
+}
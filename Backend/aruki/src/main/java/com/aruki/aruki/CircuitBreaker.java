@@ -0,0 +1,203 @@
+package com.aruki.aruki;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * The {@code CircuitBreaker} class stops calls to a downstream that is failing, so that callers fail at once instead
+ * of each waiting for a timeout.
+ * <p>
+ * The breaker starts {@link State#CLOSED} and records the outcome of the last {@code windowSize} calls. Once at least
+ * {@code minimumCalls} have been recorded and the share of failures reaches {@code failureRateThreshold}, it
+ * {@link State#OPEN opens}: every call is refused for {@code openDuration}. It then lets a single probe call through
+ * ({@link State#HALF_OPEN}); if the probe succeeds the breaker closes with an empty window, and if it fails the
+ * breaker opens again.
+ * </p>
+ * <p>
+ * Example usage:
+ * <pre>
+ *     CircuitBreaker breaker = new CircuitBreaker("places", 20, 10, 0.5, Duration.ofSeconds(30), System::nanoTime);
+ *     if (breaker.tryAcquire()) {
+ *         try {
+ *             call();
+ *             breaker.onSuccess();
+ *         } catch (IOException e) {
+ *             breaker.onFailure();
+ *         }
+ *     }
+ * </pre>
+ * </p>
+ *
+ * @see ResilienceManager
+ */
+public class CircuitBreaker {
+
+    /**
+     * The states of a circuit breaker, in the order of their metric value.
+     */
+    public enum State {
+        CLOSED, HALF_OPEN, OPEN
+    }
+
+    private final String name;
+    private final boolean[] window; // Whether each of the last calls failed, as a ring
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long openNanos;
+    private final LongSupplier nanoClock;
+
+    private State state = State.CLOSED;
+    private int next;
+    private int calls;
+    private int failures;
+    private long openedAt;
+    private boolean probing;
+    private long timesOpened;
+
+    /**
+     * Constructs a closed CircuitBreaker.
+     *
+     * @param name the name of the downstream, for logging
+     * @param windowSize the number of most recent calls the failure rate is computed over
+     * @param minimumCalls the number of calls recorded before the breaker may open
+     * @param failureRateThreshold the share of failed calls, between 0 and 1, at which the breaker opens
+     * @param openDuration how long the breaker refuses calls once open
+     * @param nanoClock the monotonic clock, in nanoseconds
+     */
+    public CircuitBreaker(String name, int windowSize, int minimumCalls, double failureRateThreshold, Duration openDuration, LongSupplier nanoClock) {
+        if (windowSize < 1 || minimumCalls < 1 || minimumCalls > windowSize || !(failureRateThreshold > 0 && failureRateThreshold <= 1)) {
+            throw new IllegalArgumentException("Invalid circuit breaker: window " + windowSize + ", minimum calls " + minimumCalls + ", threshold " + failureRateThreshold);
+        }
+
+        this.name = name;
+        this.window = new boolean[windowSize];
+        this.minimumCalls = minimumCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.openNanos = openDuration.toNanos();
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Asks whether a call may be made. A call that is let through must be followed by {@link #onSuccess()},
+     * {@link #onFailure()} or {@link #onIgnored()}.
+     *
+     * @return true if the call may be made, false if the breaker is open or its probe is already in flight
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN && nanoClock.getAsLong() - openedAt >= openNanos) {
+            state = State.HALF_OPEN;
+            probing = false;
+        }
+
+        switch (state) {
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                if (probing) {
+                    return false;
+                }
+                probing = true;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Records a call that the downstream answered, successfully or with an error unrelated to its health.
+     */
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            state = State.CLOSED;
+            probing = false;
+            next = 0;
+            calls = 0;
+            failures = 0;
+        } else if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    /**
+     * Records a call that failed because the downstream is unavailable or too slow.
+     */
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            open();
+        } else if (state == State.CLOSED) {
+            record(true);
+
+            if (calls >= minimumCalls && failures >= failureRateThreshold * calls) {
+                open();
+            }
+        }
+    }
+
+    /**
+     * Records a call that ended without reaching the downstream, e.g. because it was cancelled or refused by the
+     * local quota. It says nothing about the downstream's health, so it is left out of the window; a half-open
+     * breaker lets another probe through.
+     */
+    public synchronized void onIgnored() {
+        if (state == State.HALF_OPEN) {
+            probing = false;
+        }
+    }
+
+    /**
+     * Returns the state of the breaker.
+     *
+     * @return the state
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Returns how long until an open breaker lets a probe through.
+     *
+     * @return the remaining open time, or zero if the breaker is not open
+     */
+    public synchronized Duration getRetryAfter() {
+        if (state != State.OPEN) {
+            return Duration.ZERO;
+        }
+        return Duration.ofNanos(Math.max(0, openedAt + openNanos - nanoClock.getAsLong()));
+    }
+
+    /**
+     * Returns the number of times the breaker has opened.
+     *
+     * @return the number of times opened
+     */
+    public synchronized long getTimesOpened() {
+        return timesOpened;
+    }
+
+    /**
+     * Adds the outcome of a call to the window, dropping the oldest once it is full.
+     */
+    private void record(boolean failed) {
+        if (calls == window.length) {
+            if (window[next]) {
+                failures--;
+            }
+        } else {
+            calls++;
+        }
+
+        window[next] = failed;
+        if (failed) {
+            failures++;
+        }
+        next = (next + 1) % window.length;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = nanoClock.getAsLong();
+        probing = false;
+        timesOpened++;
+        System.out.println("Circuit breaker for " + name + " opened for " + Duration.ofNanos(openNanos));
+    }
+}
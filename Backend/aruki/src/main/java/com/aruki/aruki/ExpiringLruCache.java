@@ -0,0 +1,217 @@
+package com.aruki.aruki;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * The {@code ExpiringLruCache} class is a bounded, thread-safe, in-process cache whose entries expire after a
+ * fixed time-to-live.
+ * <p>
+ * When the cache is full, the least recently used entry is evicted. Expired entries are never returned and are
+ * dropped when they are next looked up.
+ * </p>
+ * <p>
+ * The cache counts its hits, misses and evictions, and publishes them (along with its size) as the
+ * {@code aruki.cache.*} metrics, tagged with the name of the cache.
+ * </p>
+ * <p>
+ * Example usage:
+ * <pre>
+ *     ExpiringLruCache<String, GeocodedLocation> cache = new ExpiringLruCache<>("geocode", 10_000, Duration.ofHours(24));
+ *     cache.put("123 main st", origin);
+ *     GeocodedLocation cached = cache.get("123 main st");
+ * </pre>
+ * </p>
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the cached values
+ * @see GeocodeCache
+ */
+public class ExpiringLruCache<K, V> implements MeterBinder {
+
+    private final String name;
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+    private final LinkedHashMap<K, Entry<V>> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Constructs an ExpiringLruCache with the specified name, maximum size and time-to-live.
+     *
+     * @param name the name of the cache, used to tag its metrics
+     * @param maxSize the maximum number of entries
+     * @param ttl how long an entry stays valid after it is stored
+     */
+    public ExpiringLruCache(String name, int maxSize, Duration ttl) {
+        this(name, maxSize, ttl, System::nanoTime);
+    }
+
+    /**
+     * Constructs an ExpiringLruCache that reads the time from the specified clock.
+     *
+     * @param name the name of the cache, used to tag its metrics
+     * @param maxSize the maximum number of entries
+     * @param ttl how long an entry stays valid after it is stored
+     * @param clock the clock, in nanoseconds
+     */
+    public ExpiringLruCache(String name, int maxSize, Duration ttl, LongSupplier clock) {
+        this.name = name;
+        this.maxSize = maxSize;
+        this.ttlNanos = ttl.toNanos();
+        this.clock = clock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                if (size() > ExpiringLruCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached value for the key, counting the lookup as a hit or a miss.
+     *
+     * @param key the key to look up
+     * @return the cached value, or null if there is no valid entry for the key
+     */
+    public V get(K key) {
+        long now = clock.getAsLong();
+
+        synchronized (entries) {
+            Entry<V> entry = entries.get(key);
+
+            if (entry != null && entry.expiresAt - now > 0) {
+                hits.incrementAndGet();
+                return entry.value;
+            }
+
+            if (entry != null) {
+                entries.remove(key);
+            }
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Stores a value for the key, replacing any previous entry and evicting the least recently used entry if the
+     * cache is full.
+     *
+     * @param key the key to store the value under
+     * @param value the value to store
+     */
+    public void put(K key, V value) {
+        Entry<V> entry = new Entry<>(value, clock.getAsLong() + ttlNanos);
+
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    /**
+     * Removes every expired entry.
+     */
+    public void purgeExpired() {
+        long now = clock.getAsLong();
+
+        synchronized (entries) {
+            Iterator<Entry<V>> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().expiresAt - now <= 0) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes every entry.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Returns the number of entries, including ones that have expired but not yet been dropped.
+     *
+     * @return the number of entries
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Returns the name of the cache.
+     *
+     * @return the name of the cache
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the number of lookups that found a valid entry.
+     *
+     * @return the number of hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups that did not find a valid entry.
+     *
+     * @return the number of misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of entries evicted because the cache was full.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Registers the hit, miss, eviction and size metrics of the cache.
+     *
+     * @param registry the registry to bind the metrics to
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("aruki.cache.hits", hits, AtomicLong::get).tag("cache", name).register(registry);
+        FunctionCounter.builder("aruki.cache.misses", misses, AtomicLong::get).tag("cache", name).register(registry);
+        FunctionCounter.builder("aruki.cache.evictions", evictions, AtomicLong::get).tag("cache", name).register(registry);
+        Gauge.builder("aruki.cache.size", this, ExpiringLruCache::size).tag("cache", name).register(registry);
+    }
+
+    /**
+     * A cached value and the time, in nanoseconds, at which it expires.
+     */
+    private record Entry<V>(V value, long expiresAt) {}
+}
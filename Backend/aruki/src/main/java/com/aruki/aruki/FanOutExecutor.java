@@ -0,0 +1,507 @@
+package com.aruki.aruki;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import com.google.maps.errors.ApiException;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * The {@code FanOutExecutor} class is the application-wide execution layer used to fan requests out to the
+ * Google Maps APIs.
+ * <p>
+ * Every task runs on its own virtual thread, so there is no pool to size, create per request, or leak.
+ * What is bounded instead is the number of tasks talking to each {@link UpstreamApi} at the same time:
+ * each downstream has its own limit, and tasks over the limit wait (parked, not holding a platform thread)
+ * until a slot frees up.
+ * </p>
+ * <p>
+ * Tasks submitted together through {@link #invokeAll(UpstreamApi, List)} are treated as siblings: as soon as
+ * one fails, the others are cancelled and the failure is rethrown to the caller.
+ * </p>
+ * <p>
+ * Calls that are already asynchronous (such as the Google Maps {@code PendingResult} callbacks) go through
+ * {@link #submitAsync(UpstreamApi, Supplier)} and {@link #invokeAllAsync(UpstreamApi, List)} instead. They share
+ * the same limits, but a call over the limit is queued rather than parked, and is started by whichever call frees
+ * its slot, so no thread waits at all.
+ * </p>
+ * <p>
+ * The number of in-flight and queued tasks per downstream is published as the {@code aruki.fanout.in_flight}
+ * and {@code aruki.fanout.queued} gauges.
+ * </p>
+ * <p>
+ * Example usage:
+ * <pre>
+ *     FanOutExecutor executor = new FanOutExecutor();
+ *     List<List<Location>> results = executor.invokeAll(UpstreamApi.PLACES, tasks);
+ * </pre>
+ * </p>
+ *
+ * @see UpstreamApi
+ * @see LocationManager
+ */
+public class FanOutExecutor implements MeterBinder, AutoCloseable {
+
+    public static final int DEFAULT_GEOCODING_CONCURRENCY = 8;
+    public static final int DEFAULT_PLACES_CONCURRENCY = 32;
+    public static final int DEFAULT_DISTANCE_MATRIX_CONCURRENCY = 16;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<UpstreamApi, Semaphore> limits = new EnumMap<>(UpstreamApi.class);
+    private final Map<UpstreamApi, AtomicInteger> inFlight = new EnumMap<>(UpstreamApi.class);
+    private final Map<UpstreamApi, AtomicInteger> queued = new EnumMap<>(UpstreamApi.class);
+    private final Map<UpstreamApi, ConcurrentLinkedQueue<Runnable>> pendingStarts = new EnumMap<>(UpstreamApi.class);
+    private final Map<UpstreamApi, AtomicInteger> drainRequests = new EnumMap<>(UpstreamApi.class); // Non-zero while a thread drains the pending starts
+
+    /**
+     * Constructs a FanOutExecutor with the default concurrency limits.
+     */
+    public FanOutExecutor() {
+        this(DEFAULT_GEOCODING_CONCURRENCY, DEFAULT_PLACES_CONCURRENCY, DEFAULT_DISTANCE_MATRIX_CONCURRENCY);
+    }
+
+    /**
+     * Constructs a FanOutExecutor with the specified concurrency limit for each downstream API.
+     *
+     * @param geocodingConcurrency the maximum number of concurrent Geocoding calls
+     * @param placesConcurrency the maximum number of concurrent Places calls
+     * @param distanceMatrixConcurrency the maximum number of concurrent Distance Matrix calls
+     */
+    public FanOutExecutor(int geocodingConcurrency, int placesConcurrency, int distanceMatrixConcurrency) {
+        limits.put(UpstreamApi.GEOCODING, new Semaphore(geocodingConcurrency, true));
+        limits.put(UpstreamApi.PLACES, new Semaphore(placesConcurrency, true));
+        limits.put(UpstreamApi.DISTANCE_MATRIX, new Semaphore(distanceMatrixConcurrency, true));
+
+        for (UpstreamApi api : UpstreamApi.values()) {
+            inFlight.put(api, new AtomicInteger());
+            queued.put(api, new AtomicInteger());
+            pendingStarts.put(api, new ConcurrentLinkedQueue<>());
+            drainRequests.put(api, new AtomicInteger());
+        }
+    }
+
+    /**
+     * Runs the tasks concurrently against the specified downstream and waits for all of them.
+     * <p>
+     * The results are returned in the same order as the tasks. If any task fails, its siblings are
+     * cancelled and the cause of the failure is rethrown.
+     * </p>
+     *
+     * @param downstream the downstream API the tasks call
+     * @param tasks the tasks to run
+     * @return the results of the tasks, in task order
+     * @throws ApiException if a task fails with an API error
+     * @throws InterruptedException if the calling thread is interrupted
+     * @throws IOException if a task fails with an I/O error or is interrupted
+     */
+    public <T> List<T> invokeAll(UpstreamApi downstream, List<Callable<T>> tasks) throws ApiException, InterruptedException, IOException {
+        CompletionService<Indexed<T>> completionService = new ExecutorCompletionService<>(executor);
+        List<Future<Indexed<T>>> futures = new ArrayList<>();
+        List<T> results = new ArrayList<>(tasks.size());
+
+        for (int i = 0; i < tasks.size(); i++) {
+            int index = i;
+            Callable<T> task = tasks.get(i);
+            futures.add(completionService.submit(() -> new Indexed<>(index, runLimited(downstream, task))));
+            results.add(null);
+        }
+
+        try {
+            for (int i = 0; i < tasks.size(); i++) {
+                Indexed<T> result = completionService.take().get();
+                results.set(result.index, result.value);
+            }
+        } catch (ExecutionException e) {
+            cancelAll(futures);
+            throw unwrap(e.getCause());
+        } catch (InterruptedException e) {
+            cancelAll(futures);
+            throw e; // The caller's own interrupt, propagated rather than swallowed, so its flag is not restored
+        }
+
+        return results;
+    }
+
+    /**
+     * Submits a single task against the specified downstream without waiting for it.
+     *
+     * @param downstream the downstream API the task calls
+     * @param task the task to run
+     * @return a future for the result of the task
+     */
+    public <T> Future<T> submit(UpstreamApi downstream, Callable<T> task) {
+        return executor.submit(() -> runLimited(downstream, task));
+    }
+
+    /**
+     * Runs a single task against the specified downstream on the calling thread, waiting for a free slot first.
+     *
+     * @param downstream the downstream API the task calls
+     * @param task the task to run
+     * @return the result of the task
+     * @throws ApiException if the task fails with an API error
+     * @throws InterruptedException if the task or the wait for a slot is interrupted
+     * @throws IOException if the task fails with an I/O error
+     */
+    public <T> T call(UpstreamApi downstream, Callable<T> task) throws ApiException, InterruptedException, IOException {
+        try {
+            return runLimited(downstream, task);
+        } catch (Exception e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Runs a task that coordinates calls to the downstream APIs, such as one stage of the pipeline, on its own
+     * virtual thread without taking a slot. The calls it makes take their own slots.
+     *
+     * @param task the task to run
+     * @return a future for the result of the task
+     */
+    public <T> Future<T> fork(Callable<T> task) {
+        return executor.submit(task);
+    }
+
+    /**
+     * Waits for every future, in order, and returns their results.
+     * <p>
+     * If a future fails, the remaining futures are cancelled and the cause of the failure is rethrown.
+     * </p>
+     *
+     * @param futures the futures to wait for
+     * @return the results of the futures, in order
+     * @throws ApiException if a future fails with an API error
+     * @throws InterruptedException if the calling thread is interrupted
+     * @throws IOException if a future fails with an I/O error or is interrupted
+     */
+    public static <T> List<T> joinAll(List<? extends Future<T>> futures) throws ApiException, InterruptedException, IOException {
+        List<T> results = new ArrayList<>(futures.size());
+
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            cancelAll(futures);
+            throw unwrap(e.getCause());
+        } catch (InterruptedException e) {
+            cancelAll(futures);
+            throw e; // The caller's own interrupt, propagated rather than swallowed, so its flag is not restored
+        }
+
+        return results;
+    }
+
+    /**
+     * Starts an asynchronous call against the specified downstream once a slot is free, without blocking the caller.
+     * <p>
+     * The slot is held until the call's future completes. Cancelling the returned future cancels the call, or
+     * drops it if it has not started yet.
+     * </p>
+     *
+     * @param downstream the downstream API the call goes to
+     * @param call starts the call and returns its future
+     * @return a future for the result of the call
+     */
+    public <T> CompletableFuture<T> submitAsync(UpstreamApi downstream, Supplier<CompletableFuture<T>> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Semaphore limit = limits.get(downstream);
+
+        Runnable start = () -> {
+            queued.get(downstream).decrementAndGet();
+
+            if (result.isDone()) { // Cancelled while queued: give the slot to the next call
+                limit.release();
+                return;
+            }
+
+            inFlight.get(downstream).incrementAndGet();
+
+            CompletableFuture<T> started;
+            try {
+                started = call.get();
+            } catch (RuntimeException e) {
+                started = CompletableFuture.failedFuture(e);
+            }
+
+            CompletableFuture<T> running = started;
+            result.whenComplete((value, failure) -> running.cancel(true)); // No-op once the call has completed
+            running.whenComplete((value, failure) -> {
+                inFlight.get(downstream).decrementAndGet();
+                limit.release();
+                startPending(downstream);
+
+                if (failure != null) {
+                    result.completeExceptionally(causeOf(failure));
+                } else {
+                    result.complete(value);
+                }
+            });
+        };
+
+        queued.get(downstream).incrementAndGet();
+        pendingStarts.get(downstream).add(start);
+        startPending(downstream);
+
+        return result;
+    }
+
+    /**
+     * Starts the asynchronous calls against the specified downstream and combines their results.
+     * <p>
+     * This is the non-blocking counterpart of {@link #invokeAll(UpstreamApi, List)}: the results are in call
+     * order, and as soon as one call fails its siblings are cancelled and the returned future fails with the
+     * cause of that failure.
+     * </p>
+     *
+     * @param downstream the downstream API the calls go to
+     * @param calls the calls to start
+     * @return a future for the results of the calls, in call order
+     */
+    public <T> CompletableFuture<List<T>> invokeAllAsync(UpstreamApi downstream, List<Supplier<CompletableFuture<T>>> calls) {
+        List<CompletableFuture<T>> futures = new ArrayList<>(calls.size());
+
+        for (Supplier<CompletableFuture<T>> call : calls) {
+            futures.add(submitAsync(downstream, call));
+        }
+
+        return allOf(futures);
+    }
+
+    /**
+     * Combines futures into a future of their results, in order, failing fast and cancelling the remaining futures
+     * as soon as one fails.
+     *
+     * @param futures the futures to combine
+     * @return a future for the results, in order
+     */
+    public static <T> CompletableFuture<List<T>> allOf(List<CompletableFuture<T>> futures) {
+        CompletableFuture<List<T>> result = new CompletableFuture<>();
+        AtomicInteger remaining = new AtomicInteger(futures.size());
+
+        if (futures.isEmpty()) {
+            result.complete(List.of());
+            return result;
+        }
+
+        for (CompletableFuture<T> future : futures) {
+            future.whenComplete((value, failure) -> {
+                if (failure != null) {
+                    if (result.completeExceptionally(causeOf(failure))) {
+                        cancelAll(futures);
+                    }
+                } else if (remaining.decrementAndGet() == 0) {
+                    List<T> results = new ArrayList<>(futures.size());
+                    for (CompletableFuture<T> completed : futures) {
+                        results.add(completed.join());
+                    }
+                    result.complete(results);
+                }
+            });
+        }
+
+        // Cancelling the combined future cancels every future it combines
+        result.whenComplete((value, failure) -> {
+            if (result.isCancelled()) {
+                cancelAll(futures);
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Returns the number of tasks currently running against the specified downstream.
+     *
+     * @param downstream the downstream API
+     * @return the number of in-flight tasks
+     */
+    public int getInFlight(UpstreamApi downstream) {
+        return inFlight.get(downstream).get();
+    }
+
+    /**
+     * Returns the number of tasks waiting for a free slot on the specified downstream.
+     *
+     * @param downstream the downstream API
+     * @return the number of queued tasks
+     */
+    public int getQueued(UpstreamApi downstream) {
+        return queued.get(downstream).get();
+    }
+
+    /**
+     * Registers the in-flight and queued gauges for each downstream API.
+     *
+     * @param registry the registry to bind the gauges to
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (UpstreamApi api : UpstreamApi.values()) {
+            Gauge.builder("aruki.fanout.in_flight", inFlight.get(api), AtomicInteger::get)
+                    .description("Tasks currently calling the downstream API")
+                    .tag("downstream", api.getTag())
+                    .register(registry);
+            Gauge.builder("aruki.fanout.queued", queued.get(api), AtomicInteger::get)
+                    .description("Tasks waiting for a free slot on the downstream API")
+                    .tag("downstream", api.getTag())
+                    .register(registry);
+        }
+    }
+
+    /**
+     * Stops accepting tasks and interrupts the running ones.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Runs a task once a slot on the downstream is free, keeping the queued and in-flight counts up to date.
+     */
+    private <T> T runLimited(UpstreamApi downstream, Callable<T> task) throws Exception {
+        Semaphore limit = limits.get(downstream);
+
+        queued.get(downstream).incrementAndGet();
+        try {
+            limit.acquire();
+        } finally {
+            queued.get(downstream).decrementAndGet();
+        }
+
+        inFlight.get(downstream).incrementAndGet();
+        try {
+            return task.call();
+        } finally {
+            inFlight.get(downstream).decrementAndGet();
+            limit.release();
+        }
+    }
+
+    /**
+     * Starts queued asynchronous calls while the downstream has free slots.
+     * <p>
+     * This runs both after a call is queued and after a slot is released, so a call queued while the last slot
+     * was being released is still started.
+     * </p>
+     * <p>
+     * Only one thread drains the queue at a time. A call that completes as soon as it is started, e.g. from a cache,
+     * releases its slot from within the drain; that release only asks the draining thread for another pass instead
+     * of starting the next call itself, so a long queue of such calls is started in a loop rather than by recursing
+     * once per call.
+     * </p>
+     */
+    private void startPending(UpstreamApi downstream) {
+        AtomicInteger requests = drainRequests.get(downstream);
+
+        if (requests.getAndIncrement() != 0) {
+            return; // Another frame or thread is draining, and makes one more pass for this request
+        }
+
+        ConcurrentLinkedQueue<Runnable> pending = pendingStarts.get(downstream);
+        Semaphore limit = limits.get(downstream);
+        int missed = 1;
+
+        do {
+            while (!pending.isEmpty() && limit.tryAcquire()) {
+                Runnable start = pending.poll();
+
+                if (start == null) {
+                    limit.release();
+                } else {
+                    start.run();
+                }
+            }
+
+            missed = requests.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /**
+     * Cancels every future, interrupting the tasks that are still running.
+     */
+    private static void cancelAll(List<? extends Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Rethrows the cause of a task that failed on another thread as one of the checked exceptions the pipeline
+     * declares.
+     * <p>
+     * An {@code ApiException} is returned rather than thrown, so callers can write {@code throw unwrap(cause)}.
+     * A task that was interrupted failed like any other task: the calling thread was not interrupted, so its
+     * interrupted status is left alone and the interruption is reported as an {@code InterruptedIOException}.
+     * </p>
+     */
+    static ApiException unwrap(Throwable cause) throws InterruptedException, IOException {
+        if (cause instanceof InterruptedException) {
+            InterruptedIOException failure = new InterruptedIOException("Task was interrupted");
+            failure.initCause(cause);
+            throw failure;
+        }
+        return rethrow(cause);
+    }
+
+    /**
+     * Rethrows a failure raised on the calling thread as one of the checked exceptions the pipeline declares.
+     * <p>
+     * An {@code InterruptedException} is the caller's own interrupt and is propagated as it is; the interrupted
+     * status is not restored, since the exception itself carries the interrupt up the stack.
+     * </p>
+     */
+    static ApiException rethrow(Throwable cause) throws InterruptedException, IOException {
+        if (cause instanceof ApiException) {
+            return (ApiException) cause;
+        } else if (cause instanceof IOException) {
+            throw (IOException) cause;
+        } else if (cause instanceof InterruptedException) {
+            throw (InterruptedException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else {
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Strips the {@code CompletionException} wrapper that {@code CompletableFuture} puts around failures of
+     * dependent stages, returning the original failure.
+     *
+     * @param failure the failure reported by a future
+     * @return the original failure
+     */
+    static Throwable causeOf(Throwable failure) {
+        while ((failure instanceof CompletionException || failure instanceof ExecutionException) && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        return failure;
+    }
+
+    /**
+     * A task result tagged with the position of its task.
+     */
+    private record Indexed<T>(int index, T value) {}
+}
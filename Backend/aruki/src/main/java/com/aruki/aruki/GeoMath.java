@@ -0,0 +1,54 @@
+package com.aruki.aruki;
+
+/**
+ * The {@code GeoMath} class provides the great-circle calculations shared by the spatial code.
+ * <p>
+ * Distances are computed on a spherical Earth with the haversine formula, which is accurate to well under
+ * one percent at the scale of a walk.
+ * </p>
+ *
+ * @see Geohash
+ * @see PoiIndex
+ */
+public final class GeoMath {
+
+    public static final double EARTH_RADIUS_METERS = 6_371_008.8;
+
+    private GeoMath() {}
+
+    /**
+     * Returns the great-circle distance between two points.
+     *
+     * @param lat1 the latitude of the first point, in degrees
+     * @param lng1 the longitude of the first point, in degrees
+     * @param lat2 the latitude of the second point, in degrees
+     * @param lng2 the longitude of the second point, in degrees
+     * @return the distance between the points, in meters
+     */
+    public static double distanceMeters(double lat1, double lng1, double lat2, double lng2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLng = Math.toRadians(lng2 - lng1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLng / 2) * Math.sin(dLng / 2);
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+
+    /**
+     * Returns the number of meters spanned by one degree of latitude.
+     *
+     * @return the meters per degree of latitude
+     */
+    public static double metersPerDegreeLatitude() {
+        return Math.toRadians(1) * EARTH_RADIUS_METERS;
+    }
+
+    /**
+     * Returns the number of meters spanned by one degree of longitude at the specified latitude.
+     *
+     * @param latitude the latitude, in degrees
+     * @return the meters per degree of longitude
+     */
+    public static double metersPerDegreeLongitude(double latitude) {
+        return Math.toRadians(1) * EARTH_RADIUS_METERS * Math.cos(Math.toRadians(latitude));
+    }
+}
@@ -0,0 +1,108 @@
+package com.aruki.aruki;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * The {@code GeocodeCache} class caches Geocoding API results by canonical address.
+ * <p>
+ * Lookups and stores canonicalize the address with {@link AddressCanonicalizer} first, so near-identical inputs
+ * such as "123 Main St" and "123 main street" share one entry. Only successful geocodes should be stored; an
+ * address that does not exist is looked up again next time.
+ * </p>
+ * <p>
+ * Geocodes of test requests, which come from sample data, are kept under their own keys (see
+ * {@link #key(String, boolean)}), so they never answer a real request for the same address.
+ * </p>
+ *
+ * @see ExpiringLruCache
+ * @see AddressCanonicalizer
+ */
+public class GeocodeCache extends ExpiringLruCache<String, GeocodedLocation> {
+
+    public static final int DEFAULT_MAX_SIZE = 10_000;
+    public static final Duration DEFAULT_TTL = Duration.ofHours(24);
+
+    /**
+     * Constructs a GeocodeCache with the default size and time-to-live.
+     */
+    public GeocodeCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_TTL);
+    }
+
+    /**
+     * Constructs a GeocodeCache with the specified maximum size and time-to-live.
+     *
+     * @param maxSize the maximum number of addresses to cache
+     * @param ttl how long a geocode stays valid
+     */
+    public GeocodeCache(int maxSize, Duration ttl) {
+        super("geocode", maxSize, ttl);
+    }
+
+    /**
+     * Constructs a GeocodeCache that reads the time from the specified clock.
+     *
+     * @param maxSize the maximum number of addresses to cache
+     * @param ttl how long a geocode stays valid
+     * @param clock the clock, in nanoseconds
+     */
+    public GeocodeCache(int maxSize, Duration ttl, LongSupplier clock) {
+        super("geocode", maxSize, ttl, clock);
+    }
+
+    /**
+     * Returns the key of an address: its canonical form, prefixed for test requests.
+     *
+     * @param address the address, in any formatting
+     * @param test whether the geocode comes from sample data
+     * @return the cache key
+     */
+    public static String key(String address, boolean test) {
+        return (test ? "test:" : "") + AddressCanonicalizer.canonicalize(address);
+    }
+
+    /**
+     * Returns the cached geocode of the address.
+     *
+     * @param address the address, in any formatting
+     * @return the cached geocode, or null if the address is not cached
+     */
+    @Override
+    public GeocodedLocation get(String address) {
+        return get(address, false);
+    }
+
+    /**
+     * Returns the cached geocode of the address, for a real or a test request.
+     *
+     * @param address the address, in any formatting
+     * @param test whether the request uses sample data
+     * @return the cached geocode, or null if the address is not cached
+     */
+    public GeocodedLocation get(String address, boolean test) {
+        return super.get(key(address, test));
+    }
+
+    /**
+     * Stores the geocode of the address.
+     *
+     * @param address the address, in any formatting
+     * @param location the geocode of the address
+     */
+    @Override
+    public void put(String address, GeocodedLocation location) {
+        put(address, false, location);
+    }
+
+    /**
+     * Stores the geocode of the address, for a real or a test request.
+     *
+     * @param address the address, in any formatting
+     * @param test whether the geocode comes from sample data
+     * @param location the geocode of the address
+     */
+    public void put(String address, boolean test, GeocodedLocation location) {
+        super.put(key(address, test), location);
+    }
+}
@@ -0,0 +1,100 @@
+package com.aruki.aruki;
+
+import com.google.maps.model.LatLng;
+
+/**
+ * The {@code GeocodedLocation} class represents a user-supplied address that has been resolved
+ * by the Google Geocoding API.
+ * <p>
+ * A request geocodes its address exactly once, up front, and then passes the resulting
+ * {@code GeocodedLocation} to every later stage (nearby searches and the Distance Matrix), so
+ * none of those stages needs to geocode the address again.
+ * </p>
+ * <p>
+ * Each {@code GeocodedLocation} object contains:
+ * <ul>
+ *   <li>The address as entered by the user ({@code String})</li>
+ *   <li>The formatted address returned by Google ({@code String})</li>
+ *   <li>The Google place id of the address ({@code String})</li>
+ *   <li>The latitude and longitude of the address ({@code LatLng})</li>
+ * </ul>
+ * </p>
+ * <p>
+ * Example usage:
+ * <pre>
+ *     GeocodedLocation origin = apiManager.geocode("1600 Amphitheatre Parkway, Mountain View, CA", false);
+ *     List<Location> places = apiManager.retrievePlacesOfCategory(origin, PlaceType.RESTAURANT, false);
+ * </pre>
+ * </p>
+ *
+ * @see com.google.maps.model.LatLng
+ * @see APIManager#geocode(String, boolean)
+ */
+public class GeocodedLocation {
+
+    private final String address;
+    private final String formattedAddress;
+    private final String placeId;
+    private final LatLng latLng;
+
+    /**
+     * Constructs a GeocodedLocation with the specified address, formatted address, place id, and coordinates.
+     *
+     * @param address the address as entered by the user
+     * @param formattedAddress the formatted address returned by the Geocoding API
+     * @param placeId the Google place id of the address
+     * @param latLng the latitude and longitude of the address
+     */
+    public GeocodedLocation(String address, String formattedAddress, String placeId, LatLng latLng) {
+        this.address = address;
+        this.formattedAddress = formattedAddress;
+        this.placeId = placeId;
+        this.latLng = latLng;
+    }
+
+    /**
+     * Returns the address as entered by the user.
+     *
+     * @return the address as entered by the user
+     */
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * Returns the formatted address returned by the Geocoding API.
+     *
+     * @return the formatted address
+     */
+    public String getFormattedAddress() {
+        return formattedAddress;
+    }
+
+    /**
+     * Returns the Google place id of the address.
+     *
+     * @return the place id, or null if it is not known
+     */
+    public String getPlaceId() {
+        return placeId;
+    }
+
+    /**
+     * Returns the latitude and longitude of the address.
+     *
+     * @return the latitude and longitude of the address
+     */
+    public LatLng getLatLng() {
+        return latLng;
+    }
+
+    /**
+     * Returns a string representation of the geocoded location.
+     *
+     * @return a string representation of the geocoded location
+     */
+    @Override
+    public String toString() {
+        return "{\"address\":\"" + address + "\",\"formattedAddress\":\"" + formattedAddress + "\",\"placeId\":\"" + placeId + "\",\"latLng\":\"" + latLng + "\"}";
+    }
+}
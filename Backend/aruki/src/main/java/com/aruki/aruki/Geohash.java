@@ -0,0 +1,162 @@
+package com.aruki.aruki;
+
+import java.util.Arrays;
+
+import com.google.maps.model.LatLng;
+
+/**
+ * The {@code Geohash} class encodes coordinates as geohashes and decodes geohashes back into the cells they name.
+ * <p>
+ * A geohash of a given precision names a rectangular cell; every point inside the cell has the same hash.
+ * This lets nearby origins share work that only depends on the area they are in, such as a nearby search.
+ * </p>
+ * <p>
+ * Approximate cell sizes by precision:
+ * <ul>
+ *   <li>5 - 4.9 km x 4.9 km</li>
+ *   <li>6 - 1.2 km x 0.61 km</li>
+ *   <li>7 - 153 m x 153 m</li>
+ * </ul>
+ * </p>
+ * <p>
+ * Example usage:
+ * <pre>
+ *     String cell = Geohash.encode(36.8529, -75.9780, 6);   // "dq9cxh"
+ *     LatLng center = Geohash.center(cell);
+ * </pre>
+ * </p>
+ *
+ * @see NearbySearchCache
+ */
+public final class Geohash {
+
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+    private static final int[] DECODE = new int[128];
+
+    static {
+        Arrays.fill(DECODE, -1);
+        for (int i = 0; i < BASE32.length; i++) {
+            DECODE[BASE32[i]] = i;
+        }
+    }
+
+    private Geohash() {}
+
+    /**
+     * Returns the geohash of the cell containing a point.
+     *
+     * @param latitude the latitude of the point, in degrees
+     * @param longitude the longitude of the point, in degrees
+     * @param precision the number of characters in the geohash
+     * @return the geohash of the cell containing the point
+     */
+    public static String encode(double latitude, double longitude, int precision) {
+        double minLat = -90, maxLat = 90;
+        double minLng = -180, maxLng = 180;
+        char[] hash = new char[precision];
+        boolean evenBit = true;
+
+        for (int i = 0; i < precision; i++) {
+            int index = 0;
+            for (int bit = 0; bit < 5; bit++) {
+                if (evenBit) {
+                    double mid = (minLng + maxLng) / 2;
+                    if (longitude >= mid) {
+                        index = (index << 1) | 1;
+                        minLng = mid;
+                    } else {
+                        index = index << 1;
+                        maxLng = mid;
+                    }
+                } else {
+                    double mid = (minLat + maxLat) / 2;
+                    if (latitude >= mid) {
+                        index = (index << 1) | 1;
+                        minLat = mid;
+                    } else {
+                        index = index << 1;
+                        maxLat = mid;
+                    }
+                }
+                evenBit = !evenBit;
+            }
+            hash[i] = BASE32[index];
+        }
+
+        return new String(hash);
+    }
+
+    /**
+     * Returns the bounds of the cell named by a geohash.
+     *
+     * @param geohash the geohash of the cell
+     * @return the bounds of the cell, as {@code {minLat, minLng, maxLat, maxLng}}
+     * @throws IllegalArgumentException if the geohash contains a character that is not valid in a geohash
+     */
+    public static double[] bounds(String geohash) {
+        double minLat = -90, maxLat = 90;
+        double minLng = -180, maxLng = 180;
+        boolean evenBit = true;
+
+        for (int i = 0; i < geohash.length(); i++) {
+            char c = geohash.charAt(i);
+            int index = c < DECODE.length ? DECODE[c] : -1;
+
+            if (index < 0) {
+                throw new IllegalArgumentException("Invalid geohash: " + geohash);
+            }
+
+            for (int bit = 4; bit >= 0; bit--) {
+                int value = (index >> bit) & 1;
+                if (evenBit) {
+                    double mid = (minLng + maxLng) / 2;
+                    if (value == 1) {
+                        minLng = mid;
+                    } else {
+                        maxLng = mid;
+                    }
+                } else {
+                    double mid = (minLat + maxLat) / 2;
+                    if (value == 1) {
+                        minLat = mid;
+                    } else {
+                        maxLat = mid;
+                    }
+                }
+                evenBit = !evenBit;
+            }
+        }
+
+        return new double[] {minLat, minLng, maxLat, maxLng};
+    }
+
+    /**
+     * Returns the center of the cell named by a geohash.
+     *
+     * @param geohash the geohash of the cell
+     * @return the center of the cell
+     */
+    public static LatLng center(String geohash) {
+        double[] bounds = bounds(geohash);
+        return new LatLng((bounds[0] + bounds[2]) / 2, (bounds[1] + bounds[3]) / 2);
+    }
+
+    /**
+     * Returns the distance from the center of a cell to its farthest corner, i.e. the radius of the smallest
+     * circle around the center that covers the whole cell.
+     *
+     * @param geohash the geohash of the cell
+     * @return the distance from the center to the farthest corner, in meters
+     */
+    public static double circumradiusMeters(String geohash) {
+        double[] bounds = bounds(geohash);
+        double centerLat = (bounds[0] + bounds[2]) / 2;
+        double centerLng = (bounds[1] + bounds[3]) / 2;
+
+        // The corner nearest the equator is the widest one
+        return Math.max(
+            GeoMath.distanceMeters(centerLat, centerLng, bounds[0], bounds[1]),
+            GeoMath.distanceMeters(centerLat, centerLng, bounds[2], bounds[3])
+        );
+    }
+}
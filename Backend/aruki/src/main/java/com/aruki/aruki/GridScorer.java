@@ -0,0 +1,429 @@
+package com.aruki.aruki;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+
+import com.google.maps.errors.ApiException;
+import com.google.maps.model.LatLng;
+import com.google.maps.model.PlaceType;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * The {@code GridScorer} class computes the walkability score of every cell of a {@link ScoreGrid}, for heatmaps
+ * of a whole neighborhood or city.
+ * <p>
+ * Scoring each cell through the per-address pipeline would repeat the same searches and walking distances for
+ * every cell. Instead, a grid is scored in three phases:
+ * <ol>
+ *   <li>Places: one nearby search per geohash cell and category covering any cell center, through the configured
+ *       {@link PlacesProvider} and shared with the per-address pipeline through the {@link NearbySearchCache}.</li>
+ *   <li>Walking distances: cell centers are taken in runs of adjacent cells, which share most of their candidate
+ *       places, and each run is sent to the {@link WalkingDistanceProvider} as several origins at once, against its
+ *       candidates in blocks that keep each request within Google's 100 element limit. Distances already in
+ *       the {@link WalkingDistanceCache} are not requested again, and the new ones are cached.</li>
+ *   <li>Scoring: the cells are split into ranges and scored in parallel on the fork/join pool, each range
+ *       reusing one {@link ScoringEngine.Accumulator}.</li>
+ * </ol>
+ * </p>
+ * <p>
+ * A cell is scored exactly as {@code /getScore} would score its center: the same places, the same walking
+ * distance limit and the same weights. Places with neither a place id nor coordinates cannot be told apart
+ * as destinations and are left out. If a request fails, the grid fails: a heatmap is stored and served
+ * for a long time, so it is not computed from partial data.
+ * </p>
+ * <p>
+ * Concurrent requests for the same grid are coalesced by {@link #computeOnce(String, Callable)}: the first one
+ * computes it, and the others wait for its result instead of scoring every cell again.
+ * </p>
+ * <p>
+ * Example usage:
+ * <pre>
+ *     ScoreGrid grid = gridScorer.score(36.84, -76.00, 36.86, -75.97, 250, new PipelineStats(), false);
+ *     double downtown = grid.getScore(3, 4);
+ * </pre>
+ * </p>
+ *
+ * @see ScoreGrid
+ * @see ScoreGridStore
+ * @see LocationManager
+ */
+public class GridScorer {
+
+    public static final int DEFAULT_MAX_CELLS = 2500;
+    public static final int DEFAULT_ORIGINS_PER_REQUEST = 4;
+
+    static final int MAX_ELEMENTS_PER_REQUEST = 100; // Distance Matrix limit on origins x destinations
+    static final int MAX_ORIGINS_PER_REQUEST = 25; // Distance Matrix limit on origins, and on destinations
+    private static final int CELLS_PER_TASK = 64; // Cells scored by one fork/join task before it stops splitting
+
+    @Autowired
+    private PlacesProvider placesProvider;
+
+    @Autowired
+    @Qualifier("walkingDistanceProvider")
+    private WalkingDistanceProvider walkingDistanceProvider;
+
+    @Autowired
+    private FanOutExecutor fanOutExecutor;
+
+    @Autowired
+    private NearbySearchCache nearbySearchCache;
+
+    @Autowired
+    private WalkingDistanceCache walkingDistanceCache;
+
+    @Value("${aruki.grid.max-cells:" + DEFAULT_MAX_CELLS + "}")
+    private int maxCells = DEFAULT_MAX_CELLS; // Largest grid scored in one request
+
+    @Value("${aruki.grid.origins-per-request:" + DEFAULT_ORIGINS_PER_REQUEST + "}")
+    private int originsPerRequest = DEFAULT_ORIGINS_PER_REQUEST; // Adjacent cells sent to the Distance Matrix API together
+
+    @Value("${aruki.grid.wait-timeout:5m}")
+    private Duration gridWaitTimeout = Duration.ofMinutes(5); // How long a request waits for the same grid being computed by another request
+
+    private SingleFlight<String, ScoreGrid> gridFlights; // In-flight grid computations by grid id
+
+    private final ScoringEngine scoringEngine = LocationManager.SCORING_ENGINE;
+
+    public GridScorer() {
+        createSingleFlight();
+    }
+
+    public GridScorer(APIManager apiManager) {
+        createSingleFlight();
+        this.placesProvider = apiManager;
+        this.walkingDistanceProvider = apiManager;
+        this.fanOutExecutor = new FanOutExecutor();
+        this.nearbySearchCache = new NearbySearchCache();
+        this.walkingDistanceCache = new WalkingDistanceCache();
+    }
+
+    /**
+     * Creates the single-flight group once the wait timeout is known.
+     */
+    @PostConstruct
+    private void createSingleFlight() {
+        this.gridFlights = new SingleFlight<>(gridWaitTimeout);
+    }
+
+    /**
+     * Returns the largest number of cells a grid may have.
+     *
+     * @return the maximum number of cells
+     */
+    public int getMaxCells() {
+        return maxCells;
+    }
+
+    /**
+     * Returns what the scores of a grid depend on besides its geometry: the version of the scoring configuration and
+     * the providers the places and walking distances come from.
+     *
+     * @return the scoring identity, to be passed to {@link ScoreGridStore#idOf}
+     */
+    public String getScoringIdentity() {
+        return LocationManager.scoringIdentity(placesProvider, walkingDistanceProvider);
+    }
+
+    /**
+     * Returns the grid with the specified id, running the computation only if no computation of the same grid is in
+     * flight. Requests that arrive while the grid is being computed wait for its result, for at most the grid wait
+     * timeout.
+     *
+     * @param id the id of the grid (see {@link ScoreGridStore#idOf})
+     * @param computation loads or scores the grid, and stores it
+     * @return the grid
+     * @throws ApiException if there is an error with an API request
+     * @throws InterruptedException if the thread is interrupted
+     * @throws IOException if there is an I/O error
+     * @throws SingleFlight.WaitTimeoutException if the request waited for the same grid for longer than the timeout
+     */
+    public ScoreGrid computeOnce(String id, Callable<ScoreGrid> computation) throws ApiException, InterruptedException, IOException {
+        return gridFlights.execute(id, computation);
+    }
+
+    /**
+     * Scores every cell of the grid covering a bounding box.
+     *
+     * @param south the latitude of the southern edge, in degrees
+     * @param west the longitude of the western edge, in degrees
+     * @param north the latitude of the northern edge, in degrees
+     * @param east the longitude of the eastern edge, in degrees
+     * @param cellSizeMeters the size of a cell, in meters
+     * @param stats the stats of the request
+     * @param test whether to use test data
+     * @return the scored grid
+     * @throws IllegalArgumentException if the box or the cell size is invalid, or the grid has more than the maximum number of cells
+     * @throws ApiException if there is an error with an API request
+     * @throws InterruptedException if the thread is interrupted
+     * @throws IOException if there is an I/O error
+     */
+    public ScoreGrid score(double south, double west, double north, double east, double cellSizeMeters, PipelineStats stats, boolean test) throws ApiException, InterruptedException, IOException {
+        long cells = ScoreGrid.cellCount(south, west, north, east, cellSizeMeters);
+
+        if (cells > maxCells) {
+            throw new IllegalArgumentException("A grid of " + cells + " cells is larger than the maximum of " + maxCells);
+        }
+
+        ScoreGrid grid = ScoreGrid.covering(south, west, north, east, cellSizeMeters);
+        LatLng[] origins = new LatLng[grid.getCellCount()];
+
+        for (int i = 0; i < origins.length; i++) {
+            origins[i] = grid.cellCenter(i);
+        }
+
+        List<List<Location>> candidates = candidatesOf(origins, retrieveIndexes(origins, test), test);
+        List<Map<String, WalkingDistance>> distances = retrieveWalkingDistances(origins, candidates, stats, test);
+
+        ForkJoinPool.commonPool().invoke(new ScoreCells(grid, candidates, distances, 0, origins.length));
+
+        return grid;
+    }
+
+    /**
+     * Retrieves the places of every category in every geohash cell containing a cell center, one nearby search
+     * per geohash cell and category, skipping the searches already cached.
+     *
+     * @param origins the cell centers
+     * @param test whether to use test data
+     * @return the index of each geohash cell and category, by cache key
+     * @throws ApiException if there is an error with an API request
+     * @throws InterruptedException if the thread is interrupted
+     * @throws IOException if there is an I/O error
+     */
+    private Map<String, PoiIndex> retrieveIndexes(LatLng[] origins, boolean test) throws ApiException, InterruptedException, IOException {
+        Set<String> cells = new LinkedHashSet<String>();
+        for (LatLng origin : origins) {
+            cells.add(nearbySearchCache.cellOf(origin));
+        }
+
+        Map<String, PoiIndex> indexes = new HashMap<String, PoiIndex>();
+        List<String> missingKeys = new ArrayList<String>();
+        List<Callable<PoiIndex>> searches = new ArrayList<Callable<PoiIndex>>();
+
+        for (String cell : cells) {
+            int radius = NearbySearchCache.coveringRadius(cell, scoringEngine.getSearchRadiusMeters());
+
+            for (PlaceType category : scoringEngine.getCategories()) {
+                String key = NearbySearchCache.key(cell, category, test);
+                PoiIndex cached = nearbySearchCache.get(key);
+
+                if (cached != null) {
+                    indexes.put(key, cached);
+                    continue;
+                }
+
+                missingKeys.add(key);
+                searches.add(() -> {
+                    List<Location> places = placesProvider.retrievePlacesOfCategory(Geohash.center(cell), radius, category, test);
+                    PoiIndex index = new PoiIndex(places != null ? places : List.of());
+                    nearbySearchCache.put(key, index);
+                    return index;
+                });
+            }
+        }
+
+        List<PoiIndex> searched = fanOutExecutor.invokeAll(UpstreamApi.PLACES, searches);
+        for (int i = 0; i < searched.size(); i++) {
+            indexes.put(missingKeys.get(i), searched.get(i));
+        }
+
+        return indexes;
+    }
+
+    /**
+     * Returns the places within the search radius of each cell center, category by category, as the per-address
+     * pipeline finds them.
+     *
+     * @param origins the cell centers
+     * @param indexes the index of each geohash cell and category, by cache key
+     * @param test whether to use test data
+     * @return the candidate places of each cell center
+     */
+    private List<List<Location>> candidatesOf(LatLng[] origins, Map<String, PoiIndex> indexes, boolean test) {
+        List<List<Location>> candidates = new ArrayList<List<Location>>(origins.length);
+
+        for (LatLng origin : origins) {
+            String cell = nearbySearchCache.cellOf(origin);
+            List<Location> places = new ArrayList<Location>();
+
+            for (PlaceType category : scoringEngine.getCategories()) {
+                places.addAll(indexes.get(NearbySearchCache.key(cell, category, test)).withinRadius(origin.lat, origin.lng, scoringEngine.getSearchRadiusMeters()));
+            }
+
+            candidates.add(places);
+        }
+
+        return candidates;
+    }
+
+    /**
+     * Retrieves the walking distance from each cell center to each of its candidate places.
+     * <p>
+     * Cell centers are grouped into runs of adjacent cells. Each run requests the union of its candidates that are
+     * not cached, in blocks of at most {@link #MAX_ELEMENTS_PER_REQUEST} elements, and the blocks of every run are
+     * requested concurrently within the Distance Matrix limit. A {@link WalkingDistanceProvider} without a limit on
+     * destinations, such as a {@link LocalWalkingDistanceProvider}, gets each run's candidates in one block.
+     * </p>
+     *
+     * @param origins the cell centers
+     * @param candidates the candidate places of each cell center
+     * @param stats the stats of the request
+     * @param test whether to use test data
+     * @return the walking distance of each destination from each cell center, by destination key
+     * @throws ApiException if there is an error with an API request
+     * @throws InterruptedException if the thread is interrupted
+     * @throws IOException if there is an I/O error
+     */
+    private List<Map<String, WalkingDistance>> retrieveWalkingDistances(LatLng[] origins, List<List<Location>> candidates, PipelineStats stats, boolean test) throws ApiException, InterruptedException, IOException {
+        List<Map<String, WalkingDistance>> distances = new ArrayList<Map<String, WalkingDistance>>(origins.length);
+        List<MatrixBlock> blocks = new ArrayList<MatrixBlock>();
+        int runLength = Math.max(1, Math.min(originsPerRequest, MAX_ORIGINS_PER_REQUEST));
+        boolean unlimited = walkingDistanceProvider.getMaxDestinationsPerRequest() == 0; // A local graph takes every destination at once
+        int destinationsPerRequest = Math.min(MAX_ORIGINS_PER_REQUEST, MAX_ELEMENTS_PER_REQUEST / runLength);
+
+        for (int start = 0; start < origins.length; start += runLength) {
+            int end = Math.min(start + runLength, origins.length);
+            Map<String, Location> missing = new LinkedHashMap<String, Location>();
+
+            for (int i = start; i < end; i++) {
+                Map<String, WalkingDistance> known = new HashMap<String, WalkingDistance>();
+                distances.add(known);
+
+                for (Location place : candidates.get(i)) {
+                    String key = LocationManager.destinationKey(place);
+
+                    if (key == null || known.containsKey(key)) {
+                        continue;
+                    }
+
+                    WalkingDistance cached = (place.getPlaceId() != null) ? walkingDistanceCache.get(walkingDistanceCache.key(origins[i], place.getPlaceId(), test)) : null;
+
+                    if (cached != null) {
+                        known.put(key, cached);
+                        stats.addDistanceCacheHits(1);
+                    } else {
+                        missing.putIfAbsent(key, place);
+                    }
+                }
+            }
+
+            List<String> keys = new ArrayList<String>(missing.keySet());
+            List<Location> places = new ArrayList<Location>(missing.values());
+
+            int blockSize = unlimited ? Math.max(1, places.size()) : destinationsPerRequest;
+
+            for (int from = 0; from < places.size(); from += blockSize) {
+                int to = Math.min(from + blockSize, places.size());
+                blocks.add(new MatrixBlock(start, end, keys.subList(from, to), places.subList(from, to)));
+            }
+        }
+
+        List<LatLng> originList = List.of(origins);
+        List<Callable<List<List<WalkingDistance>>>> requests = new ArrayList<Callable<List<List<WalkingDistance>>>>();
+        for (MatrixBlock block : blocks) {
+            List<LatLng> blockOrigins = originList.subList(block.start, block.end);
+            stats.addDistanceMatrixElements(blockOrigins.size() * block.places.size());
+            requests.add(() -> walkingDistanceProvider.getWalkingDistanceMatrix(blockOrigins, block.places, test));
+        }
+
+        List<List<List<WalkingDistance>>> responses = fanOutExecutor.invokeAll(UpstreamApi.DISTANCE_MATRIX, requests);
+
+        for (int b = 0; b < blocks.size(); b++) {
+            MatrixBlock block = blocks.get(b);
+            List<List<WalkingDistance>> rows = responses.get(b);
+
+            for (int i = block.start; i < block.end; i++) {
+                List<WalkingDistance> row = rows.get(i - block.start);
+
+                for (int j = 0; j < block.places.size(); j++) {
+                    WalkingDistance walkingDistance = row.get(j);
+                    Location place = block.places.get(j);
+
+                    if (!walkingDistance.isReachable()) {
+                        stats.addUnreachableDestinations(1);
+                    }
+                    if (place.getPlaceId() != null) {
+                        walkingDistanceCache.put(walkingDistanceCache.key(origins[i], place.getPlaceId(), test), walkingDistance);
+                    }
+
+                    distances.get(i).putIfAbsent(block.keys.get(j), walkingDistance);
+                }
+            }
+        }
+
+        return distances;
+    }
+
+    /**
+     * A Distance Matrix request: a run of adjacent cell centers against a block of their candidate destinations.
+     */
+    private record MatrixBlock(int start, int end, List<String> keys, List<Location> places) {
+    }
+
+    /**
+     * Scores a range of cells, splitting it in half until it is small enough to score on one thread.
+     */
+    private final class ScoreCells extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        // A fork/join task is never serialized
+        private final transient ScoreGrid grid;
+        private final transient List<List<Location>> candidates;
+        private final transient List<Map<String, WalkingDistance>> distances;
+        private final int start;
+        private final int end;
+
+        private ScoreCells(ScoreGrid grid, List<List<Location>> candidates, List<Map<String, WalkingDistance>> distances, int start, int end) {
+            this.grid = grid;
+            this.candidates = candidates;
+            this.distances = distances;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > CELLS_PER_TASK) {
+                int middle = (start + end) >>> 1;
+                invokeAll(new ScoreCells(grid, candidates, distances, start, middle), new ScoreCells(grid, candidates, distances, middle, end));
+                return;
+            }
+
+            ScoringEngine.Accumulator accumulator = scoringEngine.newAccumulator();
+            double searchRadiusMeters = scoringEngine.getSearchRadiusMeters();
+
+            for (int i = start; i < end; i++) {
+                Map<String, WalkingDistance> cellDistances = distances.get(i);
+                accumulator.reset();
+
+                for (Location place : candidates.get(i)) {
+                    String key = LocationManager.destinationKey(place);
+                    WalkingDistance walkingDistance = (key != null) ? cellDistances.get(key) : null;
+
+                    if (walkingDistance != null && walkingDistance.isWithin(searchRadiusMeters)) {
+                        accumulator.add(place.sharedTypes(), walkingDistance.getMeters());
+                    }
+                }
+
+                grid.setScore(i, accumulator.getWalkabilityScore());
+            }
+        }
+    }
+}
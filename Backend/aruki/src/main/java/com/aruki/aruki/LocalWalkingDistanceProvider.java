@@ -0,0 +1,157 @@
+package com.aruki.aruki;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.google.maps.model.DistanceMatrixElementStatus;
+import com.google.maps.model.LatLng;
+
+/**
+ * The {@code LocalWalkingDistanceProvider} class answers walking distances from a {@link PedestrianGraph} imported
+ * from OpenStreetMap, instead of calling the Google Distance Matrix API.
+ * <p>
+ * The origin and each destination are snapped to the nearest node of the graph, and a single bounded search from
+ * the origin finds the walking distance to every destination at once, so there is no limit on the destinations of
+ * a call. A distance is the walk to the origin's node, along the streets, then from the destination's node.
+ * </p>
+ * <p>
+ * The results keep the meaning of Distance Matrix elements:
+ * <ul>
+ *   <li>{@code OK} - The destination can be walked to within the search bound</li>
+ *   <li>{@code ZERO_RESULTS} - The destination is farther than the bound, or on a piece of the network the origin
+ *       cannot walk to</li>
+ *   <li>{@code NOT_FOUND} - The origin or the destination has no street within {@code maxSnapMeters}</li>
+ * </ul>
+ * Durations are estimated at {@link #WALKING_METERS_PER_SECOND}.
+ * </p>
+ * <p>
+ * Example usage:
+ * <pre>
+ *     LocalWalkingDistanceProvider walkingDistances = LocalWalkingDistanceProvider.open(Path.of("graphs/norfolk.graph"), 2000);
+ *     List&lt;WalkingDistance&gt; distances = walkingDistances.getWalkingDistances(origin, places, false);
+ * </pre>
+ * </p>
+ *
+ * @see PedestrianGraph
+ * @see PedestrianGraphImporter
+ */
+public class LocalWalkingDistanceProvider implements WalkingDistanceProvider {
+
+    public static final double WALKING_METERS_PER_SECOND = 1.34; // About 4.8 km/h
+    public static final double DEFAULT_MAX_SNAP_METERS = 250;
+
+    private final PedestrianGraph graph;
+    private final double maxMeters;
+    private final double maxSnapMeters;
+
+    /**
+     * Constructs a LocalWalkingDistanceProvider.
+     *
+     * @param graph the pedestrian graph
+     * @param maxMeters the longest walk searched; farther destinations are reported as {@code ZERO_RESULTS}
+     * @param maxSnapMeters the farthest a point may be from the nearest street
+     */
+    public LocalWalkingDistanceProvider(PedestrianGraph graph, double maxMeters, double maxSnapMeters) {
+        this.graph = graph;
+        this.maxMeters = maxMeters;
+        this.maxSnapMeters = maxSnapMeters;
+    }
+
+    /**
+     * Reads a graph file and returns a provider searching it.
+     *
+     * @param file the graph file written by the {@link PedestrianGraphImporter}
+     * @param maxMeters the longest walk searched
+     * @return the provider
+     * @throws IOException if the file cannot be read or is not a graph
+     */
+    public static LocalWalkingDistanceProvider open(Path file, double maxMeters) throws IOException {
+        long start = System.nanoTime();
+        PedestrianGraph graph = PedestrianGraph.open(file);
+
+        System.out.println("Loaded pedestrian graph " + file + ": " + graph.getNodeCount() + " nodes, " + graph.getEdgeCount()
+                + " edges in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        return new LocalWalkingDistanceProvider(graph, maxMeters, DEFAULT_MAX_SNAP_METERS);
+    }
+
+    /**
+     * Returns the graph searched.
+     *
+     * @return the pedestrian graph
+     */
+    public PedestrianGraph getGraph() {
+        return graph;
+    }
+
+    @Override
+    public List<WalkingDistance> getWalkingDistances(GeocodedLocation origin, List<Location> destinations, boolean test) {
+        return walkFrom(origin.getLatLng().lat, origin.getLatLng().lng, destinations);
+    }
+
+    @Override
+    public CompletableFuture<List<WalkingDistance>> getWalkingDistancesAsync(GeocodedLocation origin, List<Location> destinations, boolean test) {
+        try {
+            return CompletableFuture.completedFuture(getWalkingDistances(origin, destinations, test));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    @Override
+    public List<List<WalkingDistance>> getWalkingDistanceMatrix(List<LatLng> origins, List<Location> destinations, boolean test) {
+        List<List<WalkingDistance>> rows = new ArrayList<>(origins.size());
+        for (LatLng origin : origins) {
+            rows.add(walkFrom(origin.lat, origin.lng, destinations));
+        }
+        return rows;
+    }
+
+    /**
+     * Returns 0: every destination is answered by the same search.
+     *
+     * @return 0
+     */
+    @Override
+    public int getMaxDestinationsPerRequest() {
+        return 0;
+    }
+
+    private List<WalkingDistance> walkFrom(double latitude, double longitude, List<Location> destinations) {
+        List<WalkingDistance> distances = new ArrayList<>(destinations.size());
+        int source = graph.nearestNode(latitude, longitude, maxSnapMeters);
+
+        if (source < 0) {
+            for (int i = 0; i < destinations.size(); i++) {
+                distances.add(WalkingDistance.unreachable(DistanceMatrixElementStatus.NOT_FOUND));
+            }
+            return distances;
+        }
+
+        double sourceSnap = graph.distanceToNode(latitude, longitude, source);
+        int[] targets = new int[destinations.size()];
+        for (int i = 0; i < targets.length; i++) {
+            Location destination = destinations.get(i);
+            targets[i] = graph.nearestNode(destination.getLatitude(), destination.getLongitude(), maxSnapMeters);
+        }
+
+        float[] meters = graph.shortestDistances(source, targets, maxMeters - sourceSnap);
+
+        for (int i = 0; i < targets.length; i++) {
+            if (targets[i] < 0) {
+                distances.add(WalkingDistance.unreachable(DistanceMatrixElementStatus.NOT_FOUND));
+                continue;
+            }
+
+            Location destination = destinations.get(i);
+            double total = sourceSnap + meters[i] + graph.distanceToNode(destination.getLatitude(), destination.getLongitude(), targets[i]);
+            distances.add(total <= maxMeters
+                    ? WalkingDistance.of(Math.round(total), Math.round(total / WALKING_METERS_PER_SECOND))
+                    : WalkingDistance.unreachable(DistanceMatrixElementStatus.ZERO_RESULTS));
+        }
+
+        return distances;
+    }
+}
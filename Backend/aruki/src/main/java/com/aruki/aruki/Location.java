@@ -1,6 +1,12 @@
 package com.aruki.aruki;
 
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
 
 /**
  * The {@code Location} class represents a location as returned by the Google Maps API,
@@ -15,19 +21,22 @@ import java.util.Arrays;
  *   <li>A name ({@code String})</li>
  *   <li>An address ({@code String})</li>
  *   <li>Types of the location ({@code String[]})</li>
- *   <li>The distance to the location ({@code String})</li>
+ *   <li>The walking distance to the location, in meters ({@code double}, {@code NaN} if not known)</li>
+ *   <li>The Google place id and coordinates of the location, when known (not serialized)</li>
  * </ul>
  * </p>
  * <p>
- * This class provides getter and setter methods for each field, allowing for
- * easy manipulation and retrieval of the data. Additionally, it overrides the
- * {@code toString} method to provide a JSON-like string representation of the object.
+ * Locations are immutable, so a single instance can be shared by every request that finds it. The distance is
+ * parsed and normalized to meters once, when the location is created; {@link #withDistanceMeters(double)} returns
+ * a copy with a new distance. The distance is only formatted as a string (e.g. "1.2 km") by {@link #getDistance()}
+ * and {@link #toString()}, when the location is serialized.
  * </p>
  * <p>
  * Example usage:
  * <pre>
  *     Location location = new Location("Central Park", "New York, NY", new String[]{"park", "tourist_attraction"}, "5 km");
- *     System.out.println(location);
+ *     places.sort(Location.BY_DISTANCE);
+ *     System.out.println(location.getDistanceMeters()); // 5000.0
  * </pre>
  * </p>
  * <p>
@@ -38,12 +47,22 @@ import java.util.Arrays;
  * @see java.lang.String
  * @see java.util.Arrays
  */
-public class Location {
+public final class Location {
+
+    /**
+     * Orders locations by walking distance, nearest first. Locations whose distance is not known come last.
+     */
+    public static final Comparator<Location> BY_DISTANCE = Comparator.comparingDouble(Location::getDistanceMeters);
 
-    private String name;
-    private String address;
-    private String[] types;
-    private String distance;
+    private static final Pattern DISTANCE_PATTERN = Pattern.compile("^([0-9]*\\.?[0-9]+)\\s*([a-zA-Z]*)$");
+
+    private final String name;
+    private final String address;
+    private final String[] types;
+    private final double distanceMeters;
+    private final String placeId;
+    private final double latitude;
+    private final double longitude;
 
     /**
      * Constructs a Location with the specified name, address, types, and distance.
@@ -51,13 +70,11 @@ public class Location {
      * @param name the name of the location
      * @param address the address of the location
      * @param types the types of the location
-     * @param distance the distance to the location
+     * @param distance the distance to the location, e.g. "1.2 km" (see {@link #parseDistanceMeters(String)})
+     * @throws NumberFormatException if the distance cannot be parsed
      */
     public Location(String name, String address, String[] types, String distance) {
-        this.name = name;
-        this.address = address;
-        this.types = types;
-        this.distance = distance;
+        this(name, address, copyOf(types), null, Double.NaN, Double.NaN, parseDistanceMeters(distance));
     }
 
     /**
@@ -68,10 +85,45 @@ public class Location {
      * @param types the types of the location
      */
     public Location(String name, String address, String[] types) {
+        this(name, address, copyOf(types), null, Double.NaN, Double.NaN, Double.NaN);
+    }
+
+    /**
+     * Constructs a Location with the specified name, address, types, place id, and coordinates.
+     *
+     * @param name the name of the location
+     * @param address the address of the location
+     * @param types the types of the location
+     * @param placeId the Google place id of the location
+     * @param latitude the latitude of the location, in degrees
+     * @param longitude the longitude of the location, in degrees
+     */
+    public Location(String name, String address, String[] types, String placeId, double latitude, double longitude) {
+        this(name, address, copyOf(types), placeId, latitude, longitude, Double.NaN);
+    }
+
+    private static String[] copyOf(String[] types) {
+        return (types != null) ? types.clone() : null;
+    }
+
+    private Location(String name, String address, String[] types, String placeId, double latitude, double longitude, double distanceMeters) {
         this.name = name;
         this.address = address;
         this.types = types;
-        this.distance = null;
+        this.placeId = placeId;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.distanceMeters = distanceMeters;
+    }
+
+    /**
+     * Returns a copy of this location with the specified walking distance.
+     *
+     * @param distanceMeters the walking distance to the location, in meters
+     * @return the location with the distance
+     */
+    public Location withDistanceMeters(double distanceMeters) {
+        return new Location(name, address, types, placeId, latitude, longitude, distanceMeters);
     }
 
     /**
@@ -93,57 +145,95 @@ public class Location {
     }
 
     /**
-     * Returns the types of the location.
+     * Returns the types of the location. The array is a copy, so modifying it does not change the location.
      *
      * @return the types of the location
      */
     public String[] getTypes() {
+        return copyOf(types);
+    }
+
+    /**
+     * Returns the types of the location without copying them, for the scoring loops that read the types of every
+     * candidate place. The array is shared, and must not be modified.
+     *
+     * @return the types of the location
+     */
+    String[] sharedTypes() {
         return types;
     }
 
     /**
-     * Returns the distance to the location.
+     * Returns the distance to the location, formatted for display (e.g. "1.2 km").
+     * <p>
+     * This is what the distance is serialized as. Code comparing or scoring distances should use
+     * {@link #getDistanceMeters()} instead.
+     * </p>
      *
-     * @return the distance to the location, or null if not set
+     * @return the formatted distance to the location, or null if not known
      */
     public String getDistance() {
-        return distance;
+        return hasDistance() ? formatDistance(distanceMeters) : null;
     }
 
     /**
-     * Sets the name of the location.
+     * Returns the walking distance to the location.
      *
-     * @param name the new name of the location
+     * @return the distance in meters, or {@code NaN} if not known
      */
-    public void setName(String name) {
-        this.name = name;
+    @JsonIgnore
+    public double getDistanceMeters() {
+        return distanceMeters;
     }
 
     /**
-     * Sets the address of the location.
+     * Checks if the distance to the location is known.
      *
-     * @param address the new address of the location
+     * @return {@code true} if the location has a distance, {@code false} otherwise
      */
-    public void setAddress(String address) {
-        this.address = address;
+    @JsonIgnore
+    public boolean hasDistance() {
+        return !Double.isNaN(distanceMeters);
     }
 
     /**
-     * Sets the types of the location.
+     * Returns the Google place id of the location.
      *
-     * @param types the new types of the location
+     * @return the place id, or null if not known
      */
-    public void setTypes(String[] types) {
-        this.types = types;
+    @JsonIgnore
+    public String getPlaceId() {
+        return placeId;
     }
 
     /**
-     * Sets the distance to the location.
+     * Returns the latitude of the location.
      *
-     * @param distance the new distance to the location
+     * @return the latitude in degrees, or {@code NaN} if not known
      */
-    public void setDistance(String distance) {
-        this.distance = distance;
+    @JsonIgnore
+    public double getLatitude() {
+        return latitude;
+    }
+
+    /**
+     * Returns the longitude of the location.
+     *
+     * @return the longitude in degrees, or {@code NaN} if not known
+     */
+    @JsonIgnore
+    public double getLongitude() {
+        return longitude;
+    }
+
+    /**
+     * Checks if the coordinates of the location are known.
+     *
+     * @return {@code true} if the location has coordinates, {@code false} otherwise
+     */
+    @JsonIgnore
+    public boolean hasCoordinates() {
+        return !Double.isNaN(latitude) && !Double.isNaN(longitude);
     }
 
     /**
@@ -154,41 +244,67 @@ public class Location {
     @Override
     public String toString() {
         String typesString = Arrays.toString(types);
+        String distance = getDistance();
         return "{\"name\":\"" + name + "\",\"address\":\"" + address + "\",\"types\":" + typesString + ",\"distance\":" + (distance != null ? "\"" + distance + "\"" : null) + "}";
     }
 
     /**
-     * Parses the distance to a double. The distance is expected to be in the format "123 km" or "123 m" or "123 mi" or "123 ft".
+     * Parses a distance to meters. The distance is expected to be in the format "123 km", "123 m", "123 mi" or
+     * "123 ft" (the space and the long unit names such as "miles" are optional). A distance without a unit is in
+     * kilometers, the unit the scoring thresholds are expressed in.
      * 
      * @param distance the distance string to parse
-     * @return the parsed distance as a double
+     * @return the distance in meters, or {@code NaN} if the distance is null
+     * @throws NumberFormatException if the distance or its unit cannot be parsed
      */
-    public static double parseDistance(String distance) {
+    public static double parseDistanceMeters(String distance) {
         if (distance == null) {
-            return 0;
+            return Double.NaN;
+        }
+
+        Matcher matcher = DISTANCE_PATTERN.matcher(distance.trim());
+
+        if (!matcher.matches()) {
+            throw new NumberFormatException("Invalid distance: " + distance);
         }
 
-        distance = distance.trim();
-
-        if (distance.endsWith(" km")) {
-            distance = distance.substring(0, distance.length() - 3);
-        } else if (distance.endsWith(" m")) {
-            distance = distance.substring(0, distance.length() - 2);
-        } else if (distance.endsWith(" mi")) {
-            distance = distance.substring(0, distance.length() - 3);
-        } else if (distance.endsWith(" ft")) {
-            distance = distance.substring(0, distance.length() - 3);
-        } else if (distance.endsWith(" miles")) {
-            distance = distance.substring(0, distance.length() - 6);
-        } else if (distance.endsWith(" kilometers")) {
-            distance = distance.substring(0, distance.length() - 11);
-        } else if (distance.endsWith(" meters")) {
-            distance = distance.substring(0, distance.length() - 7);
-        } else if (distance.endsWith(" feet")) {
-            distance = distance.substring(0, distance.length() - 5);
+        double value = Double.parseDouble(matcher.group(1));
+
+        switch (matcher.group(2).toLowerCase(Locale.ROOT)) {
+            case "":
+            case "km":
+            case "kilometer":
+            case "kilometers":
+            case "kilometre":
+            case "kilometres":
+                return value * 1000;
+            case "m":
+            case "meter":
+            case "meters":
+            case "metre":
+            case "metres":
+                return value;
+            case "mi":
+            case "mile":
+            case "miles":
+                return value * 1609.344;
+            case "ft":
+            case "foot":
+            case "feet":
+                return value * 0.3048;
+            default:
+                throw new NumberFormatException("Invalid distance unit: " + distance);
         }
+    }
 
-        return Double.parseDouble(distance);
+    /**
+     * Formats a distance for display, in kilometers with one decimal (e.g. "1.2 km").
+     *
+     * @param meters the distance, in meters
+     * @return the formatted distance
+     */
+    public static String formatDistance(double meters) {
+        return String.format(Locale.ROOT, "%.1f km", meters / 1000.0);
     }
 
     /**
@@ -198,7 +314,7 @@ public class Location {
      * @return {@code true} if the locations are equal, {@code false} otherwise
      */
     public boolean equals(Location location) {
-        return this.name.equals(location.getName()) && this.address.equals(location.getAddress()) && Arrays.equals(this.types, location.getTypes()) && this.distance.equals(location.getDistance());
+        return this.name.equals(location.getName()) && this.address.equals(location.getAddress()) && Arrays.equals(this.types, location.types) && Double.compare(this.distanceMeters, location.getDistanceMeters()) == 0;
     }
 
     /**
@@ -208,10 +324,10 @@ public class Location {
      * @return {@code true} if the distances are equal, {@code false} otherwise
      */
     public boolean distanceEquals(Location location) {
-        if (this.distance == null || location.getDistance() == null) {
+        if (!this.hasDistance() || !location.hasDistance()) {
             return false;
         }
-        return parseDistance(distance) == parseDistance(location.getDistance());
+        return distanceMeters == location.getDistanceMeters();
     }
 
     /**
@@ -221,10 +337,10 @@ public class Location {
      * @return {@code true} if the distances are not equal, {@code false} otherwise
      */
     public boolean distanceNotEquals(Location location) {
-        if (this.distance == null || location.getDistance() == null) {
+        if (!this.hasDistance() || !location.hasDistance()) {
             return false;
         }
-        return parseDistance(distance) != parseDistance(location.getDistance());
+        return distanceMeters != location.getDistanceMeters();
     }
 
     /**
@@ -234,10 +350,7 @@ public class Location {
      * @return {@code true} if this location's distance is greater, {@code false} otherwise
      */
     public boolean greaterThan(Location location) {
-        if (this.distance == null || location.getDistance() == null) {
-            return false;
-        }
-        return parseDistance(distance) > parseDistance(location.getDistance());
+        return distanceMeters > location.getDistanceMeters();
     }
 
     /**
@@ -247,10 +360,7 @@ public class Location {
      * @return {@code true} if this location's distance is less, {@code false} otherwise
      */
     public boolean lessThan(Location location) {
-        if (this.distance == null || location.getDistance() == null) {
-            return false;
-        }
-        return parseDistance(distance) < parseDistance(location.getDistance());
+        return distanceMeters < location.getDistanceMeters();
     }
 
     /**
@@ -260,10 +370,7 @@ public class Location {
      * @return {@code true} if this location's distance is greater than or equal, {@code false} otherwise
      */
     public boolean greaterThanOrEqualTo(Location location) {
-        if (this.distance == null || location.getDistance() == null) {
-            return false;
-        }
-        return parseDistance(distance) >= parseDistance(location.getDistance());
+        return distanceMeters >= location.getDistanceMeters();
     }
 
     /**
@@ -273,10 +380,7 @@ public class Location {
      * @return {@code true} if this location's distance is less than or equal, {@code false} otherwise
      */
     public boolean lessThanOrEqualTo(Location location) {
-        if (this.distance == null || location.getDistance() == null) {
-            return false;
-        }
-        return parseDistance(distance) <= parseDistance(location.getDistance());
+        return distanceMeters <= location.getDistanceMeters();
     }
 
     /**
@@ -285,6 +389,6 @@ public class Location {
      * @return {@code true} if all fields are null, {@code false} otherwise
      */
     public boolean isNull() {
-        return this.name == null && this.address == null && this.types == null && this.distance == null;
+        return this.name == null && this.address == null && this.types == null && !hasDistance();
     }
 }
@@ -1,22 +1,31 @@
 package com.aruki.aruki;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 
 import com.google.maps.errors.ApiException;
+import com.google.maps.model.LatLng;
 import com.google.maps.model.PlaceType;
 
 import io.github.cdimascio.dotenv.Dotenv;
+import jakarta.annotation.PostConstruct;
 
 /**
  * The <code>LocationManager</code> class is responsible for managing and retrieving location-based data.
@@ -25,14 +34,16 @@ import io.github.cdimascio.dotenv.Dotenv;
  * a walkability score for the location based on the proximity and importance of nearby places.
  * 
  * <p>
- * The class uses multithreading to handle API requests efficiently and processes the results to provide
+ * The class fans API requests out through the shared {@link FanOutExecutor} and processes the results to provide
  * a comprehensive analysis of the location's accessibility to essential and non-essential services.
  * </p>
  * 
  * <p>
  * Key functionalities include:
  * <ul>
- *   <li>Retrieving places of different categories near a specified location</li>
+ *   <li>Retrieving places of different categories near a specified location, coalescing concurrent requests for the same location</li>
+ *   <li>Optionally following the next page token of each nearby search, verifying each page while the next one is fetched</li>
+ *   <li>Streaming the verified places of each category as soon as that category is done</li>
  *   <li>Verifying walking distances to these places</li>
  *   <li>Calculating a walkability score based on the proximity and importance of nearby places</li>
  * </ul>
@@ -42,13 +53,26 @@ import io.github.cdimascio.dotenv.Dotenv;
  * The class interacts with the following classes:
  * <ul>
  *   <li>{@link APIManager} - To isolate and handle Google Maps API calls</li>
+ *   <li>{@link PlacesProvider} - To search for nearby places, through Google or an {@link OfflinePlacesProvider}</li>
+ *   <li>{@link FanOutExecutor} - To run the Google Maps API calls concurrently with per-API limits</li>
+ *   <li>{@link GeocodeCache} - To avoid geocoding recently seen addresses again</li>
+ *   <li>{@link NearbySearchCache} - To share nearby searches between origins in the same geohash cell</li>
+ *   <li>{@link WalkingDistanceCache} - To avoid requesting walking distances that were recently requested</li>
+ *   <li>{@link ScoreStore} - To keep computed scores across restarts</li>
  *   <li>{@link Location} - To represent individual places and their attributes</li>
  *   <li>{@link ScoreResponse} - To encapsulate the walkability score and category scores</li>
  *   <li>{@link CategoryScore} - To represent scores for individual categories of places</li>
+ *   <li>{@link ScoringEngine} - To calculate the score of a location from its places</li>
  * </ul>
  * </p>
  * 
  * <p>
+ * Every stage has a blocking version and a non-blocking version ending in <code>Async</code>. The non-blocking
+ * versions compose the stages as <code>CompletableFuture</code>s over the Google Maps callback API, so a request
+ * holds no thread while it waits for Google. Both versions share the caches and the coalescing of identical requests.
+ * </p>
+ * 
+ * <p>
  * The class also uses constants to define weights for different categories of places and thresholds for
  * distance calculations.
  * </p>
@@ -73,15 +97,171 @@ public class LocationManager {
     private static final double CLOSE_DISTANCE = 0.5; // kilometers
     private static final double MEDIUM_DISTANCE = 1.0; // kilometers
     private static final double FAR_DISTANCE = 2.0; // kilometers
-    private static final int BATCH_SIZE = 25; // Define a batch size for API requests
+
+    // Scores places with the weights and distances above, indexing each category once
+    static final ScoringEngine SCORING_ENGINE = new ScoringEngine(CATEGORY_CONSTANTS, SEARCH_RADIUS * 1000, CLOSE_DISTANCE * 1000, MEDIUM_DISTANCE * 1000, FAR_DISTANCE * 1000);
 
     @Autowired
     private APIManager apiManager; // Isolates the Google Maps API calls, so that the LocationManager class is not directly dependent on the Google Maps API. 
 
-    public LocationManager() {}
+    @Autowired
+    private PlacesProvider placesProvider; // Answers nearby searches: the APIManager, or an index of imported places
+
+    @Autowired
+    @Qualifier("walkingDistanceProvider")
+    private WalkingDistanceProvider walkingDistanceProvider; // Answers walking distances: the APIManager, or a pedestrian graph
+
+    @Autowired
+    private FanOutExecutor fanOutExecutor; // Shared, bounded executor for the concurrent Google Maps API calls
+
+    @Autowired
+    private GeocodeCache geocodeCache; // Geocoding results by canonical address
+
+    @Autowired
+    private NearbySearchCache nearbySearchCache; // Nearby-search results by geohash cell and category
+
+    @Autowired
+    private WalkingDistanceCache walkingDistanceCache; // Walking distances by snapped origin and destination place id
+
+    @Autowired(required = false)
+    private ScoreStore scoreStore; // Scores by scoring version and canonical location, kept across restarts; null if disabled
+
+    @Value("${aruki.coalescing.wait-timeout:30s}")
+    private Duration coalescingWaitTimeout = Duration.ofSeconds(30); // How long a request waits for an identical in-flight request
+
+    @Value("${aruki.places.max-pages:1}")
+    private int maxPages = 1; // Pages of nearby-search results to read per category (the Places API returns at most 3 pages of 20)
+
+    @Value("${aruki.places.page-token-delay:2s}")
+    private Duration pageTokenDelay = Duration.ofSeconds(2); // How long a next page token takes to become valid
+
+    private SingleFlight<String, GeocodedLocation> geocodeFlights; // In-flight geocodes by canonical address
+    private SingleFlight<String, List<Location>> placesFlights; // In-flight places pipelines by canonical location
+
+    public LocationManager() {
+        createSingleFlights();
+    }
 
     public LocationManager(APIManager apiManager) {
+        createSingleFlights();
         this.apiManager = apiManager;
+        this.placesProvider = apiManager;
+        this.walkingDistanceProvider = apiManager;
+        this.fanOutExecutor = new FanOutExecutor();
+        this.geocodeCache = new GeocodeCache();
+        this.nearbySearchCache = new NearbySearchCache();
+        this.walkingDistanceCache = new WalkingDistanceCache();
+    }
+
+    /**
+     * Creates the single-flight groups once the coalescing timeout is known.
+     */
+    @PostConstruct
+    private void createSingleFlights() {
+        this.geocodeFlights = new SingleFlight<>(coalescingWaitTimeout);
+        this.placesFlights = new SingleFlight<>(coalescingWaitTimeout);
+    }
+
+    /**
+     * Resolves the specified location to its coordinates and place id.
+     * 
+     * This is the single geocode of a request. Its result both validates the location and is passed to
+     * every later stage, so callers should resolve once and use the {@link GeocodedLocation} overloads.
+     * Results are served from the {@link GeocodeCache} when the canonical address has been seen recently.
+     * 
+     * @param location The location to resolve
+     * @param test Whether to use test data
+     * @return The geocoded location, or null if the location does not exist
+     * @throws ApiException If there is an error with the API request
+     * @throws InterruptedException If the thread is interrupted
+     * @throws IOException If there is an I/O error
+     */
+    public GeocodedLocation resolveLocation(String location, boolean test) throws ApiException, InterruptedException, IOException {
+        return resolveLocation(location, new PipelineStats(), test);
+    }
+
+    /**
+     * Resolves the specified location to its coordinates and place id, timing the geocode in the stats of the request.
+     * 
+     * A geocode served from the cache is not timed.
+     * 
+     * @param location The location to resolve
+     * @param stats The stats of the request
+     * @param test Whether to use test data
+     * @return The geocoded location, or null if the location does not exist
+     * @throws ApiException If there is an error with the API request
+     * @throws InterruptedException If the thread is interrupted
+     * @throws IOException If there is an I/O error
+     * @see #resolveLocation(String, boolean)
+     */
+    public GeocodedLocation resolveLocation(String location, PipelineStats stats, boolean test) throws ApiException, InterruptedException, IOException {
+        GeocodedLocation cached = geocodeCache.get(location, test);
+
+        if (cached != null) {
+            return cached;
+        }
+
+        // Concurrent requests for the same canonical address share one geocode
+        String key = GeocodeCache.key(location, test);
+
+        return timed(stats, PipelineStage.GEOCODE, null, () -> geocodeFlights.execute(key, () -> {
+            return cacheGeocode(location, test, fanOutExecutor.call(UpstreamApi.GEOCODING, () -> apiManager.geocode(location, test)));
+        }));
+    }
+
+    /**
+     * Resolves the specified location to its coordinates and place id, without blocking.
+     * 
+     * @param location The location to resolve
+     * @param test Whether to use test data
+     * @return Future for the geocoded location, completing with null if the location does not exist
+     * @see #resolveLocation(String, boolean)
+     */
+    public CompletableFuture<GeocodedLocation> resolveLocationAsync(String location, boolean test) {
+        return resolveLocationAsync(location, new PipelineStats(), test);
+    }
+
+    /**
+     * Resolves the specified location to its coordinates and place id without blocking, timing the geocode in the
+     * stats of the request.
+     * 
+     * @param location The location to resolve
+     * @param stats The stats of the request
+     * @param test Whether to use test data
+     * @return Future for the geocoded location, completing with null if the location does not exist
+     * @see #resolveLocation(String, PipelineStats, boolean)
+     */
+    public CompletableFuture<GeocodedLocation> resolveLocationAsync(String location, PipelineStats stats, boolean test) {
+        GeocodedLocation cached = geocodeCache.get(location, test);
+
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        String key = GeocodeCache.key(location, test);
+
+        return timedAsync(stats, PipelineStage.GEOCODE, null, () -> geocodeFlights.executeAsync(key, () ->
+                fanOutExecutor.submitAsync(UpstreamApi.GEOCODING, () -> apiManager.geocodeAsync(location, test))
+                        .thenApply(origin -> cacheGeocode(location, test, origin))));
+    }
+
+    /**
+     * Caches a geocode if the location exists.
+     * 
+     * Only addresses that exist are cached, so a bad address is not remembered as invalid. Test geocodes are cached
+     * apart from real ones.
+     * 
+     * @param location The location that was resolved
+     * @param test Whether the geocode comes from test data
+     * @param origin The geocoded location, or null if the location does not exist
+     * @return The geocoded location
+     */
+    private GeocodedLocation cacheGeocode(String location, boolean test, GeocodedLocation origin) {
+        if (origin != null) {
+            geocodeCache.put(location, test, origin);
+        }
+
+        return origin;
     }
 
     /**
@@ -95,265 +275,1115 @@ public class LocationManager {
      * @throws IOException If there is an I/O error
      */
     public List<Location> getPlaces(String location, boolean test) throws ApiException, InterruptedException, IOException {
-        List<Location> places = retrievePlaces(location, test);
-        return places;
+        return getPlaces(requireLocation(location, test), test);
     }
 
     /**
-     * Retrieves places of each category near the specified location.
+     * Retrieves places near the specified, already geocoded, location.
      * 
-     * The method uses the Google Maps API to retrieve places of each category near the location.
-     * The method then verifies the walking distances of the places.
+     * @param origin The geocoded location to retrieve places near
+     * @param test Whether to use test data
+     * @return List of places near the location
+     * @throws ApiException If there is an error with the API request
+     * @throws InterruptedException If the thread is interrupted
+     * @throws IOException If there is an I/O error
+     */
+    public List<Location> getPlaces(GeocodedLocation origin, boolean test) throws ApiException, InterruptedException, IOException {
+        return getPlaces(origin, new PipelineStats(), test);
+    }
+
+    /**
+     * Retrieves places near the specified, already geocoded, location, recording the work done in the stats.
      * 
-     * @param location The location to retrieve places near
+     * @param origin The geocoded location to retrieve places near
+     * @param stats The stats of the request
      * @param test Whether to use test data
      * @return List of places near the location
      * @throws ApiException If there is an error with the API request
      * @throws InterruptedException If the thread is interrupted
      * @throws IOException If there is an I/O error
      */
-    private List<Location> retrievePlaces(String location, boolean test) throws ApiException, InterruptedException, IOException {
-        List<Location> places = new ArrayList<Location>();
-        ExecutorService executor = Executors.newFixedThreadPool(CATEGORY_CONSTANTS.size());
-        List<Future<List<Location>>> futures = new ArrayList<>();
+    public List<Location> getPlaces(GeocodedLocation origin, PipelineStats stats, boolean test) throws ApiException, InterruptedException, IOException {
+        List<Location> places = retrievePlaces(origin, stats, test);
+        return places;
+    }
+
+    /**
+     * Retrieves places near the specified, already geocoded, location without blocking, recording the work done in the stats.
+     * 
+     * @param origin The geocoded location to retrieve places near
+     * @param stats The stats of the request
+     * @param test Whether to use test data
+     * @return Future for the list of places near the location
+     */
+    public CompletableFuture<List<Location>> getPlacesAsync(GeocodedLocation origin, PipelineStats stats, boolean test) {
+        return retrievePlacesAsync(origin, stats, test);
+    }
+
+    /**
+     * Retrieves and verifies places of each category near the specified location without blocking, handing each
+     * category to the callback as soon as its nearby search and walking distance verification are done.
+     * 
+     * Categories are delivered in the order they finish, so the fastest category is available after its own latency
+     * rather than the slowest one's. Walking distances are verified per category instead of in shared batches, and the
+     * stream is not coalesced with concurrent requests for the same location.
+     * 
+     * Cancelling the returned future, e.g. because the client went away, cancels the searches of the categories that
+     * have not been delivered yet.
+     * 
+     * @param origin The geocoded location to retrieve places near
+     * @param stats The stats of the request
+     * @param test Whether to use test data
+     * @param onCategory Called with each category and its verified places, nearest first, from the thread that completed it
+     * @return Future completing once every category has been delivered
+     */
+    public CompletableFuture<Void> streamPlacesAsync(GeocodedLocation origin, PipelineStats stats, boolean test, BiConsumer<PlaceType, List<Location>> onCategory) {
+        List<CompletableFuture<List<Location>>> searches = new ArrayList<>();
+        List<CompletableFuture<Void>> categories = new ArrayList<>();
 
         for (PlaceType category : CATEGORY_CONSTANTS.keySet()) {
-            Callable<List<Location>> task = () -> apiManager.retrievePlacesOfCategory(location, category, test);
-            futures.add(executor.submit(task));
-        }
-
-        for (Future<List<Location>> future : futures) {
-            try {
-                places.addAll(future.get());
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            } catch (ExecutionException e) {
-                Throwable cause = e.getCause();
-                if (cause instanceof ApiException) {
-                    throw (ApiException) cause;
-                } else if (cause instanceof IOException) {
-                    throw (IOException) cause;
-                } else if (cause instanceof InterruptedException) {
-                    Thread.currentThread().interrupt(); // Restore interrupted status
-                    throw (InterruptedException) cause;
-                } else {
-                    throw new RuntimeException(cause);
-                }
-            }
+            CompletableFuture<List<Location>> search = retrieveAndVerifyPlacesOfCategoryAsync(origin, category, stats, test);
+            searches.add(search);
+            categories.add(search.thenAccept(places -> onCategory.accept(category, sortByDistance(new ArrayList<Location>(places)))));
         }
 
-        executor.shutdown();
+        CompletableFuture<Void> stream = FanOutExecutor.allOf(categories).thenApply(done -> null);
+        stream.whenComplete((done, failure) -> {
+            if (stream.isCancelled()) {
+                searches.forEach(search -> search.cancel(true));
+            }
+        });
 
-        // Verify walking distances of places
-        places = verifyWalkingDistances(location, places, test);
+        return stream;
+    }
 
-        return places;
+    /**
+     * Retrieves places of each category near the specified location, coalescing concurrent requests for the same location.
+     * 
+     * While the places of a location are being computed, other requests for the same location (identified by its place id)
+     * wait for that computation instead of starting their own. Waiters give up after the coalescing timeout, and a failure
+     * is delivered to every waiter without being remembered.
+     * 
+     * @param origin The geocoded location to retrieve places near
+     * @param stats The stats of the request
+     * @param test Whether to use test data
+     * @return Unmodifiable list of places near the location, which may be shared with concurrent requests
+     * @throws ApiException If there is an error with the API request
+     * @throws InterruptedException If the thread is interrupted
+     * @throws IOException If there is an I/O error
+     * @throws SingleFlight.WaitTimeoutException If the request waited for a concurrent request for longer than the timeout
+     */
+    private List<Location> retrievePlaces(GeocodedLocation origin, PipelineStats stats, boolean test) throws ApiException, InterruptedException, IOException {
+        return placesFlights.execute(locationKey(origin, test), () -> Collections.unmodifiableList(computePlaces(origin, stats, test)));
     }
 
     /**
-     * Verifies the walking distances of the places in the location.
+     * Retrieves places of each category near the specified location without blocking, coalescing concurrent requests
+     * for the same location with both blocking and non-blocking callers.
      * 
-     * This function is necessary as distance as the crow flies often does not equal the actual walking distance.
-     * If the walking distance is greater than the maximum search radius, the place is removed from the list of places.
+     * @param origin The geocoded location to retrieve places near
+     * @param stats The stats of the request
+     * @param test Whether to use test data
+     * @return Future for the unmodifiable list of places near the location
+     * @see #retrievePlaces(GeocodedLocation, PipelineStats, boolean)
+     */
+    private CompletableFuture<List<Location>> retrievePlacesAsync(GeocodedLocation origin, PipelineStats stats, boolean test) {
+        return placesFlights.executeAsync(locationKey(origin, test), () -> computePlacesAsync(origin, stats, test).thenApply(Collections::unmodifiableList));
+    }
+
+    /**
+     * Retrieves places of each category near the specified location.
      * 
-     * @param originAddress The address of the origin
-     * @param places The list of places to verify the walking distances of
+     * The method uses the Google Maps API to retrieve places of each category near the location.
+     * The method then verifies the walking distances of the places.
+     * 
+     * @param origin The geocoded location to retrieve places near
+     * @param stats The stats of the request
      * @param test Whether to use test data
-     * @return List of places with verified walking distances
+     * @return List of places near the location
      * @throws ApiException If there is an error with the API request
      * @throws InterruptedException If the thread is interrupted
      * @throws IOException If there is an I/O error
      */
-    private List<Location> verifyWalkingDistances(String originAddress, List<Location> places, boolean test) throws ApiException, InterruptedException, IOException {
-        List<Location> verifiedPlaces = new ArrayList<Location>();
+    private List<Location> computePlaces(GeocodedLocation origin, PipelineStats stats, boolean test) throws ApiException, InterruptedException, IOException {
+        if (maxPages > 1) {
+            return computePlacesPaged(origin, stats, test);
+        }
 
-        try {
-            int numBatches = (int) Math.ceil((double) places.size() / BATCH_SIZE);
-            ExecutorService executor = Executors.newFixedThreadPool(numBatches);
-            List<Future<List<Location>>> futures = new ArrayList<>();
-
-            for (int i = 0; i < places.size(); i += BATCH_SIZE) {
-                int start = i;
-                int end = Math.min(start + BATCH_SIZE, places.size());
-                Callable<List<Location>> task = () -> verifyWalkingDistancesWithThreadsSublist(originAddress, places, start, end, test);
-                futures.add(executor.submit(task));
-            }
+        List<Location> places = new ArrayList<Location>();
+        List<Callable<List<Location>>> tasks = new ArrayList<>();
 
-            for (Future<List<Location>> future : futures) {
-                try {
-                    verifiedPlaces.addAll(future.get());
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                } catch (ExecutionException e) {
-                    Throwable cause = e.getCause();
-                    if (cause instanceof ApiException) {
-                        throw (ApiException) cause;
-                    } else if (cause instanceof IOException) {
-                        throw (IOException) cause;
-                    } else if (cause instanceof InterruptedException) {
-                        Thread.currentThread().interrupt(); // Restore interrupted status
-                        throw (InterruptedException) cause;
-                    } else {
-                        throw new RuntimeException(cause);
-                    }
-                }
-            }
+        for (PlaceType category : CATEGORY_CONSTANTS.keySet()) {
+            tasks.add(() -> retrievePlacesOfCategory(origin, category, stats, test));
+        }
 
-            executor.shutdown();
-            return verifiedPlaces; 
-        } catch (Exception e) {
-            throw e;
+        for (List<Location> categoryPlaces : fanOutExecutor.invokeAll(UpstreamApi.PLACES, tasks)) {
+            places.addAll(categoryPlaces);
         }
+
+        // Verify walking distances of places
+        places = verifyWalkingDistances(origin, places, stats, test);
+
+        return places;
     }
 
     /**
-     * Verifies the walking distances of a sublist of places in the location.
+     * Retrieves places of each category near the specified location, then verifies their walking distances, without blocking.
      * 
-     * @param originAddress The address of the origin
-     * @param places The list of places to verify the walking distances of
-     * @param start The start index of the sublist
-     * @param end The end index of the sublist
+     * @param origin The geocoded location to retrieve places near
+     * @param stats The stats of the request
      * @param test Whether to use test data
-     * @return List of places with verified walking distances
+     * @return Future for the list of places near the location
      */
-    private List<Location> verifyWalkingDistancesWithThreadsSublist(String originAddress, List<Location> places, int start, int end, boolean test) {
-        List<Location> verifiedPlaces = new ArrayList<Location>();
-        List<Location> sublist = places.subList(start, end);
+    private CompletableFuture<List<Location>> computePlacesAsync(GeocodedLocation origin, PipelineStats stats, boolean test) {
+        if (maxPages > 1) {
+            return computePlacesPagedAsync(origin, stats, test);
+        }
 
-        try {
-            List<String> placeAddresses = new ArrayList<String>();
-            for (Location place : sublist) {
-                placeAddresses.add(place.getAddress());
-            }
+        List<CompletableFuture<List<Location>>> categories = new ArrayList<>();
 
-            List<String> walkingDistances = apiManager.getWalkingDistances(originAddress, placeAddresses, test);
+        for (PlaceType category : CATEGORY_CONSTANTS.keySet()) {
+            categories.add(retrievePlacesOfCategoryAsync(origin, category, stats, test));
+        }
 
-            for (int j = 0; j < sublist.size(); j++) {
-                Location place = sublist.get(j);
-                String walkingDistance = walkingDistances.get(j);
-                if (Location.parseDistance(walkingDistance) <= SEARCH_RADIUS) {
-                    place.setDistance(walkingDistance);
-                    verifiedPlaces.add(place);
-                }
+        return FanOutExecutor.allOf(categories).thenCompose(categoryPlaces -> {
+            List<Location> places = new ArrayList<Location>();
+
+            for (List<Location> placesOfCategory : categoryPlaces) {
+                places.addAll(placesOfCategory);
             }
 
-            return verifiedPlaces;
-        } catch (Exception e) {
-            return sublist;
+            return verifyWalkingDistancesAsync(origin, places, stats, test);
+        });
+    }
+
+    /**
+     * Retrieves and verifies places of each category near the specified location, reading up to {@code maxPages} pages
+     * of each nearby search.
+     * 
+     * Each category is handled on its own: every page is filtered to the search radius and handed to walking distance
+     * verification as soon as it arrives, while the next page is fetched. Duplicate destinations are therefore only
+     * grouped within a page, not across categories.
+     * 
+     * @param origin The geocoded location to retrieve places near
+     * @param stats The stats of the request
+     * @param test Whether to use test data
+     * @return List of places near the location, by category and then in page order
+     * @throws ApiException If there is an error with the API request
+     * @throws InterruptedException If the thread is interrupted
+     * @throws IOException If there is an I/O error
+     */
+    private List<Location> computePlacesPaged(GeocodedLocation origin, PipelineStats stats, boolean test) throws ApiException, InterruptedException, IOException {
+        List<Future<List<Location>>> categories = new ArrayList<>();
+
+        for (PlaceType category : CATEGORY_CONSTANTS.keySet()) {
+            categories.add(fanOutExecutor.fork(() -> retrieveAndVerifyPlacesOfCategory(origin, category, stats, test)));
+        }
+
+        List<Location> places = new ArrayList<Location>();
+        for (List<Location> categoryPlaces : FanOutExecutor.joinAll(categories)) {
+            places.addAll(categoryPlaces);
         }
+
+        return places;
     }
 
     /**
-     * Retrieves the score of the location.
+     * Retrieves places of one category page by page, verifying the walking distances of each page while the next
+     * page is fetched.
      * 
-     * The method retrieves the places near the location.
-     * The method calculates the score of the location based on the places near the location.
+     * The cell's search is cached once every page has been read, so later requests in the cell are served from the
+     * cache as in the single-page case.
      * 
-     * @param location The location to retrieve the score of
+     * @param origin The geocoded location to retrieve places near
+     * @param category The category of places to retrieve
+     * @param stats The stats of the request
      * @param test Whether to use test data
-     * @return ScoreResponse The score of the location
+     * @return List of verified places of the category, in page order
      * @throws ApiException If there is an error with the API request
      * @throws InterruptedException If the thread is interrupted
      * @throws IOException If there is an I/O error
      */
-    public ScoreResponse getScore(String location, boolean test) throws ApiException, InterruptedException, IOException {
-        List<Location> places = retrievePlaces(location, test);
+    private List<Location> retrieveAndVerifyPlacesOfCategory(GeocodedLocation origin, PlaceType category, PipelineStats stats, boolean test) throws ApiException, InterruptedException, IOException {
+        LatLng latLng = origin.getLatLng();
+        String cell = nearbySearchCache.cellOf(latLng);
+        String key = NearbySearchCache.key(cell, category, test);
+        PoiIndex cached = nearbySearchCache.get(key);
+
+        if (cached != null) {
+            return verifyWalkingDistances(origin, cached.withinRadius(latLng.lat, latLng.lng, SEARCH_RADIUS * 1000), stats, test);
+        }
 
-        ScoreResponse result = new ScoreResponse();
-        Map<String, CategoryScore> scores = new HashMap<String, CategoryScore>();
+        int radius = NearbySearchCache.coveringRadius(cell, SEARCH_RADIUS * 1000);
+        List<Location> found = new ArrayList<Location>();
+        List<Future<List<Location>>> verifications = new ArrayList<>();
 
-        for (PlaceType category : CATEGORY_CONSTANTS.keySet()) {
-            scores.put(category.toString(), new CategoryScore(category.toString(), 0.0, 0, 0, 0));
+        try {
+            PlacesPage page = fanOutExecutor.call(UpstreamApi.PLACES, () -> timed(stats, PipelineStage.NEARBY_SEARCH, category.toString(), () -> placesProvider.retrievePlacesPage(Geohash.center(cell), radius, category, test)));
+
+            for (int pages = 1; ; pages++) {
+                found.addAll(page.getPlaces());
+
+                // Verify this page while the next one is fetched
+                List<Location> nearby = withinSearchRadius(origin, page.getPlaces());
+                verifications.add(fanOutExecutor.fork(() -> verifyWalkingDistances(origin, nearby, stats, test)));
+
+                if (!page.hasNextPage() || pages >= maxPages) {
+                    break;
+                }
+
+                Thread.sleep(pageTokenDelay.toMillis()); // The next page token is rejected until shortly after it is issued
+
+                String pageToken = page.getNextPageToken();
+                page = fanOutExecutor.call(UpstreamApi.PLACES, () -> timed(stats, PipelineStage.NEARBY_SEARCH, category.toString(), () -> placesProvider.retrieveNextPlacesPage(pageToken, test)));
+            }
+        } catch (ApiException | InterruptedException | IOException | RuntimeException e) {
+            for (Future<List<Location>> verification : verifications) {
+                verification.cancel(true);
+            }
+            throw e;
         }
 
-        CategoryScore overall = new CategoryScore("overall", 0.0, 0, 0, 0);
-        scores.put("overall", overall);
+        cacheNearbySearch(key, found);
 
-        for (Location place : places) {
-            calculateLocationScore(place, scores);
+        List<Location> verified = new ArrayList<Location>();
+        for (List<Location> pagePlaces : FanOutExecutor.joinAll(verifications)) {
+            verified.addAll(pagePlaces);
         }
 
-        double walkability = scores.get("overall").getScore();
-        result.setWalkabilityScore(walkability);
+        return verified;
+    }
+
+    /**
+     * Retrieves and verifies places of each category near the specified location page by page, without blocking.
+     * 
+     * @param origin The geocoded location to retrieve places near
+     * @param stats The stats of the request
+     * @param test Whether to use test data
+     * @return Future for the list of places near the location, by category and then in page order
+     * @see #computePlacesPaged(GeocodedLocation, PipelineStats, boolean)
+     */
+    private CompletableFuture<List<Location>> computePlacesPagedAsync(GeocodedLocation origin, PipelineStats stats, boolean test) {
+        List<CompletableFuture<List<Location>>> categories = new ArrayList<>();
 
-        List<CategoryScore> categoryScores = new ArrayList<CategoryScore>();
         for (PlaceType category : CATEGORY_CONSTANTS.keySet()) {
-            categoryScores.add(scores.get(category.toString()));
+            categories.add(retrieveAndVerifyPlacesOfCategoryAsync(origin, category, stats, test));
         }
 
-        result.setCategoryScores(categoryScores);
-        return result;
+        return FanOutExecutor.allOf(categories).thenApply(LocationManager::flatten);
     }
 
     /**
-     * Calculates the score of the location based on the places near the location.
+     * Retrieves places of one category page by page without blocking, verifying the walking distances of each page
+     * while the next page is fetched.
      * 
-     * @param location The location to calculate the score of
-     * @param scores The scores of the location
+     * @param origin The geocoded location to retrieve places near
+     * @param category The category of places to retrieve
+     * @param stats The stats of the request
+     * @param test Whether to use test data
+     * @return Future for the list of verified places of the category, in page order
+     * @see #retrieveAndVerifyPlacesOfCategory(GeocodedLocation, PlaceType, PipelineStats, boolean)
      */
-    private void calculateLocationScore(Location location, Map<String, CategoryScore> scores) {
-        String[] categories = location.getTypes();
+    private CompletableFuture<List<Location>> retrieveAndVerifyPlacesOfCategoryAsync(GeocodedLocation origin, PlaceType category, PipelineStats stats, boolean test) {
+        LatLng latLng = origin.getLatLng();
+        String cell = nearbySearchCache.cellOf(latLng);
+        String key = NearbySearchCache.key(cell, category, test);
+        PoiIndex cached = nearbySearchCache.get(key);
 
-        for (String category : categories) {
-            PlaceType placeType = getCategory(category);
+        if (cached != null) {
+            return verifyWalkingDistancesAsync(origin, cached.withinRadius(latLng.lat, latLng.lng, SEARCH_RADIUS * 1000), stats, test);
+        }
 
-            if (placeType != null) {
-                double distance = Location.parseDistance(location.getDistance());
-                double distancePenalty = Math.exp(-distance / SEARCH_RADIUS);
+        int radius = NearbySearchCache.coveringRadius(cell, SEARCH_RADIUS * 1000);
+        List<Location> found = new ArrayList<Location>();
+        List<CompletableFuture<List<Location>>> verifications = new ArrayList<>();
 
-                // Round to 2 decimal places
-                distancePenalty = Math.round(distancePenalty * 100.0) / 100.0;
+        CompletableFuture<PlacesPage> firstPage = fanOutExecutor.submitAsync(UpstreamApi.PLACES, () ->
+                timedAsync(stats, PipelineStage.NEARBY_SEARCH, category.toString(), () -> placesProvider.retrievePlacesPageAsync(Geohash.center(cell), radius, category, test)));
 
-                // Update overall score
-                CategoryScore overall = scores.get("overall");
-                double newScore = overall.getScore() + CATEGORY_CONSTANTS.get(placeType) * distancePenalty;
+        CompletableFuture<List<Location>> search = collectPagesAsync(origin, category, firstPage, 1, found, verifications, stats, test)
+                .whenComplete((done, failure) -> {
+                    if (failure != null) {
+                        verifications.forEach(verification -> verification.cancel(true));
+                    }
+                })
+                .thenCompose(done -> {
+                    cacheNearbySearch(key, found);
+                    return FanOutExecutor.allOf(verifications);
+                })
+                .thenApply(LocationManager::flatten);
 
-                // Round to 2 decimal places
-                newScore = Math.round(newScore * 100.0) / 100.0;
-                overall.setScore(newScore);
-                scores.put("overall", overall);
+        // A search abandoned by its caller gives up the first page's Places call, whether queued or in flight
+        search.whenComplete((places, failure) -> {
+            if (search.isCancelled()) {
+                firstPage.cancel(true);
+            }
+        });
 
-                // Update category score (no need to consider CategoryConstants, but do need to update close, medium, far counts)
-                CategoryScore categoryScore = scores.get(category);
-                double newCategoryScore = Math.round((categoryScore.getScore() + distancePenalty) * 100.0) / 100.0;
-                categoryScore.setScore(newCategoryScore);
+        return search;
+    }
 
-                if (distance <= CLOSE_DISTANCE) {
-                    categoryScore.setClosePlaces(categoryScore.getClosePlaces() + 1);
-                } else if (distance <= MEDIUM_DISTANCE) {
-                    categoryScore.setMediumPlaces(categoryScore.getMediumPlaces() + 1);
-                } else if (distance <= FAR_DISTANCE) {
-                    categoryScore.setFarPlaces(categoryScore.getFarPlaces() + 1);
-                }
+    /**
+     * Reads the page, starts verifying it, and follows its next page token until the last page or the page cap.
+     * 
+     * The pages are read one after another, so the lists passed in are only ever touched by one stage at a time.
+     * 
+     * @param origin The geocoded origin
+     * @param category The category of places being read
+     * @param page Future for the page to read
+     * @param pages The number of the page, starting at 1
+     * @param found The list to add every place found to
+     * @param verifications The list to add the verification of each page to
+     * @param stats The stats of the request
+     * @param test Whether to use test data
+     * @return Future completing once the last page has been read
+     */
+    private CompletableFuture<Void> collectPagesAsync(GeocodedLocation origin, PlaceType category, CompletableFuture<PlacesPage> page, int pages, List<Location> found, List<CompletableFuture<List<Location>>> verifications, PipelineStats stats, boolean test) {
+        return page.thenCompose(current -> {
+            found.addAll(current.getPlaces());
+            verifications.add(verifyWalkingDistancesAsync(origin, withinSearchRadius(origin, current.getPlaces()), stats, test));
 
-                scores.put(category, categoryScore);
+            if (!current.hasNextPage() || pages >= maxPages) {
+                return CompletableFuture.completedFuture(null);
             }
+
+            // The next page token is rejected until shortly after it is issued
+            Executor delayed = CompletableFuture.delayedExecutor(pageTokenDelay.toMillis(), TimeUnit.MILLISECONDS);
+            CompletableFuture<PlacesPage> next = CompletableFuture.runAsync(() -> {}, delayed)
+                    .thenCompose(ignored -> fanOutExecutor.submitAsync(UpstreamApi.PLACES, () ->
+                            timedAsync(stats, PipelineStage.NEARBY_SEARCH, category.toString(), () -> placesProvider.retrieveNextPlacesPageAsync(current.getNextPageToken(), test))));
+
+            return collectPagesAsync(origin, category, next, pages + 1, found, verifications, stats, test);
+        });
+    }
+
+    /**
+     * Returns the places within the search radius of the origin, keeping places without coordinates for the
+     * walking distance check to decide.
+     * 
+     * @param origin The geocoded origin
+     * @param places The places to filter
+     * @return List of places within the search radius
+     */
+    private static List<Location> withinSearchRadius(GeocodedLocation origin, List<Location> places) {
+        LatLng latLng = origin.getLatLng();
+        return new PoiIndex(places).withinRadius(latLng.lat, latLng.lng, SEARCH_RADIUS * 1000);
+    }
+
+    /**
+     * Concatenates lists of places.
+     * 
+     * @param lists The lists to concatenate
+     * @return List of every place, in order
+     */
+    private static List<Location> flatten(List<List<Location>> lists) {
+        List<Location> places = new ArrayList<Location>();
+        for (List<Location> list : lists) {
+            places.addAll(list);
         }
+        return places;
     }
 
     /**
-     * Retrieves the category of a place.
+     * Retrieves places of one category within the search radius of the origin.
+     * 
+     * The nearby search is done once per geohash cell and category, around the center of the cell and with a radius
+     * that covers the search radius of every origin in the cell. The results are cached in a {@link PoiIndex}, and each
+     * request filters them down to its own search radius locally.
      * 
-     * @param type The type of the place
-     * @return PlaceType The category of the place
+     * @param origin The geocoded location to retrieve places near
+     * @param category The category of places to retrieve
+     * @param stats The stats of the request
+     * @param test Whether to use test data
+     * @return List of places of the category within the search radius
+     * @throws ApiException If there is an error with the API request
+     * @throws InterruptedException If the thread is interrupted
+     * @throws IOException If there is an I/O error
      */
-    private PlaceType getCategory(String type) {
-        for (PlaceType category : CATEGORY_CONSTANTS.keySet()) {
-            if (category.toString().equals(type)) {
-                return category;
-            }
+    private List<Location> retrievePlacesOfCategory(GeocodedLocation origin, PlaceType category, PipelineStats stats, boolean test) throws ApiException, InterruptedException, IOException {
+        LatLng latLng = origin.getLatLng();
+        String cell = nearbySearchCache.cellOf(latLng);
+        String key = NearbySearchCache.key(cell, category, test);
+        PoiIndex index = nearbySearchCache.get(key);
+
+        if (index == null) {
+            int radius = NearbySearchCache.coveringRadius(cell, SEARCH_RADIUS * 1000);
+            index = cacheNearbySearch(key, timed(stats, PipelineStage.NEARBY_SEARCH, category.toString(), () -> placesProvider.retrievePlacesOfCategory(Geohash.center(cell), radius, category, test)));
+        }
+
+        return index.withinRadius(latLng.lat, latLng.lng, SEARCH_RADIUS * 1000);
+    }
+
+    /**
+     * Retrieves places of one category within the search radius of the origin, without blocking.
+     * 
+     * @param origin The geocoded location to retrieve places near
+     * @param category The category of places to retrieve
+     * @param stats The stats of the request
+     * @param test Whether to use test data
+     * @return Future for the list of places of the category within the search radius
+     * @see #retrievePlacesOfCategory(GeocodedLocation, PlaceType, PipelineStats, boolean)
+     */
+    private CompletableFuture<List<Location>> retrievePlacesOfCategoryAsync(GeocodedLocation origin, PlaceType category, PipelineStats stats, boolean test) {
+        LatLng latLng = origin.getLatLng();
+        String cell = nearbySearchCache.cellOf(latLng);
+        String key = NearbySearchCache.key(cell, category, test);
+        PoiIndex cached = nearbySearchCache.get(key);
+
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached.withinRadius(latLng.lat, latLng.lng, SEARCH_RADIUS * 1000));
         }
-        return null;
+
+        int radius = NearbySearchCache.coveringRadius(cell, SEARCH_RADIUS * 1000);
+
+        return fanOutExecutor.submitAsync(UpstreamApi.PLACES, () ->
+                        timedAsync(stats, PipelineStage.NEARBY_SEARCH, category.toString(), () -> placesProvider.retrievePlacesOfCategoryAsync(Geohash.center(cell), radius, category, test)))
+                .thenApply(places -> cacheNearbySearch(key, places).withinRadius(latLng.lat, latLng.lng, SEARCH_RADIUS * 1000));
     }
 
     /**
-     * Checks if the location exists.
+     * Indexes the results of a nearby search and caches them.
      * 
-     * @param location The location to check
-     * @return boolean True if the location exists, false otherwise
+     * @param key The cache key of the cell and category
+     * @param places The places found, or null if none were returned
+     * @return The index of the places
      */
-    public boolean locationExists(String location) {
-        return apiManager.locationExists(location);
+    private PoiIndex cacheNearbySearch(String key, List<Location> places) {
+        PoiIndex index = new PoiIndex(places != null ? places : List.of());
+        nearbySearchCache.put(key, index);
+        return index;
+    }
+
+    /**
+     * Verifies the walking distances of the places in the location.
+     * 
+     * This function is necessary as distance as the crow flies often does not equal the actual walking distance.
+     * If the walking distance is greater than the maximum search radius, the place is removed from the list of places.
+     * 
+     * Distances found in the {@link WalkingDistanceCache} are used as they are; only the remaining places are sent
+     * to the {@link WalkingDistanceProvider}, and places sharing a destination are sent once (see {@link #groupByDestination}).
+     * 
+     * @param origin The geocoded origin
+     * @param places The list of places to verify the walking distances of
+     * @param stats The stats of the request
+     * @param test Whether to use test data
+     * @return List of places with verified walking distances
+     * @throws ApiException If there is an error with the API request
+     * @throws InterruptedException If the thread is interrupted
+     * @throws IOException If there is an I/O error
+     */
+    private List<Location> verifyWalkingDistances(GeocodedLocation origin, List<Location> places, PipelineStats stats, boolean test) throws ApiException, InterruptedException, IOException {
+        Map<Location, Location> verified = new IdentityHashMap<Location, Location>();
+        List<Location> misses = verifyCachedWalkingDistances(origin, places, verified, stats, test);
+        List<List<Location>> destinations = groupByDestination(misses, stats);
+
+        List<Callable<Map<Location, Location>>> tasks = new ArrayList<>();
+
+        int batchSize = walkingDistanceBatchSize(destinations.size());
+
+        for (int i = 0; i < destinations.size(); i += batchSize) {
+            int start = i;
+            int end = Math.min(start + batchSize, destinations.size());
+            tasks.add(() -> verifyWalkingDistancesWithThreadsSublist(origin, destinations, start, end, stats, test));
+        }
+
+        for (Map<Location, Location> batch : fanOutExecutor.invokeAll(UpstreamApi.DISTANCE_MATRIX, tasks)) {
+            verified.putAll(batch);
+        }
+
+        return inOriginalOrder(places, verified);
+    }
+
+    /**
+     * Verifies the walking distances of the places in the location, without blocking.
+     * 
+     * @param origin The geocoded origin
+     * @param places The list of places to verify the walking distances of
+     * @param stats The stats of the request
+     * @param test Whether to use test data
+     * @return Future for the list of places with verified walking distances
+     * @see #verifyWalkingDistances(GeocodedLocation, List, PipelineStats, boolean)
+     */
+    private CompletableFuture<List<Location>> verifyWalkingDistancesAsync(GeocodedLocation origin, List<Location> places, PipelineStats stats, boolean test) {
+        Map<Location, Location> verified = new IdentityHashMap<Location, Location>();
+        List<Location> misses = verifyCachedWalkingDistances(origin, places, verified, stats, test);
+        List<List<Location>> destinations = groupByDestination(misses, stats);
+
+        List<Supplier<CompletableFuture<Map<Location, Location>>>> calls = new ArrayList<>();
+
+        int batchSize = walkingDistanceBatchSize(destinations.size());
+
+        for (int i = 0; i < destinations.size(); i += batchSize) {
+            List<List<Location>> sublist = destinations.subList(i, Math.min(i + batchSize, destinations.size()));
+
+            calls.add(() -> {
+                List<Location> batch = destinationPlaces(sublist);
+                stats.addDistanceMatrixElements(batch.size());
+
+                return timedAsync(stats, PipelineStage.DISTANCE_MATRIX, null, () -> walkingDistanceProvider.getWalkingDistancesAsync(origin, batch, test))
+                        .thenApply(walkingDistances -> applyWalkingDistances(origin, sublist, walkingDistances, stats, test))
+                        .exceptionally(e -> unverified(sublist, stats));
+            });
+        }
+
+        return fanOutExecutor.invokeAllAsync(UpstreamApi.DISTANCE_MATRIX, calls).thenApply(batches -> {
+            for (Map<Location, Location> batch : batches) {
+                verified.putAll(batch);
+            }
+
+            return inOriginalOrder(places, verified);
+        });
+    }
+
+    /**
+     * Verifies the places whose walking distance is in the {@link WalkingDistanceCache}, and returns the places that
+     * still need a Distance Matrix request.
+     * 
+     * @param origin The geocoded origin
+     * @param places The list of places to verify the walking distances of
+     * @param verified The map to add each place verified from the cache to, with its distance
+     * @param stats The stats of the request
+     * @param test Whether to use test data
+     * @return List of places whose walking distance is not cached
+     */
+    private List<Location> verifyCachedWalkingDistances(GeocodedLocation origin, List<Location> places, Map<Location, Location> verified, PipelineStats stats, boolean test) {
+        List<Location> misses = new ArrayList<Location>();
+
+        for (Location place : places) {
+            WalkingDistance cached = (place.getPlaceId() != null) ? walkingDistanceCache.get(walkingDistanceCache.key(origin.getLatLng(), place.getPlaceId(), test)) : null;
+
+            if (cached == null) {
+                misses.add(place);
+            } else if (cached.isWithin(SEARCH_RADIUS * 1000)) {
+                verified.put(place, place.withDistanceMeters(cached.getMeters()));
+            }
+        }
+
+        stats.addDistanceCacheHits(places.size() - misses.size());
+
+        return misses;
+    }
+
+    /**
+     * Groups places that share a destination, so each destination is sent to the Distance Matrix API only once.
+     * 
+     * A place returned by several category searches (e.g. a grocery store that is also a pharmacy) would otherwise
+     * cost a Distance Matrix element per search, for the same distance. Only exact duplicates are grouped: places with the same place id, or, for places without one, the same
+     * coordinates. Places that merely share an address (e.g. shops in a mall) are kept apart, as a canonical address
+     * can match places that are not at the same point.
+     * 
+     * @param places The places to group
+     * @param stats The stats of the request, which count the duplicate destinations collapsed
+     * @return List of groups of places sharing a destination, in order of first appearance
+     */
+    private static List<List<Location>> groupByDestination(List<Location> places, PipelineStats stats) {
+        Map<String, List<Location>> groups = new LinkedHashMap<String, List<Location>>();
+        List<List<Location>> destinations = new ArrayList<List<Location>>();
+
+        for (Location place : places) {
+            String key = destinationKey(place);
+            List<Location> group = (key != null) ? groups.get(key) : null;
+
+            if (group == null) {
+                group = new ArrayList<Location>();
+                destinations.add(group);
+
+                if (key != null) {
+                    groups.put(key, group);
+                }
+            }
+
+            group.add(place);
+        }
+
+        stats.addDuplicateDestinations(places.size() - destinations.size());
+
+        return destinations;
+    }
+
+    /**
+     * Returns the key identifying the destination of a place for the Distance Matrix API.
+     * 
+     * @param place The place
+     * @return The place id of the place, or its coordinates if it has no place id, or null if it has neither
+     */
+    static String destinationKey(Location place) {
+        if (place.getPlaceId() != null) {
+            return "place_id:" + place.getPlaceId();
+        }
+
+        return place.hasCoordinates() ? "coordinates:" + place.getLatitude() + "," + place.getLongitude() : null;
+    }
+
+    /**
+     * Returns the place sent to the Distance Matrix API for each destination: the first place in its group.
+     * 
+     * @param destinations The groups of places sharing a destination
+     * @return List of destination places, in the same order
+     */
+    private static List<Location> destinationPlaces(List<List<Location>> destinations) {
+        List<Location> places = new ArrayList<Location>();
+        for (List<Location> group : destinations) {
+            places.add(group.get(0));
+        }
+        return places;
+    }
+
+    /**
+     * Returns the verified places in their original order.
+     * 
+     * @param places The places in their original order
+     * @param verified Each verified place, mapped to its copy with the walking distance
+     * @return List of the verified places, with their walking distances, in their original order
+     */
+    private static List<Location> inOriginalOrder(List<Location> places, Map<Location, Location> verified) {
+        List<Location> verifiedPlaces = new ArrayList<Location>();
+        for (Location place : places) {
+            Location verifiedPlace = verified.get(place);
+            if (verifiedPlace != null) {
+                verifiedPlaces.add(verifiedPlace);
+            }
+        }
+
+        return verifiedPlaces;
+    }
+
+    /**
+     * Returns how many destinations to send to the {@link WalkingDistanceProvider} in one call: at most its limit
+     * per request (25 for the Distance Matrix API), or all of them if it has none.
+     * 
+     * @param destinations The number of destinations to send
+     * @return The number of destinations per call, at least 1
+     */
+    private int walkingDistanceBatchSize(int destinations) {
+        int maxDestinations = walkingDistanceProvider.getMaxDestinationsPerRequest();
+        return Math.max(1, (maxDestinations > 0) ? maxDestinations : destinations);
+    }
+
+    /**
+     * Keeps every place in a batch whose Distance Matrix request failed, without a walking distance, and counts them
+     * in the stats.
+     * 
+     * @param sublist The batch of destinations, each a group of places sharing it
+     * @param stats The stats of the request
+     * @return Each place in the batch, mapped to itself
+     */
+    private static Map<Location, Location> unverified(List<List<Location>> sublist, PipelineStats stats) {
+        Map<Location, Location> places = new IdentityHashMap<Location, Location>();
+        for (Location place : flatten(sublist)) {
+            places.put(place, place);
+        }
+        stats.addUnverifiedPlaces(places.size());
+        return places;
+    }
+
+    /**
+     * Verifies the walking distances of a sublist of destinations in the location, caching each distance returned.
+     * 
+     * @param origin The geocoded origin
+     * @param destinations The groups of places sharing a destination
+     * @param start The start index of the sublist
+     * @param end The end index of the sublist
+     * @param stats The stats of the request
+     * @param test Whether to use test data
+     * @return Each place with a verified walking distance, mapped to its copy with the distance
+     */
+    private Map<Location, Location> verifyWalkingDistancesWithThreadsSublist(GeocodedLocation origin, List<List<Location>> destinations, int start, int end, PipelineStats stats, boolean test) {
+        List<List<Location>> sublist = destinations.subList(start, end);
+
+        try {
+            List<Location> batch = destinationPlaces(sublist);
+
+            stats.addDistanceMatrixElements(batch.size());
+            List<WalkingDistance> walkingDistances = timed(stats, PipelineStage.DISTANCE_MATRIX, null, () -> walkingDistanceProvider.getWalkingDistances(origin, batch, test));
+
+            return applyWalkingDistances(origin, sublist, walkingDistances, stats, test);
+        } catch (Exception e) {
+            return unverified(sublist, stats);
+        }
+    }
+
+    /**
+     * Fans the walking distance of each destination in a batch back out to every place sharing it, caching each
+     * distance, and keeps the places within the search radius.
+     * 
+     * Destinations that cannot be walked to are cached as well, so they are not requested again, and counted in the stats.
+     * 
+     * @param origin The geocoded origin
+     * @param sublist The batch of destinations, each a group of places sharing it
+     * @param walkingDistances The walking distance to each destination in the batch, in the same order
+     * @param stats The stats of the request
+     * @param test Whether to use test data
+     * @return Each place within the search radius, mapped to its copy with the walking distance
+     */
+    private Map<Location, Location> applyWalkingDistances(GeocodedLocation origin, List<List<Location>> sublist, List<WalkingDistance> walkingDistances, PipelineStats stats, boolean test) {
+        Map<Location, Location> verifiedPlaces = new IdentityHashMap<Location, Location>();
+
+        for (int j = 0; j < sublist.size(); j++) {
+            WalkingDistance walkingDistance = walkingDistances.get(j);
+
+            if (!walkingDistance.isReachable()) {
+                stats.addUnreachableDestinations(1);
+            }
+
+            for (Location place : sublist.get(j)) {
+                if (place.getPlaceId() != null) {
+                    walkingDistanceCache.put(walkingDistanceCache.key(origin.getLatLng(), place.getPlaceId(), test), walkingDistance);
+                }
+
+                if (walkingDistance.isWithin(SEARCH_RADIUS * 1000)) {
+                    verifiedPlaces.put(place, place.withDistanceMeters(walkingDistance.getMeters()));
+                }
+            }
+        }
+
+        return verifiedPlaces;
+    }
+
+    /**
+     * Retrieves the score of the location.
+     * 
+     * The method retrieves the places near the location.
+     * The method calculates the score of the location based on the places near the location.
+     * 
+     * @param location The location to retrieve the score of
+     * @param test Whether to use test data
+     * @return ScoreResponse The score of the location
+     * @throws ApiException If there is an error with the API request
+     * @throws InterruptedException If the thread is interrupted
+     * @throws IOException If there is an I/O error
+     */
+    public ScoreResponse getScore(String location, boolean test) throws ApiException, InterruptedException, IOException {
+        return getScore(requireLocation(location, test), test);
+    }
+
+    /**
+     * Retrieves the score of the specified, already geocoded, location.
+     * 
+     * @param origin The geocoded location to retrieve the score of
+     * @param test Whether to use test data
+     * @return ScoreResponse The score of the location
+     * @throws ApiException If there is an error with the API request
+     * @throws InterruptedException If the thread is interrupted
+     * @throws IOException If there is an I/O error
+     */
+    public ScoreResponse getScore(GeocodedLocation origin, boolean test) throws ApiException, InterruptedException, IOException {
+        return getScore(origin, new PipelineStats(), test);
+    }
+
+    /**
+     * Retrieves the score of the specified, already geocoded, location, recording the work done in the stats.
+     * 
+     * A score kept in the {@link ScoreStore} for the same location, scoring configuration and providers is returned
+     * without calling the Google Maps API; otherwise the score is computed, and stored if every place was verified.
+     * 
+     * @param origin The geocoded location to retrieve the score of
+     * @param stats The stats of the request
+     * @param test Whether to use test data
+     * @return ScoreResponse The score of the location
+     * @throws ApiException If there is an error with the API request
+     * @throws InterruptedException If the thread is interrupted
+     * @throws IOException If there is an I/O error
+     */
+    public ScoreResponse getScore(GeocodedLocation origin, PipelineStats stats, boolean test) throws ApiException, InterruptedException, IOException {
+        String key = scoreKey(origin, test);
+        ScoreResponse stored = storedScore(key);
+
+        if (stored != null) {
+            return stored;
+        }
+
+        List<Location> places = retrievePlaces(origin, stats, test);
+        return storeScore(key, places, scorePlaces(places, stats));
+    }
+
+    /**
+     * Retrieves the score of the specified, already geocoded, location without blocking, recording the work done in the stats.
+     * 
+     * @param origin The geocoded location to retrieve the score of
+     * @param stats The stats of the request
+     * @param test Whether to use test data
+     * @return Future for the score of the location
+     */
+    public CompletableFuture<ScoreResponse> getScoreAsync(GeocodedLocation origin, PipelineStats stats, boolean test) {
+        String key = scoreKey(origin, test);
+        ScoreResponse stored = storedScore(key);
+
+        if (stored != null) {
+            return CompletableFuture.completedFuture(stored);
+        }
+
+        return retrievePlacesAsync(origin, stats, test).thenApply(places -> storeScore(key, places, scorePlaces(places, stats)));
+    }
+
+    /**
+     * Retrieves the verified places and the score of the specified, already geocoded, location in a single run of the
+     * places pipeline.
+     * 
+     * Either part can be left out. The pipeline is only run if at least one part is requested.
+     * 
+     * @param origin The geocoded location to investigate
+     * @param includePlaces Whether to include the places, grouped by category
+     * @param includeScore Whether to include the score
+     * @param stats The stats of the request
+     * @param test Whether to use test data
+     * @return WalkScoreResponse The requested parts, with the parts that were not requested left null
+     * @throws ApiException If there is an error with the API request
+     * @throws InterruptedException If the thread is interrupted
+     * @throws IOException If there is an I/O error
+     */
+    public WalkScoreResponse getWalkAndScore(GeocodedLocation origin, boolean includePlaces, boolean includeScore, PipelineStats stats, boolean test) throws ApiException, InterruptedException, IOException {
+        if (!includePlaces && !includeScore) {
+            return new WalkScoreResponse(null, null);
+        }
+
+        List<Location> places = retrievePlaces(origin, stats, test);
+
+        return toWalkScoreResponse(places, includePlaces, includeScore, stats);
+    }
+
+    /**
+     * Retrieves the verified places and the score of the specified, already geocoded, location in a single run of the
+     * places pipeline, without blocking.
+     * 
+     * @param origin The geocoded location to investigate
+     * @param includePlaces Whether to include the places, grouped by category
+     * @param includeScore Whether to include the score
+     * @param stats The stats of the request
+     * @param test Whether to use test data
+     * @return Future for the requested parts, with the parts that were not requested left null
+     * @see #getWalkAndScore(GeocodedLocation, boolean, boolean, PipelineStats, boolean)
+     */
+    public CompletableFuture<WalkScoreResponse> getWalkAndScoreAsync(GeocodedLocation origin, boolean includePlaces, boolean includeScore, PipelineStats stats, boolean test) {
+        if (!includePlaces && !includeScore) {
+            return CompletableFuture.completedFuture(new WalkScoreResponse(null, null));
+        }
+
+        return retrievePlacesAsync(origin, stats, test).thenApply(places -> toWalkScoreResponse(places, includePlaces, includeScore, stats));
+    }
+
+    /**
+     * Builds the requested parts of a walk-and-score response from the verified places.
+     * 
+     * @param places The verified places near the location
+     * @param includePlaces Whether to include the places, grouped by category
+     * @param includeScore Whether to include the score
+     * @param stats The stats of the request
+     * @return WalkScoreResponse The requested parts, with the parts that were not requested left null
+     */
+    private WalkScoreResponse toWalkScoreResponse(List<Location> places, boolean includePlaces, boolean includeScore, PipelineStats stats) {
+        Map<String, List<Location>> placesByCategory = includePlaces ? groupByCategory(places) : null;
+        ScoreResponse score = includeScore ? scorePlaces(places, stats) : null;
+
+        return new WalkScoreResponse(placesByCategory, score);
+    }
+
+    /**
+     * Groups places by category, nearest first. A place with several categories is listed under each of them.
+     * 
+     * @param places The places to group
+     * @return Map of category name to the places of that category, with every category present
+     */
+    private Map<String, List<Location>> groupByCategory(List<Location> places) {
+        Map<String, List<Location>> placesByCategory = new LinkedHashMap<String, List<Location>>();
+
+        for (PlaceType category : CATEGORY_CONSTANTS.keySet()) {
+            placesByCategory.put(category.toString(), new ArrayList<Location>());
+        }
+
+        for (Location place : places) {
+            for (String type : place.sharedTypes()) {
+                List<Location> categoryPlaces = placesByCategory.get(type);
+                if (categoryPlaces != null && !categoryPlaces.contains(place)) {
+                    categoryPlaces.add(place);
+                }
+            }
+        }
+
+        for (List<Location> categoryPlaces : placesByCategory.values()) {
+            sortByDistance(categoryPlaces);
+        }
+
+        return placesByCategory;
+    }
+
+    /**
+     * Sorts places by walking distance, nearest first.
+     * 
+     * @param places The places to sort, in place
+     * @return The sorted places
+     */
+    private static List<Location> sortByDistance(List<Location> places) {
+        places.sort(Location.BY_DISTANCE);
+        return places;
+    }
+
+    /**
+     * Calculates the score of a location from its verified places.
+     * 
+     * @param places The verified places near the location
+     * @param stats The stats of the request, to time the scoring in
+     * @return ScoreResponse The score of the location
+     */
+    private ScoreResponse scorePlaces(List<Location> places, PipelineStats stats) {
+        long start = System.nanoTime();
+        boolean success = false;
+
+        try {
+            ScoreResponse score = SCORING_ENGINE.score(places);
+            success = true;
+            return score;
+        } finally {
+            stats.recordStage(PipelineStage.SCORING, null, start, success);
+        }
+    }
+
+    /**
+     * Makes a call as a timed stage of the request.
+     * 
+     * @param stats The stats of the request
+     * @param stage The stage the call belongs to
+     * @param category The place category of the call, or null if the stage is not per category
+     * @param call The call to make
+     * @return The result of the call
+     * @throws ApiException If there is an error with the API request
+     * @throws InterruptedException If the thread is interrupted
+     * @throws IOException If there is an I/O error
+     */
+    private static <T> T timed(PipelineStats stats, PipelineStage stage, String category, Callable<T> call) throws ApiException, InterruptedException, IOException {
+        long start = System.nanoTime();
+        boolean success = false;
+
+        try {
+            T result = call.call();
+            success = true;
+            return result;
+        } catch (ApiException | InterruptedException | IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            stats.recordStage(stage, category, start, success);
+        }
+    }
+
+    /**
+     * Starts a call as a timed stage of the request, without blocking.
+     * 
+     * The future of the call itself is returned, so cancelling it still cancels the call.
+     * 
+     * @param stats The stats of the request
+     * @param stage The stage the call belongs to
+     * @param category The place category of the call, or null if the stage is not per category
+     * @param call The call to start
+     * @return Future for the result of the call
+     */
+    private static <T> CompletableFuture<T> timedAsync(PipelineStats stats, PipelineStage stage, String category, Supplier<CompletableFuture<T>> call) {
+        long start = System.nanoTime();
+        CompletableFuture<T> result = call.get();
+
+        result.whenComplete((value, failure) -> stats.recordStage(stage, category, start, failure == null));
+        return result;
+    }
+
+    /**
+     * Checks if the location exists.
+     * 
+     * @param location The location to check
+     * @return boolean True if the location exists, false otherwise
+     */
+    public boolean locationExists(String location) {
+        return apiManager.locationExists(location);
+    }
+
+    /**
+     * Returns the canonical key of a geocoded location: its place id, or its coordinates if it has no place id.
+     * 
+     * @param origin The geocoded location
+     * @param test Whether test data is used, which keeps test and real requests apart
+     * @return The canonical key of the location
+     */
+    private static String locationKey(GeocodedLocation origin, boolean test) {
+        String key = (origin.getPlaceId() != null) ? origin.getPlaceId() : origin.getLatLng().toUrlValue();
+        return (test ? "test:" : "") + key;
+    }
+
+    /**
+     * Returns the key of a location's score in the {@link ScoreStore}: the version of the scoring configuration, the
+     * providers the places and walking distances come from, and the canonical key of the location.
+     * 
+     * Scores computed from Google's places are therefore not served once the offline providers are configured, or
+     * the other way round.
+     * 
+     * @param origin The geocoded location
+     * @param test Whether test data is used
+     * @return The key of the score
+     */
+    String scoreKey(GeocodedLocation origin, boolean test) {
+        return scoringIdentity(placesProvider, walkingDistanceProvider) + "|" + locationKey(origin, test);
+    }
+
+    /**
+     * Returns what a score depends on besides its location: the version of the scoring configuration and the
+     * providers the places and walking distances come from.
+     * 
+     * @param placesProvider The provider of the places
+     * @param walkingDistanceProvider The provider of the walking distances
+     * @return The scoring identity, e.g. {@code "3f2a9c1e|APIManager+APIManager"}
+     */
+    static String scoringIdentity(PlacesProvider placesProvider, WalkingDistanceProvider walkingDistanceProvider) {
+        return SCORING_ENGINE.getVersion() + "|" + placesProvider.getClass().getSimpleName() + "+" + walkingDistanceProvider.getClass().getSimpleName();
+    }
+
+    /**
+     * Returns the stored score of a location.
+     * 
+     * @param key The key of the score
+     * @return The stored score, or null if there is none or the store is disabled
+     */
+    private ScoreResponse storedScore(String key) {
+        return (scoreStore != null) ? scoreStore.get(key) : null;
+    }
+
+    /**
+     * Stores the score of a location, if the store is enabled and every place it was computed from was verified.
+     * 
+     * A score computed after a Distance Matrix batch failed leaves that batch's places out, so it is returned but not
+     * kept, and the next request computes it again. The places are checked rather than the stats of the request,
+     * since a request coalesced with another one shares its places but not its stats.
+     * 
+     * @param key The key of the score
+     * @param places The places the score was computed from
+     * @param score The score
+     * @return The score
+     */
+    private ScoreResponse storeScore(String key, List<Location> places, ScoreResponse score) {
+        if (scoreStore != null && places.stream().allMatch(Location::hasDistance)) {
+            scoreStore.put(key, score);
+        }
+
+        return score;
+    }
+
+    /**
+     * Resolves the location, failing if it does not exist.
+     * 
+     * @param location The location to resolve
+     * @param test Whether to use test data
+     * @return The geocoded location
+     * @throws IllegalArgumentException If the location does not exist
+     * @throws ApiException If there is an error with the API request
+     * @throws InterruptedException If the thread is interrupted
+     * @throws IOException If there is an I/O error
+     */
+    private GeocodedLocation requireLocation(String location, boolean test) throws ApiException, InterruptedException, IOException {
+        GeocodedLocation origin = resolveLocation(location, test);
+
+        if (origin == null) {
+            throw new IllegalArgumentException("Invalid location: " + location);
+        }
+
+        return origin;
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,578 @@
+package com.aruki.aruki;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@code MappedPoiIndex} class is a read-only spatial index of places kept in a file, which is memory-mapped
+ * rather than loaded: opening an index reads its header and nothing else, however many places it holds, and the
+ * operating system pages in only the parts that queries touch.
+ * <p>
+ * The world is divided into a fixed grid of cells of {@code cellDegrees} degrees. For each category, the places are
+ * sorted by the cell they fall in, and each non-empty cell is listed once with the first of its places. A radius
+ * query binary searches the cells of each row of the grid the radius covers, then checks the great-circle distance
+ * of the places in those cells, so it reads a few kilobytes and answers in microseconds.
+ * </p>
+ * <p>
+ * The file is written once by a {@link Builder}, offline, and never modified:
+ * <pre>
+ *     int    magic, "ARKP"
+ *     short  format version (1)
+ *     double cell size (degrees)
+ *     int    places
+ *     short  categories, each as: utf name, int first cell, int cells, int first entry, int entries
+ *     int    cells, entries
+ *     cells:   int cell key (row * columns + column), int first entry; sorted by category, then key
+ *     entries: int latitude, int longitude (1e-7 degrees), int offset of the place; in the order of their cells
+ *     places:  utf name, utf address, byte types, short category of each type
+ * </pre>
+ * All values are big-endian, and a utf string is its length in bytes as an unsigned short followed by its UTF-8
+ * bytes. A place of several categories is stored once and has an entry in each of them. An entry costs 12 bytes
+ * and a cell 8, so the index is dominated by the names and addresses of the places. A mapped file is limited to
+ * 2 GB, which holds the points of interest of a large country.
+ * </p>
+ * <p>
+ * Example usage:
+ * <pre>
+ *     MappedPoiIndex.Builder builder = new MappedPoiIndex.Builder();
+ *     builder.add("Town Point Park", "113 Waterside Drive, Norfolk", 36.8459, -76.2907, "park");
+ *     builder.write(Path.of("places/norfolk.poi"));
+ *
+ *     MappedPoiIndex index = MappedPoiIndex.open(Path.of("places/norfolk.poi"));
+ *     List&lt;Location&gt; parks = index.withinRadius(36.8508, -76.2859, 2000, "park");
+ * </pre>
+ * </p>
+ *
+ * @see OfflinePlacesProvider
+ * @see PoiImporter
+ * @see PoiIndex
+ */
+public class MappedPoiIndex {
+
+    public static final double DEFAULT_CELL_DEGREES = 0.01; // About 1.1 km of latitude
+
+    private static final int MAGIC = 0x41524B50; // "ARKP"
+    private static final short VERSION = 1;
+    private static final double COORDINATE_SCALE = 1e7; // Coordinates are stored in units of 1e-7 degrees, about 1 cm
+    private static final int CELL_BYTES = 8;
+    private static final int ENTRY_BYTES = 12;
+    private static final int MAX_STRING_BYTES = 0xFFFF;
+
+    private final ByteBuffer buffer;
+    private final double cellDegrees;
+    private final int rows;
+    private final int columns;
+    private final int placeCount;
+    private final String[] categories;
+    private final Map<String, Integer> categoryIndexes = new HashMap<>();
+    private final int[] firstCells;
+    private final int[] cellCounts;
+    private final int[] firstEntries;
+    private final int[] entryCounts;
+    private final int cellsOffset;
+    private final int entriesOffset;
+    private final int placesOffset;
+
+    /**
+     * Constructs a MappedPoiIndex over the contents of an index file, reading its header.
+     *
+     * @param buffer the contents of the file
+     * @throws IOException if the buffer does not hold an index
+     */
+    MappedPoiIndex(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+
+        try {
+            ByteBuffer header = buffer.duplicate();
+
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a places index");
+            }
+
+            short version = header.getShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported places index version: " + version);
+            }
+
+            this.cellDegrees = header.getDouble();
+            if (!(cellDegrees > 0) || (long) rowsOf(cellDegrees) * columnsOf(cellDegrees) > Integer.MAX_VALUE) {
+                throw new IOException("Invalid places index cell size: " + cellDegrees);
+            }
+            this.rows = rowsOf(cellDegrees);
+            this.columns = columnsOf(cellDegrees);
+            this.placeCount = header.getInt();
+
+            int categoryCount = Short.toUnsignedInt(header.getShort());
+            this.categories = new String[categoryCount];
+            this.firstCells = new int[categoryCount];
+            this.cellCounts = new int[categoryCount];
+            this.firstEntries = new int[categoryCount];
+            this.entryCounts = new int[categoryCount];
+
+            for (int i = 0; i < categoryCount; i++) {
+                byte[] name = new byte[Short.toUnsignedInt(header.getShort())];
+                header.get(name);
+                categories[i] = new String(name, StandardCharsets.UTF_8);
+                categoryIndexes.put(categories[i], i);
+                firstCells[i] = header.getInt();
+                cellCounts[i] = header.getInt();
+                firstEntries[i] = header.getInt();
+                entryCounts[i] = header.getInt();
+            }
+
+            int cells = header.getInt();
+            int entries = header.getInt();
+            this.cellsOffset = header.position();
+            this.entriesOffset = Math.addExact(cellsOffset, Math.multiplyExact(cells, CELL_BYTES));
+            this.placesOffset = Math.addExact(entriesOffset, Math.multiplyExact(entries, ENTRY_BYTES));
+        } catch (BufferUnderflowException | ArithmeticException e) {
+            throw new IOException("Places index is truncated", e);
+        }
+
+        if (placesOffset > buffer.limit()) {
+            throw new IOException("Places index is truncated: " + buffer.limit() + " bytes, places start at " + placesOffset);
+        }
+    }
+
+    /**
+     * Opens an index file by mapping it into memory. The file must not be modified while it is mapped; a new index
+     * should be written to another file, or moved over this one atomically.
+     *
+     * @param file the index file
+     * @return the index
+     * @throws IOException if the file cannot be read or is not an index
+     */
+    public static MappedPoiIndex open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Places index " + file + " is too large to map: " + size + " bytes");
+            }
+
+            return new MappedPoiIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, size)); // The mapping outlives the channel
+        }
+    }
+
+    /**
+     * Returns the places of a category within the radius of a point. Each call decodes new {@code Location}
+     * objects into a new list, which the caller may keep and modify.
+     *
+     * @param latitude the latitude of the point, in degrees
+     * @param longitude the longitude of the point, in degrees
+     * @param radiusMeters the radius, in meters
+     * @param category the category of places, as a Places API type such as {@code park}
+     * @return the places of the category within the radius, in no particular order
+     */
+    public List<Location> withinRadius(double latitude, double longitude, double radiusMeters, String category) {
+        List<Location> results = new ArrayList<>();
+        Integer index = categoryIndexes.get(category);
+
+        if (index == null || cellCounts[index] == 0) {
+            return results;
+        }
+
+        double latitudeSpan = radiusMeters / GeoMath.metersPerDegreeLatitude();
+        int firstRow = Math.max(0, row(latitude - latitudeSpan));
+        int lastRow = Math.min(rows - 1, row(latitude + latitudeSpan));
+
+        // The radius spans the most longitude on the edge of the box nearest a pole
+        double metersPerDegree = GeoMath.metersPerDegreeLongitude(Math.min(90, Math.abs(latitude) + latitudeSpan));
+        double longitudeSpan = (metersPerDegree * 180 <= radiusMeters) ? 180 : radiusMeters / metersPerDegree;
+        int firstColumn = column(longitude - longitudeSpan);
+        int lastColumn = column(longitude + longitudeSpan);
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            if (lastColumn - firstColumn + 1 >= columns) {
+                scan(index, row, 0, columns - 1, latitude, longitude, radiusMeters, results);
+            } else if (firstColumn < 0) { // Wraps around the antimeridian to the west
+                scan(index, row, firstColumn + columns, columns - 1, latitude, longitude, radiusMeters, results);
+                scan(index, row, 0, lastColumn, latitude, longitude, radiusMeters, results);
+            } else if (lastColumn >= columns) { // Wraps around the antimeridian to the east
+                scan(index, row, firstColumn, columns - 1, latitude, longitude, radiusMeters, results);
+                scan(index, row, 0, lastColumn - columns, latitude, longitude, radiusMeters, results);
+            } else {
+                scan(index, row, firstColumn, lastColumn, latitude, longitude, radiusMeters, results);
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Returns the number of places in the index. A place of several categories is counted once.
+     *
+     * @return the number of places
+     */
+    public int size() {
+        return placeCount;
+    }
+
+    /**
+     * Returns the categories that have at least one place in the index.
+     *
+     * @return the categories, as Places API types
+     */
+    public List<String> getCategories() {
+        List<String> nonEmpty = new ArrayList<>();
+        for (int i = 0; i < categories.length; i++) {
+            if (entryCounts[i] > 0) {
+                nonEmpty.add(categories[i]);
+            }
+        }
+        return nonEmpty;
+    }
+
+    /**
+     * Returns the number of places of a category.
+     *
+     * @param category the category, as a Places API type
+     * @return the number of places of the category
+     */
+    public int size(String category) {
+        Integer index = categoryIndexes.get(category);
+        return (index == null) ? 0 : entryCounts[index];
+    }
+
+    /**
+     * Returns the size of the index file.
+     *
+     * @return the size of the file, in bytes
+     */
+    public long getFileBytes() {
+        return buffer.limit();
+    }
+
+    /**
+     * Adds the places of a category in columns [fromColumn, toColumn] of a row that are within the radius.
+     */
+    private void scan(int category, int row, int fromColumn, int toColumn, double latitude, double longitude, double radiusMeters, List<Location> results) {
+        int end = firstCells[category] + cellCounts[category];
+        int fromKey = row * columns + fromColumn;
+        int toKey = row * columns + toColumn;
+
+        for (int cell = firstCellAtOrAfter(category, fromKey); cell < end && cellKey(cell) <= toKey; cell++) {
+            int lastEntry = (cell + 1 < end) ? cellFirstEntry(cell + 1) : firstEntries[category] + entryCounts[category];
+
+            for (int entry = cellFirstEntry(cell); entry < lastEntry; entry++) {
+                int position = entriesOffset + entry * ENTRY_BYTES;
+                double placeLatitude = buffer.getInt(position) / COORDINATE_SCALE;
+                double placeLongitude = buffer.getInt(position + 4) / COORDINATE_SCALE;
+
+                if (GeoMath.distanceMeters(latitude, longitude, placeLatitude, placeLongitude) <= radiusMeters) {
+                    results.add(readPlace(buffer.getInt(position + 8), placeLatitude, placeLongitude));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the first cell of a category whose key is at least the specified key, or the end of its cells.
+     */
+    private int firstCellAtOrAfter(int category, int key) {
+        int lo = firstCells[category];
+        int hi = lo + cellCounts[category];
+
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cellKey(mid) < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        return lo;
+    }
+
+    private int cellKey(int cell) {
+        return buffer.getInt(cellsOffset + cell * CELL_BYTES);
+    }
+
+    private int cellFirstEntry(int cell) {
+        return buffer.getInt(cellsOffset + cell * CELL_BYTES + 4);
+    }
+
+    private Location readPlace(int offset, double latitude, double longitude) {
+        int position = placesOffset + offset;
+
+        String name = readString(position);
+        position += 2 + Short.toUnsignedInt(buffer.getShort(position));
+        String address = readString(position);
+        position += 2 + Short.toUnsignedInt(buffer.getShort(position));
+
+        String[] types = new String[Byte.toUnsignedInt(buffer.get(position))];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = categories[Short.toUnsignedInt(buffer.getShort(position + 1 + 2 * i))];
+        }
+
+        return new Location(name, address, types, null, latitude, longitude);
+    }
+
+    private String readString(int position) {
+        byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort(position))];
+        buffer.get(position + 2, bytes); // Absolute reads leave the shared buffer untouched, so queries may run concurrently
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int row(double latitude) {
+        return (int) Math.floor((latitude + 90) / cellDegrees);
+    }
+
+    private int column(double longitude) {
+        return (int) Math.floor((longitude + 180) / cellDegrees);
+    }
+
+    private static int rowsOf(double cellDegrees) {
+        return (int) Math.ceil(180 / cellDegrees);
+    }
+
+    private static int columnsOf(double cellDegrees) {
+        return (int) Math.ceil(360 / cellDegrees);
+    }
+
+    /**
+     * The {@code Builder} class collects places and writes them as an index file. Places are encoded as they are
+     * added, so a builder holds about the size of the file in memory.
+     */
+    public static class Builder {
+
+        private final double cellDegrees;
+        private final int rows;
+        private final int columns;
+        private final ByteArrayOutputStream placeBytes = new ByteArrayOutputStream();
+        private final DataOutputStream places = new DataOutputStream(placeBytes);
+        private final List<String> categories = new ArrayList<>();
+        private final Map<String, Integer> categoryIndexes = new HashMap<>();
+        private final List<long[]> entries = new ArrayList<>(); // Per category: cell key << 32 | place
+        private final List<Integer> entryCounts = new ArrayList<>();
+        private int[] latitudes = new int[1024];
+        private int[] longitudes = new int[1024];
+        private int[] offsets = new int[1024];
+        private int placeCount;
+
+        /**
+         * Constructs a Builder with the default cell size.
+         */
+        public Builder() {
+            this(DEFAULT_CELL_DEGREES);
+        }
+
+        /**
+         * Constructs a Builder with the specified cell size. Cells a little larger than the usual search radius
+         * keep the cell lists short without scanning many places outside the radius.
+         *
+         * @param cellDegrees the size of a cell, in degrees
+         */
+        public Builder(double cellDegrees) {
+            if (!(cellDegrees >= 0.001 && cellDegrees <= 10)) {
+                throw new IllegalArgumentException("Invalid cell size: " + cellDegrees);
+            }
+
+            this.cellDegrees = cellDegrees;
+            this.rows = rowsOf(cellDegrees);
+            this.columns = columnsOf(cellDegrees);
+        }
+
+        /**
+         * Adds a place to the index.
+         *
+         * @param name the name of the place
+         * @param address the address of the place, or an empty string
+         * @param latitude the latitude of the place, in degrees
+         * @param longitude the longitude of the place, in degrees
+         * @param types the categories of the place, as Places API types
+         * @return this builder
+         */
+        public Builder add(String name, String address, double latitude, double longitude, String... types) {
+            if (!(latitude >= -90 && latitude <= 90 && longitude >= -180 && longitude <= 180)) {
+                throw new IllegalArgumentException("Invalid coordinates for " + name + ": " + latitude + "," + longitude);
+            }
+            if (types.length == 0 || types.length > 0xFF) {
+                throw new IllegalArgumentException("Invalid number of types for " + name + ": " + types.length);
+            }
+
+            if (placeCount == latitudes.length) {
+                latitudes = Arrays.copyOf(latitudes, placeCount * 2);
+                longitudes = Arrays.copyOf(longitudes, placeCount * 2);
+                offsets = Arrays.copyOf(offsets, placeCount * 2);
+            }
+
+            int place = placeCount++;
+            latitudes[place] = (int) Math.round(latitude * COORDINATE_SCALE);
+            longitudes[place] = (int) Math.round(longitude * COORDINATE_SCALE);
+            offsets[place] = placeBytes.size();
+
+            int row = Math.min(rows - 1, (int) Math.floor((latitude + 90) / cellDegrees));
+            int column = Math.floorMod((int) Math.floor((longitude + 180) / cellDegrees), columns); // 180 is -180
+            long key = (long) row * columns + column;
+
+            try {
+                writeString(places, name);
+                writeString(places, address);
+                places.writeByte(types.length);
+
+                for (String type : types) {
+                    int category = categoryOf(type);
+                    places.writeShort(category);
+                    addEntry(category, key << 32 | place);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e); // Writing to memory does not fail
+            }
+
+            return this;
+        }
+
+        /**
+         * Returns the number of places added.
+         *
+         * @return the number of places
+         */
+        public int size() {
+            return placeCount;
+        }
+
+        /**
+         * Writes the index to a file. The index is written to a temporary file first and then moved over the
+         * specified one, so a running server that has the old index mapped keeps reading it unchanged.
+         *
+         * @param file the index file
+         * @throws IOException if the file cannot be written, or the index would not fit in 2 GB
+         */
+        public void write(Path file) throws IOException {
+            int[] cellCounts = new int[categories.size()];
+            int cells = 0;
+            long entryTotal = 0;
+
+            for (int category = 0; category < categories.size(); category++) {
+                long[] sorted = entries.get(category);
+                int count = entryCounts.get(category);
+                Arrays.sort(sorted, 0, count);
+
+                for (int i = 0; i < count; i++) {
+                    if (i == 0 || sorted[i] >>> 32 != sorted[i - 1] >>> 32) {
+                        cellCounts[category]++;
+                    }
+                }
+
+                cells += cellCounts[category];
+                entryTotal += count;
+            }
+
+            long size = 32L + (long) cells * CELL_BYTES + entryTotal * ENTRY_BYTES + placeBytes.size();
+            for (String category : categories) {
+                size += 18 + category.getBytes(StandardCharsets.UTF_8).length;
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Places index would be too large to map: " + size + " bytes");
+            }
+
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+
+            Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeShort(VERSION);
+                out.writeDouble(cellDegrees);
+                out.writeInt(placeCount);
+                out.writeShort(categories.size());
+
+                int firstCell = 0;
+                int firstEntry = 0;
+                for (int category = 0; category < categories.size(); category++) {
+                    writeString(out, categories.get(category));
+                    out.writeInt(firstCell);
+                    out.writeInt(cellCounts[category]);
+                    out.writeInt(firstEntry);
+                    out.writeInt(entryCounts.get(category));
+                    firstCell += cellCounts[category];
+                    firstEntry += entryCounts.get(category);
+                }
+
+                out.writeInt(cells);
+                out.writeInt((int) entryTotal);
+
+                int entry = 0;
+                for (int category = 0; category < categories.size(); category++) {
+                    long[] sorted = entries.get(category);
+                    for (int i = 0; i < entryCounts.get(category); i++, entry++) {
+                        if (i == 0 || sorted[i] >>> 32 != sorted[i - 1] >>> 32) {
+                            out.writeInt((int) (sorted[i] >>> 32));
+                            out.writeInt(entry);
+                        }
+                    }
+                }
+
+                for (int category = 0; category < categories.size(); category++) {
+                    long[] sorted = entries.get(category);
+                    for (int i = 0; i < entryCounts.get(category); i++) {
+                        int place = (int) sorted[i];
+                        out.writeInt(latitudes[place]);
+                        out.writeInt(longitudes[place]);
+                        out.writeInt(offsets[place]);
+                    }
+                }
+
+                placeBytes.writeTo(out);
+            }
+
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private int categoryOf(String type) {
+            Integer category = categoryIndexes.get(type);
+
+            if (category == null) {
+                if (categories.size() == 0xFFFF) {
+                    throw new IllegalArgumentException("Too many place types: " + categories.size());
+                }
+
+                category = categories.size();
+                categories.add(type);
+                categoryIndexes.put(type, category);
+                entries.add(new long[16]);
+                entryCounts.add(0);
+            }
+
+            return category;
+        }
+
+        private void addEntry(int category, long entry) {
+            long[] categoryEntries = entries.get(category);
+            int count = entryCounts.get(category);
+
+            if (count == categoryEntries.length) {
+                categoryEntries = Arrays.copyOf(categoryEntries, count * 2);
+                entries.set(category, categoryEntries);
+            }
+
+            categoryEntries[count] = entry;
+            entryCounts.set(category, count + 1);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, MAX_STRING_BYTES); // Names and addresses are never this long; cut rather than fail
+        out.writeShort(length);
+        out.write(bytes, 0, length);
+    }
+}
@@ -0,0 +1,91 @@
+package com.aruki.aruki;
+
+import java.time.Duration;
+
+import com.google.maps.model.LatLng;
+import com.google.maps.model.PlaceType;
+
+/**
+ * The {@code NearbySearchCache} class caches nearby-search results per geohash cell and {@link PlaceType}.
+ * <p>
+ * Instead of searching around each origin, a cell is searched once around its center, with a radius large
+ * enough that the search area covers the walking radius of any origin inside the cell. The results are kept
+ * in a {@link PoiIndex}, and every request in the cell filters them down to its own radius locally, so nearby
+ * origins (e.g. downtown addresses a block apart) share one Places call per category.
+ * </p>
+ *
+ * @see Geohash
+ * @see PoiIndex
+ * @see ExpiringLruCache
+ */
+public class NearbySearchCache extends ExpiringLruCache<String, PoiIndex> {
+
+    public static final int DEFAULT_PRECISION = 6;
+    public static final int DEFAULT_MAX_SIZE = 20_000;
+    public static final Duration DEFAULT_TTL = Duration.ofHours(6);
+
+    private final int precision;
+
+    /**
+     * Constructs a NearbySearchCache with the default precision, size and time-to-live.
+     */
+    public NearbySearchCache() {
+        this(DEFAULT_PRECISION, DEFAULT_MAX_SIZE, DEFAULT_TTL);
+    }
+
+    /**
+     * Constructs a NearbySearchCache with the specified cell precision, maximum size and time-to-live.
+     *
+     * @param precision the geohash precision of a cell
+     * @param maxSize the maximum number of (cell, category) entries to cache
+     * @param ttl how long a search result stays valid
+     */
+    public NearbySearchCache(int precision, int maxSize, Duration ttl) {
+        super("nearby_search", maxSize, ttl);
+        this.precision = precision;
+    }
+
+    /**
+     * Returns the geohash of the cell containing a point.
+     *
+     * @param latLng the point
+     * @return the geohash of the cell
+     */
+    public String cellOf(LatLng latLng) {
+        return Geohash.encode(latLng.lat, latLng.lng, precision);
+    }
+
+    /**
+     * Returns the radius to search around the center of a cell so that the search covers the specified radius
+     * around every point in the cell.
+     *
+     * @param cell the geohash of the cell
+     * @param radiusMeters the radius needed around each point, in meters
+     * @return the radius to search around the center of the cell, in meters
+     */
+    public static int coveringRadius(String cell, double radiusMeters) {
+        return (int) Math.ceil(radiusMeters + Geohash.circumradiusMeters(cell));
+    }
+
+    /**
+     * Returns the cache key of a cell and category. Results of test requests, which come from sample data, are kept
+     * under their own keys, so they never answer a real request for the same cell.
+     *
+     * @param cell the geohash of the cell
+     * @param category the category of places
+     * @param test whether the results come from sample data
+     * @return the cache key
+     */
+    public static String key(String cell, PlaceType category, boolean test) {
+        return (test ? "test:" : "") + cell + ":" + category;
+    }
+
+    /**
+     * Returns the geohash precision of a cell.
+     *
+     * @return the geohash precision
+     */
+    public int getPrecision() {
+        return precision;
+    }
+}
@@ -0,0 +1,133 @@
+package com.aruki.aruki;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+
+import com.google.maps.model.LatLng;
+import com.google.maps.model.PlaceType;
+
+/**
+ * The {@code OfflinePlacesProvider} class answers nearby searches from an imported OpenStreetMap extract instead of
+ * the Google Places API, with no quota, no network call and no page tokens.
+ * <p>
+ * The places are read from a {@link MappedPoiIndex} file built beforehand by the {@link PoiImporter}. Opening the
+ * file only maps it, so the server starts at once even with a country-sized extract, and a search answers in
+ * microseconds. Every search returns a single page holding all the places within the radius.
+ * </p>
+ * <p>
+ * Imported places carry no Google place id. They are sent to the Distance Matrix API by their coordinates, and their
+ * walking distances are not cached, as the cache is keyed by place id.
+ * </p>
+ * <p>
+ * The {@code test} flag of each search is ignored: the index is already local, so there is no sample data to fall
+ * back to.
+ * </p>
+ * <p>
+ * Example usage:
+ * <pre>
+ *     OfflinePlacesProvider placesProvider = OfflinePlacesProvider.open(Path.of("places/virginia.poi"));
+ *     List&lt;Location&gt; parks = placesProvider.retrievePlacesOfCategory(center, 2000, PlaceType.PARK, false);
+ * </pre>
+ * </p>
+ *
+ * @see PlacesProvider
+ * @see MappedPoiIndex
+ * @see PoiImporter
+ */
+public class OfflinePlacesProvider implements PlacesProvider {
+
+    private final MappedPoiIndex index;
+
+    /**
+     * Constructs an OfflinePlacesProvider over an opened index.
+     *
+     * @param index the index of the places
+     */
+    public OfflinePlacesProvider(MappedPoiIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Opens an OfflinePlacesProvider over an index file.
+     *
+     * @param file the index file written by the {@link PoiImporter}
+     * @return a new instance of {@code OfflinePlacesProvider}
+     * @throws IOException if the file cannot be read or is not an index
+     */
+    public static OfflinePlacesProvider open(Path file) throws IOException {
+        long start = System.nanoTime();
+        MappedPoiIndex index = MappedPoiIndex.open(file);
+
+        System.out.println("Mapped " + index.size() + " places in " + index.getCategories().size() + " categories from " + file
+                + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        return new OfflinePlacesProvider(index);
+    }
+
+    /**
+     * Returns all the places of a category within a radius of a point, as a single page.
+     *
+     * @param center the point to search around
+     * @param radius the search radius in meters
+     * @param category the category of places to search for
+     * @param test ignored
+     * @return the places within the radius, with no next page
+     */
+    @Override
+    public PlacesPage retrievePlacesPage(LatLng center, int radius, PlaceType category, boolean test) {
+        return new PlacesPage(index.withinRadius(center.lat, center.lng, radius, category.toString()), null);
+    }
+
+    /**
+     * Returns an empty page, as every search fits in its first page.
+     *
+     * @param pageToken the next page token of the previous page
+     * @param test ignored
+     * @return an empty page, with no next page
+     */
+    @Override
+    public PlacesPage retrieveNextPlacesPage(String pageToken, boolean test) {
+        return new PlacesPage(new ArrayList<>(), null);
+    }
+
+    /**
+     * Returns all the places of a category within a radius of a point, as an already completed future. The search
+     * is cheaper than handing it to another thread.
+     *
+     * @param center the point to search around
+     * @param radius the search radius in meters
+     * @param category the category of places to search for
+     * @param test ignored
+     * @return a completed future for the places within the radius
+     */
+    @Override
+    public CompletableFuture<PlacesPage> retrievePlacesPageAsync(LatLng center, int radius, PlaceType category, boolean test) {
+        try {
+            return CompletableFuture.completedFuture(retrievePlacesPage(center, radius, category, test));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Returns an empty page, as every search fits in its first page.
+     *
+     * @param pageToken the next page token of the previous page
+     * @param test ignored
+     * @return a completed future for an empty page
+     */
+    @Override
+    public CompletableFuture<PlacesPage> retrieveNextPlacesPageAsync(String pageToken, boolean test) {
+        return CompletableFuture.completedFuture(retrieveNextPlacesPage(pageToken, test));
+    }
+
+    /**
+     * Returns the index the places are read from.
+     *
+     * @return the index
+     */
+    public MappedPoiIndex getIndex() {
+        return index;
+    }
+}
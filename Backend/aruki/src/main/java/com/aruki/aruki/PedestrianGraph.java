@@ -0,0 +1,657 @@
+package com.aruki.aruki;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The {@code PedestrianGraph} class is a walkable street network held in primitive arrays, answering one-to-many
+ * shortest walking distances without calling any API.
+ * <p>
+ * Nodes are the points of the walkable ways and edges the segments between them, in both directions. The graph is
+ * kept in compressed sparse row (CSR) form: the edges of node {@code n} are {@code [firstEdges[n], firstEdges[n + 1])}
+ * of the {@code targets} and {@code lengths} arrays. A node costs 12 bytes and an edge 8, so a metropolitan area of a
+ * few million nodes fits in well under a hundred megabytes.
+ * </p>
+ * <p>
+ * Nodes are numbered in the order of the grid cell of {@code cellDegrees} degrees they fall in, so that nodes close
+ * on the map are close in memory, and so that the node nearest a point is found by binary searching the few cells
+ * around it, like the {@link MappedPoiIndex}.
+ * </p>
+ * <p>
+ * {@link #shortestDistances(int, int[], double)} runs Dijkstra's algorithm once from the source to every target,
+ * stopping as soon as every target is settled or the distance bound is reached, so a search only visits the streets
+ * within the bound. The per-search arrays are reused across searches rather than allocated each time.
+ * </p>
+ * <p>
+ * A graph is written in a compact binary format, and read back into its arrays at startup:
+ * <pre>
+ *     int    magic, "ARKW"
+ *     short  format version (1)
+ *     double cell size (degrees)
+ *     int    nodes, edges, cells
+ *     int    latitude of each node (1e-7 degrees)
+ *     int    longitude of each node (1e-7 degrees)
+ *     int    first edge of each node, then the number of edges
+ *     int    target node of each edge
+ *     float  length of each edge (meters)
+ *     long   key of each non-empty cell (row * columns + column), sorted
+ *     int    first node of each cell
+ * </pre>
+ * All values are big-endian.
+ * </p>
+ * <p>
+ * Example usage:
+ * <pre>
+ *     PedestrianGraph graph = PedestrianGraph.open(Path.of("graphs/norfolk.graph"));
+ *     int source = graph.nearestNode(36.8508, -76.2859, 250);
+ *     float[] meters = graph.shortestDistances(source, new int[] { graph.nearestNode(36.8459, -76.2907, 250) }, 2000);
+ * </pre>
+ * </p>
+ *
+ * @see PedestrianGraphImporter
+ * @see LocalWalkingDistanceProvider
+ */
+public class PedestrianGraph {
+
+    public static final double DEFAULT_CELL_DEGREES = 0.005; // About 550 m of latitude
+
+    private static final int MAGIC = 0x41524B57; // "ARKW"
+    private static final short VERSION = 1;
+    private static final long MAX_CELLS = 1L << 32; // Cell keys must fit in 32 bits, above a node number in one long, while nodes are numbered
+    private static final double COORDINATE_SCALE = 1e7; // Coordinates are stored in units of 1e-7 degrees, about 1 cm
+
+    private final double cellDegrees;
+    private final int columns;
+    private final int[] latitudes;
+    private final int[] longitudes;
+    private final int[] firstEdges;
+    private final int[] targets;
+    private final float[] lengths;
+    private final long[] cellKeys;
+    private final int[] cellFirstNodes;
+    private final ConcurrentLinkedQueue<Search> searches = new ConcurrentLinkedQueue<>(); // Idle search states, one per concurrent search at most
+
+    private PedestrianGraph(double cellDegrees, int[] latitudes, int[] longitudes, int[] firstEdges, int[] targets, float[] lengths, long[] cellKeys, int[] cellFirstNodes) {
+        this.cellDegrees = cellDegrees;
+        this.columns = columnsOf(cellDegrees);
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.firstEdges = firstEdges;
+        this.targets = targets;
+        this.lengths = lengths;
+        this.cellKeys = cellKeys;
+        this.cellFirstNodes = cellFirstNodes;
+    }
+
+    /**
+     * Reads a graph file into memory.
+     *
+     * @param file the graph file written by {@link #write(Path)}
+     * @return the graph
+     * @throws IOException if the file cannot be read or is not a graph
+     */
+    public static PedestrianGraph open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Pedestrian graph " + file + " is too large to read: " + size + " bytes");
+            }
+
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            try {
+                if (buffer.getInt() != MAGIC) {
+                    throw new IOException("Not a pedestrian graph");
+                }
+
+                short version = buffer.getShort();
+                if (version != VERSION) {
+                    throw new IOException("Unsupported pedestrian graph version: " + version);
+                }
+
+                double cellDegrees = buffer.getDouble();
+                if (!isValidCellSize(cellDegrees)) {
+                    throw new IOException("Invalid pedestrian graph cell size: " + cellDegrees);
+                }
+
+                int nodes = buffer.getInt();
+                int edges = buffer.getInt();
+                int cells = buffer.getInt();
+
+                int[] latitudes = readInts(buffer, nodes);
+                int[] longitudes = readInts(buffer, nodes);
+                int[] firstEdges = readInts(buffer, nodes + 1);
+                int[] targets = readInts(buffer, edges);
+                float[] lengths = new float[edges];
+                buffer.asFloatBuffer().get(lengths);
+                buffer.position(buffer.position() + edges * Float.BYTES);
+                long[] cellKeys = new long[cells];
+                buffer.asLongBuffer().get(cellKeys);
+                buffer.position(buffer.position() + cells * Long.BYTES);
+                int[] cellFirstNodes = readInts(buffer, cells);
+
+                if (firstEdges[nodes] != edges) {
+                    throw new IOException("Pedestrian graph is corrupt: " + firstEdges[nodes] + " edges listed, " + edges + " stored");
+                }
+
+                return new PedestrianGraph(cellDegrees, latitudes, longitudes, firstEdges, targets, lengths, cellKeys, cellFirstNodes);
+            } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+                throw new IOException("Pedestrian graph is truncated", e);
+            }
+        }
+    }
+
+    /**
+     * Writes the graph to a file. The graph is written to a temporary file first and then moved over the specified
+     * one, so a half-written graph is never read.
+     *
+     * @param file the graph file
+     * @throws IOException if the file cannot be written
+     */
+    public void write(Path file) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeDouble(cellDegrees);
+            out.writeInt(getNodeCount());
+            out.writeInt(getEdgeCount());
+            out.writeInt(cellKeys.length);
+            writeInts(out, latitudes);
+            writeInts(out, longitudes);
+            writeInts(out, firstEdges);
+            writeInts(out, targets);
+            for (float length : lengths) {
+                out.writeFloat(length);
+            }
+            for (long cellKey : cellKeys) {
+                out.writeLong(cellKey);
+            }
+            writeInts(out, cellFirstNodes);
+        }
+
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns the node nearest a point, within a maximum distance.
+     *
+     * @param latitude the latitude of the point, in degrees
+     * @param longitude the longitude of the point, in degrees
+     * @param maxMeters the farthest a node may be from the point
+     * @return the nearest node, or -1 if no node is within the maximum distance
+     */
+    public int nearestNode(double latitude, double longitude, double maxMeters) {
+        int centerRow = (int) Math.floor((latitude + 90) / cellDegrees);
+        int centerColumn = (int) Math.floor((longitude + 180) / cellDegrees);
+        double cellMeters = cellDegrees * GeoMath.metersPerDegreeLongitude(Math.min(89.9, Math.abs(latitude) + cellDegrees));
+        int ring = (int) Math.ceil(maxMeters / cellMeters);
+
+        int nearest = -1;
+        double nearestMeters = maxMeters;
+
+        for (int row = Math.max(0, centerRow - ring); row <= Math.min(rowsOf(cellDegrees) - 1, centerRow + ring); row++) {
+            long fromKey = (long) row * columns + Math.max(0, centerColumn - ring);
+            long toKey = (long) row * columns + Math.min(columns - 1, centerColumn + ring);
+            int cell = Arrays.binarySearch(cellKeys, fromKey);
+
+            for (cell = (cell >= 0) ? cell : -cell - 1; cell < cellKeys.length && cellKeys[cell] <= toKey; cell++) {
+                int end = (cell + 1 < cellKeys.length) ? cellFirstNodes[cell + 1] : getNodeCount();
+
+                for (int node = cellFirstNodes[cell]; node < end; node++) {
+                    double meters = distanceToNode(latitude, longitude, node);
+                    if (meters <= nearestMeters) {
+                        nearest = node;
+                        nearestMeters = meters;
+                    }
+                }
+            }
+        }
+
+        return nearest;
+    }
+
+    /**
+     * Returns the straight-line distance from a point to a node.
+     *
+     * @param latitude the latitude of the point, in degrees
+     * @param longitude the longitude of the point, in degrees
+     * @param node the node
+     * @return the distance, in meters
+     */
+    public double distanceToNode(double latitude, double longitude, int node) {
+        return GeoMath.distanceMeters(latitude, longitude, getLatitude(node), getLongitude(node));
+    }
+
+    /**
+     * Returns the shortest walking distance from a source node to each of several target nodes, in a single search
+     * that stops once every target is reached or the bound is passed.
+     *
+     * @param source the node to walk from
+     * @param targetNodes the nodes to walk to; a negative node is skipped
+     * @param maxMeters the longest walk searched
+     * @return the distance to each target, in meters, in target order; {@code Float.POSITIVE_INFINITY} if the target
+     *         cannot be reached within the bound
+     */
+    public float[] shortestDistances(int source, int[] targetNodes, double maxMeters) {
+        float[] distances = new float[targetNodes.length];
+        Arrays.fill(distances, Float.POSITIVE_INFINITY);
+
+        int[] pending = Arrays.stream(targetNodes).filter(node -> node >= 0).sorted().distinct().toArray();
+        int remaining = pending.length;
+
+        if (remaining == 0) {
+            return distances;
+        }
+
+        Search search = searches.poll();
+        if (search == null) {
+            search = new Search(getNodeCount());
+        }
+
+        try {
+            search.start(source);
+
+            while (remaining > 0 && search.size > 0) {
+                long entry = search.pop();
+                int node = (int) entry;
+                float meters = Float.intBitsToFloat((int) (entry >>> 32));
+
+                if (meters > search.distance(node)) {
+                    continue; // A shorter path to the node was settled already
+                }
+                if (meters > maxMeters) {
+                    break;
+                }
+                if (Arrays.binarySearch(pending, node) >= 0) {
+                    remaining--;
+                }
+
+                for (int edge = firstEdges[node]; edge < firstEdges[node + 1]; edge++) {
+                    search.relax(targets[edge], meters + lengths[edge]);
+                }
+            }
+
+            for (int i = 0; i < targetNodes.length; i++) {
+                if (targetNodes[i] >= 0 && search.distance(targetNodes[i]) <= maxMeters) {
+                    distances[i] = search.distance(targetNodes[i]);
+                }
+            }
+        } finally {
+            searches.offer(search);
+        }
+
+        return distances;
+    }
+
+    /**
+     * Returns the number of nodes.
+     *
+     * @return the number of nodes
+     */
+    public int getNodeCount() {
+        return latitudes.length;
+    }
+
+    /**
+     * Returns the number of directed edges; each walkable segment is counted once in each direction.
+     *
+     * @return the number of edges
+     */
+    public int getEdgeCount() {
+        return targets.length;
+    }
+
+    /**
+     * Returns the latitude of a node.
+     *
+     * @param node the node
+     * @return the latitude, in degrees
+     */
+    public double getLatitude(int node) {
+        return latitudes[node] / COORDINATE_SCALE;
+    }
+
+    /**
+     * Returns the longitude of a node.
+     *
+     * @param node the node
+     * @return the longitude, in degrees
+     */
+    public double getLongitude(int node) {
+        return longitudes[node] / COORDINATE_SCALE;
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int count) {
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + count * Integer.BYTES);
+        return values;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static boolean isValidCellSize(double cellDegrees) {
+        return cellDegrees > 0 && cellDegrees <= 1 && (long) rowsOf(cellDegrees) * columnsOf(cellDegrees) <= MAX_CELLS;
+    }
+
+    private static int rowsOf(double cellDegrees) {
+        return (int) Math.ceil(180 / cellDegrees);
+    }
+
+    private static int columnsOf(double cellDegrees) {
+        return (int) Math.ceil(360 / cellDegrees);
+    }
+
+    /**
+     * The state of one Dijkstra search: the tentative distance of each node and a binary heap of entries, each the
+     * float bits of a distance above the node. Distances are only valid for nodes stamped with the current search,
+     * so the arrays are never cleared between searches.
+     */
+    private static final class Search {
+
+        private final float[] distances;
+        private final int[] stamps;
+        private int stamp;
+        private long[] heap = new long[1024];
+        private int size;
+
+        Search(int nodes) {
+            this.distances = new float[nodes];
+            this.stamps = new int[nodes];
+        }
+
+        void start(int source) {
+            if (++stamp == Integer.MAX_VALUE) {
+                Arrays.fill(stamps, 0);
+                stamp = 1;
+            }
+
+            size = 0;
+            relax(source, 0);
+        }
+
+        float distance(int node) {
+            return (stamps[node] == stamp) ? distances[node] : Float.POSITIVE_INFINITY;
+        }
+
+        void relax(int node, float meters) {
+            if (meters >= distance(node)) {
+                return;
+            }
+
+            distances[node] = meters;
+            stamps[node] = stamp;
+            push((long) Float.floatToIntBits(meters) << 32 | node); // Non-negative floats order like their bits
+        }
+
+        private void push(long entry) {
+            if (size == heap.length) {
+                heap = Arrays.copyOf(heap, size * 2);
+            }
+
+            int child = size++;
+            while (child > 0) {
+                int parent = (child - 1) >>> 1;
+                if (heap[parent] <= entry) {
+                    break;
+                }
+                heap[child] = heap[parent];
+                child = parent;
+            }
+            heap[child] = entry;
+        }
+
+        long pop() {
+            long top = heap[0];
+            long last = heap[--size];
+            int parent = 0;
+
+            while (true) {
+                int child = 2 * parent + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && heap[child + 1] < heap[child]) {
+                    child++;
+                }
+                if (last <= heap[child]) {
+                    break;
+                }
+                heap[parent] = heap[child];
+                parent = child;
+            }
+
+            if (size > 0) {
+                heap[parent] = last;
+            }
+            return top;
+        }
+    }
+
+    /**
+     * The {@code Builder} class collects the nodes and walkable segments of a street network and arranges them into
+     * a {@code PedestrianGraph}.
+     * <p>
+     * Pieces of the network with fewer than {@code minComponentNodes} nodes, such as a footway mapped apart from the
+     * streets around it, are dropped: a point snapped to one of them could not walk anywhere else.
+     * </p>
+     */
+    public static class Builder {
+
+        public static final int DEFAULT_MIN_COMPONENT_NODES = 20;
+
+        private final double cellDegrees;
+        private final int minComponentNodes;
+        private int[] latitudes = new int[1024];
+        private int[] longitudes = new int[1024];
+        private int nodeCount;
+        private int[] edgeFrom = new int[1024];
+        private int[] edgeTo = new int[1024];
+        private int edgeCount;
+
+        /**
+         * Constructs a Builder with the default cell size and smallest piece of network kept.
+         */
+        public Builder() {
+            this(DEFAULT_CELL_DEGREES, DEFAULT_MIN_COMPONENT_NODES);
+        }
+
+        /**
+         * Constructs a Builder.
+         *
+         * @param cellDegrees the size of a cell of the nearest-node grid, in degrees
+         * @param minComponentNodes the fewest nodes of a connected piece of the network kept in the graph
+         */
+        public Builder(double cellDegrees, int minComponentNodes) {
+            if (!isValidCellSize(cellDegrees)) {
+                throw new IllegalArgumentException("Invalid cell size: " + cellDegrees);
+            }
+
+            this.cellDegrees = cellDegrees;
+            this.minComponentNodes = minComponentNodes;
+        }
+
+        /**
+         * Adds a node.
+         *
+         * @param latitude the latitude of the node, in degrees
+         * @param longitude the longitude of the node, in degrees
+         * @return the number of the node, for {@link #addSegment(int, int)}
+         */
+        public int addNode(double latitude, double longitude) {
+            if (!(latitude >= -90 && latitude <= 90 && longitude >= -180 && longitude <= 180)) {
+                throw new IllegalArgumentException("Invalid coordinates: " + latitude + "," + longitude);
+            }
+
+            if (nodeCount == latitudes.length) {
+                latitudes = Arrays.copyOf(latitudes, nodeCount * 2);
+                longitudes = Arrays.copyOf(longitudes, nodeCount * 2);
+            }
+
+            latitudes[nodeCount] = (int) Math.round(latitude * COORDINATE_SCALE);
+            longitudes[nodeCount] = (int) Math.round(longitude * COORDINATE_SCALE);
+            return nodeCount++;
+        }
+
+        /**
+         * Adds a walkable segment between two nodes, which can be walked in both directions.
+         *
+         * @param from the number of one node
+         * @param to the number of the other node
+         */
+        public void addSegment(int from, int to) {
+            if (from < 0 || from >= nodeCount || to < 0 || to >= nodeCount) {
+                throw new IllegalArgumentException("Unknown node in segment " + from + "-" + to);
+            }
+            if (from == to) {
+                return;
+            }
+
+            if (edgeCount == edgeFrom.length) {
+                edgeFrom = Arrays.copyOf(edgeFrom, edgeCount * 2);
+                edgeTo = Arrays.copyOf(edgeTo, edgeCount * 2);
+            }
+
+            edgeFrom[edgeCount] = from;
+            edgeTo[edgeCount] = to;
+            edgeCount++;
+        }
+
+        /**
+         * Arranges the nodes and segments into a graph.
+         *
+         * @return the graph
+         */
+        public PedestrianGraph build() {
+            int[] component = components();
+            int[] componentSizes = new int[nodeCount];
+            for (int node = 0; node < nodeCount; node++) {
+                componentSizes[component[node]]++;
+            }
+
+            // Number the kept nodes by grid cell
+            int columns = columnsOf(cellDegrees);
+            int rows = rowsOf(cellDegrees);
+            long[] order = new long[nodeCount];
+            int kept = 0;
+            for (int node = 0; node < nodeCount; node++) {
+                if (componentSizes[component[node]] >= minComponentNodes) {
+                    int row = Math.min(rows - 1, (int) Math.floor((latitudes[node] / COORDINATE_SCALE + 90) / cellDegrees));
+                    int column = Math.floorMod((int) Math.floor((longitudes[node] / COORDINATE_SCALE + 180) / cellDegrees), columns);
+                    order[kept++] = ((long) row * columns + column) << 31 | node; // Cell key, then node number
+                }
+            }
+            Arrays.sort(order, 0, kept);
+
+            int[] renumbered = new int[nodeCount];
+            Arrays.fill(renumbered, -1);
+            int[] graphLatitudes = new int[kept];
+            int[] graphLongitudes = new int[kept];
+            int cells = 0;
+
+            for (int i = 0; i < kept; i++) {
+                int node = (int) (order[i] & Integer.MAX_VALUE);
+                renumbered[node] = i;
+                graphLatitudes[i] = latitudes[node];
+                graphLongitudes[i] = longitudes[node];
+                if (i == 0 || order[i] >>> 31 != order[i - 1] >>> 31) {
+                    cells++;
+                }
+            }
+
+            long[] cellKeys = new long[cells];
+            int[] cellFirstNodes = new int[cells];
+            for (int i = 0, cell = 0; i < kept; i++) {
+                if (i == 0 || order[i] >>> 31 != order[i - 1] >>> 31) {
+                    cellKeys[cell] = order[i] >>> 31;
+                    cellFirstNodes[cell++] = i;
+                }
+            }
+
+            // Lay the segments out in CSR form, once in each direction
+            int[] firstEdges = new int[kept + 1];
+            for (int edge = 0; edge < edgeCount; edge++) {
+                int from = renumbered[edgeFrom[edge]];
+                if (from >= 0) { // Both ends are in the same component, so both are kept or dropped
+                    firstEdges[from + 1]++;
+                    firstEdges[renumbered[edgeTo[edge]] + 1]++;
+                }
+            }
+            for (int node = 0; node < kept; node++) {
+                firstEdges[node + 1] += firstEdges[node];
+            }
+
+            int[] targets = new int[firstEdges[kept]];
+            float[] lengths = new float[targets.length];
+            int[] next = Arrays.copyOf(firstEdges, kept);
+
+            for (int edge = 0; edge < edgeCount; edge++) {
+                int from = renumbered[edgeFrom[edge]];
+                int to = renumbered[edgeTo[edge]];
+                if (from < 0) {
+                    continue;
+                }
+
+                float length = (float) GeoMath.distanceMeters(graphLatitudes[from] / COORDINATE_SCALE, graphLongitudes[from] / COORDINATE_SCALE,
+                        graphLatitudes[to] / COORDINATE_SCALE, graphLongitudes[to] / COORDINATE_SCALE);
+                targets[next[from]] = to;
+                lengths[next[from]++] = length;
+                targets[next[to]] = from;
+                lengths[next[to]++] = length;
+            }
+
+            return new PedestrianGraph(cellDegrees, graphLatitudes, graphLongitudes, firstEdges, targets, lengths, cellKeys, cellFirstNodes);
+        }
+
+        /**
+         * Returns the connected piece of the network of each node, as the number of one of its nodes (union-find).
+         */
+        private int[] components() {
+            int[] parents = new int[nodeCount];
+            for (int node = 0; node < nodeCount; node++) {
+                parents[node] = node;
+            }
+
+            for (int edge = 0; edge < edgeCount; edge++) {
+                int a = root(parents, edgeFrom[edge]);
+                int b = root(parents, edgeTo[edge]);
+                if (a != b) {
+                    parents[Math.max(a, b)] = Math.min(a, b);
+                }
+            }
+
+            for (int node = 0; node < nodeCount; node++) {
+                parents[node] = root(parents, node);
+            }
+            return parents;
+        }
+
+        private static int root(int[] parents, int node) {
+            while (parents[node] != node) {
+                parents[node] = parents[parents[node]]; // Halve the path on the way up
+                node = parents[node];
+            }
+            return node;
+        }
+    }
+}
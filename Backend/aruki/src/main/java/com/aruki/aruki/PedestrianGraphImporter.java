@@ -0,0 +1,238 @@
+package com.aruki.aruki;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * The {@code PedestrianGraphImporter} class builds a {@link PedestrianGraph} file from an OpenStreetMap extract in
+ * OSM XML, for the {@link LocalWalkingDistanceProvider}.
+ * <p>
+ * Importing is an offline step, run once per extract. The extract is read as a stream with StAX, twice: the first
+ * pass keeps the node references of every walkable way, and the second the coordinates of only those nodes, so
+ * memory grows with the walkable network rather than with the whole extract. An extract in PBF can be converted
+ * first with {@code osmium cat city.osm.pbf -o city.osm}.
+ * </p>
+ * <p>
+ * A way is walkable if its {@code highway} tag is one of {@link #WALKABLE_HIGHWAYS}, or if it is tagged
+ * {@code foot=yes}, {@code designated} or {@code permissive}; {@code foot=no} and {@code access=no} or
+ * {@code private} exclude it, unless foot access is granted explicitly. One-way streets are walked both ways.
+ * </p>
+ * <p>
+ * Example usage:
+ * <pre>
+ *     java -cp aruki.jar -Dloader.main=com.aruki.aruki.PedestrianGraphImporter \
+ *         org.springframework.boot.loader.launch.PropertiesLauncher norfolk.osm graphs/norfolk.graph
+ * </pre>
+ * </p>
+ *
+ * @see PedestrianGraph
+ * @see LocalWalkingDistanceProvider
+ */
+public class PedestrianGraphImporter {
+
+    // Streets and paths that may be walked unless tagged otherwise
+    static final Set<String> WALKABLE_HIGHWAYS = Set.of(
+        "footway", "pedestrian", "path", "steps", "corridor", "living_street", "residential", "service",
+        "unclassified", "road", "track", "cycleway", "bridleway", "tertiary", "tertiary_link",
+        "secondary", "secondary_link", "primary", "primary_link"
+    );
+
+    private static final Set<String> FOOT_ALLOWED = Set.of("yes", "designated", "permissive", "official");
+    private static final Set<String> NO_ACCESS = Set.of("no", "private");
+
+    private PedestrianGraphImporter() {}
+
+    /**
+     * Returns whether a way may be walked, from its tags.
+     *
+     * @param tags the tags of the way
+     * @return true if the way is walkable
+     */
+    public static boolean isWalkable(Map<String, String> tags) {
+        String highway = tags.get("highway");
+        String foot = tags.get("foot");
+
+        if (highway == null || "proposed".equals(highway) || "construction".equals(highway)) {
+            return false;
+        }
+        if (foot != null && FOOT_ALLOWED.contains(foot)) {
+            return true;
+        }
+        if (foot != null && NO_ACCESS.contains(foot)) {
+            return false;
+        }
+        if (NO_ACCESS.contains(tags.getOrDefault("access", ""))) {
+            return false;
+        }
+
+        return WALKABLE_HIGHWAYS.contains(highway);
+    }
+
+    /**
+     * Reads an OSM XML extract into a graph builder.
+     *
+     * @param extract the extract, optionally gzipped
+     * @param builder the builder to add the walkable network to
+     * @return the number of walkable ways read
+     * @throws IOException if the extract cannot be read or is not OSM XML
+     */
+    public static int importOsm(Path extract, PedestrianGraph.Builder builder) throws IOException {
+        // Pass 1: the node references of each walkable way, back to back
+        long[] wayNodes = new long[1 << 16];
+        int[] wayEnds = new int[1 << 12];
+        int ways = 0;
+        int refs = 0;
+
+        try (InputStream in = open(extract)) {
+            XMLStreamReader reader = newReader(in);
+            Map<String, String> tags = new HashMap<>();
+            int wayStart = 0;
+            boolean inWay = false;
+
+            while (reader.hasNext()) {
+                int event = reader.next();
+
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    switch (reader.getLocalName()) {
+                        case "way":
+                            inWay = true;
+                            wayStart = refs;
+                            tags.clear();
+                            break;
+                        case "nd":
+                            if (inWay) {
+                                if (refs == wayNodes.length) {
+                                    wayNodes = Arrays.copyOf(wayNodes, refs * 2);
+                                }
+                                wayNodes[refs++] = Long.parseLong(reader.getAttributeValue(null, "ref"));
+                            }
+                            break;
+                        case "tag":
+                            if (inWay) {
+                                tags.put(reader.getAttributeValue(null, "k"), reader.getAttributeValue(null, "v"));
+                            }
+                            break;
+                        default:
+                            break;
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && "way".equals(reader.getLocalName())) {
+                    inWay = false;
+
+                    if (!isWalkable(tags) || refs - wayStart < 2) {
+                        refs = wayStart; // Forget the way
+                    } else {
+                        if (ways == wayEnds.length) {
+                            wayEnds = Arrays.copyOf(wayEnds, ways * 2);
+                        }
+                        wayEnds[ways++] = refs;
+                    }
+                }
+            }
+        } catch (XMLStreamException | IllegalArgumentException e) {
+            throw new IOException("Cannot read OSM extract " + extract + ": " + e.getMessage(), e);
+        }
+
+        // The nodes to keep, by id
+        long[] ids = Arrays.copyOf(wayNodes, refs);
+        Arrays.sort(ids);
+        int unique = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (i == 0 || ids[i] != ids[i - 1]) {
+                ids[unique++] = ids[i];
+            }
+        }
+        ids = Arrays.copyOf(ids, unique);
+
+        // Pass 2: the coordinates of those nodes
+        int[] nodeNumbers = new int[unique];
+        Arrays.fill(nodeNumbers, -1);
+
+        try (InputStream in = open(extract)) {
+            XMLStreamReader reader = newReader(in);
+
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                if ("way".equals(reader.getLocalName()) || "relation".equals(reader.getLocalName())) {
+                    break; // Nodes come first in an extract
+                }
+                if (!"node".equals(reader.getLocalName())) {
+                    continue;
+                }
+
+                int index = Arrays.binarySearch(ids, Long.parseLong(reader.getAttributeValue(null, "id")));
+                if (index >= 0) {
+                    nodeNumbers[index] = builder.addNode(Double.parseDouble(reader.getAttributeValue(null, "lat")),
+                            Double.parseDouble(reader.getAttributeValue(null, "lon")));
+                }
+            }
+        } catch (XMLStreamException | IllegalArgumentException e) {
+            throw new IOException("Cannot read OSM extract " + extract + ": " + e.getMessage(), e);
+        }
+
+        // Segments between consecutive nodes of each way; nodes missing from the extract split the way
+        for (int way = 0, start = 0; way < ways; start = wayEnds[way++]) {
+            for (int i = start + 1; i < wayEnds[way]; i++) {
+                int from = nodeNumbers[Arrays.binarySearch(ids, wayNodes[i - 1])];
+                int to = nodeNumbers[Arrays.binarySearch(ids, wayNodes[i])];
+                if (from >= 0 && to >= 0) {
+                    builder.addSegment(from, to);
+                }
+            }
+        }
+
+        return ways;
+    }
+
+    private static InputStream open(Path extract) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(extract), 1 << 16);
+        return extract.toString().endsWith(".gz") ? new GZIPInputStream(in, 1 << 16) : in;
+    }
+
+    private static XMLStreamReader newReader(InputStream in) throws XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory.createXMLStreamReader(in);
+    }
+
+    /**
+     * Imports an extract into a graph file.
+     *
+     * @param args the OSM XML extract, optionally gzipped, and the graph file to write
+     * @throws IOException if the extract cannot be read or the graph cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Usage: PedestrianGraphImporter <extract.osm[.gz]> <graph file>");
+            System.exit(1);
+        }
+
+        Path extract = Path.of(args[0]);
+        Path graphFile = Path.of(args[1]);
+        long start = System.nanoTime();
+
+        PedestrianGraph.Builder builder = new PedestrianGraph.Builder();
+        int ways = importOsm(extract, builder);
+        PedestrianGraph graph = builder.build();
+        graph.write(graphFile);
+
+        System.out.println("Imported " + ways + " walkable ways from " + extract + " into " + graphFile + ": " + graph.getNodeCount()
+                + " nodes, " + graph.getEdgeCount() + " edges (" + Files.size(graphFile) / 1024 + " KB) in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+}
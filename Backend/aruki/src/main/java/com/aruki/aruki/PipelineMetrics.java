@@ -0,0 +1,79 @@
+package com.aruki.aruki;
+
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * The {@code PipelineMetrics} class publishes the latency of each {@link PipelineStage} of every request, so that a
+ * slow stage can be told apart from a slow request.
+ * <p>
+ * Each timed call of a stage is recorded in the {@code aruki.pipeline.stage} timer, tagged with:
+ * <ul>
+ *   <li>{@code stage}: the {@link PipelineStage#getTag() name of the stage}</li>
+ *   <li>{@code category}: the place category of a nearby search, or {@code none}</li>
+ *   <li>{@code outcome}: {@code success} or {@code error}</li>
+ * </ul>
+ * The timer publishes a percentile histogram, so percentiles can be aggregated across instances from the
+ * {@code /actuator/prometheus} endpoint.
+ * </p>
+ * <p>
+ * Stages are recorded through {@link PipelineStats}, which also keeps the timings of its own request for the
+ * {@code Server-Timing} header. Nothing is recorded until the metrics are bound to a registry.
+ * </p>
+ * <p>
+ * Example usage:
+ * <pre>
+ *     PipelineStats stats = new PipelineStats(pipelineMetrics);
+ *     long start = System.nanoTime();
+ *     List&lt;Location&gt; places = apiManager.retrievePlacesOfCategory(latLng, radius, PlaceType.PARK, false);
+ *     stats.recordStage(PipelineStage.NEARBY_SEARCH, "park", start, true);
+ * </pre>
+ * </p>
+ *
+ * @see PipelineStats
+ */
+public class PipelineMetrics implements MeterBinder {
+
+    public static final String NO_CATEGORY = "none";
+
+    private volatile MeterRegistry registry;
+
+    /**
+     * Records one timed call of a stage.
+     *
+     * @param stage the stage that was timed
+     * @param category the place category of the call, or null if the stage is not per category
+     * @param success whether the call succeeded
+     * @param nanos the duration of the call, in nanoseconds
+     */
+    public void record(PipelineStage stage, String category, boolean success, long nanos) {
+        MeterRegistry bound = registry;
+
+        if (bound == null) {
+            return;
+        }
+
+        Timer.builder("aruki.pipeline.stage")
+                .description("Latency of each stage of the places and scoring pipeline")
+                .tag("stage", stage.getTag())
+                .tag("category", (category == null) ? NO_CATEGORY : category)
+                .tag("outcome", success ? "success" : "error")
+                .publishPercentileHistogram()
+                .register(bound)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Keeps the registry that stage timings are recorded to. The timers are registered on first use, as their tags
+     * depend on the calls made.
+     *
+     * @param registry the registry to record the metrics to
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.registry = registry;
+    }
+}
@@ -0,0 +1,35 @@
+package com.aruki.aruki;
+
+/**
+ * The {@code PipelineStage} enum lists the stages of a request whose latency is measured.
+ * <p>
+ * Each stage is timed by {@link PipelineStats#recordStage(PipelineStage, String, long, boolean)}, and is reported
+ * both as the {@code aruki.pipeline.stage} timer and as an entry of the {@code Server-Timing} response header.
+ * </p>
+ *
+ * @see PipelineStats
+ * @see PipelineMetrics
+ */
+public enum PipelineStage {
+
+    GEOCODE("geocode"),
+    NEARBY_SEARCH("nearby_search"),
+    DISTANCE_MATRIX("distance_matrix"),
+    SCORING("scoring"),
+    SERIALIZATION("serialization");
+
+    private final String tag;
+
+    PipelineStage(String tag) {
+        this.tag = tag;
+    }
+
+    /**
+     * Returns the name of the stage as used in metric tags and the {@code Server-Timing} header.
+     *
+     * @return the name of the stage
+     */
+    public String getTag() {
+        return tag;
+    }
+}
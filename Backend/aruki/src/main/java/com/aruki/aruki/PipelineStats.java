@@ -0,0 +1,234 @@
+package com.aruki.aruki;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The {@code PipelineStats} class collects counters about the work done for a single request.
+ * <p>
+ * A new {@code PipelineStats} is created for each request and passed through the {@link LocationManager}
+ * pipeline, which updates it from whichever threads do the work. The controller reports the counters back to
+ * the client as response headers.
+ * </p>
+ * <p>
+ * Each {@code PipelineStats} object contains:
+ * <ul>
+ *   <li>The number of walking distances served from the {@link WalkingDistanceCache} ({@code int})</li>
+ *   <li>The number of Distance Matrix elements requested from Google ({@code int})</li>
+ *   <li>The number of places whose destination was already in the request and so was not sent again ({@code int})</li>
+ *   <li>The number of destinations the Distance Matrix API found no walking route to ({@code int})</li>
+ *   <li>The number of places kept without a walking distance because their Distance Matrix request failed ({@code int})</li>
+ *   <li>The time spent in each {@link PipelineStage}, per category where the stage has one</li>
+ * </ul>
+ * </p>
+ * <p>
+ * Stage timings are also passed on to the {@link PipelineMetrics} given at construction, if any, and are reported
+ * to the client in the {@code Server-Timing} header built by {@link #toServerTiming()}.
+ * </p>
+ *
+ * @see LocationManager
+ * @see APIController
+ */
+public class PipelineStats {
+
+    private final AtomicInteger distanceCacheHits = new AtomicInteger();
+    private final AtomicInteger distanceMatrixElements = new AtomicInteger();
+    private final AtomicInteger duplicateDestinations = new AtomicInteger();
+    private final AtomicInteger unreachableDestinations = new AtomicInteger();
+    private final AtomicInteger unverifiedPlaces = new AtomicInteger();
+    private final Map<String, StageTiming> stageTimings = new LinkedHashMap<String, StageTiming>(); // Guarded by this
+    private final PipelineMetrics metrics;
+
+    /**
+     * Constructs a PipelineStats that only keeps the stage timings of its own request.
+     */
+    public PipelineStats() {
+        this(null);
+    }
+
+    /**
+     * Constructs a PipelineStats that also records its stage timings to the specified metrics.
+     *
+     * @param metrics the metrics to record stage timings to, or null to not publish them
+     */
+    public PipelineStats(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Records walking distances that were served from the cache.
+     *
+     * @param count the number of distances served from the cache
+     */
+    public void addDistanceCacheHits(int count) {
+        distanceCacheHits.addAndGet(count);
+    }
+
+    /**
+     * Records Distance Matrix elements that were requested from Google.
+     *
+     * @param count the number of elements requested
+     */
+    public void addDistanceMatrixElements(int count) {
+        distanceMatrixElements.addAndGet(count);
+    }
+
+    /**
+     * Records places whose destination was collapsed into another place's Distance Matrix element.
+     *
+     * @param count the number of places collapsed
+     */
+    public void addDuplicateDestinations(int count) {
+        duplicateDestinations.addAndGet(count);
+    }
+
+    /**
+     * Records destinations the Distance Matrix API found no walking route to.
+     *
+     * @param count the number of unreachable destinations
+     */
+    public void addUnreachableDestinations(int count) {
+        unreachableDestinations.addAndGet(count);
+    }
+
+    /**
+     * Records places kept without a walking distance because their Distance Matrix request failed.
+     *
+     * @param count the number of unverified places
+     */
+    public void addUnverifiedPlaces(int count) {
+        unverifiedPlaces.addAndGet(count);
+    }
+
+    /**
+     * Records one timed call of a stage of the request, ending now.
+     * <p>
+     * Calls of the same stage and category are merged into one {@code Server-Timing} entry, whose duration is the
+     * wall-clock time from the start of the first call to the end of the last, since calls may run in parallel.
+     * </p>
+     *
+     * @param stage the stage that was timed
+     * @param category the place category of the call, or null if the stage is not per category
+     * @param startNanos the {@link System#nanoTime()} at which the call started
+     * @param success whether the call succeeded
+     */
+    public void recordStage(PipelineStage stage, String category, long startNanos, boolean success) {
+        long endNanos = System.nanoTime();
+        String name = (category == null) ? stage.getTag() : stage.getTag() + "." + category;
+
+        synchronized (this) {
+            StageTiming timing = stageTimings.get(name);
+
+            if (timing == null) {
+                stageTimings.put(name, new StageTiming(startNanos, endNanos));
+            } else {
+                timing.add(startNanos, endNanos);
+            }
+        }
+
+        if (metrics != null) {
+            metrics.record(stage, category, success, endNanos - startNanos);
+        }
+    }
+
+    /**
+     * Returns the stage timings as the value of a {@code Server-Timing} header, in the order the stages were first
+     * recorded, e.g. {@code geocode;dur=84.2, nearby_search.park;dur=312.5, distance_matrix;dur=190.1;desc="3 calls"}.
+     *
+     * @return the header value, or an empty string if no stage was timed
+     */
+    public synchronized String toServerTiming() {
+        StringJoiner header = new StringJoiner(", ");
+
+        for (Map.Entry<String, StageTiming> entry : stageTimings.entrySet()) {
+            StageTiming timing = entry.getValue();
+            String metric = entry.getKey() + ";dur=" + String.format(Locale.ROOT, "%.1f", (timing.end - timing.start) / 1e6);
+
+            if (timing.calls > 1) {
+                metric += ";desc=\"" + timing.calls + " calls\"";
+            }
+            header.add(metric);
+        }
+
+        return header.toString();
+    }
+
+    /**
+     * Returns the number of walking distances served from the cache.
+     *
+     * @return the number of distances served from the cache
+     */
+    public int getDistanceCacheHits() {
+        return distanceCacheHits.get();
+    }
+
+    /**
+     * Returns the number of Distance Matrix elements requested from Google.
+     *
+     * @return the number of elements requested
+     */
+    public int getDistanceMatrixElements() {
+        return distanceMatrixElements.get();
+    }
+
+    /**
+     * Returns the number of places whose destination was collapsed into another place's Distance Matrix element.
+     *
+     * @return the number of places collapsed
+     */
+    public int getDuplicateDestinations() {
+        return duplicateDestinations.get();
+    }
+
+    /**
+     * Returns the number of destinations the Distance Matrix API found no walking route to.
+     *
+     * @return the number of unreachable destinations
+     */
+    public int getUnreachableDestinations() {
+        return unreachableDestinations.get();
+    }
+
+    /**
+     * Returns the number of places kept without a walking distance because their Distance Matrix request failed.
+     *
+     * @return the number of unverified places
+     */
+    public int getUnverifiedPlaces() {
+        return unverifiedPlaces.get();
+    }
+
+    /**
+     * Returns a string representation of the stats in JSON format.
+     *
+     * @return a string representation of the stats
+     */
+    @Override
+    public String toString() {
+        return "{\"distanceCacheHits\":\"" + getDistanceCacheHits() + "\",\"distanceMatrixElements\":\"" + getDistanceMatrixElements() + "\",\"duplicateDestinations\":\"" + getDuplicateDestinations() + "\",\"unreachableDestinations\":\"" + getUnreachableDestinations() + "\",\"unverifiedPlaces\":\"" + getUnverifiedPlaces() + "\"}";
+    }
+
+    /**
+     * The calls of one stage and category, as the span from the earliest start to the latest end.
+     */
+    private static class StageTiming {
+
+        private long start;
+        private long end;
+        private int calls = 1;
+
+        private StageTiming(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        private void add(long callStart, long callEnd) {
+            start = Math.min(start, callStart);
+            end = Math.max(end, callEnd);
+            calls++;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.aruki.aruki;
+
+import java.util.List;
+
+/**
+ * The {@code PlacesPage} class represents one page of results from a Places API nearby search.
+ * <p>
+ * The Places API returns at most 20 results per page, and up to three pages per search. When there are more
+ * results, the page carries a token that fetches the next page; the token only becomes valid a short time after
+ * it is issued.
+ * </p>
+ * <p>
+ * Each {@code PlacesPage} object contains:
+ * <ul>
+ *   <li>The places on the page ({@code List<Location>})</li>
+ *   <li>The token of the next page, or null if this is the last page ({@code String})</li>
+ * </ul>
+ * </p>
+ * <p>
+ * Example usage:
+ * <pre>
+ *     PlacesPage page = apiManager.retrievePlacesPage(center, 2000, PlaceType.RESTAURANT, false);
+ *     if (page.hasNextPage()) {
+ *         PlacesPage next = apiManager.retrieveNextPlacesPage(page.getNextPageToken(), false);
+ *     }
+ * </pre>
+ * </p>
+ *
+ * @see APIManager#retrievePlacesPage(com.google.maps.model.LatLng, int, com.google.maps.model.PlaceType, boolean)
+ * @see APIManager#retrieveNextPlacesPage(String, boolean)
+ */
+public class PlacesPage {
+
+    private final List<Location> places;
+    private final String nextPageToken;
+
+    /**
+     * Constructs a PlacesPage with the specified places and next page token.
+     *
+     * @param places the places on the page
+     * @param nextPageToken the token of the next page, or null if this is the last page
+     */
+    public PlacesPage(List<Location> places, String nextPageToken) {
+        this.places = places;
+        this.nextPageToken = nextPageToken;
+    }
+
+    /**
+     * Returns the places on the page.
+     *
+     * @return the places on the page
+     */
+    public List<Location> getPlaces() {
+        return places;
+    }
+
+    /**
+     * Returns the token of the next page.
+     *
+     * @return the token of the next page, or null if this is the last page
+     */
+    public String getNextPageToken() {
+        return nextPageToken;
+    }
+
+    /**
+     * Returns whether there is a page after this one.
+     *
+     * @return true if there is a next page, false otherwise
+     */
+    public boolean hasNextPage() {
+        return nextPageToken != null && !nextPageToken.isEmpty();
+    }
+
+    /**
+     * Returns a string representation of the page.
+     *
+     * @return a string representation of the page
+     */
+    @Override
+    public String toString() {
+        return "{\"places\":" + places + ",\"nextPageToken\":\"" + nextPageToken + "\"}";
+    }
+}
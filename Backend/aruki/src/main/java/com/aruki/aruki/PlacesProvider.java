@@ -0,0 +1,111 @@
+package com.aruki.aruki;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.google.maps.errors.ApiException;
+import com.google.maps.model.LatLng;
+import com.google.maps.model.PlaceType;
+
+/**
+ * The {@code PlacesProvider} interface answers nearby searches: the places of a category within a radius of a point.
+ * <p>
+ * Two implementations are available:
+ * <ul>
+ *   <li>{@link APIManager}, which calls the Google Places API, a page of at most 20 places at a time</li>
+ *   <li>{@link OfflinePlacesProvider}, which reads an imported OpenStreetMap extract from a memory-mapped index, in a
+ *       single page</li>
+ * </ul>
+ * The {@link LocationManager} and the {@link GridScorer} search through whichever provider is configured, so
+ * scoring does not depend on where the places come from.
+ * </p>
+ * <p>
+ * Example usage:
+ * <pre>
+ *     PlacesProvider placesProvider = OfflinePlacesProvider.open(Path.of("places/virginia.poi"));
+ *     List&lt;Location&gt; parks = placesProvider.retrievePlacesOfCategory(center, 2000, PlaceType.PARK, false);
+ * </pre>
+ * </p>
+ *
+ * @see APIManager
+ * @see OfflinePlacesProvider
+ */
+public interface PlacesProvider {
+
+    /**
+     * Retrieves the first page of places of a specific category within a radius of a point.
+     *
+     * @param center the point to search around
+     * @param radius the search radius in meters
+     * @param category the category of places to search for
+     * @param test whether to use sample data for testing
+     * @return the first page of places, with the token of the next page if there is one
+     * @throws ApiException if an error occurs while making the API request
+     * @throws InterruptedException if the request is interrupted
+     * @throws IOException if an I/O error occurs
+     */
+    PlacesPage retrievePlacesPage(LatLng center, int radius, PlaceType category, boolean test) throws ApiException, InterruptedException, IOException;
+
+    /**
+     * Retrieves the next page of a nearby search.
+     *
+     * @param pageToken the next page token of the previous page
+     * @param test whether to use sample data for testing
+     * @return the next page of places, with the token of the page after it if there is one
+     * @throws ApiException if an error occurs while making the API request
+     * @throws InterruptedException if the request is interrupted
+     * @throws IOException if an I/O error occurs
+     */
+    PlacesPage retrieveNextPlacesPage(String pageToken, boolean test) throws ApiException, InterruptedException, IOException;
+
+    /**
+     * Retrieves the first page of places of a specific category within a radius of a point, without blocking.
+     *
+     * @param center the point to search around
+     * @param radius the search radius in meters
+     * @param category the category of places to search for
+     * @param test whether to use sample data for testing
+     * @return a future for the first page of places
+     */
+    CompletableFuture<PlacesPage> retrievePlacesPageAsync(LatLng center, int radius, PlaceType category, boolean test);
+
+    /**
+     * Retrieves the next page of a nearby search, without blocking.
+     *
+     * @param pageToken the next page token of the previous page
+     * @param test whether to use sample data for testing
+     * @return a future for the next page of places
+     */
+    CompletableFuture<PlacesPage> retrieveNextPlacesPageAsync(String pageToken, boolean test);
+
+    /**
+     * Retrieves the places of a specific category within a radius of a point, from the first page of the search.
+     *
+     * @param center the point to search around
+     * @param radius the search radius in meters
+     * @param category the category of places to search for
+     * @param test whether to use sample data for testing
+     * @return a list of places matching the category within the radius
+     * @throws ApiException if an error occurs while making the API request
+     * @throws InterruptedException if the request is interrupted
+     * @throws IOException if an I/O error occurs
+     */
+    default List<Location> retrievePlacesOfCategory(LatLng center, int radius, PlaceType category, boolean test) throws ApiException, InterruptedException, IOException {
+        return retrievePlacesPage(center, radius, category, test).getPlaces();
+    }
+
+    /**
+     * Retrieves the places of a specific category within a radius of a point, from the first page of the search,
+     * without blocking.
+     *
+     * @param center the point to search around
+     * @param radius the search radius in meters
+     * @param category the category of places to search for
+     * @param test whether to use sample data for testing
+     * @return a future for the list of places matching the category within the radius
+     */
+    default CompletableFuture<List<Location>> retrievePlacesOfCategoryAsync(LatLng center, int radius, PlaceType category, boolean test) {
+        return retrievePlacesPageAsync(center, radius, category, test).thenApply(PlacesPage::getPlaces);
+    }
+}
@@ -0,0 +1,252 @@
+package com.aruki.aruki;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.maps.model.PlaceType;
+
+/**
+ * The {@code PoiImporter} class builds a {@link MappedPoiIndex} file from an OpenStreetMap extract exported as a
+ * GeoJSON {@code FeatureCollection}, for the {@link OfflinePlacesProvider}.
+ * <p>
+ * Importing is an offline step, run once per extract rather than on startup. The extract is read as a stream, one
+ * feature at a time, so its size is only limited by the index. The OpenStreetMap tags of each feature decide its
+ * categories, as Places API types: {@code leisure=park} is a {@code park}, {@code shop=supermarket} a
+ * {@code grocery_or_supermarket}, and so on (see {@link #OSM_TAGS}). Features without a known tag are skipped.
+ * </p>
+ * <p>
+ * The tags are read from the properties of each feature, or from their {@code tags} object when the exporter nests
+ * them there. A point is placed at its coordinates, and any other geometry at the mean of the vertices of its first
+ * ring or line. A feature without a {@code name} is named after its tag, and its address is built from its
+ * {@code addr:*} tags.
+ * </p>
+ * <p>
+ * Example usage, with an extract exported by {@code osmium export virginia-latest.osm.pbf -o virginia.geojson}:
+ * <pre>
+ *     java -cp aruki.jar -Dloader.main=com.aruki.aruki.PoiImporter \
+ *         org.springframework.boot.loader.launch.PropertiesLauncher virginia.geojson places/virginia.poi
+ * </pre>
+ * </p>
+ *
+ * @see MappedPoiIndex
+ * @see OfflinePlacesProvider
+ */
+public class PoiImporter {
+
+    // Places API types of the OpenStreetMap tags, by "key=value"
+    static final Map<String, PlaceType> OSM_TAGS = Map.ofEntries(
+        Map.entry("shop=supermarket", PlaceType.GROCERY_OR_SUPERMARKET),
+        Map.entry("shop=grocery", PlaceType.GROCERY_OR_SUPERMARKET),
+        Map.entry("shop=greengrocer", PlaceType.GROCERY_OR_SUPERMARKET),
+        Map.entry("amenity=restaurant", PlaceType.RESTAURANT),
+        Map.entry("amenity=fast_food", PlaceType.RESTAURANT),
+        Map.entry("amenity=food_court", PlaceType.RESTAURANT),
+        Map.entry("amenity=cafe", PlaceType.CAFE),
+        Map.entry("amenity=bar", PlaceType.BAR),
+        Map.entry("amenity=pub", PlaceType.BAR),
+        Map.entry("leisure=park", PlaceType.PARK),
+        Map.entry("amenity=school", PlaceType.SCHOOL),
+        Map.entry("amenity=pharmacy", PlaceType.PHARMACY),
+        Map.entry("healthcare=pharmacy", PlaceType.PHARMACY),
+        Map.entry("leisure=fitness_centre", PlaceType.GYM),
+        Map.entry("amenity=library", PlaceType.LIBRARY),
+        Map.entry("shop=mall", PlaceType.SHOPPING_MALL),
+        Map.entry("amenity=cinema", PlaceType.MOVIE_THEATER),
+        Map.entry("tourism=museum", PlaceType.MUSEUM),
+        Map.entry("amenity=bank", PlaceType.BANK),
+        Map.entry("amenity=hospital", PlaceType.HOSPITAL),
+        Map.entry("amenity=post_office", PlaceType.POST_OFFICE),
+        Map.entry("highway=bus_stop", PlaceType.BUS_STATION),
+        Map.entry("railway=station", PlaceType.TRAIN_STATION)
+    );
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private PoiImporter() {}
+
+    /**
+     * Reads the features of a GeoJSON {@code FeatureCollection} and adds those with a known tag to a builder.
+     *
+     * @param in the GeoJSON to read
+     * @param builder the builder to add the places to
+     * @return the number of places added
+     * @throws IOException if the GeoJSON cannot be read
+     */
+    public static int importGeoJson(InputStream in, MappedPoiIndex.Builder builder) throws IOException {
+        int imported = 0;
+
+        try (JsonParser parser = MAPPER.getFactory().createParser(in)) {
+            JsonToken token;
+
+            while ((token = parser.nextToken()) != null) {
+                if (token != JsonToken.START_ARRAY || !"features".equals(parser.currentName())) {
+                    continue;
+                }
+
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    if (importFeature(MAPPER.readTree(parser), builder)) { // Only the current feature is held in memory
+                        imported++;
+                    }
+                }
+            }
+        }
+
+        return imported;
+    }
+
+    /**
+     * Returns the categories of a place from its OpenStreetMap tags.
+     *
+     * @param tags the tags of the place
+     * @return the Places API types of the place, empty if none of its tags is known
+     */
+    public static List<String> categoriesOf(Map<String, String> tags) {
+        Set<String> categories = new LinkedHashSet<>();
+
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            PlaceType type = OSM_TAGS.get(tag.getKey() + "=" + tag.getValue());
+            if (type != null) {
+                categories.add(type.toString());
+            }
+        }
+
+        return new ArrayList<>(categories);
+    }
+
+    /**
+     * Returns the address of a place from its {@code addr:*} tags, as "house number street, city, postcode".
+     *
+     * @param tags the tags of the place
+     * @return the address, or an empty string if the place has no address tags
+     */
+    public static String addressOf(Map<String, String> tags) {
+        List<String> parts = new ArrayList<>();
+        String street = (tags.getOrDefault("addr:housenumber", "") + " " + tags.getOrDefault("addr:street", "")).trim();
+
+        for (String part : new String[] { street, tags.get("addr:city"), tags.get("addr:postcode") }) {
+            if (part != null && !part.isEmpty()) {
+                parts.add(part);
+            }
+        }
+
+        return String.join(", ", parts);
+    }
+
+    private static boolean importFeature(JsonNode feature, MappedPoiIndex.Builder builder) {
+        JsonNode properties = feature.path("properties");
+        JsonNode tagNode = properties.path("tags").isObject() ? properties.path("tags") : properties;
+
+        Map<String, String> tags = new LinkedHashMap<>();
+        for (Iterator<Map.Entry<String, JsonNode>> fields = tagNode.fields(); fields.hasNext(); ) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            if (field.getValue().isValueNode()) {
+                tags.put(field.getKey(), field.getValue().asText());
+            }
+        }
+
+        List<String> categories = categoriesOf(tags);
+        double[] point = centerOf(feature.path("geometry").path("coordinates"));
+
+        if (categories.isEmpty() || point == null) {
+            return false;
+        }
+
+        String name = tags.get("name");
+        if (name == null || name.isBlank()) {
+            name = unnamed(tags);
+        }
+
+        builder.add(name, addressOf(tags), point[1], point[0], categories.toArray(new String[0]));
+        return true;
+    }
+
+    /**
+     * Returns the longitude and latitude of a geometry: the point itself, or the mean of the first ring or line.
+     */
+    private static double[] centerOf(JsonNode coordinates) {
+        if (!coordinates.isArray() || coordinates.isEmpty()) {
+            return null;
+        }
+
+        if (coordinates.get(0).isNumber()) { // A point
+            return coordinates.size() >= 2 ? new double[] { coordinates.get(0).asDouble(), coordinates.get(1).asDouble() } : null;
+        }
+
+        JsonNode positions = coordinates;
+        while (positions.get(0).isArray() && positions.get(0).get(0) != null && positions.get(0).get(0).isArray()) {
+            positions = positions.get(0); // Down to the first ring of the first polygon
+        }
+
+        double longitude = 0;
+        double latitude = 0;
+        int count = 0;
+        for (JsonNode position : positions) {
+            if (position.isArray() && position.size() >= 2) {
+                longitude += position.get(0).asDouble();
+                latitude += position.get(1).asDouble();
+                count++;
+            }
+        }
+
+        return (count == 0) ? null : new double[] { longitude / count, latitude / count };
+    }
+
+    /**
+     * Names an unnamed place after its first known tag, as in "fitness centre".
+     */
+    private static String unnamed(Map<String, String> tags) {
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            if (OSM_TAGS.containsKey(tag.getKey() + "=" + tag.getValue())) {
+                return tag.getValue().replace('_', ' ');
+            }
+        }
+        return "";
+    }
+
+    /**
+     * Imports an extract into an index file.
+     *
+     * @param args the GeoJSON extract, optionally gzipped, and the index file to write
+     * @throws IOException if the extract cannot be read or the index cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Usage: PoiImporter <extract.geojson[.gz]> <index.poi>");
+            System.exit(1);
+        }
+
+        Path extract = Path.of(args[0]);
+        Path indexFile = Path.of(args[1]);
+        long start = System.nanoTime();
+        MappedPoiIndex.Builder builder = new MappedPoiIndex.Builder();
+
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(extract), 1 << 16)) {
+            InputStream geoJson = extract.toString().endsWith(".gz") ? new GZIPInputStream(in, 1 << 16) : in;
+            importGeoJson(geoJson, builder);
+        }
+
+        builder.write(indexFile);
+
+        MappedPoiIndex index = MappedPoiIndex.open(indexFile);
+        System.out.println("Imported " + index.size() + " places from " + extract + " into " + indexFile + " ("
+                + index.getFileBytes() / 1024 + " KB) in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        for (String category : index.getCategories()) {
+            System.out.println("  " + category + ": " + index.size(category));
+        }
+    }
+}
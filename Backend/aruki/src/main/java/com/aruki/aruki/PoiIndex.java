@@ -0,0 +1,148 @@
+package com.aruki.aruki;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The {@code PoiIndex} class is an immutable KD-tree over a set of places, answering "which places are within
+ * this radius of a point" without calling any API.
+ * <p>
+ * Places are projected onto a local plane around the first place (equirectangular projection) and split
+ * alternately on x and y. A radius query walks only the branches whose splitting line is within the radius,
+ * then confirms each candidate with the great-circle distance.
+ * </p>
+ * <p>
+ * Places without coordinates cannot be placed in the tree; they are kept aside and returned by every query,
+ * leaving it to the walking-distance check to decide whether they are close enough.
+ * </p>
+ * <p>
+ * Example usage:
+ * <pre>
+ *     PoiIndex index = new PoiIndex(places);
+ *     List<Location> nearby = index.withinRadius(36.8529, -75.9780, 2000);
+ * </pre>
+ * </p>
+ *
+ * @see NearbySearchCache
+ * @see GeoMath
+ */
+public class PoiIndex {
+
+    private final Location[] points; // Places in tree order: the median of each range is its subtree root
+    private final double[] xs;
+    private final double[] ys;
+    private final List<Location> unlocated;
+    private final double referenceLatitude;
+
+    /**
+     * Constructs a PoiIndex over the specified places.
+     *
+     * @param places the places to index
+     */
+    public PoiIndex(List<Location> places) {
+        List<Location> located = new ArrayList<>();
+        List<Location> unlocated = new ArrayList<>();
+
+        for (Location place : places) {
+            if (place.hasCoordinates()) {
+                located.add(place);
+            } else {
+                unlocated.add(place);
+            }
+        }
+
+        this.unlocated = List.copyOf(unlocated);
+        this.referenceLatitude = located.isEmpty() ? 0 : located.get(0).getLatitude();
+        this.points = located.toArray(new Location[0]);
+        this.xs = new double[points.length];
+        this.ys = new double[points.length];
+
+        build(0, points.length, 0);
+
+        for (int i = 0; i < points.length; i++) {
+            xs[i] = x(points[i].getLongitude());
+            ys[i] = y(points[i].getLatitude());
+        }
+    }
+
+    /**
+     * Returns the places within the radius of a point. Places are immutable, so they are shared with the index.
+     *
+     * @param latitude the latitude of the point, in degrees
+     * @param longitude the longitude of the point, in degrees
+     * @param radiusMeters the radius, in meters
+     * @return the places within the radius, followed by the places without coordinates
+     */
+    public List<Location> withinRadius(double latitude, double longitude, double radiusMeters) {
+        List<Location> results = new ArrayList<>();
+        search(0, points.length, 0, latitude, longitude, x(longitude), y(latitude), radiusMeters, results);
+
+        for (Location place : unlocated) {
+            results.add(place);
+        }
+
+        return results;
+    }
+
+    /**
+     * Returns the number of places in the index.
+     *
+     * @return the number of places
+     */
+    public int size() {
+        return points.length + unlocated.size();
+    }
+
+    /**
+     * Arranges points[lo, hi) so that the median on the current axis is in the middle, with smaller points
+     * before it and larger points after it, then does the same for each half on the other axis.
+     */
+    private void build(int lo, int hi, int depth) {
+        if (hi - lo <= 1) {
+            return;
+        }
+
+        Comparator<Location> axis = (depth % 2 == 0)
+                ? Comparator.comparingDouble(Location::getLongitude)
+                : Comparator.comparingDouble(Location::getLatitude);
+        Arrays.sort(points, lo, hi, axis);
+
+        int mid = (lo + hi) >>> 1;
+        build(lo, mid, depth + 1);
+        build(mid + 1, hi, depth + 1);
+    }
+
+    private void search(int lo, int hi, int depth, double latitude, double longitude, double qx, double qy, double radius, List<Location> results) {
+        if (lo >= hi) {
+            return;
+        }
+
+        int mid = (lo + hi) >>> 1;
+        Location point = points[mid];
+
+        if (GeoMath.distanceMeters(latitude, longitude, point.getLatitude(), point.getLongitude()) <= radius) {
+            results.add(point);
+        }
+
+        // Projected distances are only approximate, so pad the pruning test slightly
+        double delta = (depth % 2 == 0) ? qx - xs[mid] : qy - ys[mid];
+        double slack = radius * 1.01;
+
+        if (delta <= slack) {
+            search(lo, mid, depth + 1, latitude, longitude, qx, qy, radius, results);
+        }
+        if (delta >= -slack) {
+            search(mid + 1, hi, depth + 1, latitude, longitude, qx, qy, radius, results);
+        }
+    }
+
+    private double x(double longitude) {
+        return longitude * GeoMath.metersPerDegreeLongitude(referenceLatitude);
+    }
+
+    private double y(double latitude) {
+        return latitude * GeoMath.metersPerDegreeLatitude();
+    }
+}
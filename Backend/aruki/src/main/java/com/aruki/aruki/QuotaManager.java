@@ -0,0 +1,207 @@
+package com.aruki.aruki;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * The {@code QuotaManager} class budgets the calls made to each Google Maps API, so that a traffic spike is
+ * smoothed out or turned away here instead of being answered by Google with {@code OVER_QUERY_LIMIT}.
+ * <p>
+ * Each {@link UpstreamApi} has its own {@link TokenBucket}. Geocoding and Places calls cost one token each; a
+ * Distance Matrix call costs one token per element (origin and destination pair), since that is what Google
+ * limits and bills. The buckets hold one second's worth of tokens, so short bursts go straight through.
+ * </p>
+ * <p>
+ * When a bucket is empty, a call waits for its tokens if they will be available within {@code maxWait}, which
+ * queues calls at the configured rate. Otherwise it fails fast with a {@link QuotaExceededException} telling the
+ * caller when to retry, which the controller reports as {@code 429 Too Many Requests} with a {@code Retry-After}
+ * header. A {@code maxWait} of zero never queues.
+ * </p>
+ * <p>
+ * The number of available tokens and of rejected calls per API are published as the {@code aruki.quota.available}
+ * gauge and the {@code aruki.quota.rejected} counter.
+ * </p>
+ * <p>
+ * Example usage:
+ * <pre>
+ *     QuotaManager quotaManager = new QuotaManager(50, 100, 1000, Duration.ofSeconds(1));
+ *     quotaManager.acquire(UpstreamApi.DISTANCE_MATRIX, origins * destinations);
+ * </pre>
+ * </p>
+ *
+ * @see TokenBucket
+ * @see APIManager
+ */
+public class QuotaManager implements MeterBinder {
+
+    public static final double DEFAULT_GEOCODING_RATE = 40;
+    public static final double DEFAULT_PLACES_RATE = 80;
+    public static final double DEFAULT_DISTANCE_MATRIX_RATE = 900;
+
+    private final Map<UpstreamApi, TokenBucket> buckets = new EnumMap<>(UpstreamApi.class);
+    private final Map<UpstreamApi, AtomicLong> rejected = new EnumMap<>(UpstreamApi.class);
+    private final long maxWaitNanos;
+
+    /**
+     * Constructs a QuotaManager with the default rates, which never queues calls.
+     */
+    public QuotaManager() {
+        this(DEFAULT_GEOCODING_RATE, DEFAULT_PLACES_RATE, DEFAULT_DISTANCE_MATRIX_RATE, Duration.ZERO);
+    }
+
+    /**
+     * Constructs a QuotaManager with the specified rate for each downstream API.
+     *
+     * @param geocodingRate the Geocoding requests allowed per second
+     * @param placesRate the Places requests allowed per second
+     * @param distanceMatrixRate the Distance Matrix elements allowed per second
+     * @param maxWait the longest a call waits for its quota before failing
+     */
+    public QuotaManager(double geocodingRate, double placesRate, double distanceMatrixRate, Duration maxWait) {
+        this(geocodingRate, placesRate, distanceMatrixRate, maxWait, System::nanoTime);
+    }
+
+    /**
+     * Constructs a QuotaManager that reads the time from the specified clock.
+     *
+     * @param geocodingRate the Geocoding requests allowed per second
+     * @param placesRate the Places requests allowed per second
+     * @param distanceMatrixRate the Distance Matrix elements allowed per second
+     * @param maxWait the longest a call waits for its quota before failing
+     * @param nanoClock the monotonic clock, in nanoseconds
+     */
+    QuotaManager(double geocodingRate, double placesRate, double distanceMatrixRate, Duration maxWait, LongSupplier nanoClock) {
+        buckets.put(UpstreamApi.GEOCODING, new TokenBucket(geocodingRate, geocodingRate, nanoClock));
+        buckets.put(UpstreamApi.PLACES, new TokenBucket(placesRate, placesRate, nanoClock));
+        buckets.put(UpstreamApi.DISTANCE_MATRIX, new TokenBucket(distanceMatrixRate, distanceMatrixRate, nanoClock));
+
+        for (UpstreamApi api : UpstreamApi.values()) {
+            rejected.put(api, new AtomicLong());
+        }
+
+        this.maxWaitNanos = maxWait.toNanos();
+    }
+
+    /**
+     * Takes the quota for a call, waiting for it if needed.
+     *
+     * @param downstream the API about to be called
+     * @param cost the tokens the call costs: 1, or the number of elements of a Distance Matrix call
+     * @throws QuotaExceededException if the quota will not be available within the maximum wait
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void acquire(UpstreamApi downstream, int cost) throws InterruptedException {
+        long waitNanos = reserve(downstream, cost);
+
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Takes the quota for a call without blocking.
+     *
+     * @param downstream the API about to be called
+     * @param cost the tokens the call costs: 1, or the number of elements of a Distance Matrix call
+     * @return a future that completes when the call may be made, or fails with a {@link QuotaExceededException}
+     */
+    public CompletableFuture<Void> acquireAsync(UpstreamApi downstream, int cost) {
+        long waitNanos;
+
+        try {
+            waitNanos = reserve(downstream, cost);
+        } catch (QuotaExceededException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        if (waitNanos == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return CompletableFuture.runAsync(() -> {}, CompletableFuture.delayedExecutor(waitNanos, TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * Registers the available token and rejected call metrics of each API.
+     *
+     * @param registry the registry to bind the metrics to
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (UpstreamApi api : UpstreamApi.values()) {
+            Gauge.builder("aruki.quota.available", buckets.get(api), TokenBucket::available)
+                    .description("Tokens left in the quota of the downstream API")
+                    .tag("downstream", api.getTag())
+                    .register(registry);
+            FunctionCounter.builder("aruki.quota.rejected", rejected.get(api), AtomicLong::get)
+                    .description("Calls turned away because the quota of the downstream API was exhausted")
+                    .tag("downstream", api.getTag())
+                    .register(registry);
+        }
+    }
+
+    /**
+     * Reserves the quota for a call, returning how long to wait before making it.
+     */
+    private long reserve(UpstreamApi downstream, int cost) {
+        long waitNanos = buckets.get(downstream).reserve(cost, maxWaitNanos);
+
+        if (waitNanos > maxWaitNanos) {
+            rejected.get(downstream).incrementAndGet();
+            throw new QuotaExceededException(downstream, Duration.ofNanos(waitNanos));
+        }
+
+        return waitNanos;
+    }
+
+    /**
+     * Thrown when a call to a Google Maps API is turned away because its quota is exhausted.
+     */
+    public static class QuotaExceededException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final UpstreamApi downstream;
+        private final Duration retryAfter;
+
+        /**
+         * Constructs a QuotaExceededException.
+         *
+         * @param downstream the API whose quota is exhausted
+         * @param retryAfter how long until the quota for the call would be available
+         */
+        public QuotaExceededException(UpstreamApi downstream, Duration retryAfter) {
+            super("Quota of the " + downstream.getTag() + " API exhausted, retry after " + retryAfter);
+            this.downstream = downstream;
+            this.retryAfter = retryAfter;
+        }
+
+        /**
+         * Returns the API whose quota is exhausted.
+         *
+         * @return the downstream API
+         */
+        public UpstreamApi getDownstream() {
+            return downstream;
+        }
+
+        /**
+         * Returns how long until the quota for the call would be available.
+         *
+         * @return the time to wait before retrying
+         */
+        public Duration getRetryAfter() {
+            return retryAfter;
+        }
+    }
+}
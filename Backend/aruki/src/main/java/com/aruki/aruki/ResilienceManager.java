@@ -0,0 +1,375 @@
+package com.aruki.aruki;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import com.google.maps.errors.ApiException;
+import com.google.maps.errors.UnknownErrorException;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * The {@code ResilienceManager} class wraps every call to a Google Maps API in a circuit breaker, bounded retries and,
+ * optionally, a hedged duplicate request.
+ * <p>
+ * Each call goes through three layers, outermost first:
+ * <ul>
+ *   <li>The {@link CircuitBreaker} of its {@link UpstreamApi}. While the breaker is open the call fails at once with a
+ *       {@link CircuitOpenException}, instead of waiting for a timeout from a downstream that is known to be failing.
+ *       Only failures that say something about Google's health count against the breaker: I/O errors (including
+ *       timeouts) and {@code UNKNOWN_ERROR} responses. A rejected request counts as an answer from a healthy
+ *       downstream, while an attempt that never reached Google, refused by the local quota or cancelled, counts
+ *       neither way.</li>
+ *   <li>Retries. The same transient failures are retried, up to {@code maxAttempts} attempts in all, after an
+ *       exponential backoff with full jitter, so that callers that failed together do not retry together. Every
+ *       Google Maps call made here is a read, so repeating one is safe.</li>
+ *   <li>Hedging. If an attempt has not completed after the hedge delay of its API, a duplicate request is sent and
+ *       whichever answers first wins; the other is cancelled. This cuts the tail latency of calls that happen to
+ *       land on a slow server, at the cost of the extra requests, which also take their quota. Hedging is off for
+ *       an API whose delay is zero, and is never done while its breaker is not closed.</li>
+ * </ul>
+ * </p>
+ * <p>
+ * Every decision is counted per API: {@code aruki.resilience.calls} by outcome (success, failure, rejected),
+ * {@code aruki.resilience.retries}, {@code aruki.resilience.hedges} by outcome (sent, won),
+ * {@code aruki.resilience.circuit.opened}, and the {@code aruki.resilience.circuit.state} gauge (0 closed,
+ * 1 half-open, 2 open).
+ * </p>
+ * <p>
+ * Example usage:
+ * <pre>
+ *     CompletableFuture<PlacesPage> page = resilienceManager.call(UpstreamApi.PLACES, () -> sendNearbySearch(center));
+ * </pre>
+ * </p>
+ *
+ * @see CircuitBreaker
+ * @see APIManager
+ */
+public class ResilienceManager implements MeterBinder {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final int DEFAULT_WINDOW_SIZE = 20;
+    public static final int DEFAULT_MINIMUM_CALLS = 10;
+    public static final double DEFAULT_FAILURE_RATE_THRESHOLD = 0.5;
+
+    private final int maxAttempts;
+    private final long retryBaseNanos;
+    private final long retryMaxNanos;
+    private final Map<UpstreamApi, CircuitBreaker> breakers = new EnumMap<>(UpstreamApi.class);
+    private final Map<UpstreamApi, Duration> hedgeDelays = new EnumMap<>(UpstreamApi.class);
+    private final Map<UpstreamApi, Counters> counters = new EnumMap<>(UpstreamApi.class);
+
+    /**
+     * Constructs a ResilienceManager with the default retries and circuit breakers, and no hedging.
+     */
+    public ResilienceManager() {
+        this(DEFAULT_MAX_ATTEMPTS, Duration.ofMillis(100), Duration.ofSeconds(1),
+                api -> new CircuitBreaker(api.getTag(), DEFAULT_WINDOW_SIZE, DEFAULT_MINIMUM_CALLS, DEFAULT_FAILURE_RATE_THRESHOLD, Duration.ofSeconds(30), System::nanoTime),
+                Map.of());
+    }
+
+    /**
+     * Constructs a ResilienceManager.
+     *
+     * @param maxAttempts the number of attempts a call may take, including the first
+     * @param retryBaseDelay the backoff before the first retry, doubled for each later one
+     * @param retryMaxDelay the largest backoff before a retry
+     * @param circuitBreakers creates the circuit breaker of each API
+     * @param hedgeDelays how long to wait before hedging a call to each API; APIs without a positive delay are not hedged
+     */
+    public ResilienceManager(int maxAttempts, Duration retryBaseDelay, Duration retryMaxDelay, Function<UpstreamApi, CircuitBreaker> circuitBreakers, Map<UpstreamApi, Duration> hedgeDelays) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Invalid number of attempts: " + maxAttempts);
+        }
+
+        this.maxAttempts = maxAttempts;
+        this.retryBaseNanos = retryBaseDelay.toNanos();
+        this.retryMaxNanos = retryMaxDelay.toNanos();
+
+        for (UpstreamApi api : UpstreamApi.values()) {
+            breakers.put(api, circuitBreakers.apply(api));
+            this.hedgeDelays.put(api, hedgeDelays.getOrDefault(api, Duration.ZERO));
+            counters.put(api, new Counters());
+        }
+    }
+
+    /**
+     * Makes a call through the circuit breaker, retries and hedging of its API.
+     *
+     * @param downstream the API the call goes to
+     * @param attempt sends one attempt of the call; it is invoked once per attempt and once per hedge
+     * @return a future for the result of the first successful attempt, or for the failure of the last one;
+     *         cancelling it cancels the attempts in flight
+     */
+    public <T> CompletableFuture<T> call(UpstreamApi downstream, Supplier<CompletableFuture<T>> attempt) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<T>> current = new AtomicReference<>();
+
+        result.whenComplete((value, failure) -> {
+            CompletableFuture<T> inFlight = current.get();
+            if (result.isCancelled() && inFlight != null) {
+                inFlight.cancel(true);
+            }
+        });
+
+        attempt(downstream, attempt, 1, result, current);
+        return result;
+    }
+
+    /**
+     * Returns the circuit breaker of an API.
+     *
+     * @param downstream the API
+     * @return its circuit breaker
+     */
+    public CircuitBreaker getCircuitBreaker(UpstreamApi downstream) {
+        return breakers.get(downstream);
+    }
+
+    /**
+     * Registers the call, retry, hedge and circuit breaker metrics of each API.
+     *
+     * @param registry the registry to bind the metrics to
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (UpstreamApi api : UpstreamApi.values()) {
+            Counters counts = counters.get(api);
+            CircuitBreaker breaker = breakers.get(api);
+
+            FunctionCounter.builder("aruki.resilience.calls", counts.succeeded, AtomicLong::get)
+                    .description("Calls to the downstream API, by outcome")
+                    .tags("downstream", api.getTag(), "outcome", "success")
+                    .register(registry);
+            FunctionCounter.builder("aruki.resilience.calls", counts.failed, AtomicLong::get)
+                    .description("Calls to the downstream API, by outcome")
+                    .tags("downstream", api.getTag(), "outcome", "failure")
+                    .register(registry);
+            FunctionCounter.builder("aruki.resilience.calls", counts.rejected, AtomicLong::get)
+                    .description("Calls to the downstream API, by outcome")
+                    .tags("downstream", api.getTag(), "outcome", "rejected")
+                    .register(registry);
+            FunctionCounter.builder("aruki.resilience.retries", counts.retries, AtomicLong::get)
+                    .description("Attempts repeated after a transient failure of the downstream API")
+                    .tag("downstream", api.getTag())
+                    .register(registry);
+            FunctionCounter.builder("aruki.resilience.hedges", counts.hedgesSent, AtomicLong::get)
+                    .description("Duplicate requests sent to the downstream API, and those that answered first")
+                    .tags("downstream", api.getTag(), "outcome", "sent")
+                    .register(registry);
+            FunctionCounter.builder("aruki.resilience.hedges", counts.hedgesWon, AtomicLong::get)
+                    .description("Duplicate requests sent to the downstream API, and those that answered first")
+                    .tags("downstream", api.getTag(), "outcome", "won")
+                    .register(registry);
+            FunctionCounter.builder("aruki.resilience.circuit.opened", breaker, CircuitBreaker::getTimesOpened)
+                    .description("Times the circuit breaker of the downstream API opened")
+                    .tag("downstream", api.getTag())
+                    .register(registry);
+            Gauge.builder("aruki.resilience.circuit.state", breaker, b -> b.getState().ordinal())
+                    .description("State of the circuit breaker of the downstream API: 0 closed, 1 half-open, 2 open")
+                    .tag("downstream", api.getTag())
+                    .register(registry);
+        }
+    }
+
+    /**
+     * Returns whether a failure is transient: worth retrying, and a sign that the downstream is unhealthy.
+     *
+     * @param failure the failure of an attempt
+     * @return true for I/O errors and {@code UNKNOWN_ERROR} responses
+     */
+    static boolean isTransient(Throwable failure) {
+        return failure instanceof IOException || failure instanceof UnknownErrorException;
+    }
+
+    /**
+     * Runs one attempt of a call, and schedules the next one if it fails with a transient error.
+     */
+    private <T> void attempt(UpstreamApi downstream, Supplier<CompletableFuture<T>> attempt, int number, CompletableFuture<T> result, AtomicReference<CompletableFuture<T>> current) {
+        if (result.isDone()) {
+            return; // Cancelled while waiting to retry
+        }
+
+        CircuitBreaker breaker = breakers.get(downstream);
+        Counters counts = counters.get(downstream);
+
+        if (!breaker.tryAcquire()) {
+            counts.rejected.incrementAndGet();
+            result.completeExceptionally(new CircuitOpenException(downstream, breaker.getRetryAfter()));
+            return;
+        }
+
+        CompletableFuture<T> inFlight = hedged(downstream, attempt, breaker, counts);
+        current.set(inFlight);
+
+        inFlight.whenComplete((value, failure) -> {
+            if (failure == null) {
+                breaker.onSuccess();
+                counts.succeeded.incrementAndGet();
+                result.complete(value);
+                return;
+            }
+
+            Throwable cause = FanOutExecutor.causeOf(failure);
+            boolean isTransient = isTransient(cause);
+
+            if (isTransient) {
+                breaker.onFailure();
+            } else if (cause instanceof ApiException) {
+                breaker.onSuccess(); // Google answered, so the downstream is healthy
+            } else {
+                breaker.onIgnored(); // Never reached Google, e.g. an exhausted quota or a cancelled attempt
+            }
+
+            if (isTransient && number < maxAttempts && !result.isDone()) {
+                counts.retries.incrementAndGet();
+                CompletableFuture.delayedExecutor(backoffNanos(number), TimeUnit.NANOSECONDS)
+                        .execute(() -> attempt(downstream, attempt, number + 1, result, current));
+            } else {
+                counts.failed.incrementAndGet();
+                result.completeExceptionally(cause);
+            }
+        });
+    }
+
+    /**
+     * Sends an attempt, and a duplicate of it if it is still in flight after the hedge delay. The first to succeed
+     * completes the returned future and the other is cancelled; if both fail, the last failure is returned.
+     */
+    private <T> CompletableFuture<T> hedged(UpstreamApi downstream, Supplier<CompletableFuture<T>> attempt, CircuitBreaker breaker, Counters counts) {
+        CompletableFuture<T> primary = attempt.get();
+        Duration delay = hedgeDelays.get(downstream);
+
+        if (delay.isZero() || delay.isNegative()) {
+            return primary;
+        }
+
+        CompletableFuture<T> first = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<T>> hedge = new AtomicReference<>();
+        AtomicInteger pending = new AtomicInteger(1);
+
+        primary.whenComplete((value, failure) -> {
+            if (failure == null) {
+                cancel(hedge.get()); // Before completing, so that callers never see the loser still running
+                first.complete(value);
+            } else if (pending.decrementAndGet() == 0) {
+                first.completeExceptionally(failure);
+            }
+        });
+
+        CompletableFuture.delayedExecutor(delay.toNanos(), TimeUnit.NANOSECONDS).execute(() -> {
+            if (first.isDone() || breaker.getState() != CircuitBreaker.State.CLOSED) {
+                return;
+            }
+
+            if (pending.getAndUpdate(count -> (count == 0) ? 0 : count + 1) == 0) {
+                return; // The primary failed in the meantime
+            }
+
+            counts.hedgesSent.incrementAndGet();
+            CompletableFuture<T> duplicate = attempt.get();
+            hedge.set(duplicate);
+
+            duplicate.whenComplete((value, failure) -> {
+                if (failure == null) {
+                    primary.cancel(true);
+                    if (first.complete(value)) {
+                        counts.hedgesWon.incrementAndGet();
+                    }
+                } else if (pending.decrementAndGet() == 0) {
+                    first.completeExceptionally(failure);
+                }
+            });
+        });
+
+        first.whenComplete((value, failure) -> {
+            if (first.isCancelled()) {
+                primary.cancel(true);
+                cancel(hedge.get());
+            }
+        });
+
+        return first;
+    }
+
+    /**
+     * Returns the backoff before a retry: a random delay up to the base delay doubled once per earlier retry, capped
+     * at the maximum delay.
+     */
+    private long backoffNanos(int attemptsMade) {
+        long ceiling = Math.min(retryMaxNanos, retryBaseNanos << Math.min(attemptsMade - 1, 30));
+        return (ceiling <= 0) ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private static void cancel(CompletableFuture<?> future) {
+        if (future != null) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * The decisions taken for one API.
+     */
+    private static class Counters {
+        final AtomicLong succeeded = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+        final AtomicLong retries = new AtomicLong();
+        final AtomicLong hedgesSent = new AtomicLong();
+        final AtomicLong hedgesWon = new AtomicLong();
+    }
+
+    /**
+     * Thrown when a call is refused because the circuit breaker of its API is open.
+     */
+    public static class CircuitOpenException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final UpstreamApi downstream;
+        private final Duration retryAfter;
+
+        /**
+         * Constructs a CircuitOpenException.
+         *
+         * @param downstream the API whose breaker is open
+         * @param retryAfter how long until the breaker lets a probe through
+         */
+        public CircuitOpenException(UpstreamApi downstream, Duration retryAfter) {
+            super("Circuit breaker of the " + downstream.getTag() + " API is open, retry after " + retryAfter);
+            this.downstream = downstream;
+            this.retryAfter = retryAfter;
+        }
+
+        /**
+         * Returns the API whose breaker is open.
+         *
+         * @return the downstream API
+         */
+        public UpstreamApi getDownstream() {
+            return downstream;
+        }
+
+        /**
+         * Returns how long until the breaker lets a probe through.
+         *
+         * @return the time to wait before retrying
+         */
+        public Duration getRetryAfter() {
+            return retryAfter;
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package com.aruki.aruki;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.google.maps.model.LatLng;
+
+/**
+ * The {@code ScoreGrid} class is a raster of walkability scores over a bounding box.
+ * <p>
+ * The box is divided into square cells of roughly the requested size, in rows from north to south and columns from
+ * west to east, and each cell holds the walkability score of its center. Like a GeoTIFF geotransform, the raster is
+ * fully described by its north-west corner, the size of a cell in degrees of latitude and longitude, and its number
+ * of rows and columns. A cell that could not be scored holds {@code NaN}.
+ * </p>
+ * <p>
+ * A grid is written in a compact binary format, so that it can be stored once and served as it is:
+ * <pre>
+ *     int    magic, "ARKG"
+ *     short  format version (1)
+ *     double north, west, latitude step, longitude step (degrees)
+ *     double cell size (meters)
+ *     int    rows, columns
+ *     float  score of each cell, row by row from the north-west corner
+ * </pre>
+ * All values are big-endian, so a grid costs 4 bytes per cell plus a 54 byte header.
+ * </p>
+ * <p>
+ * Example usage:
+ * <pre>
+ *     ScoreGrid grid = ScoreGrid.covering(36.84, -76.00, 36.86, -75.97, 250);
+ *     grid.setScore(0, 7.42);
+ *     grid.writeTo(out);
+ * </pre>
+ * </p>
+ *
+ * @see GridScorer
+ * @see ScoreGridStore
+ */
+public class ScoreGrid {
+
+    private static final int MAGIC = 0x41524B47; // "ARKG"
+    private static final short VERSION = 1;
+
+    private final double north;
+    private final double west;
+    private final double latitudeStep;
+    private final double longitudeStep;
+    private final double cellSizeMeters;
+    private final int rows;
+    private final int columns;
+    private final float[] scores;
+
+    /**
+     * Constructs an unscored ScoreGrid with the specified geometry.
+     *
+     * @param north the latitude of the northern edge, in degrees
+     * @param west the longitude of the western edge, in degrees
+     * @param latitudeStep the height of a cell, in degrees
+     * @param longitudeStep the width of a cell, in degrees
+     * @param cellSizeMeters the size of a cell, in meters
+     * @param rows the number of rows
+     * @param columns the number of columns
+     */
+    public ScoreGrid(double north, double west, double latitudeStep, double longitudeStep, double cellSizeMeters, int rows, int columns) {
+        this.north = north;
+        this.west = west;
+        this.latitudeStep = latitudeStep;
+        this.longitudeStep = longitudeStep;
+        this.cellSizeMeters = cellSizeMeters;
+        this.rows = rows;
+        this.columns = columns;
+        this.scores = new float[Math.multiplyExact(rows, columns)];
+
+        Arrays.fill(scores, Float.NaN);
+    }
+
+    /**
+     * Returns an unscored grid of square cells covering a bounding box. The cell width in degrees of longitude is
+     * taken at the middle latitude of the box.
+     *
+     * @param south the latitude of the southern edge, in degrees
+     * @param west the longitude of the western edge, in degrees
+     * @param north the latitude of the northern edge, in degrees
+     * @param east the longitude of the eastern edge, in degrees
+     * @param cellSizeMeters the size of a cell, in meters
+     * @return the grid
+     * @throws IllegalArgumentException if the box or the cell size is invalid
+     */
+    public static ScoreGrid covering(double south, double west, double north, double east, double cellSizeMeters) {
+        long cells = cellCount(south, west, north, east, cellSizeMeters);
+        double latitudeStep = cellSizeMeters / GeoMath.metersPerDegreeLatitude();
+        double longitudeStep = cellSizeMeters / GeoMath.metersPerDegreeLongitude((south + north) / 2);
+        int rows = (int) Math.ceil((north - south) / latitudeStep);
+
+        return new ScoreGrid(north, west, latitudeStep, longitudeStep, cellSizeMeters, rows, (int) (cells / rows));
+    }
+
+    /**
+     * Returns the number of cells of the grid covering a bounding box, without allocating it.
+     *
+     * @param south the latitude of the southern edge, in degrees
+     * @param west the longitude of the western edge, in degrees
+     * @param north the latitude of the northern edge, in degrees
+     * @param east the longitude of the eastern edge, in degrees
+     * @param cellSizeMeters the size of a cell, in meters
+     * @return the number of cells
+     * @throws IllegalArgumentException if the box or the cell size is invalid
+     */
+    public static long cellCount(double south, double west, double north, double east, double cellSizeMeters) {
+        if (!(south >= -90 && north <= 90 && south < north && west >= -180 && east <= 180 && west < east)) {
+            throw new IllegalArgumentException("Invalid bounding box: " + south + "," + west + "," + north + "," + east);
+        }
+        if (!(cellSizeMeters > 0)) {
+            throw new IllegalArgumentException("Invalid cell size: " + cellSizeMeters);
+        }
+
+        double latitudeStep = cellSizeMeters / GeoMath.metersPerDegreeLatitude();
+        double longitudeStep = cellSizeMeters / GeoMath.metersPerDegreeLongitude((south + north) / 2);
+
+        return (long) Math.ceil((north - south) / latitudeStep) * (long) Math.ceil((east - west) / longitudeStep);
+    }
+
+    /**
+     * Reads a grid written by {@link #writeTo(OutputStream)}.
+     *
+     * @param in the stream to read from
+     * @return the grid
+     * @throws IOException if the stream cannot be read or does not hold a grid
+     */
+    public static ScoreGrid readFrom(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a score grid");
+        }
+        short version = data.readShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported score grid version: " + version);
+        }
+
+        ScoreGrid grid = new ScoreGrid(data.readDouble(), data.readDouble(), data.readDouble(), data.readDouble(), data.readDouble(), data.readInt(), data.readInt());
+
+        for (int i = 0; i < grid.scores.length; i++) {
+            grid.scores[i] = data.readFloat();
+        }
+
+        return grid;
+    }
+
+    /**
+     * Writes the grid in its binary format. The stream is flushed but not closed.
+     *
+     * @param out the stream to write to
+     * @throws IOException if the stream cannot be written
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+
+        data.writeInt(MAGIC);
+        data.writeShort(VERSION);
+        data.writeDouble(north);
+        data.writeDouble(west);
+        data.writeDouble(latitudeStep);
+        data.writeDouble(longitudeStep);
+        data.writeDouble(cellSizeMeters);
+        data.writeInt(rows);
+        data.writeInt(columns);
+
+        for (float score : scores) {
+            data.writeFloat(score);
+        }
+
+        data.flush();
+    }
+
+    /**
+     * Returns the center of a cell.
+     *
+     * @param index the index of the cell, row by row from the north-west corner
+     * @return the center of the cell
+     */
+    public LatLng cellCenter(int index) {
+        int row = index / columns;
+        int column = index % columns;
+        return new LatLng(north - (row + 0.5) * latitudeStep, west + (column + 0.5) * longitudeStep);
+    }
+
+    /**
+     * Returns the score of a cell.
+     *
+     * @param row the row of the cell, from the north
+     * @param column the column of the cell, from the west
+     * @return the walkability score of the cell, or NaN if it was not scored
+     */
+    public double getScore(int row, int column) {
+        return scores[row * columns + column];
+    }
+
+    /**
+     * Sets the score of a cell.
+     *
+     * @param index the index of the cell, row by row from the north-west corner
+     * @param score the walkability score of the cell
+     */
+    public void setScore(int index, double score) {
+        scores[index] = (float) score;
+    }
+
+    /**
+     * Returns the number of cells in the grid.
+     *
+     * @return the number of cells
+     */
+    @JsonIgnore
+    public int getCellCount() {
+        return scores.length;
+    }
+
+    /**
+     * Returns the latitude of the northern edge of the grid.
+     *
+     * @return the latitude of the northern edge, in degrees
+     */
+    public double getNorth() {
+        return north;
+    }
+
+    /**
+     * Returns the longitude of the western edge of the grid.
+     *
+     * @return the longitude of the western edge, in degrees
+     */
+    public double getWest() {
+        return west;
+    }
+
+    /**
+     * Returns the latitude of the southern edge of the grid, which may lie slightly south of the box it covers.
+     *
+     * @return the latitude of the southern edge, in degrees
+     */
+    public double getSouth() {
+        return north - rows * latitudeStep;
+    }
+
+    /**
+     * Returns the longitude of the eastern edge of the grid, which may lie slightly east of the box it covers.
+     *
+     * @return the longitude of the eastern edge, in degrees
+     */
+    public double getEast() {
+        return west + columns * longitudeStep;
+    }
+
+    /**
+     * Returns the height of a cell.
+     *
+     * @return the height of a cell, in degrees of latitude
+     */
+    public double getLatitudeStep() {
+        return latitudeStep;
+    }
+
+    /**
+     * Returns the width of a cell.
+     *
+     * @return the width of a cell, in degrees of longitude
+     */
+    public double getLongitudeStep() {
+        return longitudeStep;
+    }
+
+    /**
+     * Returns the size of a cell.
+     *
+     * @return the size of a cell, in meters
+     */
+    public double getCellSizeMeters() {
+        return cellSizeMeters;
+    }
+
+    /**
+     * Returns the number of rows.
+     *
+     * @return the number of rows
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Returns the number of columns.
+     *
+     * @return the number of columns
+     */
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * Returns a string representation of the grid's geometry in JSON format.
+     *
+     * @return a string representation of the grid
+     */
+    @Override
+    public String toString() {
+        return "{\"north\":" + north + ",\"west\":" + west + ",\"rows\":" + rows + ",\"columns\":" + columns + ",\"cellSizeMeters\":" + cellSizeMeters + "}";
+    }
+}
@@ -0,0 +1,140 @@
+package com.aruki.aruki;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * The {@code ScoreGridStore} class keeps computed {@link ScoreGrid}s on disk, so that a heatmap is computed once and
+ * then served as a file.
+ * <p>
+ * A grid is identified by the bounding box and cell size it was requested with, rounded to about 10 cm, and by the
+ * scoring configuration and providers it is scored with, so the same request always maps to the same stored grid and
+ * a stored grid never changes: changing the scoring weights or switching to the offline providers gives new ids.
+ * Grids are written to a temporary file and moved into place, so a reader never sees a partial grid.
+ * </p>
+ * <p>
+ * Example usage:
+ * <pre>
+ *     String id = ScoreGridStore.idOf(36.84, -76.00, 36.86, -75.97, 250, gridScorer.getScoringIdentity());
+ *     if (!store.contains(id)) {
+ *         store.save(id, gridScorer.score(36.84, -76.00, 36.86, -75.97, 250, stats, false));
+ *     }
+ * </pre>
+ * </p>
+ *
+ * @see ScoreGrid
+ * @see GridScorer
+ */
+public class ScoreGridStore {
+
+    private static final Pattern GRID_ID = Pattern.compile("[0-9a-f]{16}");
+
+    private final Path directory;
+
+    /**
+     * Constructs a ScoreGridStore over a directory, which is created when the first grid is saved.
+     *
+     * @param directory the directory grids are stored in
+     */
+    public ScoreGridStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the id of the grid covering a bounding box with the specified cell size.
+     *
+     * @param south the latitude of the southern edge, in degrees
+     * @param west the longitude of the western edge, in degrees
+     * @param north the latitude of the northern edge, in degrees
+     * @param east the longitude of the eastern edge, in degrees
+     * @param cellSizeMeters the size of a cell, in meters
+     * @param scoringIdentity the scoring configuration and providers the grid is scored with (see {@link GridScorer#getScoringIdentity()})
+     * @return the id of the grid
+     */
+    public static String idOf(double south, double west, double north, double east, double cellSizeMeters, String scoringIdentity) {
+        String request = String.format(Locale.ROOT, "%.6f,%.6f,%.6f,%.6f,%.1f,%s", south, west, north, east, cellSizeMeters, scoringIdentity);
+
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(request.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Every JVM provides SHA-256
+        }
+    }
+
+    /**
+     * Returns whether a grid is stored.
+     *
+     * @param id the id of the grid
+     * @return true if the grid is stored
+     */
+    public boolean contains(String id) {
+        return isValidId(id) && Files.exists(pathOf(id));
+    }
+
+    /**
+     * Returns the file of a stored grid, in the format written by {@link ScoreGrid#writeTo(OutputStream)}.
+     *
+     * @param id the id of the grid
+     * @return the path of the grid, or null if the id is not valid
+     */
+    public Path pathOf(String id) {
+        return isValidId(id) ? directory.resolve(id + ".grid") : null;
+    }
+
+    /**
+     * Loads a stored grid.
+     *
+     * @param id the id of the grid
+     * @return the grid
+     * @throws IOException if the grid is not stored or cannot be read
+     */
+    public ScoreGrid load(String id) throws IOException {
+        if (!isValidId(id)) {
+            throw new IOException("Invalid grid id: " + id);
+        }
+
+        try (InputStream in = Files.newInputStream(pathOf(id))) {
+            return ScoreGrid.readFrom(in);
+        }
+    }
+
+    /**
+     * Stores a grid, replacing any grid stored with the same id.
+     *
+     * @param id the id of the grid
+     * @param grid the grid
+     * @throws IOException if the grid cannot be written
+     */
+    public void save(String id, ScoreGrid grid) throws IOException {
+        if (!isValidId(id)) {
+            throw new IOException("Invalid grid id: " + id);
+        }
+
+        Files.createDirectories(directory);
+
+        Path temporary = Files.createTempFile(directory, id, ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temporary)) {
+                grid.writeTo(out);
+            }
+            Files.move(temporary, pathOf(id), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static boolean isValidId(String id) {
+        return id != null && GRID_ID.matcher(id).matches();
+    }
+}
@@ -0,0 +1,602 @@
+package com.aruki.aruki;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongSupplier;
+import java.util.zip.CRC32;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * The {@code ScoreStore} class is an embedded, file-backed store of walkability scores that survives restarts.
+ * <p>
+ * Scores are appended to a single log file, one record per score, and found through an in-memory hash index that
+ * holds no keys: each slot keeps a 64-bit fingerprint of its key, the offset and size of its latest record and its
+ * expiry, in parallel primitive arrays (28 bytes per entry, so millions of entries cost tens of megabytes). A lookup
+ * is one probe of the index and one positional read of the record, whose key is compared to make sure the
+ * fingerprint did not collide.
+ * </p>
+ * <p>
+ * Each record is {@code [int length][int crc32][long expiresAtMillis][utf key][score]}. On open the log is scanned
+ * once to rebuild the index; a record torn by a crash fails its checksum and the log is truncated before it.
+ * Records are not forced to disk one by one: a score is cheap to recompute, so a crash may lose the last few.
+ * </p>
+ * <p>
+ * Replaced and expired records stay in the log until it is compacted: the live records are copied to a new file,
+ * which atomically replaces the log. Compaction runs on open, and in the background once more than
+ * {@code garbageRatio} of the log is dead.
+ * </p>
+ * <p>
+ * Example usage:
+ * <pre>
+ *     try (ScoreStore store = ScoreStore.open(Path.of("scores.log"), Duration.ofDays(30), 0.5)) {
+ *         store.put("v1|ChIJd8BlQ2BZwokRAFUEcm_qrcA", score);
+ *         ScoreResponse cached = store.get("v1|ChIJd8BlQ2BZwokRAFUEcm_qrcA");
+ *     }
+ * </pre>
+ * </p>
+ *
+ * @see LocationManager
+ * @see ScoringEngine#getVersion()
+ */
+public class ScoreStore implements MeterBinder, AutoCloseable {
+
+    public static final Duration DEFAULT_TTL = Duration.ofDays(30);
+    public static final double DEFAULT_GARBAGE_RATIO = 0.5;
+
+    private static final int HEADER_BYTES = 8; // Length and checksum
+    private static final int MAX_RECORD_BYTES = 1 << 20;
+    private static final long MIN_COMPACTION_BYTES = 1 << 20; // Logs smaller than this are never worth compacting
+    private static final int INITIAL_CAPACITY = 1 << 10;
+
+    private final Path file;
+    private final long ttlMillis;
+    private final double garbageRatio;
+    private final LongSupplier clock;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicBoolean compacting = new AtomicBoolean();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private FileChannel channel;
+    private long fileBytes;
+    private long liveBytes;
+    private int size;
+
+    // Open-addressing index; a fingerprint of 0 marks an empty slot
+    private long[] fingerprints = new long[INITIAL_CAPACITY];
+    private long[] offsets = new long[INITIAL_CAPACITY];
+    private long[] expiries = new long[INITIAL_CAPACITY];
+    private int[] sizes = new int[INITIAL_CAPACITY];
+
+    /**
+     * Constructs a ScoreStore over a log file. Use {@link #open} to also load and compact the log.
+     *
+     * @param file the log file, created if it does not exist
+     * @param ttl how long a score stays valid after it is stored
+     * @param garbageRatio the share of dead bytes in the log above which it is compacted
+     * @param clock the wall clock, in milliseconds since the epoch
+     */
+    ScoreStore(Path file, Duration ttl, double garbageRatio, LongSupplier clock) {
+        this.file = file;
+        this.ttlMillis = ttl.toMillis();
+        this.garbageRatio = garbageRatio;
+        this.clock = clock;
+    }
+
+    /**
+     * Opens a store, rebuilding its index from the log and compacting the log if enough of it is dead.
+     *
+     * @param file the log file, created if it does not exist
+     * @param ttl how long a score stays valid after it is stored
+     * @param garbageRatio the share of dead bytes in the log above which it is compacted
+     * @return the store
+     * @throws IOException if the log cannot be read or created
+     */
+    public static ScoreStore open(Path file, Duration ttl, double garbageRatio) throws IOException {
+        return open(file, ttl, garbageRatio, System::currentTimeMillis);
+    }
+
+    /**
+     * Opens a store that reads the time from the specified clock.
+     *
+     * @param file the log file, created if it does not exist
+     * @param ttl how long a score stays valid after it is stored
+     * @param garbageRatio the share of dead bytes in the log above which it is compacted
+     * @param clock the wall clock, in milliseconds since the epoch
+     * @return the store
+     * @throws IOException if the log cannot be read or created
+     */
+    static ScoreStore open(Path file, Duration ttl, double garbageRatio, LongSupplier clock) throws IOException {
+        ScoreStore store = new ScoreStore(file, ttl, garbageRatio, clock);
+        store.load();
+
+        if (store.needsCompaction()) {
+            store.compact();
+        }
+
+        return store;
+    }
+
+    /**
+     * Returns the score stored for the key, counting the lookup as a hit or a miss.
+     *
+     * @param key the key to look up
+     * @return the stored score, or null if there is no valid score for the key
+     */
+    public ScoreResponse get(String key) {
+        long fingerprint = fingerprint(key);
+
+        lock.readLock().lock();
+        try {
+            int slot = find(fingerprint);
+
+            if (slot >= 0 && expiries[slot] > clock.getAsLong()) {
+                Record record = readRecord(offsets[slot], sizes[slot]);
+
+                if (record != null && record.key.equals(key)) {
+                    hits.incrementAndGet();
+                    return record.score;
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Could not read score " + key + ": " + e.getMessage());
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Stores a score for the key, replacing any previous score.
+     *
+     * @param key the key to store the score under
+     * @param score the score to store
+     */
+    public void put(String key, ScoreResponse score) {
+        long expiresAt = clock.getAsLong() + ttlMillis;
+        ByteBuffer record = encode(key, expiresAt, score);
+
+        lock.writeLock().lock();
+        try {
+            long offset = fileBytes;
+            while (record.hasRemaining()) {
+                channel.write(record, offset + record.position());
+            }
+
+            fileBytes += record.limit();
+            index(fingerprint(key), offset, record.limit(), expiresAt);
+        } catch (IOException e) {
+            System.out.println("Could not store score " + key + ": " + e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        if (needsCompaction() && compacting.compareAndSet(false, true)) {
+            Thread.ofVirtual().name("score-store-compaction").start(() -> {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    System.out.println("Could not compact score store: " + e.getMessage());
+                } finally {
+                    compacting.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * Rewrites the log with only its live records: the latest, unexpired record of each key. Lookups and writes wait
+     * while the log is compacted.
+     *
+     * @throws IOException if the new log cannot be written
+     */
+    public void compact() throws IOException {
+        Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+
+        lock.writeLock().lock();
+        try {
+            long now = clock.getAsLong();
+            int before = size;
+            long bytesBefore = fileBytes;
+
+            long[] newFingerprints = new long[fingerprints.length];
+            long[] newOffsets = new long[fingerprints.length];
+            long[] newExpiries = new long[fingerprints.length];
+            int[] newSizes = new int[fingerprints.length];
+            long written = 0;
+            int kept = 0;
+
+            try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                for (int slot = 0; slot < fingerprints.length; slot++) {
+                    if (fingerprints[slot] == 0 || expiries[slot] <= now) {
+                        continue;
+                    }
+
+                    ByteBuffer record = ByteBuffer.allocate(sizes[slot]);
+                    readFully(channel, record, offsets[slot]);
+                    record.flip();
+                    while (record.hasRemaining()) {
+                        out.write(record);
+                    }
+
+                    newFingerprints[slot] = fingerprints[slot];
+                    newOffsets[slot] = written;
+                    newExpiries[slot] = expiries[slot];
+                    newSizes[slot] = sizes[slot];
+                    written += sizes[slot];
+                    kept++;
+                }
+
+                out.force(true);
+            }
+
+            channel.close();
+            Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+            fingerprints = newFingerprints;
+            offsets = newOffsets;
+            expiries = newExpiries;
+            sizes = newSizes;
+            fileBytes = written;
+            liveBytes = written;
+            size = kept;
+
+            // Dropping expired slots breaks their probe sequences, so reinsert the survivors into a right-sized index
+            rehash(Math.max(INITIAL_CAPACITY, Integer.highestOneBit(Math.max(1, kept)) * 4));
+
+            System.out.println("Compacted score store from " + bytesBefore + " to " + written + " bytes (" + before + " to " + kept + " scores)");
+        } finally {
+            Files.deleteIfExists(compacted);
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Forces the log to disk and closes it.
+     */
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            if (channel != null && channel.isOpen()) {
+                channel.force(true);
+                channel.close();
+            }
+        } catch (IOException e) {
+            System.out.println("Could not close score store: " + e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of scores in the index, including ones that have expired but not yet been compacted.
+     *
+     * @return the number of scores
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the size of the log, including dead records.
+     *
+     * @return the size of the log, in bytes
+     */
+    public long getFileBytes() {
+        lock.readLock().lock();
+        try {
+            return fileBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of lookups that found a valid score.
+     *
+     * @return the number of hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups that did not find a valid score.
+     *
+     * @return the number of misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Registers the hit, miss, size and file size metrics of the store.
+     *
+     * @param registry the registry to bind the metrics to
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("aruki.score_store.hits", hits, AtomicLong::get).register(registry);
+        FunctionCounter.builder("aruki.score_store.misses", misses, AtomicLong::get).register(registry);
+        Gauge.builder("aruki.score_store.size", this, ScoreStore::size).register(registry);
+        Gauge.builder("aruki.score_store.file_bytes", this, ScoreStore::getFileBytes).register(registry);
+    }
+
+    /**
+     * Opens the log and indexes its records, truncating it after the last intact record.
+     *
+     * @throws IOException if the log cannot be read or created
+     */
+    private void load() throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long now = clock.getAsLong();
+        long offset = 0;
+
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 1 << 16)) {
+            DataInputStream data = new DataInputStream(in);
+
+            while (true) {
+                int length;
+                try {
+                    length = data.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                if (length < 4 || length > MAX_RECORD_BYTES) {
+                    break;
+                }
+
+                byte[] body = new byte[length];
+                try {
+                    data.readFully(body);
+                } catch (EOFException e) {
+                    break;
+                }
+
+                Record record = decode(body);
+                if (record == null) {
+                    break;
+                }
+
+                int recordBytes = 4 + length;
+                if (record.expiresAt > now) {
+                    index(fingerprint(record.key), offset, recordBytes, record.expiresAt);
+                }
+
+                offset += recordBytes;
+            }
+        }
+
+        if (offset < channel.size()) {
+            System.out.println("Truncating score store " + file + " from " + channel.size() + " to " + offset + " bytes after a torn record");
+            channel.truncate(offset);
+        }
+
+        fileBytes = offset;
+        System.out.println("Loaded " + size + " scores from " + file);
+    }
+
+    /**
+     * Points the key's slot at a record, replacing the record it pointed at.
+     */
+    private void index(long fingerprint, long offset, int recordBytes, long expiresAt) {
+        if ((size + 1) * 2L > fingerprints.length) {
+            rehash(fingerprints.length * 2);
+        }
+
+        int slot = find(fingerprint);
+        if (slot >= 0) {
+            liveBytes -= sizes[slot];
+        } else {
+            slot = -slot - 1;
+            fingerprints[slot] = fingerprint;
+            size++;
+        }
+
+        offsets[slot] = offset;
+        sizes[slot] = recordBytes;
+        expiries[slot] = expiresAt;
+        liveBytes += recordBytes;
+    }
+
+    /**
+     * Returns the slot of a fingerprint, or {@code -(insertion slot) - 1} if it is not in the index.
+     */
+    private int find(long fingerprint) {
+        int mask = fingerprints.length - 1;
+        int slot = (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+
+        while (fingerprints[slot] != 0) {
+            if (fingerprints[slot] == fingerprint) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        return -slot - 1;
+    }
+
+    /**
+     * Rebuilds the index with the specified capacity, dropping empty slots.
+     */
+    private void rehash(int capacity) {
+        long[] oldFingerprints = fingerprints;
+        long[] oldOffsets = offsets;
+        long[] oldExpiries = expiries;
+        int[] oldSizes = sizes;
+
+        fingerprints = new long[capacity];
+        offsets = new long[capacity];
+        expiries = new long[capacity];
+        sizes = new int[capacity];
+
+        for (int i = 0; i < oldFingerprints.length; i++) {
+            if (oldFingerprints[i] != 0) {
+                int slot = -find(oldFingerprints[i]) - 1;
+                fingerprints[slot] = oldFingerprints[i];
+                offsets[slot] = oldOffsets[i];
+                expiries[slot] = oldExpiries[i];
+                sizes[slot] = oldSizes[i];
+            }
+        }
+    }
+
+    private boolean needsCompaction() {
+        lock.readLock().lock();
+        try {
+            return fileBytes >= MIN_COMPACTION_BYTES && fileBytes - liveBytes > fileBytes * garbageRatio;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Record readRecord(long offset, int recordBytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(recordBytes);
+        readFully(channel, buffer, offset);
+
+        byte[] body = new byte[recordBytes - 4];
+        buffer.position(4);
+        buffer.get(body);
+        return decode(body);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("Score store record at " + offset + " is truncated");
+            }
+        }
+    }
+
+    /**
+     * Encodes a record: its length, the checksum of its body, then the body.
+     */
+    private static ByteBuffer encode(String key, long expiresAt, ScoreResponse score) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream body = new DataOutputStream(bytes);
+
+            body.writeLong(expiresAt);
+            body.writeUTF(key);
+            body.writeDouble(score.getWalkabilityScore());
+
+            List<CategoryScore> categories = (score.getCategoryScores() != null) ? score.getCategoryScores() : List.of();
+            body.writeShort(categories.size());
+            for (CategoryScore category : categories) {
+                body.writeUTF(category.category);
+                body.writeDouble(category.score);
+                body.writeInt(category.closePlaces);
+                body.writeInt(category.mediumPlaces);
+                body.writeInt(category.farPlaces);
+            }
+
+            byte[] payload = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+
+            ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+            record.putInt(4 + payload.length);
+            record.putInt((int) crc.getValue());
+            record.put(payload);
+            record.flip();
+            return record;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Writing to memory does not fail
+        }
+    }
+
+    /**
+     * Decodes the body of a record (everything after its length), or returns null if its checksum does not match.
+     */
+    private static Record decode(byte[] body) {
+        ByteBuffer buffer = ByteBuffer.wrap(body);
+        int checksum = buffer.getInt();
+
+        CRC32 crc = new CRC32();
+        crc.update(body, 4, body.length - 4);
+        if ((int) crc.getValue() != checksum) {
+            return null;
+        }
+
+        try {
+            DataInputStream data = new DataInputStream(new ByteArrayInputStream(body, 4, body.length - 4));
+
+            long expiresAt = data.readLong();
+            String key = data.readUTF();
+            double walkabilityScore = data.readDouble();
+            int count = data.readShort();
+
+            List<CategoryScore> categories = new ArrayList<CategoryScore>(count);
+            for (int i = 0; i < count; i++) {
+                categories.add(new CategoryScore(data.readUTF(), data.readDouble(), data.readInt(), data.readInt(), data.readInt()));
+            }
+
+            return new Record(key, expiresAt, new ScoreResponse(walkabilityScore, categories));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns a 64-bit fingerprint of a key (FNV-1a over its UTF-8 bytes), never 0.
+     */
+    static long fingerprint(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+
+        // Spread the bits, since the low bits pick the slot
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+
+        return (hash != 0) ? hash : 1;
+    }
+
+    /**
+     * A decoded record.
+     */
+    private record Record(String key, long expiresAt, ScoreResponse score) {}
+}
@@ -0,0 +1,293 @@
+package com.aruki.aruki;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+import com.google.maps.model.PlaceType;
+
+/**
+ * The {@code ScoringEngine} class calculates the walkability score of a location from the places near it.
+ * <p>
+ * Every scored category is given an index once, when the engine is created, and the type strings Google uses
+ * (e.g. "restaurant") are mapped to those indexes with a single hash lookup. Scores and place counts are accumulated
+ * into primitive arrays indexed by category, and are only rounded to 2 decimal places when the result is read, so
+ * scoring a location allocates nothing but its response.
+ * </p>
+ * <p>
+ * Each place adds {@code weight * exp(-distance / searchRadius)} to the overall score for every scored category it
+ * belongs to, and {@code exp(-distance / searchRadius)} to the score of that category. A place whose distance is
+ * not known is skipped, adding neither to the scores nor to the place counts.
+ * </p>
+ * <p>
+ * Example usage:
+ * <pre>
+ *     ScoringEngine engine = new ScoringEngine(LocationManager.CATEGORY_CONSTANTS, 2000, 500, 1000, 2000);
+ *     ScoreResponse score = engine.score(places);
+ *
+ *     // Batch workloads can reuse one accumulator per thread
+ *     ScoringEngine.Accumulator accumulator = engine.newAccumulator();
+ *     for (List&lt;Location&gt; origin : origins) {
+ *         accumulator.reset();
+ *         accumulator.addAll(origin);
+ *         double walkability = accumulator.getWalkabilityScore();
+ *     }
+ * </pre>
+ * </p>
+ *
+ * @see LocationManager
+ * @see ScoreResponse
+ */
+public final class ScoringEngine {
+
+    private final PlaceType[] categories;
+    private final String[] categoryNames;
+    private final double[] weights;
+    private final Map<String, Integer> categoryIndexes;
+    private final double searchRadiusMeters;
+    private final double closeMeters;
+    private final double mediumMeters;
+    private final double farMeters;
+    private final String version;
+
+    /**
+     * Constructs a ScoringEngine with the specified category weights and distance thresholds.
+     *
+     * @param categoryWeights the weight of each scored category; the categories are reported in iteration order
+     * @param searchRadiusMeters the search radius, which scales the distance penalty, in meters
+     * @param closeMeters the largest distance of a close place, in meters
+     * @param mediumMeters the largest distance of a medium place, in meters
+     * @param farMeters the largest distance of a far place, in meters
+     */
+    public ScoringEngine(Map<PlaceType, Double> categoryWeights, double searchRadiusMeters, double closeMeters, double mediumMeters, double farMeters) {
+        int size = categoryWeights.size();
+
+        this.categories = new PlaceType[size];
+        this.categoryNames = new String[size];
+        this.weights = new double[size];
+        this.categoryIndexes = new HashMap<String, Integer>(size * 2);
+
+        int index = 0;
+        for (Map.Entry<PlaceType, Double> entry : categoryWeights.entrySet()) {
+            categories[index] = entry.getKey();
+            categoryNames[index] = entry.getKey().toString();
+            weights[index] = entry.getValue();
+            categoryIndexes.put(categoryNames[index], index);
+            index++;
+        }
+
+        this.searchRadiusMeters = searchRadiusMeters;
+        this.closeMeters = closeMeters;
+        this.mediumMeters = mediumMeters;
+        this.farMeters = farMeters;
+        this.version = version(categoryWeights, searchRadiusMeters, closeMeters, mediumMeters, farMeters);
+    }
+
+    /**
+     * Returns the index of a scored category.
+     *
+     * @param type the type string of a place, e.g. "restaurant"
+     * @return the index of the category, or -1 if the type is not scored
+     */
+    public int categoryIndex(String type) {
+        Integer index = categoryIndexes.get(type);
+        return (index != null) ? index : -1;
+    }
+
+    /**
+     * Returns the scored categories, in the order they are reported.
+     *
+     * @return the scored categories
+     */
+    public List<PlaceType> getCategories() {
+        return List.of(categories);
+    }
+
+    /**
+     * Returns the search radius of the engine. Places further than this do not count towards a score.
+     *
+     * @return the search radius, in meters
+     */
+    public double getSearchRadiusMeters() {
+        return searchRadiusMeters;
+    }
+
+    /**
+     * Returns the version of the scoring configuration: a short hash of the category weights and distance
+     * thresholds. Any change to them changes the version, so scores stored under an older configuration are not
+     * served again.
+     *
+     * @return the version of the configuration
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * Creates an accumulator for this engine. An accumulator is not thread safe, but can be reset and reused.
+     *
+     * @return a new, empty accumulator
+     */
+    public Accumulator newAccumulator() {
+        return new Accumulator();
+    }
+
+    /**
+     * Calculates the score of a location from its places.
+     *
+     * @param places the verified places near the location
+     * @return the score of the location
+     */
+    public ScoreResponse score(List<Location> places) {
+        Accumulator accumulator = new Accumulator();
+        accumulator.addAll(places);
+        return accumulator.toScoreResponse();
+    }
+
+    /**
+     * Hashes a scoring configuration. Categories are sorted first, since the iteration order of the weights may
+     * differ from one run to the next.
+     */
+    private static String version(Map<PlaceType, Double> categoryWeights, double searchRadiusMeters, double closeMeters, double mediumMeters, double farMeters) {
+        StringBuilder configuration = new StringBuilder();
+
+        categoryWeights.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey(Comparator.comparing(PlaceType::toString)))
+                .forEach(entry -> configuration.append(entry.getKey()).append('=').append(entry.getValue()).append(';'));
+        configuration.append(searchRadiusMeters).append(';').append(closeMeters).append(';').append(mediumMeters).append(';').append(farMeters);
+
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(configuration.toString().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 4);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Every JVM provides SHA-256
+        }
+    }
+
+    /**
+     * Rounds a score to 2 decimal places.
+     *
+     * @param score the score
+     * @return the rounded score
+     */
+    private static double round(double score) {
+        return Math.round(score * 100.0) / 100.0;
+    }
+
+    /**
+     * The {@code Accumulator} class accumulates the score of one location, one place at a time.
+     */
+    public final class Accumulator {
+
+        private final double[] categoryScores = new double[categories.length];
+        private final int[] closePlaces = new int[categories.length];
+        private final int[] mediumPlaces = new int[categories.length];
+        private final int[] farPlaces = new int[categories.length];
+        private double overallScore;
+
+        private Accumulator() {
+        }
+
+        /**
+         * Clears the accumulator, so it can score another location.
+         */
+        public void reset() {
+            Arrays.fill(categoryScores, 0);
+            Arrays.fill(closePlaces, 0);
+            Arrays.fill(mediumPlaces, 0);
+            Arrays.fill(farPlaces, 0);
+            overallScore = 0;
+        }
+
+        /**
+         * Adds places to the score.
+         *
+         * @param places the places to add
+         */
+        public void addAll(List<Location> places) {
+            for (int i = 0, size = places.size(); i < size; i++) {
+                add(places.get(i));
+            }
+        }
+
+        /**
+         * Adds a place to the score. A place whose walking distance is not known, e.g. because it could not be
+         * verified, is skipped rather than scored as if it were next door.
+         *
+         * @param place the place to add
+         */
+        public void add(Location place) {
+            if (place.hasDistance()) {
+                add(place.sharedTypes(), place.getDistanceMeters());
+            }
+        }
+
+        /**
+         * Adds a place to the score.
+         *
+         * @param types the type strings of the place
+         * @param distanceMeters the walking distance to the place, in meters
+         */
+        public void add(String[] types, double distanceMeters) {
+            if (types == null) {
+                return;
+            }
+
+            double distancePenalty = Double.NaN;
+
+            for (String type : types) {
+                int index = categoryIndex(type);
+
+                if (index < 0) {
+                    continue;
+                }
+
+                if (Double.isNaN(distancePenalty)) {
+                    distancePenalty = Math.exp(-distanceMeters / searchRadiusMeters);
+                }
+
+                overallScore += weights[index] * distancePenalty;
+                categoryScores[index] += distancePenalty;
+
+                if (distanceMeters <= closeMeters) {
+                    closePlaces[index]++;
+                } else if (distanceMeters <= mediumMeters) {
+                    mediumPlaces[index]++;
+                } else if (distanceMeters <= farMeters) {
+                    farPlaces[index]++;
+                }
+            }
+        }
+
+        /**
+         * Returns the walkability score accumulated so far.
+         *
+         * @return the walkability score, rounded to 2 decimal places
+         */
+        public double getWalkabilityScore() {
+            return round(overallScore);
+        }
+
+        /**
+         * Builds the score response from the accumulated scores.
+         *
+         * @return the score of the location, with the score of every category in the engine's order
+         */
+        public ScoreResponse toScoreResponse() {
+            List<CategoryScore> scores = new ArrayList<CategoryScore>(categories.length);
+
+            for (int i = 0; i < categories.length; i++) {
+                scores.add(new CategoryScore(categoryNames[i], round(categoryScores[i]), closePlaces[i], mediumPlaces[i], farPlaces[i]));
+            }
+
+            return new ScoreResponse(getWalkabilityScore(), scores);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.aruki.aruki;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Properties;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/**
+ * The {@code ScoringJob} class represents the progress of a batch scoring job, as saved in its checkpoint.
+ * <p>
+ * A job scores every line of an uploaded address file, in chunks, and appends one result per address to its results
+ * file. After each chunk the job saves how many addresses it has processed and how long the results file was at that
+ * point, so a job interrupted by a restart resumes from its last chunk instead of starting over.
+ * </p>
+ * <p>
+ * Each {@code ScoringJob} object contains:
+ * <ul>
+ *   <li>The id of the job ({@code String})</li>
+ *   <li>The status of the job ({@code Status})</li>
+ *   <li>The number of addresses in the file ({@code long})</li>
+ *   <li>Whether the job uses test data ({@code boolean}, not serialized)</li>
+ *   <li>The number of addresses processed, and how many of them failed ({@code long})</li>
+ *   <li>The length of the results file at the last checkpoint, in bytes ({@code long}, not serialized)</li>
+ *   <li>When the job was created and last updated ({@code Instant})</li>
+ *   <li>Why the job failed, if it did ({@code String})</li>
+ * </ul>
+ * </p>
+ *
+ * @see ScoringJobManager
+ */
+public class ScoringJob {
+
+    /**
+     * The status of a job.
+     */
+    public enum Status {
+        QUEUED, RUNNING, COMPLETED, FAILED
+    }
+
+    private final String id;
+    private final Instant createdAt;
+    private final long total;
+    private final boolean test;
+    private Status status;
+    private long processed;
+    private long failed;
+    private long resultsLength;
+    private Instant updatedAt;
+    private String error;
+
+    /**
+     * Constructs a new, queued ScoringJob.
+     *
+     * @param id the id of the job
+     * @param total the number of addresses in the file
+     * @param test whether the job uses test data
+     */
+    public ScoringJob(String id, long total, boolean test) {
+        this(id, Status.QUEUED, total, test, 0, 0, 0, Instant.now(), Instant.now(), null);
+    }
+
+    private ScoringJob(String id, Status status, long total, boolean test, long processed, long failed, long resultsLength, Instant createdAt, Instant updatedAt, String error) {
+        this.id = id;
+        this.status = status;
+        this.total = total;
+        this.test = test;
+        this.processed = processed;
+        this.failed = failed;
+        this.resultsLength = resultsLength;
+        this.createdAt = createdAt;
+        this.updatedAt = updatedAt;
+        this.error = error;
+    }
+
+    /**
+     * Loads a job from its checkpoint.
+     *
+     * @param file the checkpoint file
+     * @return the job, as of its last checkpoint
+     * @throws IOException if the checkpoint cannot be read
+     */
+    public static ScoringJob load(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        }
+
+        return new ScoringJob(
+                properties.getProperty("id"),
+                Status.valueOf(properties.getProperty("status")),
+                Long.parseLong(properties.getProperty("total")),
+                Boolean.parseBoolean(properties.getProperty("test")),
+                Long.parseLong(properties.getProperty("processed")),
+                Long.parseLong(properties.getProperty("failed")),
+                Long.parseLong(properties.getProperty("resultsLength")),
+                Instant.parse(properties.getProperty("createdAt")),
+                Instant.parse(properties.getProperty("updatedAt")),
+                properties.getProperty("error"));
+    }
+
+    /**
+     * Saves the job as its checkpoint. The checkpoint is replaced atomically, so a crash leaves either the previous
+     * checkpoint or this one.
+     *
+     * @param file the checkpoint file
+     * @throws IOException if the checkpoint cannot be written
+     */
+    public synchronized void save(Path file) throws IOException {
+        updatedAt = Instant.now();
+
+        Properties properties = new Properties();
+        properties.setProperty("id", id);
+        properties.setProperty("status", status.name());
+        properties.setProperty("total", String.valueOf(total));
+        properties.setProperty("test", String.valueOf(test));
+        properties.setProperty("processed", String.valueOf(processed));
+        properties.setProperty("failed", String.valueOf(failed));
+        properties.setProperty("resultsLength", String.valueOf(resultsLength));
+        properties.setProperty("createdAt", createdAt.toString());
+        properties.setProperty("updatedAt", updatedAt.toString());
+        if (error != null) {
+            properties.setProperty("error", error);
+        }
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temporary)) {
+            properties.store(out, "Scoring job checkpoint");
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Records a chunk of processed addresses.
+     *
+     * @param count the number of addresses processed
+     * @param failedCount the number of them that could not be scored
+     * @param resultsLength the length of the results file once their results are written, in bytes
+     */
+    public synchronized void addProcessed(long count, long failedCount, long resultsLength) {
+        this.processed += count;
+        this.failed += failedCount;
+        this.resultsLength = resultsLength;
+    }
+
+    /**
+     * Sets the status of the job.
+     *
+     * @param status the new status of the job
+     */
+    public synchronized void setStatus(Status status) {
+        this.status = status;
+    }
+
+    /**
+     * Marks the job as failed.
+     *
+     * @param error why the job failed
+     */
+    public synchronized void fail(String error) {
+        this.status = Status.FAILED;
+        this.error = error;
+    }
+
+    /**
+     * Returns the id of the job.
+     *
+     * @return the id of the job
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Returns the status of the job.
+     *
+     * @return the status of the job
+     */
+    public synchronized Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns the number of addresses in the file.
+     *
+     * @return the number of addresses
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Returns whether the job uses test data.
+     *
+     * @return true if the job uses test data
+     */
+    @JsonIgnore
+    public boolean isTest() {
+        return test;
+    }
+
+    /**
+     * Returns the number of addresses processed so far.
+     *
+     * @return the number of addresses processed
+     */
+    public synchronized long getProcessed() {
+        return processed;
+    }
+
+    /**
+     * Returns the number of processed addresses that could not be scored.
+     *
+     * @return the number of failed addresses
+     */
+    public synchronized long getFailed() {
+        return failed;
+    }
+
+    /**
+     * Returns the length of the results file at the last checkpoint.
+     *
+     * @return the length of the results, in bytes
+     */
+    @JsonIgnore
+    public synchronized long getResultsLength() {
+        return resultsLength;
+    }
+
+    /**
+     * Returns when the job was created.
+     *
+     * @return when the job was created
+     */
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * Returns when the job was last checkpointed.
+     *
+     * @return when the job was last updated
+     */
+    public synchronized Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    /**
+     * Returns why the job failed.
+     *
+     * @return why the job failed, or null if it has not failed
+     */
+    public synchronized String getError() {
+        return error;
+    }
+
+    /**
+     * Returns a string representation of the job in JSON format.
+     *
+     * @return a string representation of the job
+     */
+    @Override
+    public synchronized String toString() {
+        return "{\"id\":\"" + id + "\",\"status\":\"" + status + "\",\"total\":" + total + ",\"processed\":" + processed + ",\"failed\":" + failed + "}";
+    }
+}
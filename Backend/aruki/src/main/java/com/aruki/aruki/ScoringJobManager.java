@@ -0,0 +1,409 @@
+package com.aruki.aruki;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * The {@code ScoringJobManager} class runs batch scoring jobs over address files too large for a single request.
+ * <p>
+ * A submitted file is spooled to the job's directory and scored in the background, one line per address. Lines are
+ * read and scored a chunk at a time through the {@link BulkScorer}, so the job shares the caches, in-flight work and
+ * Google budget of every other request, and only one chunk is ever held in memory. Each result is appended to the
+ * job's newline-delimited JSON results file, in the same format as {@code /bulkScore}.
+ * </p>
+ * <p>
+ * After each chunk the results are forced to disk and the job is checkpointed (see {@link ScoringJob}). On startup,
+ * every job that was queued or running is resumed from its last checkpoint: the results file is truncated back to its
+ * checkpointed length, which drops the results of the chunk that was interrupted, and scoring restarts at the first
+ * address of that chunk.
+ * </p>
+ * <p>
+ * Jobs run one at a time, in the order they were submitted.
+ * </p>
+ * <p>
+ * Addresses that fail for a transient reason, such as an exhausted quota or an open circuit breaker, are scored again
+ * before their chunk is checkpointed, with exponential backoff from {@code retryDelay} up to {@code maxRetryDelay}
+ * (or the wait the failure asks for, if longer, within the same cap). The job waits for Google to recover rather than
+ * recording those addresses as failed; only permanent failures, such as addresses that cannot be geocoded, are
+ * written as failed results.
+ * </p>
+ * <p>
+ * Each job directory contains:
+ * <ul>
+ *   <li>{@code input.txt}: the addresses, one per line</li>
+ *   <li>{@code results.ndjson}: one result per processed address</li>
+ *   <li>{@code job.properties}: the checkpoint</li>
+ * </ul>
+ * </p>
+ *
+ * @see ScoringJob
+ * @see BulkScorer
+ * @see APIController
+ */
+public class ScoringJobManager implements AutoCloseable {
+
+    public static final int DEFAULT_CHUNK_SIZE = 200;
+    public static final Duration DEFAULT_RETRY_DELAY = Duration.ofSeconds(1);
+    public static final Duration DEFAULT_MAX_RETRY_DELAY = Duration.ofMinutes(5);
+
+    private static final Pattern JOB_ID = Pattern.compile("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}");
+
+    private final BulkScorer bulkScorer;
+    private final ObjectMapper objectMapper;
+    private final Path directory;
+    private final int chunkSize;
+    private final Duration retryDelay;
+    private final Duration maxRetryDelay;
+    private final Map<String, ScoringJob> jobs = new ConcurrentHashMap<>();
+    private final ExecutorService runner = Executors.newSingleThreadExecutor(Thread.ofVirtual().name("scoring-job-", 0).factory());
+
+    /**
+     * Constructs a ScoringJobManager with the default retry delays, and resumes the unfinished jobs found in its directory.
+     *
+     * @param bulkScorer the scorer the addresses are scored with
+     * @param objectMapper the mapper results are written with
+     * @param directory the directory jobs are stored in
+     * @param chunkSize the number of addresses scored between checkpoints
+     * @throws IOException if the directory cannot be created or read
+     */
+    public ScoringJobManager(BulkScorer bulkScorer, ObjectMapper objectMapper, Path directory, int chunkSize) throws IOException {
+        this(bulkScorer, objectMapper, directory, chunkSize, DEFAULT_RETRY_DELAY, DEFAULT_MAX_RETRY_DELAY);
+    }
+
+    /**
+     * Constructs a ScoringJobManager and resumes the unfinished jobs found in its directory.
+     *
+     * @param bulkScorer the scorer the addresses are scored with
+     * @param objectMapper the mapper results are written with
+     * @param directory the directory jobs are stored in
+     * @param chunkSize the number of addresses scored between checkpoints
+     * @param retryDelay how long to wait before the first retry of addresses that failed transiently
+     * @param maxRetryDelay the longest wait between retries
+     * @throws IOException if the directory cannot be created or read
+     */
+    public ScoringJobManager(BulkScorer bulkScorer, ObjectMapper objectMapper, Path directory, int chunkSize, Duration retryDelay, Duration maxRetryDelay) throws IOException {
+        this.bulkScorer = bulkScorer;
+        this.objectMapper = objectMapper;
+        this.directory = directory;
+        this.chunkSize = chunkSize;
+        this.retryDelay = retryDelay;
+        this.maxRetryDelay = maxRetryDelay;
+
+        Files.createDirectories(directory);
+        resumeJobs();
+    }
+
+    /**
+     * Submits an address file. The file is spooled to disk before this method returns, and scored in the background.
+     *
+     * @param addresses the address file, one address per line; blank lines are skipped
+     * @param test whether to use test data
+     * @return the new job
+     * @throws IOException if the file cannot be spooled
+     */
+    public ScoringJob submit(InputStream addresses, boolean test) throws IOException {
+        String id = UUID.randomUUID().toString();
+        Path jobDirectory = Files.createDirectories(directory.resolve(id));
+        long total = 0;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(addresses, StandardCharsets.UTF_8));
+                BufferedWriter writer = Files.newBufferedWriter(jobDirectory.resolve("input.txt"), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.strip();
+                if (!line.isEmpty()) {
+                    writer.write(line);
+                    writer.newLine();
+                    total++;
+                }
+            }
+        }
+
+        Files.createFile(jobDirectory.resolve("results.ndjson"));
+
+        ScoringJob job = new ScoringJob(id, total, test);
+        job.save(jobDirectory.resolve("job.properties"));
+        jobs.put(id, job);
+
+        System.out.println("Submitted scoring job " + id + " with " + total + " addresses");
+        schedule(job);
+
+        return job;
+    }
+
+    /**
+     * Returns a job.
+     *
+     * @param id the id of the job
+     * @return the job, or null if there is no such job
+     */
+    public ScoringJob get(String id) {
+        return (id != null && JOB_ID.matcher(id).matches()) ? jobs.get(id) : null;
+    }
+
+    /**
+     * Returns the results file of a job. While the job runs, the file holds the results written so far.
+     *
+     * @param job the job
+     * @return the path of the results file
+     */
+    public Path resultsOf(ScoringJob job) {
+        return directory.resolve(job.getId()).resolve("results.ndjson");
+    }
+
+    /**
+     * Stops running jobs. Unfinished jobs keep their checkpoints, and are resumed by the next manager.
+     */
+    @Override
+    public void close() {
+        runner.shutdownNow();
+        try {
+            runner.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Loads every job in the directory, and schedules the unfinished ones in the order they were created.
+     *
+     * @throws IOException if the directory cannot be read
+     */
+    private void resumeJobs() throws IOException {
+        List<ScoringJob> unfinished = new ArrayList<>();
+
+        try (Stream<Path> jobDirectories = Files.list(directory)) {
+            for (Path jobDirectory : (Iterable<Path>) jobDirectories::iterator) {
+                Path checkpoint = jobDirectory.resolve("job.properties");
+
+                if (!JOB_ID.matcher(jobDirectory.getFileName().toString()).matches() || !Files.exists(checkpoint)) {
+                    continue;
+                }
+
+                try {
+                    ScoringJob job = ScoringJob.load(checkpoint);
+                    jobs.put(job.getId(), job);
+
+                    if (job.getStatus() == ScoringJob.Status.QUEUED || job.getStatus() == ScoringJob.Status.RUNNING) {
+                        unfinished.add(job);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    System.out.println("Could not load scoring job " + jobDirectory.getFileName() + ": " + e.getMessage());
+                }
+            }
+        }
+
+        unfinished.sort(Comparator.comparing(ScoringJob::getCreatedAt));
+
+        for (ScoringJob job : unfinished) {
+            System.out.println("Resuming scoring job " + job.getId() + " at address " + job.getProcessed() + " of " + job.getTotal());
+            schedule(job);
+        }
+    }
+
+    /**
+     * Queues a job to run after the jobs already queued.
+     *
+     * @param job the job
+     */
+    private void schedule(ScoringJob job) {
+        runner.execute(() -> {
+            try {
+                run(job);
+            } catch (InterruptedException | ClosedByInterruptException e) {
+                System.out.println("Scoring job " + job.getId() + " interrupted at address " + job.getProcessed() + "; it will resume on restart");
+            } catch (Exception e) {
+                System.out.println("Scoring job " + job.getId() + " failed: " + e.getMessage());
+                job.fail(e.getMessage());
+                try {
+                    job.save(directory.resolve(job.getId()).resolve("job.properties"));
+                } catch (IOException saveFailure) {
+                    System.out.println("Could not save scoring job " + job.getId() + ": " + saveFailure.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs a job from its last checkpoint to the end of its file.
+     *
+     * @param job the job
+     * @throws IOException if the job's files cannot be read or written
+     * @throws InterruptedException if the manager is closed while the job runs
+     */
+    private void run(ScoringJob job) throws IOException, InterruptedException {
+        Path jobDirectory = directory.resolve(job.getId());
+        Path checkpoint = jobDirectory.resolve("job.properties");
+
+        job.setStatus(ScoringJob.Status.RUNNING);
+        job.save(checkpoint);
+
+        try (BufferedReader input = Files.newBufferedReader(jobDirectory.resolve("input.txt"), StandardCharsets.UTF_8);
+                FileChannel results = FileChannel.open(jobDirectory.resolve("results.ndjson"), StandardOpenOption.WRITE)) {
+
+            // Drop whatever the interrupted chunk wrote after the last checkpoint, and skip the addresses already done
+            results.truncate(job.getResultsLength());
+            results.position(job.getResultsLength());
+
+            for (long skipped = 0; skipped < job.getProcessed(); skipped++) {
+                input.readLine();
+            }
+
+            Writer output = new BufferedWriter(Channels.newWriter(results, StandardCharsets.UTF_8));
+            List<String> chunk = new ArrayList<>(chunkSize);
+            String line;
+
+            while ((line = input.readLine()) != null) {
+                chunk.add(line);
+
+                if (chunk.size() == chunkSize) {
+                    scoreChunk(job, chunk, output, results, checkpoint);
+                    chunk.clear();
+                }
+            }
+
+            if (!chunk.isEmpty()) {
+                scoreChunk(job, chunk, output, results, checkpoint);
+            }
+        }
+
+        job.setStatus(ScoringJob.Status.COMPLETED);
+        job.save(checkpoint);
+
+        System.out.println("Completed scoring job " + job.getId() + ": " + job);
+    }
+
+    /**
+     * Scores a chunk of addresses, appends their results and checkpoints the job.
+     * <p>
+     * Addresses that fail transiently are scored again, with backoff, until they are scored or fail for good, so the
+     * checkpoint never records a transient failure. Results are written in the order of their addresses.
+     * </p>
+     *
+     * @param job the job
+     * @param chunk the addresses of the chunk
+     * @param output the writer of the results file
+     * @param results the results file
+     * @param checkpoint the checkpoint file
+     * @throws IOException if the results or the checkpoint cannot be written
+     * @throws InterruptedException if the manager is closed while the chunk is scored
+     */
+    private void scoreChunk(ScoringJob job, List<String> chunk, Writer output, FileChannel results, Path checkpoint) throws IOException, InterruptedException {
+        long first = job.getProcessed();
+        BulkScoreResult[] scored = new BulkScoreResult[chunk.size()];
+        List<Integer> pending = new ArrayList<>(chunk.size());
+        Duration delay = retryDelay;
+
+        for (int i = 0; i < chunk.size(); i++) {
+            pending.add(i);
+        }
+
+        while (true) {
+            List<String> addresses = new ArrayList<>(pending.size());
+            for (int i : pending) {
+                addresses.add(chunk.get(i));
+            }
+
+            List<Integer> retries = new ArrayList<>();
+            Duration wait = delay;
+
+            for (BulkScoreResult result : score(job, addresses)) {
+                int i = pending.get(result.getIndex());
+                scored[i] = result;
+
+                if (result.isTransient()) {
+                    retries.add(i);
+                    if (result.getRetryAfter() != null && result.getRetryAfter().compareTo(wait) > 0) {
+                        wait = result.getRetryAfter(); // Wait as long as the failure asks, within the cap
+                    }
+                }
+            }
+
+            if (retries.isEmpty()) {
+                break;
+            }
+
+            wait = min(wait, maxRetryDelay);
+            System.out.println("Scoring job " + job.getId() + ": " + retries.size() + " addresses failed transiently, retrying in " + wait.toMillis() + " ms");
+
+            Thread.sleep(wait.toMillis());
+            delay = min(delay.multipliedBy(2), maxRetryDelay);
+            pending = retries;
+        }
+
+        long failedCount = 0;
+        for (int i = 0; i < scored.length; i++) {
+            BulkScoreResult result = scored[i];
+            BulkScoreResult numbered = new BulkScoreResult((int) (first + i), result.getLocation(), result.getStatus(), result.getScore());
+            output.write(objectMapper.writeValueAsString(numbered));
+            output.write('\n');
+
+            if (!"ok".equals(result.getStatus())) {
+                failedCount++;
+            }
+        }
+
+        output.flush();
+        results.force(false);
+
+        job.addProcessed(chunk.size(), failedCount, results.position());
+        job.save(checkpoint);
+    }
+
+    /**
+     * Scores a list of addresses through the bulk scorer and waits for every result.
+     *
+     * @param job the job
+     * @param addresses the addresses to score
+     * @return the result of each address, in completion order, indexed by position in the list
+     * @throws IOException if the batch fails
+     * @throws InterruptedException if the manager is closed while the addresses are scored
+     */
+    private List<BulkScoreResult> score(ScoringJob job, List<String> addresses) throws IOException, InterruptedException {
+        List<BulkScoreResult> scored = new ArrayList<>(addresses.size());
+
+        CompletableFuture<Void> batch = bulkScorer.scoreAll(addresses, new PipelineStats(), job.isTest(), scored::add);
+
+        try {
+            batch.get();
+        } catch (InterruptedException e) {
+            batch.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+
+        return scored;
+    }
+
+    private static Duration min(Duration a, Duration b) {
+        return a.compareTo(b) <= 0 ? a : b;
+    }
+}
@@ -0,0 +1,202 @@
+package com.aruki.aruki;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import com.google.maps.errors.ApiException;
+
+/**
+ * The {@code SingleFlight} class coalesces concurrent computations of the same key into one.
+ * <p>
+ * The first caller for a key (the leader) runs the computation. Callers that arrive while it is running wait for
+ * the leader's result instead of starting their own, for at most the wait timeout. When the computation finishes,
+ * the key is released: the next caller starts a new computation, so neither results nor failures are remembered
+ * here (results are cached by the caches in front of each API instead).
+ * </p>
+ * <p>
+ * A failure is delivered to the leader and to every caller waiting on it.
+ * </p>
+ * <p>
+ * {@link #executeAsync(Object, Supplier)} does the same for computations that return a future, without blocking
+ * any thread while waiting. Blocking and non-blocking callers of the same key share one computation.
+ * </p>
+ * <p>
+ * Example usage:
+ * <pre>
+ *     SingleFlight<String, List<Location>> flights = new SingleFlight<>(Duration.ofSeconds(30));
+ *     List<Location> places = flights.execute(placeId, () -> retrievePlaces(origin));
+ * </pre>
+ * </p>
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the results
+ * @see LocationManager
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final Duration waitTimeout;
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Constructs a SingleFlight whose waiters give up after the specified timeout.
+     *
+     * @param waitTimeout how long a caller waits for a computation started by another caller
+     */
+    public SingleFlight(Duration waitTimeout) {
+        this.waitTimeout = waitTimeout;
+    }
+
+    /**
+     * Returns the result of the computation for the key, running it only if no computation for the key is in flight.
+     *
+     * @param key the key identifying the computation
+     * @param computation the computation to run if this caller is the leader
+     * @return the result of the computation
+     * @throws ApiException if the computation fails with an API error
+     * @throws InterruptedException if the computation or the wait is interrupted
+     * @throws IOException if the computation fails with an I/O error
+     * @throws WaitTimeoutException if this caller waited for another caller's computation for longer than the timeout
+     */
+    public V execute(K key, Callable<V> computation) throws ApiException, InterruptedException, IOException {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return await(key, existing);
+        }
+
+        try {
+            V result = computation.call();
+            future.complete(result);
+            return result;
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+            throw FanOutExecutor.rethrow(e);
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * Returns a future for the result of the computation for the key, starting it only if no computation for the key
+     * is in flight.
+     * <p>
+     * A waiter's future fails with a {@link WaitTimeoutException} if the shared computation has not completed within
+     * the wait timeout; the computation itself keeps running for the other callers.
+     * </p>
+     *
+     * @param key the key identifying the computation
+     * @param computation starts the computation if this caller is the leader
+     * @return a future for the result of the computation
+     */
+    public CompletableFuture<V> executeAsync(K key, Supplier<CompletableFuture<V>> computation) {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return awaitAsync(key, existing);
+        }
+
+        CompletableFuture<V> started;
+        try {
+            started = computation.get();
+        } catch (RuntimeException e) {
+            started = CompletableFuture.failedFuture(e);
+        }
+
+        started.whenComplete((result, failure) -> {
+            inFlight.remove(key, future);
+
+            if (failure != null) {
+                future.completeExceptionally(FanOutExecutor.causeOf(failure));
+            } else {
+                future.complete(result);
+            }
+        });
+
+        return future;
+    }
+
+    /**
+     * Returns the number of calls that were served by another caller's computation.
+     *
+     * @return the number of coalesced calls
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * Returns the number of computations currently in flight.
+     *
+     * @return the number of computations in flight
+     */
+    public int getInFlight() {
+        return inFlight.size();
+    }
+
+    private V await(K key, CompletableFuture<V> future) throws ApiException, InterruptedException, IOException {
+        try {
+            return future.get(waitTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw FanOutExecutor.unwrap(e.getCause());
+        } catch (TimeoutException e) {
+            throw new WaitTimeoutException("Timed out after " + waitTimeout + " waiting for the in-flight request for " + key);
+        }
+    }
+
+    private CompletableFuture<V> awaitAsync(K key, CompletableFuture<V> future) {
+        CompletableFuture<V> waiter = new CompletableFuture<>();
+
+        future.whenComplete((result, failure) -> {
+            if (failure != null) {
+                waiter.completeExceptionally(FanOutExecutor.causeOf(failure));
+            } else {
+                waiter.complete(result);
+            }
+        });
+
+        if (waiter.isDone()) {
+            return waiter; // Already computed: no timeout to schedule
+        }
+
+        // The timer is cancelled, and dropped from the scheduler, as soon as the waiter completes
+        CompletableFuture<Void> timer = new CompletableFuture<Void>().orTimeout(waitTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        timer.whenComplete((ignored, timedOut) -> {
+            if (timedOut != null) {
+                waiter.completeExceptionally(new WaitTimeoutException("Timed out after " + waitTimeout + " waiting for the in-flight request for " + key));
+            }
+        });
+        waiter.whenComplete((result, failure) -> timer.complete(null));
+
+        return waiter;
+    }
+
+    /**
+     * Thrown when a caller gives up waiting for a computation started by another caller.
+     */
+    public static class WaitTimeoutException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Constructs a WaitTimeoutException with the specified message.
+         *
+         * @param message the detail message
+         */
+        public WaitTimeoutException(String message) {
+            super(message);
+        }
+    }
+}
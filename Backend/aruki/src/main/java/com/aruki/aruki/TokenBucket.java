@@ -0,0 +1,95 @@
+package com.aruki.aruki;
+
+import java.util.function.LongSupplier;
+
+/**
+ * The {@code TokenBucket} class is a rate limiter that lets a steady number of permits through per second, with
+ * bursts of up to its capacity.
+ * <p>
+ * Tokens are added continuously at the configured rate, up to the capacity, and each call takes as many tokens as
+ * it costs. A call may reserve tokens that have not been added yet: the bucket goes into debt, and the caller
+ * waits until the debt is paid off before making the call. Callers that reserve after it wait behind it, so calls
+ * are spaced out at the configured rate instead of being rejected in bursts.
+ * </p>
+ * <p>
+ * Example usage:
+ * <pre>
+ *     TokenBucket bucket = new TokenBucket(50, 50, System::nanoTime);
+ *     long waitNanos = bucket.reserve(1, TimeUnit.SECONDS.toNanos(1));
+ *     if (waitNanos <= TimeUnit.SECONDS.toNanos(1)) {
+ *         TimeUnit.NANOSECONDS.sleep(waitNanos);
+ *         // make the call
+ *     }
+ * </pre>
+ * </p>
+ *
+ * @see QuotaManager
+ */
+public class TokenBucket {
+
+    private final double permitsPerNano;
+    private final double capacity;
+    private final LongSupplier nanoClock;
+
+    private double tokens;
+    private long refilledAt;
+
+    /**
+     * Constructs a full TokenBucket.
+     *
+     * @param permitsPerSecond the number of permits added per second
+     * @param capacity the largest number of permits that can be saved up for a burst
+     * @param nanoClock the monotonic clock, in nanoseconds
+     */
+    public TokenBucket(double permitsPerSecond, double capacity, LongSupplier nanoClock) {
+        if (!(permitsPerSecond > 0) || !(capacity > 0)) {
+            throw new IllegalArgumentException("Invalid token bucket: " + permitsPerSecond + " per second, capacity " + capacity);
+        }
+
+        this.permitsPerNano = permitsPerSecond / 1e9;
+        this.capacity = capacity;
+        this.nanoClock = nanoClock;
+        this.tokens = capacity;
+        this.refilledAt = nanoClock.getAsLong();
+    }
+
+    /**
+     * Reserves permits if they are available within the specified wait.
+     *
+     * @param permits the number of permits the call costs
+     * @param maxWaitNanos the longest the caller is willing to wait, in nanoseconds
+     * @return how long the caller must wait before making the call, in nanoseconds; if this is more than
+     *         {@code maxWaitNanos}, nothing was reserved and the value is how long until the permits would be available
+     */
+    public synchronized long reserve(int permits, long maxWaitNanos) {
+        refill();
+
+        double missing = permits - tokens;
+        long waitNanos = (missing <= 0) ? 0 : (long) Math.ceil(missing / permitsPerNano);
+
+        if (waitNanos <= maxWaitNanos) {
+            tokens -= permits;
+        }
+
+        return waitNanos;
+    }
+
+    /**
+     * Returns the number of permits available right now, which is negative while the bucket is in debt.
+     *
+     * @return the number of available permits
+     */
+    public synchronized double available() {
+        refill();
+        return tokens;
+    }
+
+    /**
+     * Adds the tokens accumulated since the last refill, up to the capacity.
+     */
+    private void refill() {
+        long now = nanoClock.getAsLong();
+        tokens = Math.min(capacity, tokens + (now - refilledAt) * permitsPerNano);
+        refilledAt = now;
+    }
+}
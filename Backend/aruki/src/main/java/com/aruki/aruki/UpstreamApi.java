@@ -0,0 +1,32 @@
+package com.aruki.aruki;
+
+/**
+ * The {@code UpstreamApi} enum lists the Google Maps APIs that the backend calls.
+ * <p>
+ * It is used to key anything that is configured or measured per downstream service, such as
+ * concurrency limits and metrics.
+ * </p>
+ *
+ * @see FanOutExecutor
+ */
+public enum UpstreamApi {
+
+    GEOCODING("geocoding"),
+    PLACES("places"),
+    DISTANCE_MATRIX("distance_matrix");
+
+    private final String tag;
+
+    UpstreamApi(String tag) {
+        this.tag = tag;
+    }
+
+    /**
+     * Returns the name of the API as used in metric tags and configuration.
+     *
+     * @return the name of the API
+     */
+    public String getTag() {
+        return tag;
+    }
+}
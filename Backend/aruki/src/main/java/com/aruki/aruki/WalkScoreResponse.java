@@ -0,0 +1,92 @@
+package com.aruki.aruki;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@code WalkScoreResponse} class represents the combined result of Walk mode and Score mode for a location,
+ * computed from a single run of the places pipeline.
+ * <p>
+ * Each {@code WalkScoreResponse} object contains:
+ * <ul>
+ *   <li>The verified places grouped by category, nearest first ({@code Map<String, List<Location>>}), or null if
+ *       the client did not ask for places</li>
+ *   <li>The walkability score ({@code ScoreResponse}), or null if the client did not ask for the score</li>
+ * </ul>
+ * </p>
+ * <p>
+ * A place that belongs to several categories is listed under each of them.
+ * </p>
+ * <p>
+ * Example usage:
+ * <pre>
+ *     WalkScoreResponse response = locationManager.getWalkAndScore(origin, true, true, stats, false);
+ *     List<Location> restaurants = response.getPlacesByCategory().get("restaurant");
+ * </pre>
+ * </p>
+ *
+ * @see Location
+ * @see ScoreResponse
+ */
+public class WalkScoreResponse {
+
+    private Map<String, List<Location>> placesByCategory;
+    private ScoreResponse score;
+
+    /**
+     * Constructs a {@code WalkScoreResponse} with the specified places and score.
+     *
+     * @param placesByCategory the verified places grouped by category, or null
+     * @param score the walkability score, or null
+     */
+    public WalkScoreResponse(Map<String, List<Location>> placesByCategory, ScoreResponse score) {
+        this.placesByCategory = placesByCategory;
+        this.score = score;
+    }
+
+    /**
+     * Returns the verified places grouped by category.
+     *
+     * @return the places grouped by category, or null if they were not requested
+     */
+    public Map<String, List<Location>> getPlacesByCategory() {
+        return this.placesByCategory;
+    }
+
+    /**
+     * Sets the verified places grouped by category.
+     *
+     * @param placesByCategory the new places grouped by category
+     */
+    public void setPlacesByCategory(Map<String, List<Location>> placesByCategory) {
+        this.placesByCategory = placesByCategory;
+    }
+
+    /**
+     * Returns the walkability score.
+     *
+     * @return the walkability score, or null if it was not requested
+     */
+    public ScoreResponse getScore() {
+        return this.score;
+    }
+
+    /**
+     * Sets the walkability score.
+     *
+     * @param score the new walkability score
+     */
+    public void setScore(ScoreResponse score) {
+        this.score = score;
+    }
+
+    /**
+     * Returns a string representation of the {@code WalkScoreResponse} in JSON format.
+     *
+     * @return a string representation of the {@code WalkScoreResponse}
+     */
+    @Override
+    public String toString() {
+        return "{ \"placesByCategory\": " + this.placesByCategory + ", \"score\": " + this.score + " }";
+    }
+}
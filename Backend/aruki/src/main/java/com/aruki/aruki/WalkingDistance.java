@@ -0,0 +1,131 @@
+package com.aruki.aruki;
+
+import com.google.maps.model.DistanceMatrixElementStatus;
+
+/**
+ * The {@code WalkingDistance} class is the typed result of one Distance Matrix element: the walking distance and
+ * duration from an origin to a destination, or the reason there is none.
+ * <p>
+ * Distances are kept in meters and durations in seconds, exactly as Google returns them, so the pipeline compares
+ * numbers instead of reparsing human-readable strings. A destination Google cannot route to on foot is reported
+ * with its status ({@code NOT_FOUND} or {@code ZERO_RESULTS}) rather than disguised as a very long distance.
+ * </p>
+ * <p>
+ * Each {@code WalkingDistance} object contains:
+ * <ul>
+ *   <li>The status of the element ({@code DistanceMatrixElementStatus})</li>
+ *   <li>The walking distance in meters ({@code long}), 0 if the destination is unreachable</li>
+ *   <li>The walking duration in seconds ({@code long}), 0 if the destination is unreachable</li>
+ * </ul>
+ * </p>
+ * <p>
+ * Example usage:
+ * <pre>
+ *     WalkingDistance distance = WalkingDistance.of(1250, 900);
+ *     if (distance.isReachable() &amp;&amp; distance.getMeters() &lt;= 2000) {
+ *         verified.add(place.withDistanceMeters(distance.getMeters())); // Location is immutable
+ *     }
+ * </pre>
+ * </p>
+ *
+ * @see APIManager#getWalkingDistances(GeocodedLocation, java.util.List, boolean)
+ * @see WalkingDistanceCache
+ */
+public final class WalkingDistance {
+
+    private final DistanceMatrixElementStatus status;
+    private final long meters;
+    private final long seconds;
+
+    private WalkingDistance(DistanceMatrixElementStatus status, long meters, long seconds) {
+        this.status = status;
+        this.meters = meters;
+        this.seconds = seconds;
+    }
+
+    /**
+     * Returns a reachable walking distance.
+     *
+     * @param meters the walking distance, in meters
+     * @param seconds the walking duration, in seconds
+     * @return the walking distance
+     */
+    public static WalkingDistance of(long meters, long seconds) {
+        return new WalkingDistance(DistanceMatrixElementStatus.OK, meters, seconds);
+    }
+
+    /**
+     * Returns the result for a destination that cannot be walked to.
+     *
+     * @param status the status Google returned for the element
+     * @return the unreachable result
+     */
+    public static WalkingDistance unreachable(DistanceMatrixElementStatus status) {
+        return new WalkingDistance(status, 0, 0);
+    }
+
+    /**
+     * Returns the status of the element.
+     *
+     * @return the status of the element
+     */
+    public DistanceMatrixElementStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns whether the destination can be walked to.
+     *
+     * @return true if Google returned a walking route, false otherwise
+     */
+    public boolean isReachable() {
+        return status == DistanceMatrixElementStatus.OK;
+    }
+
+    /**
+     * Returns the walking distance.
+     *
+     * @return the walking distance in meters, or 0 if the destination is unreachable
+     */
+    public long getMeters() {
+        return meters;
+    }
+
+    /**
+     * Returns the walking duration.
+     *
+     * @return the walking duration in seconds, or 0 if the destination is unreachable
+     */
+    public long getSeconds() {
+        return seconds;
+    }
+
+    /**
+     * Checks if the destination is reachable within the specified distance.
+     *
+     * @param maxMeters the maximum distance, in meters
+     * @return true if the destination is reachable and no farther than the maximum distance
+     */
+    public boolean isWithin(double maxMeters) {
+        return isReachable() && meters <= maxMeters;
+    }
+
+    /**
+     * Formats the distance the way it is shown to clients, in kilometers with one decimal (e.g. "1.3 km").
+     *
+     * @return the formatted distance, or null if the destination is unreachable
+     */
+    public String format() {
+        return isReachable() ? Location.formatDistance(meters) : null;
+    }
+
+    /**
+     * Returns a string representation of the walking distance in JSON format.
+     *
+     * @return a string representation of the walking distance
+     */
+    @Override
+    public String toString() {
+        return "{\"status\":\"" + status + "\",\"meters\":" + meters + ",\"seconds\":" + seconds + "}";
+    }
+}
@@ -0,0 +1,85 @@
+package com.aruki.aruki;
+
+import java.time.Duration;
+
+import com.google.maps.model.LatLng;
+
+/**
+ * The {@code WalkingDistanceCache} class caches walking distances by origin and destination place id.
+ * <p>
+ * Origins are snapped to a grid whose spacing is the snapping tolerance, so origins closer together than the
+ * tolerance usually share entries. A cached distance can therefore be off by up to about the tolerance, which
+ * is far below the resolution of the close/medium/far buckets used for scoring.
+ * </p>
+ * <p>
+ * Only destinations with a place id can be cached.
+ * </p>
+ *
+ * @see ExpiringLruCache
+ * @see LocationManager
+ */
+public class WalkingDistanceCache extends ExpiringLruCache<String, WalkingDistance> {
+
+    public static final double DEFAULT_SNAP_TOLERANCE_METERS = 25;
+    public static final int DEFAULT_MAX_SIZE = 200_000;
+    public static final Duration DEFAULT_TTL = Duration.ofDays(7);
+
+    private final double snapToleranceMeters;
+
+    /**
+     * Constructs a WalkingDistanceCache with the default snapping tolerance, size and time-to-live.
+     */
+    public WalkingDistanceCache() {
+        this(DEFAULT_SNAP_TOLERANCE_METERS, DEFAULT_MAX_SIZE, DEFAULT_TTL);
+    }
+
+    /**
+     * Constructs a WalkingDistanceCache with the specified snapping tolerance, maximum size and time-to-live.
+     *
+     * @param snapToleranceMeters the spacing of the grid origins are snapped to, in meters
+     * @param maxSize the maximum number of distances to cache
+     * @param ttl how long a distance stays valid
+     */
+    public WalkingDistanceCache(double snapToleranceMeters, int maxSize, Duration ttl) {
+        super("walking_distance", maxSize, ttl);
+        this.snapToleranceMeters = snapToleranceMeters;
+    }
+
+    /**
+     * Returns the cache key of an origin and a destination place id. Distances of test requests, which come from
+     * sample data, are kept under their own keys, so they never answer a real request.
+     *
+     * @param origin the origin
+     * @param placeId the place id of the destination
+     * @param test whether the distance comes from sample data
+     * @return the cache key
+     */
+    public String key(LatLng origin, String placeId, boolean test) {
+        return (test ? "test:" : "") + snap(origin) + "|" + placeId;
+    }
+
+    /**
+     * Returns the grid cell an origin snaps to, as "row,column".
+     *
+     * @param origin the origin
+     * @return the grid cell of the origin
+     */
+    public String snap(LatLng origin) {
+        long row = Math.round(origin.lat * GeoMath.metersPerDegreeLatitude() / snapToleranceMeters);
+
+        // Use the latitude of the row rather than of the origin, so every origin in the row uses the same spacing
+        double rowLatitude = row * snapToleranceMeters / GeoMath.metersPerDegreeLatitude();
+        long column = Math.round(origin.lng * GeoMath.metersPerDegreeLongitude(rowLatitude) / snapToleranceMeters);
+
+        return row + "," + column;
+    }
+
+    /**
+     * Returns the spacing of the grid origins are snapped to.
+     *
+     * @return the snapping tolerance, in meters
+     */
+    public double getSnapToleranceMeters() {
+        return snapToleranceMeters;
+    }
+}
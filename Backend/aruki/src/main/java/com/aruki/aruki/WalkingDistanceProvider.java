@@ -0,0 +1,78 @@
+package com.aruki.aruki;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.google.maps.errors.ApiException;
+import com.google.maps.model.LatLng;
+
+/**
+ * The {@code WalkingDistanceProvider} interface answers how far each of a list of places is to walk from an origin.
+ * <p>
+ * Two implementations are available:
+ * <ul>
+ *   <li>{@link APIManager}, which calls the Google Distance Matrix API, at most 25 destinations per request</li>
+ *   <li>{@link LocalWalkingDistanceProvider}, which searches a pedestrian graph imported from OpenStreetMap, every
+ *       destination in a single search</li>
+ * </ul>
+ * The {@link LocationManager} and the {@link GridScorer} verify walking distances through whichever provider is
+ * configured, splitting the destinations into calls of at most {@link #getMaxDestinationsPerRequest()}.
+ * </p>
+ * <p>
+ * Example usage:
+ * <pre>
+ *     WalkingDistanceProvider walkingDistances = LocalWalkingDistanceProvider.open(Path.of("graphs/norfolk.graph"), 2000);
+ *     List&lt;WalkingDistance&gt; distances = walkingDistances.getWalkingDistances(origin, places, false);
+ * </pre>
+ * </p>
+ *
+ * @see APIManager
+ * @see LocalWalkingDistanceProvider
+ */
+public interface WalkingDistanceProvider {
+
+    /**
+     * Retrieves walking distances from a geocoded origin to a list of places.
+     *
+     * @param origin the geocoded starting location
+     * @param destinations the list of destination places
+     * @param test whether to use sample data for testing
+     * @return the walking distance to each destination, in destination order; destinations that cannot be walked
+     *         to are reported as unreachable
+     * @throws ApiException if an error occurs while making the API request
+     * @throws InterruptedException if the request is interrupted
+     * @throws IOException if an I/O error occurs
+     */
+    List<WalkingDistance> getWalkingDistances(GeocodedLocation origin, List<Location> destinations, boolean test) throws ApiException, InterruptedException, IOException;
+
+    /**
+     * Retrieves walking distances from a geocoded origin to a list of places, without blocking.
+     *
+     * @param origin the geocoded starting location
+     * @param destinations the list of destination places
+     * @param test whether to use sample data for testing
+     * @return a future for the walking distance to each destination, in destination order
+     */
+    CompletableFuture<List<WalkingDistance>> getWalkingDistancesAsync(GeocodedLocation origin, List<Location> destinations, boolean test);
+
+    /**
+     * Retrieves walking distances from several origins to the same list of places.
+     *
+     * @param origins the starting points
+     * @param destinations the list of destination places
+     * @param test whether to use sample data for testing
+     * @return for each origin, in origin order, the walking distance to each destination, in destination order
+     * @throws ApiException if an error occurs while making the API request
+     * @throws InterruptedException if the request is interrupted
+     * @throws IOException if an I/O error occurs
+     */
+    List<List<WalkingDistance>> getWalkingDistanceMatrix(List<LatLng> origins, List<Location> destinations, boolean test) throws ApiException, InterruptedException, IOException;
+
+    /**
+     * Returns the most destinations that one call may ask for.
+     *
+     * @return the most destinations per call, or 0 if any number can be asked for at once
+     */
+    int getMaxDestinationsPerRequest();
+}
@@ -3,7 +3,7 @@ package com.aruki.aruki;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
-@SpringBootTest
+@SpringBootTest(properties = {"aruki.jobs.directory=target/jobs", "aruki.grid.directory=target/grids", "aruki.score-store.file=target/scores/scores.log"})
 class ArukiApplicationTests {
 
 	@Test
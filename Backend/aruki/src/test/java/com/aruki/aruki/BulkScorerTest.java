@@ -0,0 +1,130 @@
+package com.aruki.aruki;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.google.maps.model.LatLng;
+import com.google.maps.model.PlaceType;
+
+public class BulkScorerTest {
+
+    private APIManager apiManager;
+    private LocationManager locationManager;
+
+    @BeforeEach
+    public void setUp() {
+        apiManager = mock(APIManager.class);
+        locationManager = new LocationManager(apiManager);
+
+        when(apiManager.retrievePlacesOfCategoryAsync(any(LatLng.class), anyInt(), any(PlaceType.class), eq(true))).thenReturn(CompletableFuture.completedFuture(List.of()));
+        when(apiManager.getWalkingDistancesAsync(any(GeocodedLocation.class), anyList(), eq(true))).thenReturn(CompletableFuture.completedFuture(List.of()));
+    }
+
+    /**
+     * Test to make sure that every address gets exactly one result, and that a failed address does not fail the batch.
+     */
+    @Test
+    public void testPerItemErrors() throws Exception {
+        when(apiManager.geocodeAsync(eq("Good"), eq(true))).thenReturn(CompletableFuture.completedFuture(APIManager.sampleData_geocode("Good")));
+        when(apiManager.geocodeAsync(eq("Nowhere"), eq(true))).thenReturn(CompletableFuture.completedFuture(null));
+        when(apiManager.geocodeAsync(eq("Broken"), eq(true))).thenReturn(CompletableFuture.failedFuture(new IOException("connection reset")));
+
+        BulkScorer scorer = new BulkScorer(locationManager, 4, 10);
+        List<BulkScoreResult> results = new CopyOnWriteArrayList<>();
+
+        scorer.scoreAll(List.of("Good", "Nowhere", "Broken"), new PipelineStats(), true, results::add).get(5, TimeUnit.SECONDS);
+
+        assertEquals(3, results.size());
+        for (BulkScoreResult result : results) {
+            switch (result.getIndex()) {
+                case 0 -> assertEquals("ok", result.getStatus());
+                case 1 -> assertEquals("invalid location", result.getStatus());
+                default -> {
+                    assertEquals("IO Exception", result.getStatus());
+                    assertNull(result.getScore());
+                }
+            }
+        }
+    }
+
+    /**
+     * Test to make sure that results are reported in completion order, and that no more addresses are started than the
+     * budget allows.
+     */
+    @Test
+    public void testCompletionOrderWithinBudget() throws Exception {
+        CompletableFuture<GeocodedLocation> slow = new CompletableFuture<>();
+
+        when(apiManager.geocodeAsync(eq("Slow"), eq(true))).thenReturn(slow);
+        when(apiManager.geocodeAsync(eq("Fast"), eq(true))).thenReturn(CompletableFuture.completedFuture(APIManager.sampleData_geocode("Fast")));
+        when(apiManager.geocodeAsync(eq("Queued"), eq(true))).thenReturn(CompletableFuture.completedFuture(APIManager.sampleData_geocode("Queued")));
+
+        BulkScorer scorer = new BulkScorer(locationManager, 2, 10);
+        List<BulkScoreResult> results = new CopyOnWriteArrayList<>();
+
+        CompletableFuture<Void> batch = scorer.scoreAll(List.of("Slow", "Fast", "Queued"), new PipelineStats(), true, results::add);
+
+        // The slow address holds one slot; the other two go through the second slot one after the other
+        assertEquals(List.of(1, 2), results.stream().map(BulkScoreResult::getIndex).toList());
+        assertEquals(1, scorer.getInFlight());
+        assertFalse(batch.isDone());
+
+        slow.complete(APIManager.sampleData_geocode("Slow"));
+        batch.get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of(1, 2, 0), results.stream().map(BulkScoreResult::getIndex).toList());
+        assertEquals(0, scorer.getInFlight());
+        verify(apiManager, times(1)).geocodeAsync(eq("Slow"), eq(true));
+    }
+
+    /**
+     * Test to make sure that a long batch answered at once from the caches is started in a loop, not by recursing once
+     * per address.
+     */
+    @Test
+    public void testCachedAddressesStartWithoutRecursion() throws Exception {
+        CompletableFuture<GeocodedLocation> slow = new CompletableFuture<>();
+        List<String> addresses = new ArrayList<>();
+        List<Integer> depths = new CopyOnWriteArrayList<>();
+
+        when(apiManager.geocodeAsync(eq("Slow"), eq(true))).thenReturn(slow);
+        when(apiManager.geocodeAsync(eq("Cached"), eq(true))).thenAnswer(invocation -> {
+            depths.add(Thread.currentThread().getStackTrace().length);
+            return CompletableFuture.completedFuture(null);
+        });
+
+        addresses.add("Slow");
+        for (int i = 0; i < 2000; i++) {
+            addresses.add("Cached");
+        }
+
+        BulkScorer scorer = new BulkScorer(locationManager, 1, addresses.size());
+        List<BulkScoreResult> results = new CopyOnWriteArrayList<>();
+        CompletableFuture<Void> batch = scorer.scoreAll(addresses, new PipelineStats(), true, results::add);
+
+        slow.complete(null);
+        batch.get(5, TimeUnit.SECONDS);
+
+        assertEquals(addresses.size(), results.size());
+        assertEquals(depths.get(0), depths.get(depths.size() - 1));
+    }
+}
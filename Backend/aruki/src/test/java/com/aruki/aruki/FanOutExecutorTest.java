@@ -0,0 +1,186 @@
+package com.aruki.aruki;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class FanOutExecutorTest {
+
+    private final FanOutExecutor executor = new FanOutExecutor(1, 2, 1);
+
+    @AfterEach
+    public void tearDown() {
+        executor.close();
+    }
+
+    @Test
+    public void testResultsKeepTaskOrder() throws Exception {
+        List<Callable<Integer>> tasks = List.of(
+            () -> { Thread.sleep(50); return 1; },
+            () -> 2,
+            () -> { Thread.sleep(20); return 3; }
+        );
+
+        assertEquals(List.of(1, 2, 3), executor.invokeAll(UpstreamApi.PLACES, tasks));
+    }
+
+    /**
+     * Test to make sure that when one task fails, its siblings are interrupted and the original exception reaches the caller.
+     */
+    @Test
+    public void testFailureCancelsSiblings() throws Exception {
+        CountDownLatch interrupted = new CountDownLatch(1);
+
+        List<Callable<String>> tasks = List.of(
+            () -> {
+                try {
+                    Thread.sleep(10_000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+                return "slow";
+            },
+            () -> { throw new IOException("boom"); }
+        );
+
+        IOException thrown = assertThrows(IOException.class, () -> executor.invokeAll(UpstreamApi.PLACES, tasks));
+        assertEquals("boom", thrown.getMessage());
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Test to make sure that an interrupted task fails like any other task without interrupting the caller, and that
+     * the caller's own interrupt is thrown without leaving its interrupted status set.
+     */
+    @Test
+    public void testInterruptsStayWithTheirThread() throws Exception {
+        List<Callable<String>> interruptedTask = List.of(() -> { throw new InterruptedException("task"); });
+
+        assertThrows(java.io.InterruptedIOException.class, () -> executor.invokeAll(UpstreamApi.PLACES, interruptedTask));
+        assertFalse(Thread.currentThread().isInterrupted());
+
+        CountDownLatch started = new CountDownLatch(1);
+        List<Callable<String>> slowTask = List.of(() -> { started.countDown(); Thread.sleep(10_000); return "slow"; });
+        CompletableFuture<Throwable> thrown = new CompletableFuture<>();
+        CompletableFuture<Boolean> stillInterrupted = new CompletableFuture<>();
+
+        Thread caller = new Thread(() -> {
+            try {
+                executor.invokeAll(UpstreamApi.PLACES, slowTask);
+                thrown.complete(null);
+            } catch (Exception e) {
+                thrown.complete(e);
+            }
+            stillInterrupted.complete(Thread.currentThread().isInterrupted());
+        });
+        caller.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        caller.interrupt();
+
+        assertInstanceOf(InterruptedException.class, thrown.get(5, TimeUnit.SECONDS));
+        assertFalse(stillInterrupted.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testConcurrencyLimitQueuesTasks() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+
+        executor.submit(UpstreamApi.DISTANCE_MATRIX, () -> release.await(5, TimeUnit.SECONDS));
+        executor.submit(UpstreamApi.DISTANCE_MATRIX, () -> release.await(5, TimeUnit.SECONDS));
+
+        long deadline = System.currentTimeMillis() + 5_000;
+        while ((executor.getInFlight(UpstreamApi.DISTANCE_MATRIX) != 1 || executor.getQueued(UpstreamApi.DISTANCE_MATRIX) != 1) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(1, executor.getInFlight(UpstreamApi.DISTANCE_MATRIX));
+        assertEquals(1, executor.getQueued(UpstreamApi.DISTANCE_MATRIX));
+        release.countDown();
+    }
+
+    /**
+     * Test to make sure that asynchronous calls over the limit are queued without blocking the caller, and are
+     * started as soon as a slot frees up.
+     */
+    @Test
+    public void testAsyncConcurrencyLimitQueuesCalls() throws Exception {
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> second = new CompletableFuture<>();
+        List<String> started = new ArrayList<>();
+
+        CompletableFuture<String> firstResult = executor.submitAsync(UpstreamApi.DISTANCE_MATRIX, () -> { started.add("first"); return first; });
+        CompletableFuture<String> secondResult = executor.submitAsync(UpstreamApi.DISTANCE_MATRIX, () -> { started.add("second"); return second; });
+
+        assertEquals(List.of("first"), started);
+        assertEquals(1, executor.getInFlight(UpstreamApi.DISTANCE_MATRIX));
+        assertEquals(1, executor.getQueued(UpstreamApi.DISTANCE_MATRIX));
+
+        first.complete("a");
+        assertEquals("a", firstResult.get(5, TimeUnit.SECONDS));
+        assertEquals(List.of("first", "second"), started);
+
+        second.complete("b");
+        assertEquals("b", secondResult.get(5, TimeUnit.SECONDS));
+        assertEquals(0, executor.getInFlight(UpstreamApi.DISTANCE_MATRIX));
+    }
+
+    /**
+     * Test to make sure that queued calls that complete as soon as they are started are started in a loop, not by
+     * recursing once per call.
+     */
+    @Test
+    public void testCompletedCallsStartWithoutRecursion() throws Exception {
+        CompletableFuture<String> first = new CompletableFuture<>();
+        int calls = 10_000;
+        int[] depths = new int[calls];
+        List<CompletableFuture<String>> results = new ArrayList<>();
+
+        executor.submitAsync(UpstreamApi.DISTANCE_MATRIX, () -> first);
+        for (int i = 0; i < calls; i++) {
+            int index = i;
+            results.add(executor.submitAsync(UpstreamApi.DISTANCE_MATRIX, () -> {
+                depths[index] = Thread.currentThread().getStackTrace().length;
+                return CompletableFuture.completedFuture("done");
+            }));
+        }
+
+        first.complete("first");
+
+        for (CompletableFuture<String> result : results) {
+            assertEquals("done", result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(depths[0], depths[calls - 1]);
+        assertEquals(0, executor.getInFlight(UpstreamApi.DISTANCE_MATRIX));
+    }
+
+    /**
+     * Test to make sure that when one asynchronous call fails, its siblings are cancelled and the original exception is reported.
+     */
+    @Test
+    public void testAsyncFailureCancelsSiblings() throws Exception {
+        CompletableFuture<String> slow = new CompletableFuture<>();
+
+        List<Supplier<CompletableFuture<String>>> calls = List.of(
+            () -> slow,
+            () -> CompletableFuture.failedFuture(new IOException("boom"))
+        );
+
+        CompletableFuture<List<String>> results = executor.invokeAllAsync(UpstreamApi.PLACES, calls);
+
+        ExecutionException thrown = assertThrows(ExecutionException.class, () -> results.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, thrown.getCause());
+        assertEquals("boom", thrown.getCause().getMessage());
+        assertTrue(slow.isCancelled());
+    }
+}
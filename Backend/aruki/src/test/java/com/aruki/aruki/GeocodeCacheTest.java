@@ -0,0 +1,76 @@
+package com.aruki.aruki;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.maps.model.LatLng;
+
+public class GeocodeCacheTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private final GeocodeCache cache = new GeocodeCache(2, Duration.ofMinutes(10), now::get);
+
+    private static GeocodedLocation geocode(String address) {
+        return new GeocodedLocation(address, address, "place_id", new LatLng(36.85, -75.97));
+    }
+
+    @Test
+    public void testCanonicalize() {
+        assertEquals("123 main st", AddressCanonicalizer.canonicalize("123 Main St"));
+        assertEquals("123 main st", AddressCanonicalizer.canonicalize("  123   main   street "));
+        assertEquals("123 main st springfield il 62701", AddressCanonicalizer.canonicalize("123 Main Street, Apt. 4B, Springfield, IL 62701"));
+        assertEquals("500 n ocean ave", AddressCanonicalizer.canonicalize("500 North Ocean Avenue Suite 200"));
+        assertEquals("500 n ocean ave", AddressCanonicalizer.canonicalize("500 N. Ocean Ave #12"));
+        assertEquals("12 oak dr miami fl 33101", AddressCanonicalizer.canonicalize("12 Oak Drive, Miami, FL 33101"));
+    }
+
+    @Test
+    public void testNearIdenticalAddressesShareEntry() {
+        GeocodedLocation location = geocode("123 Main St");
+        cache.put("123 Main St", location);
+
+        assertSame(location, cache.get("123 main street"));
+        assertEquals(1, cache.getHits());
+        assertEquals(0, cache.getMisses());
+    }
+
+    @Test
+    public void testTestGeocodesKeptApart() {
+        GeocodedLocation sample = geocode("123 Main St");
+        cache.put("123 Main St", true, sample);
+
+        assertNull(cache.get("123 Main St"));
+        assertSame(sample, cache.get("123 main street", true));
+        assertEquals("test:123 main st", GeocodeCache.key("123 Main Street", true));
+    }
+
+    @Test
+    public void testEntriesExpire() {
+        cache.put("123 Main St", geocode("123 Main St"));
+
+        now.addAndGet(Duration.ofMinutes(11).toNanos());
+
+        assertNull(cache.get("123 Main St"));
+        assertEquals(1, cache.getMisses());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() {
+        cache.put("1 First St", geocode("1 First St"));
+        cache.put("2 Second St", geocode("2 Second St"));
+
+        // Touch the first entry so the second becomes the least recently used
+        cache.get("1 First St");
+        cache.put("3 Third St", geocode("3 Third St"));
+
+        assertNotNull(cache.get("1 First St"));
+        assertNull(cache.get("2 Second St"));
+        assertNotNull(cache.get("3 Third St"));
+        assertEquals(1, cache.getEvictions());
+    }
+}
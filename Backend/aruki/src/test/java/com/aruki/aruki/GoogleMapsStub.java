@@ -0,0 +1,259 @@
+package com.aruki.aruki;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * The {@code GoogleMapsStub} class is a local HTTP server that answers the Geocoding, Places nearby search and
+ * Distance Matrix requests of {@link APIManager} with synthetic results, so the whole pipeline, HTTP layer included,
+ * can be exercised without calling Google.
+ * <p>
+ * Point the backend at it with {@code aruki.google.base-url}. Every answer is deterministic for its request, so
+ * caches behave as they would against Google:
+ * <ul>
+ *   <li>An address geocodes to a point around Norfolk, VA derived from its hash. Addresses starting with
+ *       {@code invalid} return {@code ZERO_RESULTS}.</li>
+ *   <li>A nearby search returns {@code placesPerSearch} places of the requested type within 2 km of its center.</li>
+ *   <li>A Distance Matrix request returns a walking distance between 100 m and 2.5 km for every origin and
+ *       destination pair.</li>
+ * </ul>
+ * </p>
+ * <p>
+ * Each API answers after a latency drawn from its {@link LatencyDistribution}, and fails with {@code UNKNOWN_ERROR}
+ * at the configured error rate. {@code paddingBytes} adds an unused field to every answer, to test larger payloads.
+ * </p>
+ * <p>
+ * Example usage:
+ * <pre>
+ *     try (GoogleMapsStub stub = new GoogleMapsStub(Map.of(), LatencyDistribution.parse("lognormal:80:400"), 0.01, 20, 0)) {
+ *         stub.start(0);
+ *         APIManager apiManager = new APIManager(Duration.ofSeconds(2), Duration.ofSeconds(5), stub.getBaseUrl());
+ *     }
+ * </pre>
+ * </p>
+ *
+ * @see LatencyDistribution
+ */
+public class GoogleMapsStub implements Closeable {
+
+    private static final double CENTER_LAT = 36.87;
+    private static final double CENTER_LNG = -76.15;
+    private static final double METERS_PER_DEGREE = 111_320;
+
+    private final Map<UpstreamApi, LatencyDistribution> latencies = new EnumMap<>(UpstreamApi.class);
+    private final Map<UpstreamApi, AtomicLong> requests = new EnumMap<>(UpstreamApi.class);
+    private final double errorRate;
+    private final int placesPerSearch;
+    private final String padding;
+    private final MockWebServer server = new MockWebServer();
+
+    /**
+     * Constructs a GoogleMapsStub.
+     *
+     * @param latencies the latency of each API that does not use the default
+     * @param defaultLatency the latency of the other APIs
+     * @param errorRate the share of requests, between 0 and 1, answered with {@code UNKNOWN_ERROR}
+     * @param placesPerSearch the number of places in each nearby search answer, at most 20 like Google
+     * @param paddingBytes the size of the unused field added to every answer
+     */
+    public GoogleMapsStub(Map<UpstreamApi, LatencyDistribution> latencies, LatencyDistribution defaultLatency, double errorRate, int placesPerSearch, int paddingBytes) {
+        for (UpstreamApi api : UpstreamApi.values()) {
+            this.latencies.put(api, latencies.getOrDefault(api, defaultLatency));
+            this.requests.put(api, new AtomicLong());
+        }
+
+        this.errorRate = errorRate;
+        this.placesPerSearch = Math.min(placesPerSearch, 20);
+        this.padding = "x".repeat(paddingBytes);
+
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return answer(request);
+            }
+        });
+    }
+
+    /**
+     * Starts the server.
+     *
+     * @param port the port to listen on, or 0 for any free port
+     * @throws IOException if the server cannot be started
+     */
+    public void start(int port) throws IOException {
+        server.start(port);
+    }
+
+    /**
+     * Returns the base URL to pass as {@code aruki.google.base-url}.
+     *
+     * @return the base URL, without a trailing slash
+     */
+    public String getBaseUrl() {
+        String url = server.url("/").toString();
+        return url.substring(0, url.length() - 1);
+    }
+
+    /**
+     * Returns the number of requests received for an API.
+     *
+     * @param api the API
+     * @return the number of requests
+     */
+    public long getRequestCount(UpstreamApi api) {
+        return requests.get(api).get();
+    }
+
+    /**
+     * Stops the server.
+     *
+     * @throws IOException if the server cannot be stopped
+     */
+    @Override
+    public void close() throws IOException {
+        server.shutdown();
+    }
+
+    /**
+     * Answers a request, after the latency of its API.
+     */
+    private MockResponse answer(RecordedRequest request) {
+        HttpUrl url = request.getRequestUrl();
+        String path = (url != null) ? url.encodedPath() : "";
+        UpstreamApi api;
+
+        if (path.endsWith("/geocode/json")) {
+            api = UpstreamApi.GEOCODING;
+        } else if (path.endsWith("/place/nearbysearch/json")) {
+            api = UpstreamApi.PLACES;
+        } else if (path.endsWith("/distancematrix/json")) {
+            api = UpstreamApi.DISTANCE_MATRIX;
+        } else {
+            return new MockResponse().setResponseCode(404);
+        }
+
+        requests.get(api).incrementAndGet();
+        Random random = ThreadLocalRandom.current();
+        String body;
+
+        if (random.nextDouble() < errorRate) {
+            body = "{\"status\":\"UNKNOWN_ERROR\",\"error_message\":\"Stubbed failure\"";
+        } else {
+            switch (api) {
+                case GEOCODING:
+                    body = geocode(url.queryParameter("address"));
+                    break;
+                case PLACES:
+                    body = nearbySearch(url.queryParameter("location"), url.queryParameter("type"));
+                    break;
+                default:
+                    body = distanceMatrix(url.queryParameter("origins"), url.queryParameter("destinations"));
+                    break;
+            }
+        }
+
+        return new MockResponse()
+                .setHeader("Content-Type", "application/json; charset=UTF-8")
+                .setBody(body + ",\"stub_padding\":\"" + padding + "\"}")
+                .setHeadersDelay(latencies.get(api).sampleMillis(random), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Builds the body of a Geocoding answer, without its closing brace.
+     */
+    private static String geocode(String address) {
+        if (address == null || address.toLowerCase(Locale.ROOT).startsWith("invalid")) {
+            return "{\"status\":\"ZERO_RESULTS\",\"results\":[]";
+        }
+
+        Random random = new Random(address.hashCode());
+        double lat = CENTER_LAT + (random.nextDouble() - 0.5) * 0.2;
+        double lng = CENTER_LNG + (random.nextDouble() - 0.5) * 0.3;
+
+        return "{\"status\":\"OK\",\"results\":[{\"formatted_address\":" + quote(address) + ",\"place_id\":\"geo-" + Integer.toHexString(address.hashCode()) + "\","
+                + "\"geometry\":{\"location\":{\"lat\":" + lat + ",\"lng\":" + lng + "}},\"types\":[\"street_address\"]}]";
+    }
+
+    /**
+     * Builds the body of a nearby search answer, without its closing brace.
+     */
+    private String nearbySearch(String location, String type) {
+        String[] latLng = (location != null) ? location.split(",") : new String[] {String.valueOf(CENTER_LAT), String.valueOf(CENTER_LNG)};
+        double lat = Double.parseDouble(latLng[0]);
+        double lng = Double.parseDouble(latLng[1]);
+        Random random = new Random((location + type).hashCode());
+        StringBuilder body = new StringBuilder("{\"status\":\"OK\",\"html_attributions\":[],\"results\":[");
+
+        for (int i = 0; i < placesPerSearch; i++) {
+            double meters = random.nextDouble() * 2000;
+            double bearing = random.nextDouble() * 2 * Math.PI;
+            double placeLat = lat + meters * Math.cos(bearing) / METERS_PER_DEGREE;
+            double placeLng = lng + meters * Math.sin(bearing) / (METERS_PER_DEGREE * Math.cos(Math.toRadians(lat)));
+            String id = type + "-" + Integer.toHexString((location + type + i).hashCode());
+
+            if (i > 0) {
+                body.append(',');
+            }
+            body.append("{\"name\":").append(quote(type + " " + i)).append(",\"vicinity\":").append(quote(i + " Stub Street"))
+                    .append(",\"place_id\":\"").append(id).append("\",\"types\":[\"").append(type).append("\",\"point_of_interest\",\"establishment\"]")
+                    .append(",\"geometry\":{\"location\":{\"lat\":").append(placeLat).append(",\"lng\":").append(placeLng).append("}}}");
+        }
+
+        return body.append(']').toString();
+    }
+
+    /**
+     * Builds the body of a Distance Matrix answer, without its closing brace.
+     */
+    private static String distanceMatrix(String origins, String destinations) {
+        String[] from = (origins != null) ? origins.split("\\|") : new String[0];
+        String[] to = (destinations != null) ? destinations.split("\\|") : new String[0];
+        StringBuilder body = new StringBuilder("{\"status\":\"OK\",\"origin_addresses\":[");
+
+        appendAddresses(body, from);
+        body.append("],\"destination_addresses\":[");
+        appendAddresses(body, to);
+        body.append("],\"rows\":[");
+
+        for (int o = 0; o < from.length; o++) {
+            body.append((o > 0) ? ",{\"elements\":[" : "{\"elements\":[");
+
+            for (int d = 0; d < to.length; d++) {
+                long meters = 100 + new Random((from[o] + "|" + to[d]).hashCode()).nextInt(2400); // Similar pairs would have similar hashes
+                long seconds = Math.round(meters / 1.4);
+
+                if (d > 0) {
+                    body.append(',');
+                }
+                body.append("{\"status\":\"OK\",\"distance\":{\"value\":").append(meters).append(",\"text\":\"").append(Location.formatDistance(meters))
+                        .append("\"},\"duration\":{\"value\":").append(seconds).append(",\"text\":\"").append(seconds / 60).append(" mins\"}}");
+            }
+            body.append("]}");
+        }
+
+        return body.append(']').toString();
+    }
+
+    private static void appendAddresses(StringBuilder body, String[] addresses) {
+        for (int i = 0; i < addresses.length; i++) {
+            body.append((i > 0) ? "," : "").append(quote(addresses[i]));
+        }
+    }
+
+    private static String quote(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
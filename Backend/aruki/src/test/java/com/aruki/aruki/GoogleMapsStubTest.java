@@ -0,0 +1,90 @@
+package com.aruki.aruki;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.maps.errors.UnknownErrorException;
+import com.google.maps.model.PlaceType;
+
+public class GoogleMapsStubTest {
+
+    /**
+     * Test to make sure that an APIManager pointed at the stub goes through the HTTP layer for every API, and that
+     * the whole scoring pipeline runs against it.
+     */
+    @Test
+    public void testPipelineOverHttp() throws Exception {
+        try (GoogleMapsStub stub = new GoogleMapsStub(Map.of(), LatencyDistribution.fixed(0), 0, 5, 64)) {
+            stub.start(0);
+            APIManager apiManager = new APIManager(Duration.ofSeconds(2), Duration.ofSeconds(5), stub.getBaseUrl());
+
+            GeocodedLocation origin = apiManager.geocode("1 Main Street, Norfolk, VA", false);
+            assertNotNull(origin);
+            assertEquals(36.87, origin.getLatLng().lat, 0.1);
+
+            List<Location> places = apiManager.retrievePlacesOfCategory(origin.getLatLng(), 2000, PlaceType.PARK, false);
+            assertEquals(5, places.size());
+            assertTrue(places.get(0).hasCoordinates());
+
+            List<WalkingDistance> distances = apiManager.getWalkingDistances(origin, places, false);
+            assertEquals(5, distances.size());
+            assertTrue(distances.get(0).getMeters() >= 100);
+
+            assertNull(apiManager.geocode("invalid address", false));
+
+            ScoreResponse score = new LocationManager(apiManager).getScore("2 Main Street, Norfolk, VA", false);
+            assertTrue(score.getWalkabilityScore() > 0);
+            assertEquals(LocationManager.CATEGORY_CONSTANTS.size() + 1, stub.getRequestCount(UpstreamApi.PLACES));
+        }
+    }
+
+    /**
+     * Test to make sure that injected failures reach the client as the errors Google would return.
+     */
+    @Test
+    public void testInjectedErrors() throws Exception {
+        try (GoogleMapsStub stub = new GoogleMapsStub(Map.of(), LatencyDistribution.fixed(0), 1, 5, 0)) {
+            stub.start(0);
+            APIManager apiManager = new APIManager(Duration.ofSeconds(2), Duration.ofSeconds(5), stub.getBaseUrl());
+
+            assertThrows(UnknownErrorException.class, () -> apiManager.geocode("1 Main Street, Norfolk, VA", false));
+            assertEquals(1, stub.getRequestCount(UpstreamApi.GEOCODING));
+        }
+    }
+
+    /**
+     * Test to make sure that latency distributions are parsed and draw around their median.
+     */
+    @Test
+    public void testLatencyDistributions() {
+        Random random = new Random(1);
+
+        assertEquals(50, LatencyDistribution.parse("fixed:50").sampleMillis(random));
+        assertEquals(0, LatencyDistribution.parse("0").sampleMillis(random));
+
+        long uniform = LatencyDistribution.parse("uniform:20-200").sampleMillis(random);
+        assertTrue(uniform >= 20 && uniform < 200);
+
+        LatencyDistribution lognormal = LatencyDistribution.parse("lognormal:80:400");
+        long[] samples = new long[10_001];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = lognormal.sampleMillis(random);
+        }
+        Arrays.sort(samples);
+        assertEquals(80, samples[samples.length / 2], 8);
+        assertEquals(400, samples[samples.length * 99 / 100], 80);
+
+        assertThrows(IllegalArgumentException.class, () -> LatencyDistribution.parse("uniform:abc"));
+    }
+}
@@ -0,0 +1,183 @@
+package com.aruki.aruki;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.maps.model.LatLng;
+import com.google.maps.model.PlaceType;
+
+public class GridScorerTest {
+
+    private static final List<Location> PLACES = List.of(
+            new Location("Corner Grocery", "1 Main Street", new String[] {"grocery_or_supermarket"}, "p1", 36.850, -75.980),
+            new Location("Harbor Cafe", "2 Main Street", new String[] {"restaurant"}, "p2", 36.852, -75.975),
+            new Location("Town Point Park", "3 Main Street", new String[] {"park"}, "p3", 36.845, -75.985),
+            new Location("Granby Pharmacy", "4 Main Street", new String[] {"pharmacy"}, "p4", 36.858, -75.968));
+
+    private APIManager apiManager;
+    private List<int[]> matrixRequests; // Origins and destinations of each Distance Matrix request
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        apiManager = mock(APIManager.class);
+        matrixRequests = new CopyOnWriteArrayList<>();
+
+        when(apiManager.retrievePlacesOfCategory(any(LatLng.class), anyInt(), any(PlaceType.class), eq(true))).thenAnswer(invocation -> {
+            String category = invocation.getArgument(2, PlaceType.class).toString();
+            return PLACES.stream().filter(place -> Arrays.asList(place.getTypes()).contains(category)).toList();
+        });
+        when(apiManager.getWalkingDistanceMatrix(anyList(), anyList(), eq(true))).thenAnswer(invocation -> {
+            List<LatLng> origins = invocation.getArgument(0);
+            List<Location> destinations = invocation.getArgument(1);
+            matrixRequests.add(new int[] {origins.size(), destinations.size()});
+            return APIManager.sampleData_getWalkingDistanceMatrix(origins, destinations);
+        });
+        when(apiManager.getWalkingDistances(any(GeocodedLocation.class), anyList(), eq(true))).thenAnswer(invocation -> {
+            GeocodedLocation origin = invocation.getArgument(0);
+            return APIManager.sampleData_getWalkingDistanceMatrix(List.of(origin.getLatLng()), invocation.getArgument(1)).get(0);
+        });
+    }
+
+    /**
+     * Test to make sure that every cell gets the score the per-address pipeline gives its center.
+     */
+    @Test
+    public void testCellsMatchPerAddressScores() throws Exception {
+        ScoreGrid grid = new GridScorer(apiManager).score(36.84, -75.995, 36.86, -75.965, 500, new PipelineStats(), true);
+        LocationManager locationManager = new LocationManager(apiManager);
+
+        assertEquals(5, grid.getRows());
+        assertEquals(6, grid.getColumns());
+
+        boolean anyScored = false;
+        for (int row = 0; row < grid.getRows(); row++) {
+            for (int column = 0; column < grid.getColumns(); column++) {
+                LatLng center = grid.cellCenter(row * grid.getColumns() + column);
+                double expected = locationManager.getScore(new GeocodedLocation("cell", "cell", null, center), true).getWalkabilityScore();
+
+                assertEquals(expected, grid.getScore(row, column), 1e-4, "cell " + row + "," + column);
+                anyScored |= expected > 0;
+            }
+        }
+        assertTrue(anyScored);
+    }
+
+    /**
+     * Test to make sure that adjacent cells share Distance Matrix requests within Google's limits, and that scoring
+     * the same grid again is served from the caches.
+     */
+    @Test
+    public void testRequestsWithinLimitsAndCached() throws Exception {
+        GridScorer gridScorer = new GridScorer(apiManager);
+        PipelineStats stats = new PipelineStats();
+
+        ScoreGrid grid = gridScorer.score(36.84, -75.995, 36.86, -75.965, 500, stats, true);
+
+        assertFalse(matrixRequests.isEmpty());
+        assertTrue(matrixRequests.size() < grid.getCellCount());
+        for (int[] request : matrixRequests) {
+            assertTrue(request[0] <= GridScorer.MAX_ORIGINS_PER_REQUEST && request[1] <= GridScorer.MAX_ORIGINS_PER_REQUEST);
+            assertTrue(request[0] * request[1] <= GridScorer.MAX_ELEMENTS_PER_REQUEST);
+        }
+        assertEquals(matrixRequests.stream().mapToInt(request -> request[0] * request[1]).sum(), stats.getDistanceMatrixElements());
+
+        reset(apiManager);
+        PipelineStats again = new PipelineStats();
+        ScoreGrid cached = gridScorer.score(36.84, -75.995, 36.86, -75.965, 500, again, true);
+
+        verify(apiManager, never()).retrievePlacesOfCategory(any(LatLng.class), anyInt(), any(PlaceType.class), eq(true));
+        verify(apiManager, never()).getWalkingDistanceMatrix(anyList(), anyList(), eq(true));
+        assertEquals(0, again.getDistanceMatrixElements());
+        assertEquals(grid.getScore(2, 3), cached.getScore(2, 3));
+    }
+
+    /**
+     * Test to make sure that a stored grid reads back identically under the id of its request.
+     */
+    @Test
+    public void testStoreRoundTrip(@TempDir Path directory) throws Exception {
+        ScoreGridStore store = new ScoreGridStore(directory);
+        GridScorer gridScorer = new GridScorer(apiManager);
+        ScoreGrid grid = gridScorer.score(36.84, -75.995, 36.86, -75.965, 500, new PipelineStats(), true);
+        String id = ScoreGridStore.idOf(36.84, -75.995, 36.86, -75.965, 500, gridScorer.getScoringIdentity());
+
+        assertEquals(id, ScoreGridStore.idOf(36.84000001, -75.995, 36.86, -75.965, 500.0, gridScorer.getScoringIdentity()));
+        assertNotEquals(id, ScoreGridStore.idOf(36.84, -75.995, 36.86, -75.965, 500, "0000|OfflinePlacesProvider+LocalWalkingDistanceProvider"));
+        assertFalse(store.contains(id));
+        assertFalse(store.contains("../../etc/passwd"));
+
+        store.save(id, grid);
+        ScoreGrid loaded = store.load(id);
+
+        assertTrue(store.contains(id));
+        assertEquals(grid.toString(), loaded.toString());
+        for (int row = 0; row < grid.getRows(); row++) {
+            for (int column = 0; column < grid.getColumns(); column++) {
+                assertEquals(grid.getScore(row, column), loaded.getScore(row, column));
+            }
+        }
+    }
+
+    /**
+     * Test to make sure that a request for a grid that is already being computed waits for that computation instead
+     * of scoring every cell again.
+     */
+    @Test
+    public void testConcurrentRequestsComputeOnce() throws Exception {
+        GridScorer gridScorer = new GridScorer(apiManager);
+        SingleFlight<?, ?> gridFlights = (SingleFlight<?, ?>) ReflectionTestUtils.getField(gridScorer, "gridFlights");
+        String id = ScoreGridStore.idOf(36.84, -75.995, 36.86, -75.965, 500, gridScorer.getScoringIdentity());
+
+        AtomicInteger computations = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Callable<ScoreGrid> computation = () -> {
+            computations.incrementAndGet();
+            started.countDown();
+            release.await();
+            return gridScorer.score(36.84, -75.995, 36.86, -75.965, 500, new PipelineStats(), true);
+        };
+
+        FutureTask<ScoreGrid> first = new FutureTask<>(() -> gridScorer.computeOnce(id, computation));
+        FutureTask<ScoreGrid> second = new FutureTask<>(() -> gridScorer.computeOnce(id, computation));
+        Thread.ofVirtual().start(first);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Thread.ofVirtual().start(second);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (gridFlights.getCoalesced() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+
+        assertEquals(first.get(5, TimeUnit.SECONDS), second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, computations.get());
+        assertEquals(1, gridFlights.getCoalesced());
+    }
+}
@@ -0,0 +1,73 @@
+package com.aruki.aruki;
+
+import java.util.Random;
+
+/**
+ * The {@code LatencyDistribution} interface draws the response latency of a stubbed Google Maps call.
+ * <p>
+ * Distributions are parsed from a short spec, with every duration in milliseconds:
+ * <ul>
+ *   <li>{@code 0} or {@code fixed:50}: always the same latency</li>
+ *   <li>{@code uniform:20-200}: uniform between the two bounds</li>
+ *   <li>{@code lognormal:80:400}: log-normal with the given median and 99th percentile, the usual shape of
+ *       network latency, with a long tail</li>
+ * </ul>
+ * </p>
+ *
+ * @see GoogleMapsStub
+ */
+public interface LatencyDistribution {
+
+    /**
+     * Draws a latency.
+     *
+     * @param random the source of randomness
+     * @return the latency, in milliseconds
+     */
+    long sampleMillis(Random random);
+
+    /**
+     * Parses a distribution spec.
+     *
+     * @param spec the spec, e.g. {@code lognormal:80:400}
+     * @return the distribution
+     * @throws IllegalArgumentException if the spec cannot be parsed
+     */
+    static LatencyDistribution parse(String spec) {
+        String[] parts = spec.trim().split(":");
+
+        try {
+            switch (parts[0]) {
+                case "fixed":
+                    return fixed(Long.parseLong(parts[1]));
+                case "uniform": {
+                    String[] bounds = parts[1].split("-");
+                    long min = Long.parseLong(bounds[0]);
+                    long max = Long.parseLong(bounds[1]);
+                    return random -> min + (long) (random.nextDouble() * (max - min));
+                }
+                case "lognormal": {
+                    double median = Double.parseDouble(parts[1]);
+                    double p99 = Double.parseDouble(parts[2]);
+                    double mu = Math.log(median);
+                    double sigma = (Math.log(p99) - mu) / 2.326; // z of the 99th percentile
+                    return random -> Math.round(Math.exp(mu + sigma * random.nextGaussian()));
+                }
+                default:
+                    return fixed(Long.parseLong(parts[0]));
+            }
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid latency distribution: " + spec, e);
+        }
+    }
+
+    /**
+     * Returns a distribution that always draws the same latency.
+     *
+     * @param millis the latency, in milliseconds
+     * @return the distribution
+     */
+    static LatencyDistribution fixed(long millis) {
+        return random -> millis;
+    }
+}
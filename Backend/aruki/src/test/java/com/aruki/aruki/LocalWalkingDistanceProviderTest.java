@@ -0,0 +1,242 @@
+package com.aruki.aruki;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.maps.model.DistanceMatrixElementStatus;
+import com.google.maps.model.LatLng;
+
+public class LocalWalkingDistanceProviderTest {
+
+    private static final double LATITUDE = 36.85;
+    private static final double LONGITUDE = -76.29;
+    private static final double STEP = 0.001; // About 111 m north-south and 89 m east-west
+
+    private static final String EXTRACT = """
+            <?xml version="1.0" encoding="UTF-8"?>
+            <osm version="0.6">
+              <node id="1" lat="36.8500" lon="-76.2900"/>
+              <node id="2" lat="36.8510" lon="-76.2900"/>
+              <node id="3" lat="36.8520" lon="-76.2900"/>
+              <node id="4" lat="36.8520" lon="-76.2890"/>
+              <node id="5" lat="36.8520" lon="-76.2880"/>
+              <node id="6" lat="36.8530" lon="-76.2880"/>
+              <node id="7" lat="36.8520" lon="-76.2870"/>
+              <node id="8" lat="36.8400" lon="-76.2800"/>
+              <way id="10">
+                <nd ref="1"/><nd ref="2"/><nd ref="3"/>
+                <tag k="highway" v="footway"/>
+              </way>
+              <way id="11">
+                <nd ref="3"/><nd ref="4"/><nd ref="5"/>
+                <tag k="highway" v="residential"/><tag k="oneway" v="yes"/>
+              </way>
+              <way id="12">
+                <nd ref="1"/><nd ref="5"/>
+                <tag k="highway" v="motorway"/>
+              </way>
+              <way id="13">
+                <nd ref="5"/><nd ref="6"/>
+                <tag k="highway" v="service"/><tag k="access" v="private"/>
+              </way>
+              <way id="14">
+                <nd ref="5"/><nd ref="7"/>
+                <tag k="highway" v="trunk"/><tag k="foot" v="yes"/>
+              </way>
+              <way id="15">
+                <nd ref="7"/><nd ref="8"/>
+                <tag k="highway" v="construction"/>
+              </way>
+            </osm>
+            """;
+
+    /**
+     * Builds a square grid of streets, with a short footway apart from it.
+     */
+    private static PedestrianGraph.Builder grid(int size) {
+        PedestrianGraph.Builder builder = new PedestrianGraph.Builder();
+        int[][] nodes = new int[size][size];
+
+        for (int row = 0; row < size; row++) {
+            for (int column = 0; column < size; column++) {
+                nodes[row][column] = builder.addNode(LATITUDE + row * STEP, LONGITUDE + column * STEP);
+                if (row > 0) {
+                    builder.addSegment(nodes[row - 1][column], nodes[row][column]);
+                }
+                if (column > 0) {
+                    builder.addSegment(nodes[row][column - 1], nodes[row][column]);
+                }
+            }
+        }
+
+        int first = builder.addNode(LATITUDE - 0.02, LONGITUDE);
+        builder.addSegment(first, builder.addNode(LATITUDE - 0.0205, LONGITUDE));
+        return builder;
+    }
+
+    private static Location place(String name, double latitude, double longitude) {
+        return new Location(name, "", new String[] { "park" }, name, latitude, longitude);
+    }
+
+    private static GeocodedLocation origin(double latitude, double longitude) {
+        return new GeocodedLocation("origin", "origin", "origin", new LatLng(latitude, longitude));
+    }
+
+    /**
+     * Test to make sure that distances follow the streets, in a single search to every destination, with the
+     * snapping distances added and the statuses of the Distance Matrix API kept.
+     */
+    @Test
+    public void testWalkingDistances(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("grid.graph");
+        grid(10).build().write(file);
+        LocalWalkingDistanceProvider provider = LocalWalkingDistanceProvider.open(file, 1500);
+
+        assertEquals(100, provider.getGraph().getNodeCount()); // The footway apart is dropped
+        assertEquals(2 * 2 * 9 * 10, provider.getGraph().getEdgeCount());
+        assertEquals(0, provider.getMaxDestinationsPerRequest());
+
+        double north = GeoMath.distanceMeters(LATITUDE, LONGITUDE, LATITUDE + STEP, LONGITUDE);
+        double east = GeoMath.distanceMeters(LATITUDE, LONGITUDE, LATITUDE, LONGITUDE + STEP);
+        double offset = GeoMath.distanceMeters(LATITUDE, LONGITUDE, LATITUDE + 0.0001, LONGITUDE);
+
+        List<Location> places = List.of(
+            place("Across the grid", LATITUDE + 9 * STEP, LONGITUDE + 9 * STEP),
+            place("Off the street", LATITUDE + 3 * STEP + 0.0001, LONGITUDE + 4 * STEP),
+            place("Footway apart", LATITUDE - 0.02, LONGITUDE),
+            new Location("No coordinates", "", new String[] { "park" }),
+            place("Next door", LATITUDE, LONGITUDE + STEP)
+        );
+
+        List<WalkingDistance> distances = provider.getWalkingDistancesAsync(origin(LATITUDE - 0.0001, LONGITUDE), places, false).get();
+
+        assertEquals(5, distances.size());
+        assertEquals(DistanceMatrixElementStatus.ZERO_RESULTS, distances.get(0).getStatus()); // 9 north and 9 east is over 1.5 km
+        assertEquals(Math.round(offset + 3 * north + 4 * east + offset), distances.get(1).getMeters(), 1);
+        assertEquals(Math.round(distances.get(1).getMeters() / LocalWalkingDistanceProvider.WALKING_METERS_PER_SECOND), distances.get(1).getSeconds(), 1);
+        assertEquals(DistanceMatrixElementStatus.NOT_FOUND, distances.get(2).getStatus());
+        assertEquals(DistanceMatrixElementStatus.NOT_FOUND, distances.get(3).getStatus());
+        assertEquals(Math.round(offset + east), distances.get(4).getMeters(), 1);
+
+        LocalWalkingDistanceProvider farther = new LocalWalkingDistanceProvider(provider.getGraph(), 3000, LocalWalkingDistanceProvider.DEFAULT_MAX_SNAP_METERS);
+        assertEquals(Math.round(offset + 9 * north + 9 * east), farther.getWalkingDistances(origin(LATITUDE - 0.0001, LONGITUDE), places, false).get(0).getMeters(), 1);
+
+        List<LatLng> origins = List.of(new LatLng(LATITUDE - 0.0001, LONGITUDE), new LatLng(LATITUDE + 0.5, LONGITUDE));
+        List<List<WalkingDistance>> matrix = provider.getWalkingDistanceMatrix(origins, places, false);
+        assertEquals(distances.get(1).getMeters(), matrix.get(0).get(1).getMeters());
+        assertTrue(matrix.get(1).stream().allMatch(distance -> distance.getStatus() == DistanceMatrixElementStatus.NOT_FOUND));
+    }
+
+    /**
+     * Test to make sure that the bounded search finds the same distances as a plain Dijkstra over every node, on a
+     * random street network.
+     */
+    @Test
+    public void testMatchesFullSearch() {
+        Random random = new Random(11);
+        int count = 400;
+        double[] latitudes = new double[count];
+        double[] longitudes = new double[count];
+        PedestrianGraph.Builder builder = new PedestrianGraph.Builder(PedestrianGraph.DEFAULT_CELL_DEGREES, 1);
+        double[][] lengths = new double[count][count];
+
+        for (int i = 0; i < count; i++) {
+            latitudes[i] = LATITUDE + random.nextDouble() * 0.03;
+            longitudes[i] = LONGITUDE + random.nextDouble() * 0.03;
+            builder.addNode(latitudes[i], longitudes[i]);
+            Arrays.fill(lengths[i], Double.POSITIVE_INFINITY);
+        }
+        for (int i = 1; i < count; i++) {
+            for (int j : new int[] { random.nextInt(i), random.nextInt(i), random.nextInt(count) }) {
+                builder.addSegment(i, j);
+                double length = GeoMath.distanceMeters(Math.round(latitudes[i] * 1e7) / 1e7, Math.round(longitudes[i] * 1e7) / 1e7,
+                        Math.round(latitudes[j] * 1e7) / 1e7, Math.round(longitudes[j] * 1e7) / 1e7);
+                lengths[i][j] = lengths[j][i] = (i == j) ? Double.POSITIVE_INFINITY : length;
+            }
+        }
+        PedestrianGraph graph = builder.build();
+
+        // Plain Dijkstra from the first node, over the matrix of segment lengths
+        double[] expected = new double[count];
+        boolean[] settled = new boolean[count];
+        Arrays.fill(expected, Double.POSITIVE_INFINITY);
+        expected[0] = 0;
+        for (int round = 0; round < count; round++) {
+            int next = -1;
+            for (int i = 0; i < count; i++) {
+                if (!settled[i] && (next < 0 || expected[i] < expected[next])) {
+                    next = i;
+                }
+            }
+            settled[next] = true;
+            for (int i = 0; i < count; i++) {
+                expected[i] = Math.min(expected[i], expected[next] + lengths[next][i]);
+            }
+        }
+
+        int[] nodes = new int[count];
+        for (int i = 0; i < count; i++) {
+            nodes[i] = graph.nearestNode(latitudes[i], longitudes[i], 0.01);
+        }
+
+        for (double bound : new double[] { 300, 1500, 100_000 }) {
+            float[] found = graph.shortestDistances(nodes[0], nodes, bound);
+            for (int i = 0; i < count; i++) {
+                if (expected[i] <= bound) {
+                    assertEquals(expected[i], found[i], 0.05, "Node " + i + " within " + bound);
+                } else {
+                    assertEquals(Float.POSITIVE_INFINITY, found[i], "Node " + i + " within " + bound);
+                }
+            }
+        }
+    }
+
+    /**
+     * Test to make sure that only walkable ways are imported, and that one-way streets are walked both ways.
+     */
+    @Test
+    public void testImportsWalkableWays(@TempDir Path directory) throws Exception {
+        Path extract = Files.writeString(directory.resolve("extract.osm"), EXTRACT);
+        PedestrianGraph.Builder builder = new PedestrianGraph.Builder(PedestrianGraph.DEFAULT_CELL_DEGREES, 2);
+
+        assertEquals(3, PedestrianGraphImporter.importOsm(extract, builder));
+        PedestrianGraph graph = builder.build();
+
+        assertEquals(6, graph.getNodeCount()); // Nodes 6 (private) and 8 (under construction) are not walkable
+        assertEquals(2 * 5, graph.getEdgeCount());
+        assertEquals(-1, graph.nearestNode(36.8530, -76.2880, 50));
+
+        int start = graph.nearestNode(36.8500, -76.2900, 1);
+        int end = graph.nearestNode(36.8520, -76.2870, 1);
+        double walk = GeoMath.distanceMeters(36.8500, -76.2900, 36.8520, -76.2900) + GeoMath.distanceMeters(36.8520, -76.2900, 36.8520, -76.2870);
+
+        assertEquals(walk, graph.shortestDistances(start, new int[] { end }, 2000)[0], 0.05); // Not along the motorway
+        assertEquals(walk, graph.shortestDistances(end, new int[] { start }, 2000)[0], 0.05); // Against the one-way street
+    }
+
+    /**
+     * Test to make sure that a file that is not a graph, or is cut short, is refused when opened.
+     */
+    @Test
+    public void testRejectsInvalidFiles(@TempDir Path directory) throws Exception {
+        Path notAGraph = Files.writeString(directory.resolve("extract.osm"), EXTRACT);
+        assertThrows(IOException.class, () -> PedestrianGraph.open(notAGraph));
+
+        Path file = directory.resolve("grid.graph");
+        grid(10).build().write(file);
+        byte[] bytes = Files.readAllBytes(file);
+        Path truncated = Files.write(directory.resolve("truncated.graph"), Arrays.copyOf(bytes, bytes.length - 10));
+        assertThrows(IOException.class, () -> PedestrianGraph.open(truncated));
+    }
+}
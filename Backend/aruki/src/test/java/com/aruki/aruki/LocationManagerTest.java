@@ -1,21 +1,39 @@
 package com.aruki.aruki;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.*;
 import static org.mockito.AdditionalMatchers.*;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.google.maps.model.DistanceMatrixElementStatus;
+import com.google.maps.model.LatLng;
 import com.google.maps.model.PlaceType;
 
 public class LocationManagerTest {
@@ -34,14 +52,16 @@ public class LocationManagerTest {
     @Test
     public void testGetPlaces() {
         String location = "Sample Location";
+        GeocodedLocation origin = APIManager.sampleData_geocode(location);
         List<Location> samplePlaces = APIManager.sampleData_retrievePlacesOfCategory(location, PlaceType.RESTAURANT);
 
         try{
-            when(apiManager.retrievePlacesOfCategory(eq(location), eq(PlaceType.RESTAURANT), eq(true))).thenReturn(samplePlaces);
-            when(apiManager.retrievePlacesOfCategory(anyString(), not(eq(PlaceType.RESTAURANT)), eq(true))).thenReturn(List.of());
-            when(apiManager.getWalkingDistances(anyString(), anyList(), eq(true))).thenReturn(Arrays.asList("0.4", "0.6", "1.2"));
+            when(apiManager.geocode(eq(location), eq(true))).thenReturn(origin);
+            when(apiManager.retrievePlacesOfCategory(any(LatLng.class), anyInt(), eq(PlaceType.RESTAURANT), eq(true))).thenReturn(samplePlaces);
+            when(apiManager.retrievePlacesOfCategory(any(LatLng.class), anyInt(), not(eq(PlaceType.RESTAURANT)), eq(true))).thenReturn(List.of());
+            when(apiManager.getWalkingDistances(eq(origin), anyList(), eq(true))).thenReturn(walkingDistances(0.4, 0.6, 1.2));
             List<Location> places = locationManager.getPlaces(location, true);
-            assertEquals("[{\"name\":\"The Green Leaf Diner\",\"address\":\"456 Oak Avenue, Example City, 12345\",\"types\":[restaurant],\"distance\":\"0.4\"}, {\"name\":\"The Red Tomato\",\"address\":\"789 Maple Street, Example City, 12345\",\"types\":[restaurant],\"distance\":\"0.6\"}, {\"name\":\"The Blue Ocean\",\"address\":\"123 Pine Road, Example City, 12345\",\"types\":[restaurant],\"distance\":\"1.2\"}]", places.toString());
+            assertEquals("[{\"name\":\"The Green Leaf Diner\",\"address\":\"456 Oak Avenue, Example City, 12345\",\"types\":[restaurant],\"distance\":\"0.4 km\"}, {\"name\":\"The Red Tomato\",\"address\":\"789 Maple Street, Example City, 12345\",\"types\":[restaurant],\"distance\":\"0.6 km\"}, {\"name\":\"The Blue Ocean\",\"address\":\"123 Pine Road, Example City, 12345\",\"types\":[restaurant],\"distance\":\"1.2 km\"}]", places.toString());
         } catch (Exception e) {
             System.out.println("Error: " + e.getMessage());
             //fail the test with information about the error
@@ -62,10 +82,13 @@ public class LocationManagerTest {
             new Location("Place 2", "Address 2", types, "0.6")
         );
 
+        GeocodedLocation origin = APIManager.sampleData_geocode(location);
+
         try{
-            when(apiManager.retrievePlacesOfCategory(eq(location), eq(PlaceType.RESTAURANT), eq(true))).thenReturn(samplePlaces);
-            when(apiManager.retrievePlacesOfCategory(anyString(), not(eq(PlaceType.RESTAURANT)), eq(true))).thenReturn(List.of());
-            when(apiManager.getWalkingDistances(anyString(), anyList(), eq(true))).thenReturn(Arrays.asList("0.4", "0.6"));
+            when(apiManager.geocode(eq(location), eq(true))).thenReturn(origin);
+            when(apiManager.retrievePlacesOfCategory(any(LatLng.class), anyInt(), eq(PlaceType.RESTAURANT), eq(true))).thenReturn(samplePlaces);
+            when(apiManager.retrievePlacesOfCategory(any(LatLng.class), anyInt(), not(eq(PlaceType.RESTAURANT)), eq(true))).thenReturn(List.of());
+            when(apiManager.getWalkingDistances(eq(origin), anyList(), eq(true))).thenReturn(walkingDistances(0.4, 0.6));
             ScoreResponse score = locationManager.getScore(location, true);
             assertEquals(1.87, score.getWalkabilityScore());
         } catch (Exception e) {
@@ -93,16 +116,326 @@ public class LocationManagerTest {
         );
 
 
-        List<String> distances = Arrays.asList("0.4", "0.6", "3.4", "3.6");
+        List<WalkingDistance> distances = walkingDistances(0.4, 0.6, 3.4, 3.6);
 
         try{
-            when(apiManager.retrievePlacesOfCategory(anyString(), eq(PlaceType.RESTAURANT), eq(true))).thenReturn(samplePlaces);
-            when(apiManager.retrievePlacesOfCategory(anyString(), not(eq(PlaceType.RESTAURANT)), eq(true))).thenReturn(List.of());
-            when(apiManager.getWalkingDistances(anyString(), anyList(), eq(true))).thenReturn(distances);
+            when(apiManager.geocode(anyString(), eq(true))).thenAnswer(invocation -> APIManager.sampleData_geocode(invocation.getArgument(0)));
+            when(apiManager.retrievePlacesOfCategory(any(LatLng.class), anyInt(), eq(PlaceType.RESTAURANT), eq(true))).thenReturn(samplePlaces);
+            when(apiManager.retrievePlacesOfCategory(any(LatLng.class), anyInt(), not(eq(PlaceType.RESTAURANT)), eq(true))).thenReturn(List.of());
+            when(apiManager.getWalkingDistances(any(GeocodedLocation.class), anyList(), eq(true))).thenReturn(distances);
 
             List<Location> places = locationManager.getPlaces("Sample Location", true);
 
-            assertEquals("[{\"name\":\"Place 1\",\"address\":\"Address 1\",\"types\":[restaurant],\"distance\":\"0.4\"}, {\"name\":\"Place 2\",\"address\":\"Address 2\",\"types\":[restaurant],\"distance\":\"0.6\"}]", places.toString());
+            assertEquals("[{\"name\":\"Place 1\",\"address\":\"Address 1\",\"types\":[restaurant],\"distance\":\"0.4 km\"}, {\"name\":\"Place 2\",\"address\":\"Address 2\",\"types\":[restaurant],\"distance\":\"0.6 km\"}]", places.toString());
+        }
+        catch (Exception e) {
+            System.out.println("Error: " + e.getMessage());
+            //fail the test with information about the error
+            assertEquals("Error: " + e.getMessage(), "");
+        }
+    }
+
+    /**
+     * Test to make sure that the location is geocoded exactly once per request, and that the resulting origin is
+     * reused by every nearby search and by the Distance Matrix stage.
+     */
+    @Test
+    public void testLocationGeocodedOnce()
+    {
+        String location = "Sample Location";
+        GeocodedLocation origin = APIManager.sampleData_geocode(location);
+
+        try{
+            when(apiManager.geocode(eq(location), eq(true))).thenReturn(origin);
+            when(apiManager.retrievePlacesOfCategory(any(LatLng.class), anyInt(), eq(PlaceType.RESTAURANT), eq(true))).thenReturn(APIManager.sampleData_retrievePlacesOfCategory(location, PlaceType.RESTAURANT));
+            when(apiManager.retrievePlacesOfCategory(any(LatLng.class), anyInt(), not(eq(PlaceType.RESTAURANT)), eq(true))).thenReturn(List.of());
+            when(apiManager.getWalkingDistances(eq(origin), anyList(), eq(true))).thenReturn(walkingDistances(0.4, 0.6, 1.2));
+
+            locationManager.getScore(location, true);
+
+            verify(apiManager, times(1)).geocode(anyString(), anyBoolean());
+            verify(apiManager, times(LocationManager.CATEGORY_CONSTANTS.size())).retrievePlacesOfCategory(any(LatLng.class), anyInt(), any(PlaceType.class), eq(true));
+            verify(apiManager, never()).locationExists(anyString());
+        }
+        catch (Exception e) {
+            System.out.println("Error: " + e.getMessage());
+            //fail the test with information about the error
+            assertEquals("Error: " + e.getMessage(), "");
+        }
+    }
+
+    /**
+     * Test to make sure that a geocode from the sample data of a test request is not served to a real request for the
+     * same address.
+     */
+    @Test
+    public void testTestGeocodeNotServedToRealRequest()
+    {
+        String location = "Sample Location";
+        GeocodedLocation sample = APIManager.sampleData_geocode(location);
+        GeocodedLocation real = new GeocodedLocation(location, "1 Real St", "real", new LatLng(36.85290, -75.97800));
+
+        try{
+            when(apiManager.geocode(eq(location), eq(true))).thenReturn(sample);
+            when(apiManager.geocode(eq(location), eq(false))).thenReturn(real);
+
+            assertEquals(sample, locationManager.resolveLocation(location, new PipelineStats(), true));
+            assertEquals(real, locationManager.resolveLocation(location, new PipelineStats(), false));
+            assertEquals(sample, locationManager.resolveLocation(location, new PipelineStats(), true));
+
+            verify(apiManager, times(1)).geocode(eq(location), eq(true));
+            verify(apiManager, times(1)).geocode(eq(location), eq(false));
+        }
+        catch (Exception e) {
+            System.out.println("Error: " + e.getMessage());
+            //fail the test with information about the error
+            assertEquals("Error: " + e.getMessage(), "");
+        }
+    }
+
+    /**
+     * Test to make sure that two origins in the same geohash cell share one nearby search per category, and that each
+     * origin only gets the cached places within its own search radius.
+     */
+    @Test
+    public void testNearbySearchSharedWithinCell()
+    {
+        // Two origins about 50 m apart, and a third place about 2.5 km east of them
+        GeocodedLocation first = new GeocodedLocation("First", "First", "first", new LatLng(36.85290, -75.97800));
+        GeocodedLocation second = new GeocodedLocation("Second", "Second", "second", new LatLng(36.85290, -75.97744));
+        String[] types = {PlaceType.RESTAURANT.toString()};
+
+        List<Location> cellPlaces = Arrays.asList(
+            new Location("Near", "1 Near St", types, "near", 36.85400, -75.97800),
+            new Location("Far", "1 Far St", types, "far", 36.85290, -75.95000)
+        );
+
+        try{
+            when(apiManager.geocode(eq("First"), eq(true))).thenReturn(first);
+            when(apiManager.geocode(eq("Second"), eq(true))).thenReturn(second);
+            when(apiManager.retrievePlacesOfCategory(any(LatLng.class), anyInt(), eq(PlaceType.RESTAURANT), eq(true))).thenReturn(cellPlaces);
+            when(apiManager.retrievePlacesOfCategory(any(LatLng.class), anyInt(), not(eq(PlaceType.RESTAURANT)), eq(true))).thenReturn(List.of());
+            when(apiManager.getWalkingDistances(any(GeocodedLocation.class), anyList(), eq(true))).thenAnswer(invocation -> {
+                List<Location> destinations = invocation.getArgument(1);
+                return destinations.stream().map(destination -> WalkingDistance.of(200, 150)).toList();
+            });
+
+            List<Location> firstPlaces = locationManager.getPlaces("First", true);
+            List<Location> secondPlaces = locationManager.getPlaces("Second", true);
+
+            verify(apiManager, times(1)).retrievePlacesOfCategory(any(LatLng.class), intThat(radius -> radius > 2000), eq(PlaceType.RESTAURANT), eq(true));
+            assertEquals(1, firstPlaces.size());
+            assertEquals("Near", firstPlaces.get(0).getName());
+            assertEquals(1, secondPlaces.size());
+            assertEquals("Near", secondPlaces.get(0).getName());
+        }
+        catch (Exception e) {
+            System.out.println("Error: " + e.getMessage());
+            //fail the test with information about the error
+            assertEquals("Error: " + e.getMessage(), "");
+        }
+    }
+
+    /**
+     * Test to make sure that the nearby searches of a test request, which return sample data, are not served to a real
+     * request from the same cell.
+     */
+    @Test
+    public void testTestNearbySearchNotServedToRealRequest()
+    {
+        GeocodedLocation origin = new GeocodedLocation("Origin", "Origin", "origin", new LatLng(36.85290, -75.97800));
+        String[] types = {PlaceType.RESTAURANT.toString()};
+        Location sample = new Location("Sample", "1 Sample St", types, "sample", 36.85300, -75.97800);
+        Location real = new Location("Real", "1 Real St", types, "real", 36.85310, -75.97800);
+
+        try{
+            when(apiManager.geocode(eq("Origin"), anyBoolean())).thenReturn(origin);
+            when(apiManager.retrievePlacesOfCategory(any(LatLng.class), anyInt(), eq(PlaceType.RESTAURANT), eq(true))).thenReturn(List.of(sample));
+            when(apiManager.retrievePlacesOfCategory(any(LatLng.class), anyInt(), eq(PlaceType.RESTAURANT), eq(false))).thenReturn(List.of(real));
+            when(apiManager.retrievePlacesOfCategory(any(LatLng.class), anyInt(), not(eq(PlaceType.RESTAURANT)), anyBoolean())).thenReturn(List.of());
+            when(apiManager.getWalkingDistances(any(GeocodedLocation.class), anyList(), anyBoolean())).thenAnswer(invocation -> {
+                List<Location> destinations = invocation.getArgument(1);
+                return destinations.stream().map(destination -> WalkingDistance.of(200, 150)).toList();
+            });
+
+            List<Location> testPlaces = locationManager.getPlaces("Origin", true);
+            List<Location> realPlaces = locationManager.getPlaces("Origin", false);
+
+            verify(apiManager, times(1)).retrievePlacesOfCategory(any(LatLng.class), anyInt(), eq(PlaceType.RESTAURANT), eq(true));
+            verify(apiManager, times(1)).retrievePlacesOfCategory(any(LatLng.class), anyInt(), eq(PlaceType.RESTAURANT), eq(false));
+            assertEquals(List.of("Sample"), testPlaces.stream().map(Location::getName).toList());
+            assertEquals(List.of("Real"), realPlaces.stream().map(Location::getName).toList());
+        }
+        catch (Exception e) {
+            System.out.println("Error: " + e.getMessage());
+            //fail the test with information about the error
+            assertEquals("Error: " + e.getMessage(), "");
+        }
+    }
+
+    /**
+     * Test to make sure that walking distances are cached by origin and place id, so that a repeated request only sends
+     * the places it has not seen to the Distance Matrix API, and reports how many distances came from the cache.
+     */
+    @Test
+    public void testWalkingDistancesCached()
+    {
+        GeocodedLocation origin = new GeocodedLocation("Origin", "Origin", "origin", new LatLng(36.85290, -75.97800));
+        String[] types = {PlaceType.RESTAURANT.toString()};
+
+        List<Location> cellPlaces = Arrays.asList(
+            new Location("Place 1", "1 First St", types, "p1", 36.85400, -75.97800),
+            new Location("Place 2", "2 Second St", types, "p2", 36.85300, -75.97700)
+        );
+
+        try{
+            when(apiManager.geocode(eq("Origin"), eq(true))).thenReturn(origin);
+            when(apiManager.retrievePlacesOfCategory(any(LatLng.class), anyInt(), eq(PlaceType.RESTAURANT), eq(true))).thenReturn(cellPlaces);
+            when(apiManager.retrievePlacesOfCategory(any(LatLng.class), anyInt(), not(eq(PlaceType.RESTAURANT)), eq(true))).thenReturn(List.of());
+            when(apiManager.getWalkingDistances(any(GeocodedLocation.class), anyList(), eq(true))).thenReturn(walkingDistances(0.2, 0.3));
+
+            PipelineStats firstStats = new PipelineStats();
+            List<Location> first = locationManager.getPlaces(origin, firstStats, true);
+
+            PipelineStats secondStats = new PipelineStats();
+            List<Location> second = locationManager.getPlaces(origin, secondStats, true);
+
+            verify(apiManager, times(1)).getWalkingDistances(any(GeocodedLocation.class), anyList(), eq(true));
+            assertEquals(0, firstStats.getDistanceCacheHits());
+            assertEquals(2, firstStats.getDistanceMatrixElements());
+            assertEquals(2, secondStats.getDistanceCacheHits());
+            assertEquals(0, secondStats.getDistanceMatrixElements());
+            assertEquals(first.toString(), second.toString());
+        }
+        catch (Exception e) {
+            System.out.println("Error: " + e.getMessage());
+            //fail the test with information about the error
+            assertEquals("Error: " + e.getMessage(), "");
+        }
+    }
+
+    /**
+     * Test to make sure that the walking distances of a test request, which come from sample data, are not served to a
+     * real request from the same origin.
+     */
+    @Test
+    public void testTestWalkingDistancesNotServedToRealRequest()
+    {
+        GeocodedLocation origin = new GeocodedLocation("Origin", "Origin", "origin", new LatLng(36.85290, -75.97800));
+        String[] types = {PlaceType.RESTAURANT.toString()};
+
+        List<Location> cellPlaces = Arrays.asList(
+            new Location("Place 1", "1 First St", types, "p1", 36.85400, -75.97800),
+            new Location("Place 2", "2 Second St", types, "p2", 36.85300, -75.97700)
+        );
+
+        try{
+            when(apiManager.retrievePlacesOfCategory(any(LatLng.class), anyInt(), eq(PlaceType.RESTAURANT), anyBoolean())).thenReturn(cellPlaces);
+            when(apiManager.retrievePlacesOfCategory(any(LatLng.class), anyInt(), not(eq(PlaceType.RESTAURANT)), anyBoolean())).thenReturn(List.of());
+            when(apiManager.getWalkingDistances(any(GeocodedLocation.class), anyList(), eq(true))).thenReturn(walkingDistances(0.2, 0.3));
+            when(apiManager.getWalkingDistances(any(GeocodedLocation.class), anyList(), eq(false))).thenReturn(walkingDistances(0.4, 0.5));
+
+            locationManager.getPlaces(origin, new PipelineStats(), true);
+
+            PipelineStats realStats = new PipelineStats();
+            List<Location> real = locationManager.getPlaces(origin, realStats, false);
+
+            verify(apiManager, times(1)).getWalkingDistances(any(GeocodedLocation.class), anyList(), eq(true));
+            verify(apiManager, times(1)).getWalkingDistances(any(GeocodedLocation.class), anyList(), eq(false));
+            assertEquals(0, realStats.getDistanceCacheHits());
+            assertEquals(400, real.get(0).getDistanceMeters());
+        }
+        catch (Exception e) {
+            System.out.println("Error: " + e.getMessage());
+            //fail the test with information about the error
+            assertEquals("Error: " + e.getMessage(), "");
+        }
+    }
+
+    /**
+     * Test to make sure that a score is only persisted once every place has been verified, and that a persisted
+     * score is not served after the places provider changes.
+     */
+    @Test
+    public void testOnlyVerifiedScoresStored(@TempDir Path directory)
+    {
+        GeocodedLocation origin = new GeocodedLocation("Origin", "Origin", "origin", new LatLng(36.85290, -75.97800));
+        String[] types = {PlaceType.RESTAURANT.toString()};
+
+        List<Location> cellPlaces = Arrays.asList(
+            new Location("Place 1", "1 First St", types, "p1", 36.85400, -75.97800),
+            new Location("Place 2", "2 Second St", types, "p2", 36.85300, -75.97700)
+        );
+
+        try (ScoreStore store = ScoreStore.open(directory.resolve("scores.log"), ScoreStore.DEFAULT_TTL, ScoreStore.DEFAULT_GARBAGE_RATIO)) {
+            ReflectionTestUtils.setField(locationManager, "scoreStore", store);
+
+            when(apiManager.retrievePlacesOfCategory(any(LatLng.class), anyInt(), eq(PlaceType.RESTAURANT), eq(true))).thenReturn(cellPlaces);
+            when(apiManager.retrievePlacesOfCategory(any(LatLng.class), anyInt(), not(eq(PlaceType.RESTAURANT)), eq(true))).thenReturn(List.of());
+            when(apiManager.getWalkingDistances(any(GeocodedLocation.class), anyList(), eq(true)))
+                    .thenThrow(new IOException("timeout"))
+                    .thenReturn(walkingDistances(0.2, 0.3));
+
+            // The Distance Matrix request fails: the partial score is returned but not kept
+            PipelineStats partialStats = new PipelineStats();
+            locationManager.getScore(origin, partialStats, true);
+            assertEquals(2, partialStats.getUnverifiedPlaces());
+            assertEquals(0, store.size());
+
+            ScoreResponse verified = locationManager.getScore(origin, new PipelineStats(), true);
+            assertEquals(1, store.size());
+            assertEquals(verified.toString(), locationManager.getScore(origin, new PipelineStats(), true).toString());
+            verify(apiManager, times(2)).getWalkingDistances(any(GeocodedLocation.class), anyList(), eq(true));
+
+            // Another places provider does not get the score computed from the first one
+            PlacesProvider offline = mock(PlacesProvider.class);
+            when(offline.retrievePlacesOfCategory(any(LatLng.class), anyInt(), any(PlaceType.class), eq(true))).thenReturn(List.of());
+            LocationManager switched = new LocationManager(apiManager);
+            ReflectionTestUtils.setField(switched, "placesProvider", offline);
+            ReflectionTestUtils.setField(switched, "scoreStore", store);
+
+            switched.getScore(origin, new PipelineStats(), true);
+            verify(offline, atLeastOnce()).retrievePlacesOfCategory(any(LatLng.class), anyInt(), any(PlaceType.class), eq(true));
+            assertEquals(2, store.size());
+        }
+        catch (Exception e) {
+            System.out.println("Error: " + e.getMessage());
+            //fail the test with information about the error
+            assertEquals("Error: " + e.getMessage(), "");
+        }
+    }
+
+    /**
+     * Test to make sure that the combined walk and score request runs the places pipeline once, and returns the same
+     * score as getScore along with the places grouped by category.
+     */
+    @Test
+    public void testGetWalkAndScore()
+    {
+        String location = "Sample Location";
+        GeocodedLocation origin = APIManager.sampleData_geocode(location);
+        String[] types = {PlaceType.RESTAURANT.toString()};
+
+        List<Location> samplePlaces = Arrays.asList(
+            new Location("Place 1", "Address 1", types),
+            new Location("Place 2", "Address 2", types)
+        );
+
+        try{
+            when(apiManager.retrievePlacesOfCategory(any(LatLng.class), anyInt(), eq(PlaceType.RESTAURANT), eq(true))).thenReturn(samplePlaces);
+            when(apiManager.retrievePlacesOfCategory(any(LatLng.class), anyInt(), not(eq(PlaceType.RESTAURANT)), eq(true))).thenReturn(List.of());
+            when(apiManager.getWalkingDistances(eq(origin), anyList(), eq(true))).thenReturn(walkingDistances(0.6, 0.4));
+
+            WalkScoreResponse response = locationManager.getWalkAndScore(origin, true, true, new PipelineStats(), true);
+
+            verify(apiManager, times(LocationManager.CATEGORY_CONSTANTS.size())).retrievePlacesOfCategory(any(LatLng.class), anyInt(), any(PlaceType.class), eq(true));
+            assertEquals(1.87, response.getScore().getWalkabilityScore());
+            assertEquals(LocationManager.CATEGORY_CONSTANTS.size(), response.getPlacesByCategory().size());
+            assertEquals("[{\"name\":\"Place 2\",\"address\":\"Address 2\",\"types\":[restaurant],\"distance\":\"0.4 km\"}, {\"name\":\"Place 1\",\"address\":\"Address 1\",\"types\":[restaurant],\"distance\":\"0.6 km\"}]", response.getPlacesByCategory().get("restaurant").toString());
+            assertEquals(List.of(), response.getPlacesByCategory().get("park"));
+
+            WalkScoreResponse scoreOnly = locationManager.getWalkAndScore(origin, false, true, new PipelineStats(), true);
+            assertEquals(null, scoreOnly.getPlacesByCategory());
         }
         catch (Exception e) {
             System.out.println("Error: " + e.getMessage());
@@ -111,4 +444,335 @@ public class LocationManagerTest {
         }
     }
 
+    /**
+     * Test to make sure that the non-blocking pipeline uses only the callback API and scores the same as the blocking one.
+     */
+    @Test
+    public void testGetScoreNonBlocking()
+    {
+        String location = "Sample Location";
+        GeocodedLocation origin = APIManager.sampleData_geocode(location);
+        String[] types = {PlaceType.RESTAURANT.toString()};
+
+        List<Location> samplePlaces = Arrays.asList(
+            new Location("Place 1", "Address 1", types),
+            new Location("Place 2", "Address 2", types)
+        );
+
+        try{
+            when(apiManager.geocodeAsync(eq(location), eq(true))).thenReturn(CompletableFuture.completedFuture(origin));
+            when(apiManager.retrievePlacesOfCategoryAsync(any(LatLng.class), anyInt(), eq(PlaceType.RESTAURANT), eq(true))).thenReturn(CompletableFuture.completedFuture(samplePlaces));
+            when(apiManager.retrievePlacesOfCategoryAsync(any(LatLng.class), anyInt(), not(eq(PlaceType.RESTAURANT)), eq(true))).thenReturn(CompletableFuture.completedFuture(List.of()));
+            when(apiManager.getWalkingDistancesAsync(eq(origin), anyList(), eq(true))).thenReturn(CompletableFuture.completedFuture(walkingDistances(0.4, 0.6)));
+
+            PipelineStats stats = new PipelineStats();
+            ScoreResponse score = locationManager.resolveLocationAsync(location, true)
+                    .thenCompose(resolved -> locationManager.getScoreAsync(resolved, stats, true))
+                    .get(5, TimeUnit.SECONDS);
+
+            assertEquals(1.87, score.getWalkabilityScore());
+            assertEquals(2, stats.getDistanceMatrixElements());
+            verify(apiManager, never()).geocode(anyString(), anyBoolean());
+            verify(apiManager, never()).retrievePlacesOfCategory(any(LatLng.class), anyInt(), any(PlaceType.class), anyBoolean());
+            verify(apiManager, never()).getWalkingDistances(any(GeocodedLocation.class), anyList(), anyBoolean());
+        }
+        catch (Exception e) {
+            System.out.println("Error: " + e.getMessage());
+            //fail the test with information about the error
+            assertEquals("Error: " + e.getMessage(), "");
+        }
+    }
+
+    /**
+     * Test to make sure that when pagination is enabled, the next page token is followed up to the page cap and each
+     * page is verified on its own.
+     */
+    @Test
+    public void testPlacesPaginated()
+    {
+        String location = "Sample Location";
+        GeocodedLocation origin = APIManager.sampleData_geocode(location);
+        String[] types = {PlaceType.RESTAURANT.toString()};
+
+        PlacesPage firstPage = new PlacesPage(Arrays.asList(new Location("Place 1", "Address 1", types), new Location("Place 2", "Address 2", types)), "page-2");
+        PlacesPage secondPage = new PlacesPage(Arrays.asList(new Location("Place 3", "Address 3", types)), "page-3");
+
+        ReflectionTestUtils.setField(locationManager, "maxPages", 2);
+        ReflectionTestUtils.setField(locationManager, "pageTokenDelay", Duration.ZERO);
+
+        try{
+            when(apiManager.retrievePlacesPage(any(LatLng.class), anyInt(), eq(PlaceType.RESTAURANT), eq(true))).thenReturn(firstPage);
+            when(apiManager.retrievePlacesPage(any(LatLng.class), anyInt(), not(eq(PlaceType.RESTAURANT)), eq(true))).thenReturn(new PlacesPage(List.of(), null));
+            when(apiManager.retrieveNextPlacesPage(eq("page-2"), eq(true))).thenReturn(secondPage);
+            when(apiManager.getWalkingDistances(eq(origin), anyList(), eq(true))).thenAnswer(invocation -> {
+                List<WalkingDistance> distances = new ArrayList<>();
+                for (Object destination : (List<?>) invocation.getArgument(1)) {
+                    distances.add(WalkingDistance.of(500, 360));
+                }
+                return distances;
+            });
+
+            List<Location> places = locationManager.getPlaces(origin, true);
+
+            assertEquals(3, places.size());
+            assertEquals("Place 3", places.get(2).getName());
+            verify(apiManager, never()).retrieveNextPlacesPage(eq("page-3"), anyBoolean());
+            verify(apiManager, times(2)).getWalkingDistances(eq(origin), anyList(), eq(true));
+        }
+        catch (Exception e) {
+            System.out.println("Error: " + e.getMessage());
+            //fail the test with information about the error
+            assertEquals("Error: " + e.getMessage(), "");
+        }
+    }
+
+    /**
+     * Test to make sure that the stream delivers every category once, each with its own verified places nearest first,
+     * even while another category is still waiting for Google.
+     */
+    @Test
+    public void testStreamPlaces()
+    {
+        String location = "Sample Location";
+        GeocodedLocation origin = APIManager.sampleData_geocode(location);
+        String[] types = {PlaceType.RESTAURANT.toString()};
+
+        List<Location> samplePlaces = Arrays.asList(
+            new Location("Place 1", "Address 1", types),
+            new Location("Place 2", "Address 2", types)
+        );
+        CompletableFuture<PlacesPage> slowParks = new CompletableFuture<>();
+
+        try{
+            when(apiManager.retrievePlacesPageAsync(any(LatLng.class), anyInt(), eq(PlaceType.RESTAURANT), eq(true))).thenReturn(CompletableFuture.completedFuture(new PlacesPage(samplePlaces, null)));
+            when(apiManager.retrievePlacesPageAsync(any(LatLng.class), anyInt(), eq(PlaceType.PARK), eq(true))).thenReturn(slowParks);
+            when(apiManager.retrievePlacesPageAsync(any(LatLng.class), anyInt(), not(or(eq(PlaceType.RESTAURANT), eq(PlaceType.PARK))), eq(true))).thenReturn(CompletableFuture.completedFuture(new PlacesPage(List.of(), null)));
+            when(apiManager.getWalkingDistancesAsync(eq(origin), anyList(), eq(true))).thenReturn(CompletableFuture.completedFuture(walkingDistances(0.6, 0.4)));
+
+            Map<PlaceType, List<Location>> received = new ConcurrentHashMap<>();
+            CompletableFuture<Void> stream = locationManager.streamPlacesAsync(origin, new PipelineStats(), true, received::put);
+
+            // Every category but the slow one is already delivered
+            assertEquals(LocationManager.CATEGORY_CONSTANTS.size() - 1, received.size());
+            assertEquals("[{\"name\":\"Place 2\",\"address\":\"Address 2\",\"types\":[restaurant],\"distance\":\"0.4 km\"}, {\"name\":\"Place 1\",\"address\":\"Address 1\",\"types\":[restaurant],\"distance\":\"0.6 km\"}]", received.get(PlaceType.RESTAURANT).toString());
+
+            slowParks.complete(new PlacesPage(List.of(), null));
+            stream.get(5, TimeUnit.SECONDS);
+
+            assertEquals(LocationManager.CATEGORY_CONSTANTS.size(), received.size());
+            assertEquals(List.of(), received.get(PlaceType.PARK));
+        }
+        catch (Exception e) {
+            System.out.println("Error: " + e.getMessage());
+            //fail the test with information about the error
+            assertEquals("Error: " + e.getMessage(), "");
+        }
+    }
+
+    /**
+     * Test to make sure that cancelling a stream, as the controller does when its deadline passes or its client goes
+     * away, cancels the Places calls still in flight.
+     */
+    @Test
+    public void testStreamCancelled()
+    {
+        GeocodedLocation origin = APIManager.sampleData_geocode("Sample Location");
+        CompletableFuture<PlacesPage> slowParks = new CompletableFuture<>();
+
+        try{
+            when(apiManager.retrievePlacesPageAsync(any(LatLng.class), anyInt(), eq(PlaceType.PARK), eq(true))).thenReturn(slowParks);
+            when(apiManager.retrievePlacesPageAsync(any(LatLng.class), anyInt(), not(eq(PlaceType.PARK)), eq(true))).thenReturn(CompletableFuture.completedFuture(new PlacesPage(List.of(), null)));
+            when(apiManager.getWalkingDistancesAsync(eq(origin), anyList(), eq(true))).thenReturn(CompletableFuture.completedFuture(List.of()));
+
+            Map<PlaceType, List<Location>> received = new ConcurrentHashMap<>();
+            CompletableFuture<Void> stream = locationManager.streamPlacesAsync(origin, new PipelineStats(), true, received::put);
+
+            assertEquals(LocationManager.CATEGORY_CONSTANTS.size() - 1, received.size());
+            stream.cancel(true);
+
+            assertTrue(slowParks.isCancelled());
+            assertEquals(LocationManager.CATEGORY_CONSTANTS.size() - 1, received.size());
+        }
+        catch (Exception e) {
+            System.out.println("Error: " + e.getMessage());
+            //fail the test with information about the error
+            assertEquals("Error: " + e.getMessage(), "");
+        }
+    }
+
+    /**
+     * Test to make sure that a place found by several category searches, and places without a place id at the same
+     * coordinates, are sent to the Distance Matrix API once, with the distance fanned back out to every one of them,
+     * while distinct places sharing an address are each sent.
+     */
+    @Test
+    public void testDuplicateDestinationsCollapsed()
+    {
+        String location = "Sample Location";
+        GeocodedLocation origin = APIManager.sampleData_geocode(location);
+        String[] groceryAndPharmacy = {PlaceType.GROCERY_OR_SUPERMARKET.toString(), PlaceType.PHARMACY.toString()};
+        String[] restaurant = {PlaceType.RESTAURANT.toString()};
+
+        Location grocery = new Location("Corner Market", "10 Main Street, Example City", groceryAndPharmacy, "market_id", 36.8530, -75.9781);
+        Location mallRestaurant = new Location("Mall Diner", "20 Mall Road, Suite 100, Example City", restaurant, "diner_id", 36.8540, -75.9790);
+        Location mallCafe = new Location("Mall Cafe", "20 Mall Rd, Suite 210, Example City", restaurant, "cafe_id", 36.8541, -75.9791);
+        Location kiosk = new Location("Mall Kiosk", "20 Mall Road, Example City", restaurant, null, 36.8545, -75.9795);
+        Location kioskListing = new Location("Mall Kiosk Listing", "20 Mall Road, Example City", restaurant, null, 36.8545, -75.9795);
+
+        try{
+            when(apiManager.retrievePlacesOfCategory(any(LatLng.class), anyInt(), eq(PlaceType.GROCERY_OR_SUPERMARKET), eq(true))).thenReturn(List.of(grocery));
+            when(apiManager.retrievePlacesOfCategory(any(LatLng.class), anyInt(), eq(PlaceType.PHARMACY), eq(true))).thenReturn(List.of(grocery));
+            when(apiManager.retrievePlacesOfCategory(any(LatLng.class), anyInt(), eq(PlaceType.RESTAURANT), eq(true))).thenReturn(List.of(mallRestaurant, mallCafe, kiosk, kioskListing));
+            when(apiManager.retrievePlacesOfCategory(any(LatLng.class), anyInt(), not(or(eq(PlaceType.GROCERY_OR_SUPERMARKET), or(eq(PlaceType.PHARMACY), eq(PlaceType.RESTAURANT)))), eq(true))).thenReturn(List.of());
+            when(apiManager.getWalkingDistances(eq(origin), anyList(), eq(true))).thenAnswer(invocation -> {
+                List<Location> destinations = invocation.getArgument(1);
+                return destinations.stream().map(destination -> WalkingDistance.of(destination.getName().startsWith("Mall") ? 800 : 300, 300)).toList();
+            });
+
+            PipelineStats stats = new PipelineStats();
+            List<Location> places = locationManager.getPlaces(origin, stats, true);
+
+            @SuppressWarnings("unchecked")
+            ArgumentCaptor<List<Location>> destinations = ArgumentCaptor.forClass(List.class);
+            verify(apiManager, times(1)).getWalkingDistances(eq(origin), destinations.capture(), eq(true));
+
+            // The grocery found twice and the kiosk listed twice are exact duplicates; the mall's shops are not
+            assertEquals(4, destinations.getValue().size());
+            assertEquals(4, stats.getDistanceMatrixElements());
+            assertEquals(2, stats.getDuplicateDestinations());
+            assertEquals(6, places.size());
+
+            for (Location place : places) {
+                assertEquals(place.getName().startsWith("Mall") ? "0.8 km" : "0.3 km", place.getDistance());
+            }
+        }
+        catch (Exception e) {
+            System.out.println("Error: " + e.getMessage());
+            //fail the test with information about the error
+            assertEquals("Error: " + e.getMessage(), "");
+        }
+    }
+
+    /**
+     * Test to make sure that a destination the Distance Matrix API cannot route to on foot is dropped and counted,
+     * instead of being treated as a very long distance.
+     */
+    @Test
+    public void testUnreachableDestinationsDropped()
+    {
+        String location = "Sample Location";
+        GeocodedLocation origin = APIManager.sampleData_geocode(location);
+        String[] types = {PlaceType.PARK.toString()};
+
+        List<Location> samplePlaces = Arrays.asList(
+            new Location("Island Park", "1 Island Road", types, "island_id", 36.8540, -75.9790),
+            new Location("Corner Park", "2 Corner Street", types, "corner_id", 36.8530, -75.9781)
+        );
+
+        try{
+            when(apiManager.retrievePlacesOfCategory(any(LatLng.class), anyInt(), eq(PlaceType.PARK), eq(true))).thenReturn(samplePlaces);
+            when(apiManager.retrievePlacesOfCategory(any(LatLng.class), anyInt(), not(eq(PlaceType.PARK)), eq(true))).thenReturn(List.of());
+            when(apiManager.getWalkingDistances(eq(origin), anyList(), eq(true))).thenAnswer(invocation -> {
+                List<Location> destinations = invocation.getArgument(1);
+                return destinations.stream()
+                        .map(destination -> destination.getPlaceId().equals("island_id") ? WalkingDistance.unreachable(DistanceMatrixElementStatus.ZERO_RESULTS) : WalkingDistance.of(250, 180))
+                        .toList();
+            });
+
+            PipelineStats stats = new PipelineStats();
+            List<Location> places = locationManager.getPlaces(origin, stats, true);
+
+            assertEquals(1, places.size());
+            assertEquals("Corner Park", places.get(0).getName());
+            assertEquals("0.3 km", places.get(0).getDistance());
+            assertEquals(1, stats.getUnreachableDestinations());
+        }
+        catch (Exception e) {
+            System.out.println("Error: " + e.getMessage());
+            //fail the test with information about the error
+            assertEquals("Error: " + e.getMessage(), "");
+        }
+    }
+
+    /**
+     * Test to make sure that each nearby search, Distance Matrix batch and the scoring are timed as stages, tagged by
+     * category and outcome, and reported in the Server-Timing breakdown of the request, while cached searches are not.
+     */
+    @Test
+    public void testStagesTimed()
+    {
+        GeocodedLocation origin = APIManager.sampleData_geocode("Sample Location");
+        String[] types = {PlaceType.RESTAURANT.toString()};
+
+        List<Location> samplePlaces = Arrays.asList(
+            new Location("Place 1", "Address 1", types),
+            new Location("Place 2", "Address 2", types)
+        );
+
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        PipelineMetrics metrics = new PipelineMetrics();
+        metrics.bindTo(registry);
+
+        try{
+            when(apiManager.retrievePlacesOfCategory(any(LatLng.class), anyInt(), eq(PlaceType.RESTAURANT), eq(true))).thenReturn(samplePlaces);
+            // Fail the park search only once every other search has been cached, so the second request repeats the park search alone
+            NearbySearchCache nearbySearchCache = (NearbySearchCache) ReflectionTestUtils.getField(locationManager, "nearbySearchCache");
+            String cell = nearbySearchCache.cellOf(origin.getLatLng());
+            when(apiManager.retrievePlacesOfCategory(any(LatLng.class), anyInt(), eq(PlaceType.PARK), eq(true))).thenAnswer(invocation -> {
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                for (PlaceType category : LocationManager.CATEGORY_CONSTANTS.keySet()) {
+                    while (category != PlaceType.PARK && nearbySearchCache.get(NearbySearchCache.key(cell, category, true)) == null && System.nanoTime() < deadline) {
+                        Thread.sleep(5);
+                    }
+                }
+                throw new java.io.IOException("timeout");
+            });
+            when(apiManager.retrievePlacesOfCategory(any(LatLng.class), anyInt(), not(or(eq(PlaceType.RESTAURANT), eq(PlaceType.PARK))), eq(true))).thenReturn(List.of());
+            when(apiManager.getWalkingDistances(eq(origin), anyList(), eq(true))).thenReturn(walkingDistances(0.6, 0.4));
+
+            PipelineStats failedStats = new PipelineStats(metrics);
+            try {
+                locationManager.getWalkAndScore(origin, true, true, failedStats, true);
+            } catch (java.io.IOException expected) {
+                // The park search fails the request
+            }
+            assertEquals(1, registry.get("aruki.pipeline.stage").tags("stage", "nearby_search", "category", "park", "outcome", "error").timer().count());
+
+            when(apiManager.retrievePlacesOfCategory(any(LatLng.class), anyInt(), eq(PlaceType.PARK), eq(true))).thenReturn(List.of());
+
+            PipelineStats stats = new PipelineStats(metrics);
+            locationManager.getWalkAndScore(origin, true, true, stats, true);
+
+            assertEquals(1, registry.get("aruki.pipeline.stage").tags("stage", "nearby_search", "category", "restaurant", "outcome", "success").timer().count());
+            assertEquals(1, registry.get("aruki.pipeline.stage").tags("stage", "distance_matrix", "category", "none", "outcome", "success").timer().count());
+            assertEquals(1, registry.get("aruki.pipeline.stage").tags("stage", "scoring", "outcome", "success").timer().count());
+
+            String serverTiming = stats.toServerTiming();
+            assertTrue(serverTiming.startsWith("nearby_search.park;dur="), serverTiming); // The other searches were cached by the failed request
+            assertFalse(serverTiming.contains("restaurant"), serverTiming);
+            assertTrue(serverTiming.contains("distance_matrix;dur="), serverTiming);
+            assertTrue(serverTiming.contains("scoring;dur="), serverTiming);
+        }
+        catch (Exception e) {
+            System.out.println("Error: " + e.getMessage());
+            //fail the test with information about the error
+            assertEquals("Error: " + e.getMessage(), "");
+        }
+    }
+
+    /**
+     * Builds the walking distances the Distance Matrix API would return for the specified distances.
+     *
+     * @param kilometers the distance to each destination, in kilometers
+     * @return the walking distance to each destination, in the same order
+     */
+    private static List<WalkingDistance> walkingDistances(double... kilometers) {
+        List<WalkingDistance> distances = new ArrayList<>();
+        for (double distance : kilometers) {
+            long meters = Math.round(distance * 1000);
+            distances.add(WalkingDistance.of(meters, Math.round(meters / 1.4)));
+        }
+        return distances;
+    }
+
 }
@@ -1,5 +1,8 @@
 package com.aruki.aruki;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -13,8 +16,9 @@ public class LocationTest {
         Location location = new Location("Place", "123 Street", types, "10km");
         assertEquals("Place", location.getName());
         assertEquals("123 Street", location.getAddress());
-        assertEquals(types, location.getTypes());
-        assertEquals("10km", location.getDistance());
+        assertArrayEquals(types, location.getTypes());
+        assertEquals(10000.0, location.getDistanceMeters());
+        assertEquals("10.0 km", location.getDistance());
     }
 
     @Test
@@ -22,28 +26,65 @@ public class LocationTest {
         Location location = new Location("Place", "123 Street", types);
         assertEquals("Place", location.getName());
         assertEquals("123 Street", location.getAddress());
-        assertEquals(types, location.getTypes());
+        assertArrayEquals(types, location.getTypes());
         assertNull(location.getDistance());
+        assertFalse(location.hasDistance());
     }
 
     @Test
-    public void testSettersAndGetters() {
-        Location location = new Location("Place", "123 Street", types, "10km");
-        location.setName("New Place");
-        location.setAddress("456 Avenue");
-        location.setTypes(types2);
-        location.setDistance("20km");
-
-        assertEquals("New Place", location.getName());
-        assertEquals("456 Avenue", location.getAddress());
-        assertEquals(types2, location.getTypes());
-        assertEquals("20km", location.getDistance());
+    public void testWithDistanceMeters() {
+        Location location = new Location("Place", "123 Street", types2, "place_id", 36.85, -75.97);
+        Location verified = location.withDistanceMeters(20000);
+
+        assertNull(location.getDistance());
+        assertEquals("Place", verified.getName());
+        assertEquals("123 Street", verified.getAddress());
+        assertArrayEquals(types2, verified.getTypes());
+        assertEquals("place_id", verified.getPlaceId());
+        assertEquals(36.85, verified.getLatitude());
+        assertEquals("20.0 km", verified.getDistance());
+    }
+
+    @Test
+    public void testParseDistanceMeters() {
+        assertEquals(400.0, Location.parseDistanceMeters("0.4"));
+        assertEquals(1200.0, Location.parseDistanceMeters("1.2 km"));
+        assertEquals(350.0, Location.parseDistanceMeters("350 m"));
+        assertEquals(1609.344, Location.parseDistanceMeters("1 mi"), 1e-9);
+        assertEquals(30.48, Location.parseDistanceMeters("100 feet"), 1e-9);
+        assertTrue(Double.isNaN(Location.parseDistanceMeters(null)));
+        assertThrows(NumberFormatException.class, () -> Location.parseDistanceMeters("10 parsecs"));
+    }
+
+    @Test
+    public void testOrderedByDistance() {
+        Location far = new Location("Far", "1 Far Street", types, "1.2 km");
+        Location near = new Location("Near", "1 Near Street", types, "300 m");
+        Location unknown = new Location("Unknown", "1 Unknown Street", types);
+
+        List<Location> places = new ArrayList<>(List.of(unknown, far, near));
+        places.sort(Location.BY_DISTANCE);
+
+        assertEquals(List.of(near, far, unknown), places);
+        assertTrue(near.lessThan(far));
+        assertFalse(near.lessThan(unknown));
+    }
+
+    @Test
+    public void testTypesCannotBeModified() {
+        String[] placeTypes = {"park", "tourist_attraction"};
+        Location location = new Location("Place", "123 Street", placeTypes);
+
+        placeTypes[0] = "restaurant";
+        location.getTypes()[1] = "restaurant";
+
+        assertArrayEquals(new String[] {"park", "tourist_attraction"}, location.getTypes());
     }
 
     @Test
     public void testToString() {
         Location location = new Location("Place", "123 Street", types, "10km");
-        String expected = "{\"name\":\"Place\",\"address\":\"123 Street\",\"types\":[Category1, Category2],\"distance\":\"10km\"}";
+        String expected = "{\"name\":\"Place\",\"address\":\"123 Street\",\"types\":[Category1, Category2],\"distance\":\"10.0 km\"}";
         assertEquals(expected, location.toString());
     }
 }
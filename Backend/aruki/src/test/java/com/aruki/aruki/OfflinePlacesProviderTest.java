@@ -0,0 +1,145 @@
+package com.aruki.aruki;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.maps.model.LatLng;
+import com.google.maps.model.PlaceType;
+
+public class OfflinePlacesProviderTest {
+
+    private static final String EXTRACT = """
+            {"type": "FeatureCollection", "features": [
+              {"type": "Feature", "geometry": {"type": "Point", "coordinates": [-76.2907, 36.8459]},
+               "properties": {"leisure": "park", "name": "Town Point Park", "addr:housenumber": "113",
+                              "addr:street": "Waterside Drive", "addr:city": "Norfolk", "addr:postcode": "23510"}},
+              {"type": "Feature", "geometry": {"type": "Polygon", "coordinates": [[[-76.2870, 36.8500], [-76.2850, 36.8500],
+                                                                                  [-76.2850, 36.8520], [-76.2870, 36.8520]]]},
+               "properties": {"type": "way", "id": 42, "tags": {"shop": "supermarket", "amenity": "pharmacy", "name": "Corner Market"}}},
+              {"type": "Feature", "geometry": {"type": "Point", "coordinates": [-76.2840, 36.8510]},
+               "properties": {"leisure": "fitness_centre"}},
+              {"type": "Feature", "geometry": {"type": "Point", "coordinates": [-76.2860, 36.8515]},
+               "properties": {"amenity": "bench", "name": "Not a place"}},
+              {"type": "Feature", "geometry": {"type": "Point", "coordinates": [-77.4360, 37.5407]},
+               "properties": {"leisure": "park", "name": "Capitol Square"}}
+            ]}
+            """;
+
+    private static OfflinePlacesProvider importExtract(Path file) throws IOException {
+        MappedPoiIndex.Builder builder = new MappedPoiIndex.Builder();
+        assertEquals(4, PoiImporter.importGeoJson(new ByteArrayInputStream(EXTRACT.getBytes(StandardCharsets.UTF_8)), builder));
+        builder.write(file);
+        return OfflinePlacesProvider.open(file);
+    }
+
+    /**
+     * Test to make sure that an imported extract answers nearby searches by category and radius, with the names,
+     * addresses and categories taken from the OpenStreetMap tags.
+     */
+    @Test
+    public void testImportedPlaces(@TempDir Path directory) throws Exception {
+        OfflinePlacesProvider provider = importExtract(directory.resolve("norfolk.poi"));
+        LatLng center = new LatLng(36.8508, -76.2859);
+
+        assertEquals(4, provider.getIndex().size());
+
+        List<Location> parks = provider.retrievePlacesOfCategory(center, 2000, PlaceType.PARK, false);
+        assertEquals(1, parks.size());
+        assertEquals("Town Point Park", parks.get(0).getName());
+        assertEquals("113 Waterside Drive, Norfolk, 23510", parks.get(0).getAddress());
+        assertEquals(36.8459, parks.get(0).getLatitude(), 1e-7);
+        assertNull(parks.get(0).getPlaceId());
+
+        List<Location> pharmacies = provider.retrievePlacesOfCategoryAsync(center, 500, PlaceType.PHARMACY, false).get();
+        assertEquals(1, pharmacies.size());
+        assertEquals("Corner Market", pharmacies.get(0).getName());
+        assertArrayEquals(new String[] { "grocery_or_supermarket", "pharmacy" }, new TreeSet<>(List.of(pharmacies.get(0).getTypes())).toArray());
+        assertEquals(36.8510, pharmacies.get(0).getLatitude(), 1e-7);
+
+        assertEquals("fitness centre", provider.retrievePlacesOfCategory(center, 500, PlaceType.GYM, false).get(0).getName());
+        assertTrue(provider.retrievePlacesOfCategory(center, 100, PlaceType.GYM, false).isEmpty());
+        assertTrue(provider.retrievePlacesOfCategory(center, 2000, PlaceType.MUSEUM, false).isEmpty());
+
+        PlacesPage page = provider.retrievePlacesPage(center, 200_000, PlaceType.PARK, false);
+        assertEquals(2, page.getPlaces().size());
+        assertFalse(page.hasNextPage());
+        assertTrue(provider.retrieveNextPlacesPage("token", false).getPlaces().isEmpty());
+    }
+
+    /**
+     * Test to make sure that radius queries return exactly the places a brute-force scan finds, including around
+     * the antimeridian and near a pole.
+     */
+    @Test
+    public void testMatchesBruteForce(@TempDir Path directory) throws Exception {
+        Random random = new Random(7);
+        double[][] centers = { { 36.85, -76.29 }, { -16.5, 179.99 }, { 84.0, 10.0 } };
+        String[] types = { "park", "restaurant", "school" };
+        double[] latitudes = new double[6000];
+        double[] longitudes = new double[latitudes.length];
+        MappedPoiIndex.Builder builder = new MappedPoiIndex.Builder();
+
+        for (int i = 0; i < latitudes.length; i++) {
+            double[] center = centers[i % centers.length];
+            latitudes[i] = Math.max(-90, Math.min(90, center[0] + random.nextGaussian() * 0.05));
+            longitudes[i] = center[1] + random.nextGaussian() * 0.05;
+            longitudes[i] = (longitudes[i] > 180) ? longitudes[i] - 360 : longitudes[i];
+            builder.add("Place " + i, "", latitudes[i], longitudes[i], types[i % types.length]);
+        }
+
+        Path file = directory.resolve("random.poi");
+        builder.write(file);
+        MappedPoiIndex index = MappedPoiIndex.open(file);
+
+        for (double[] center : centers) {
+            for (int radius : new int[] { 500, 2000, 8000 }) {
+                for (int type = 0; type < types.length; type++) {
+                    Set<String> expected = new TreeSet<>();
+                    for (int i = type; i < latitudes.length; i += types.length) {
+                        if (GeoMath.distanceMeters(center[0], center[1], latitudes[i], longitudes[i]) <= radius) {
+                            expected.add("Place " + i);
+                        }
+                    }
+
+                    Set<String> found = index.withinRadius(center[0], center[1], radius, types[type]).stream()
+                            .map(Location::getName)
+                            .collect(Collectors.toCollection(TreeSet::new));
+                    assertEquals(expected, found, "Radius " + radius + " of " + center[0] + "," + center[1] + " for " + types[type]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Test to make sure that a file that is not an index, or is cut short, is refused when opened.
+     */
+    @Test
+    public void testRejectsInvalidFiles(@TempDir Path directory) throws Exception {
+        Path notAnIndex = Files.writeString(directory.resolve("extract.geojson"), EXTRACT);
+        assertThrows(IOException.class, () -> MappedPoiIndex.open(notAnIndex));
+
+        Path file = directory.resolve("norfolk.poi");
+        importExtract(file);
+        byte[] bytes = Files.readAllBytes(file);
+        Path truncated = Files.write(directory.resolve("truncated.poi"), java.util.Arrays.copyOf(bytes, 60));
+        assertThrows(IOException.class, () -> MappedPoiIndex.open(truncated));
+    }
+}
@@ -0,0 +1,64 @@
+package com.aruki.aruki;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class PipelineStatsTest {
+
+    /**
+     * Test to make sure that calls of the same stage and category are merged into one Server-Timing entry spanning
+     * from the first start to the last end, in the order the stages were first recorded.
+     */
+    @Test
+    public void testServerTimingMergesParallelCalls() {
+        PipelineStats stats = new PipelineStats();
+        assertEquals("", stats.toServerTiming());
+
+        long now = System.nanoTime();
+        stats.recordStage(PipelineStage.GEOCODE, null, now - TimeUnit.MILLISECONDS.toNanos(80), true);
+        stats.recordStage(PipelineStage.DISTANCE_MATRIX, null, now - TimeUnit.MILLISECONDS.toNanos(50), true);
+        stats.recordStage(PipelineStage.DISTANCE_MATRIX, null, now - TimeUnit.MILLISECONDS.toNanos(200), false);
+        stats.recordStage(PipelineStage.NEARBY_SEARCH, "park", now, true);
+
+        String[] entries = stats.toServerTiming().split(", ");
+        assertEquals(3, entries.length);
+        assertTrue(entries[0].startsWith("geocode;dur="), entries[0]);
+        assertTrue(entries[1].startsWith("distance_matrix;dur="), entries[1]);
+        assertTrue(entries[1].endsWith(";desc=\"2 calls\""), entries[1]);
+        assertTrue(entries[2].startsWith("nearby_search.park;dur="), entries[2]);
+
+        double distanceMatrixMillis = Double.parseDouble(entries[1].split(";")[1].substring("dur=".length()));
+        assertTrue(distanceMatrixMillis >= 200, entries[1]);
+    }
+
+    /**
+     * Test to make sure that each stage is recorded to the timer with its stage, category and outcome tags, and
+     * that nothing is published before the metrics are bound.
+     */
+    @Test
+    public void testMetricsTaggedByStageCategoryAndOutcome() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        PipelineStats stats = new PipelineStats(metrics);
+        stats.recordStage(PipelineStage.SCORING, null, System.nanoTime(), true); // Not bound yet
+
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        metrics.bindTo(registry);
+
+        stats.recordStage(PipelineStage.NEARBY_SEARCH, "restaurant", System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(30), true);
+        stats.recordStage(PipelineStage.NEARBY_SEARCH, "restaurant", System.nanoTime(), false);
+        stats.recordStage(PipelineStage.SCORING, null, System.nanoTime(), true);
+
+        Timer search = registry.get("aruki.pipeline.stage").tags("stage", "nearby_search", "category", "restaurant", "outcome", "success").timer();
+        assertEquals(1, search.count());
+        assertTrue(search.totalTime(TimeUnit.MILLISECONDS) >= 30);
+        assertEquals(1, registry.get("aruki.pipeline.stage").tags("stage", "nearby_search", "outcome", "error").timer().count());
+        assertEquals(1, registry.get("aruki.pipeline.stage").tags("stage", "scoring", "category", PipelineMetrics.NO_CATEGORY).timer().count());
+    }
+}
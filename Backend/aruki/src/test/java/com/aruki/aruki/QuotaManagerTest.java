@@ -0,0 +1,82 @@
+package com.aruki.aruki;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+public class QuotaManagerTest {
+
+    /**
+     * Test to make sure that a burst up to the bucket's capacity goes through, that the next call fails fast with
+     * the time until its quota is available, and that the quota refills over time.
+     */
+    @Test
+    public void testFailsFastOnceBurstIsSpent() throws Exception {
+        AtomicLong now = new AtomicLong();
+        QuotaManager quotaManager = new QuotaManager(10, 10, 100, Duration.ZERO, now::get);
+
+        for (int i = 0; i < 10; i++) {
+            quotaManager.acquire(UpstreamApi.GEOCODING, 1);
+        }
+
+        QuotaManager.QuotaExceededException e = assertThrows(QuotaManager.QuotaExceededException.class, () -> quotaManager.acquire(UpstreamApi.GEOCODING, 1));
+        assertEquals(UpstreamApi.GEOCODING, e.getDownstream());
+        assertEquals(100, e.getRetryAfter().toNanos() / 1e6, 1e-3);
+
+        quotaManager.acquire(UpstreamApi.PLACES, 1); // Every API has its own budget
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(110));
+        quotaManager.acquire(UpstreamApi.GEOCODING, 1);
+    }
+
+    /**
+     * Test to make sure that Distance Matrix calls are charged per element.
+     */
+    @Test
+    public void testDistanceMatrixChargedPerElement() throws Exception {
+        AtomicLong now = new AtomicLong();
+        QuotaManager quotaManager = new QuotaManager(10, 10, 100, Duration.ZERO, now::get);
+
+        quotaManager.acquire(UpstreamApi.DISTANCE_MATRIX, 4 * 20);
+
+        QuotaManager.QuotaExceededException e = assertThrows(QuotaManager.QuotaExceededException.class, () -> quotaManager.acquire(UpstreamApi.DISTANCE_MATRIX, 25));
+        assertEquals(50, e.getRetryAfter().toNanos() / 1e6, 1e-3);
+
+        quotaManager.acquire(UpstreamApi.DISTANCE_MATRIX, 20);
+    }
+
+    /**
+     * Test to make sure that calls are queued at the configured rate while the wait is within the maximum, and
+     * that the non-blocking form fails its future instead of throwing.
+     */
+    @Test
+    public void testQueuesWithinMaxWait() throws Exception {
+        QuotaManager quotaManager = new QuotaManager(20, 20, 100, Duration.ofMillis(200));
+
+        for (int i = 0; i < 20; i++) {
+            quotaManager.acquire(UpstreamApi.PLACES, 1);
+        }
+
+        long start = System.nanoTime();
+        quotaManager.acquire(UpstreamApi.PLACES, 1);
+        CompletableFuture<Void> queued = quotaManager.acquireAsync(UpstreamApi.PLACES, 1);
+
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+        assertFalse(queued.isDone());
+        queued.get(1, TimeUnit.SECONDS);
+
+        CompletableFuture<Void> rejected = quotaManager.acquireAsync(UpstreamApi.PLACES, 10);
+        ExecutionException e = assertThrows(ExecutionException.class, rejected::get);
+        assertInstanceOf(QuotaManager.QuotaExceededException.class, e.getCause());
+    }
+}
@@ -0,0 +1,172 @@
+package com.aruki.aruki;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.maps.errors.InvalidRequestException;
+
+public class ResilienceManagerTest {
+
+    private static ResilienceManager resilienceManager(AtomicLong now, Map<UpstreamApi, Duration> hedgeDelays) {
+        return new ResilienceManager(3, Duration.ofMillis(1), Duration.ofMillis(5),
+                api -> new CircuitBreaker(api.getTag(), 4, 4, 0.5, Duration.ofSeconds(30), now::get),
+                hedgeDelays);
+    }
+
+    private static Throwable failureOf(CompletableFuture<?> future) {
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(1, TimeUnit.SECONDS));
+        return e.getCause();
+    }
+
+    /**
+     * Test to make sure that transient failures are retried up to the maximum number of attempts, and that other
+     * errors are returned at once.
+     */
+    @Test
+    public void testRetriesOnlyTransientFailures() throws Exception {
+        ResilienceManager resilience = resilienceManager(new AtomicLong(), Map.of());
+        AtomicInteger attempts = new AtomicInteger();
+
+        CompletableFuture<String> recovered = resilience.call(UpstreamApi.PLACES, () -> (attempts.incrementAndGet() < 3)
+                ? CompletableFuture.failedFuture(new SocketTimeoutException("timeout"))
+                : CompletableFuture.completedFuture("ok"));
+
+        assertEquals("ok", recovered.get(1, TimeUnit.SECONDS));
+        assertEquals(3, attempts.get());
+
+        attempts.set(0);
+        CompletableFuture<String> exhausted = resilience.call(UpstreamApi.GEOCODING, () -> {
+            attempts.incrementAndGet();
+            return CompletableFuture.failedFuture(new IOException("connection reset"));
+        });
+
+        assertInstanceOf(IOException.class, failureOf(exhausted));
+        assertEquals(3, attempts.get());
+
+        attempts.set(0);
+        CompletableFuture<String> rejected = resilience.call(UpstreamApi.GEOCODING, () -> {
+            attempts.incrementAndGet();
+            return CompletableFuture.failedFuture(new InvalidRequestException("bad request"));
+        });
+
+        assertInstanceOf(InvalidRequestException.class, failureOf(rejected));
+        assertEquals(1, attempts.get());
+    }
+
+    /**
+     * Test to make sure that the circuit breaker opens once enough calls fail, refuses calls without sending them
+     * while open, and closes again after a successful probe.
+     */
+    @Test
+    public void testCircuitOpensAndRecovers() throws Exception {
+        AtomicLong now = new AtomicLong();
+        ResilienceManager resilience = new ResilienceManager(1, Duration.ZERO, Duration.ZERO,
+                api -> new CircuitBreaker(api.getTag(), 4, 4, 0.5, Duration.ofSeconds(30), now::get),
+                Map.of());
+        AtomicInteger sent = new AtomicInteger();
+
+        for (int i = 0; i < 4; i++) {
+            boolean fail = i % 2 == 1;
+            resilience.call(UpstreamApi.DISTANCE_MATRIX, () -> {
+                sent.incrementAndGet();
+                return fail ? CompletableFuture.failedFuture(new IOException("down")) : CompletableFuture.completedFuture("ok");
+            }).exceptionally(e -> null).get();
+        }
+
+        assertEquals(CircuitBreaker.State.OPEN, resilience.getCircuitBreaker(UpstreamApi.DISTANCE_MATRIX).getState());
+        assertEquals(CircuitBreaker.State.CLOSED, resilience.getCircuitBreaker(UpstreamApi.PLACES).getState());
+
+        Throwable refused = failureOf(resilience.call(UpstreamApi.DISTANCE_MATRIX, () -> {
+            sent.incrementAndGet();
+            return CompletableFuture.completedFuture("ok");
+        }));
+        assertInstanceOf(ResilienceManager.CircuitOpenException.class, refused);
+        assertEquals(Duration.ofSeconds(30), ((ResilienceManager.CircuitOpenException) refused).getRetryAfter());
+        assertEquals(4, sent.get());
+
+        now.addAndGet(Duration.ofSeconds(30).toNanos());
+        CompletableFuture<String> probe = new CompletableFuture<>();
+        CompletableFuture<String> probed = resilience.call(UpstreamApi.DISTANCE_MATRIX, () -> probe);
+
+        assertEquals(CircuitBreaker.State.HALF_OPEN, resilience.getCircuitBreaker(UpstreamApi.DISTANCE_MATRIX).getState());
+        assertInstanceOf(ResilienceManager.CircuitOpenException.class, failureOf(resilience.call(UpstreamApi.DISTANCE_MATRIX, () -> CompletableFuture.completedFuture("second"))));
+
+        probe.complete("ok");
+        assertEquals("ok", probed.get());
+        assertEquals(CircuitBreaker.State.CLOSED, resilience.getCircuitBreaker(UpstreamApi.DISTANCE_MATRIX).getState());
+    }
+
+    /**
+     * Test to make sure that a half-open probe refused by the local quota neither closes nor reopens the breaker, and
+     * that the next call is let through as the probe.
+     */
+    @Test
+    public void testQuotaRejectedProbeIsIgnored() throws Exception {
+        AtomicLong now = new AtomicLong();
+        ResilienceManager resilience = new ResilienceManager(1, Duration.ZERO, Duration.ZERO,
+                api -> new CircuitBreaker(api.getTag(), 4, 4, 0.5, Duration.ofSeconds(30), now::get),
+                Map.of());
+        CircuitBreaker breaker = resilience.getCircuitBreaker(UpstreamApi.PLACES);
+
+        for (int i = 0; i < 4; i++) {
+            resilience.call(UpstreamApi.PLACES, () -> CompletableFuture.failedFuture(new IOException("down"))).exceptionally(e -> null).get();
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        now.addAndGet(Duration.ofSeconds(30).toNanos());
+        Throwable rejected = failureOf(resilience.call(UpstreamApi.PLACES,
+                () -> CompletableFuture.failedFuture(new QuotaManager.QuotaExceededException(UpstreamApi.PLACES, Duration.ofSeconds(1)))));
+
+        assertInstanceOf(QuotaManager.QuotaExceededException.class, rejected);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        CompletableFuture<String> probe = new CompletableFuture<>();
+        CompletableFuture<String> probed = resilience.call(UpstreamApi.PLACES, () -> probe);
+        assertInstanceOf(ResilienceManager.CircuitOpenException.class, failureOf(resilience.call(UpstreamApi.PLACES, () -> CompletableFuture.completedFuture("second"))));
+
+        probe.complete("ok");
+        assertEquals("ok", probed.get());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    /**
+     * Test to make sure that a call still in flight after the hedge delay is duplicated, that the first answer wins
+     * and that the slower request is cancelled.
+     */
+    @Test
+    public void testHedgedRequestWins() throws Exception {
+        ResilienceManager resilience = resilienceManager(new AtomicLong(), Map.of(UpstreamApi.PLACES, Duration.ofMillis(20)));
+        List<CompletableFuture<String>> requests = new CopyOnWriteArrayList<>();
+
+        CompletableFuture<String> result = resilience.call(UpstreamApi.PLACES, () -> {
+            CompletableFuture<String> request = (requests.isEmpty()) ? new CompletableFuture<>() : CompletableFuture.completedFuture("hedge");
+            requests.add(request);
+            return request;
+        });
+
+        assertEquals("hedge", result.get(1, TimeUnit.SECONDS));
+        assertEquals(2, requests.size());
+        assertTrue(requests.get(0).isCancelled());
+
+        CompletableFuture<String> fast = resilience.call(UpstreamApi.GEOCODING, () -> CompletableFuture.completedFuture("fast"));
+        assertEquals("fast", fast.get());
+        assertFalse(fast.isCompletedExceptionally());
+    }
+}
@@ -0,0 +1,165 @@
+package com.aruki.aruki;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.maps.model.LatLng;
+import com.google.maps.model.PlaceType;
+
+public class ScoreStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private static ScoreResponse score(double walkability) {
+        return new ScoreResponse(walkability, List.of(
+                new CategoryScore("park", walkability / 2, 1, 2, 3),
+                new CategoryScore("restaurant", walkability / 2, 4, 0, 1)));
+    }
+
+    /**
+     * Test to make sure that stored scores are found again after the store is closed and reopened.
+     */
+    @Test
+    public void testScoresSurviveRestart() throws Exception {
+        Path file = directory.resolve("scores.log");
+
+        try (ScoreStore store = ScoreStore.open(file, Duration.ofDays(1), 0.5)) {
+            for (int i = 0; i < 5000; i++) {
+                store.put("v1|place" + i, score(i));
+            }
+            assertNull(store.get("v1|missing"));
+        }
+
+        try (ScoreStore store = ScoreStore.open(file, Duration.ofDays(1), 0.5)) {
+            assertEquals(5000, store.size());
+
+            ScoreResponse loaded = store.get("v1|place1234");
+            assertNotNull(loaded);
+            assertEquals(1234, loaded.getWalkabilityScore());
+            assertEquals(score(1234).toString(), loaded.toString());
+            assertNull(store.get("v2|place1234"));
+            assertEquals(1, store.getHits());
+            assertEquals(1, store.getMisses());
+        }
+    }
+
+    /**
+     * Test to make sure that scores are no longer returned once they expire, and are dropped when the log is
+     * reloaded.
+     */
+    @Test
+    public void testScoresExpire() throws Exception {
+        Path file = directory.resolve("scores.log");
+        AtomicLong now = new AtomicLong(1_000_000);
+
+        try (ScoreStore store = ScoreStore.open(file, Duration.ofMinutes(10), 0.5, now::get)) {
+            store.put("v1|old", score(3));
+            now.addAndGet(Duration.ofMinutes(5).toMillis());
+            store.put("v1|new", score(7));
+            now.addAndGet(Duration.ofMinutes(6).toMillis());
+
+            assertNull(store.get("v1|old"));
+            assertNotNull(store.get("v1|new"));
+        }
+
+        try (ScoreStore store = ScoreStore.open(file, Duration.ofMinutes(10), 0.5, now::get)) {
+            assertEquals(1, store.size());
+            assertNotNull(store.get("v1|new"));
+        }
+    }
+
+    /**
+     * Test to make sure that compaction drops replaced scores and keeps the latest value of each key.
+     */
+    @Test
+    public void testCompactionKeepsLatestScores() throws Exception {
+        Path file = directory.resolve("scores.log");
+
+        try (ScoreStore store = ScoreStore.open(file, Duration.ofDays(1), 0.5)) {
+            for (int round = 0; round < 4; round++) {
+                for (int i = 0; i < 500; i++) {
+                    store.put("v1|place" + i, score(round * 1000 + i));
+                }
+            }
+            long before = store.getFileBytes();
+
+            store.compact();
+
+            assertTrue(store.getFileBytes() * 3 < before);
+            assertEquals(store.getFileBytes(), Files.size(file));
+            assertEquals(500, store.size());
+            assertEquals(3042, store.get("v1|place42").getWalkabilityScore());
+        }
+
+        try (ScoreStore store = ScoreStore.open(file, Duration.ofDays(1), 0.5)) {
+            assertEquals(3499, store.get("v1|place499").getWalkabilityScore());
+        }
+    }
+
+    /**
+     * Test to make sure that a record torn by a crash is cut off, keeping the records before it.
+     */
+    @Test
+    public void testTornRecordIsTruncated() throws Exception {
+        Path file = directory.resolve("scores.log");
+        long intact;
+
+        try (ScoreStore store = ScoreStore.open(file, Duration.ofDays(1), 0.5)) {
+            store.put("v1|a", score(1));
+            store.put("v1|b", score(2));
+            intact = store.getFileBytes();
+        }
+
+        Files.write(file, new byte[] {0, 0, 0, 90, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        try (ScoreStore store = ScoreStore.open(file, Duration.ofDays(1), 0.5)) {
+            assertEquals(intact, Files.size(file));
+            assertEquals(2, store.get("v1|b").getWalkabilityScore());
+
+            store.put("v1|c", score(3));
+        }
+
+        try (ScoreStore store = ScoreStore.open(file, Duration.ofDays(1), 0.5)) {
+            assertEquals(3, store.size());
+            assertEquals(3, store.get("v1|c").getWalkabilityScore());
+        }
+    }
+
+    /**
+     * Test to make sure that LocationManager serves a stored score without calling the Google Maps API.
+     */
+    @Test
+    public void testLocationManagerUsesStoredScore() throws Exception {
+        APIManager apiManager = mock(APIManager.class);
+        LocationManager locationManager = new LocationManager(apiManager);
+        GeocodedLocation origin = new GeocodedLocation("1 Main Street", "1 Main Street", "ChIJtest", new LatLng(36.85, -75.98));
+
+        try (ScoreStore store = ScoreStore.open(directory.resolve("scores.log"), Duration.ofDays(1), 0.5)) {
+            store.put(locationManager.scoreKey(origin, true), score(42));
+            ReflectionTestUtils.setField(locationManager, "scoreStore", store);
+
+            assertEquals(42, locationManager.getScore(origin, true).getWalkabilityScore());
+            verify(apiManager, never()).retrievePlacesOfCategory(any(LatLng.class), anyInt(), any(PlaceType.class), eq(true));
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.aruki.aruki;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.maps.model.PlaceType;
+
+public class ScoringEngineTest {
+
+    private final ScoringEngine engine = LocationManager.SCORING_ENGINE;
+
+    @Test
+    public void testScore() {
+        String[] types = {PlaceType.RESTAURANT.toString()};
+
+        List<Location> places = Arrays.asList(
+            new Location("Place 1", "Address 1", types, "0.4 km"),
+            new Location("Place 2", "Address 2", types, "600 m"),
+            new Location("Place 3", "Address 3", types, "1.5 km")
+        );
+
+        ScoreResponse score = engine.score(places);
+        CategoryScore restaurants = score.getCategoryScores().get(engine.categoryIndex("restaurant"));
+
+        // 1.2 * (e^-0.2 + e^-0.3 + e^-0.75), rounded only once
+        assertEquals(2.44, score.getWalkabilityScore());
+        assertEquals(2.03, restaurants.getScore());
+        assertEquals(1, restaurants.getClosePlaces());
+        assertEquals(1, restaurants.getMediumPlaces());
+        assertEquals(1, restaurants.getFarPlaces());
+        assertEquals(LocationManager.CATEGORY_CONSTANTS.size(), score.getCategoryScores().size());
+    }
+
+    @Test
+    public void testUnscoredTypesIgnored() {
+        assertEquals(-1, engine.categoryIndex("point_of_interest"));
+
+        Location place = new Location("Place", "Address", new String[] {"point_of_interest", "pharmacy"}, "0 m");
+
+        // Only the pharmacy type counts
+        assertEquals(1.4, engine.score(List.of(place)).getWalkabilityScore());
+    }
+
+    @Test
+    public void testPlacesWithoutDistanceSkipped() {
+        String[] types = {PlaceType.RESTAURANT.toString()};
+
+        List<Location> places = Arrays.asList(
+            new Location("Verified", "Address 1", types, "0.4 km"),
+            new Location("Unverified", "Address 2", types)
+        );
+
+        ScoreResponse score = engine.score(places);
+        CategoryScore restaurants = score.getCategoryScores().get(engine.categoryIndex("restaurant"));
+
+        // Only the verified place counts: 1.2 * e^-0.2
+        assertEquals(0.98, score.getWalkabilityScore());
+        assertEquals(1, restaurants.getClosePlaces() + restaurants.getMediumPlaces() + restaurants.getFarPlaces());
+    }
+
+    @Test
+    public void testAccumulatorReused() {
+        ScoringEngine.Accumulator accumulator = engine.newAccumulator();
+        String[] types = {PlaceType.PARK.toString()};
+
+        accumulator.add(types, 0);
+        assertEquals(1.1, accumulator.getWalkabilityScore());
+
+        accumulator.reset();
+        accumulator.add(types, 0);
+        accumulator.add(types, 0);
+        assertEquals(2.2, accumulator.getWalkabilityScore());
+        assertEquals(2, accumulator.toScoreResponse().getCategoryScores().get(engine.categoryIndex("park")).getClosePlaces());
+    }
+}
@@ -0,0 +1,172 @@
+package com.aruki.aruki;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.maps.model.LatLng;
+import com.google.maps.model.PlaceType;
+
+public class ScoringJobManagerTest {
+
+    @TempDir
+    private Path directory;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private APIManager apiManager;
+    private BulkScorer bulkScorer;
+
+    @BeforeEach
+    public void setUp() {
+        apiManager = mock(APIManager.class);
+        bulkScorer = new BulkScorer(new LocationManager(apiManager), 4, 10);
+
+        when(apiManager.geocodeAsync(anyString(), eq(true))).thenAnswer(invocation -> CompletableFuture.completedFuture(APIManager.sampleData_geocode(invocation.getArgument(0))));
+        when(apiManager.retrievePlacesOfCategoryAsync(any(LatLng.class), anyInt(), any(PlaceType.class), eq(true))).thenReturn(CompletableFuture.completedFuture(List.of()));
+        when(apiManager.getWalkingDistancesAsync(any(GeocodedLocation.class), anyList(), eq(true))).thenReturn(CompletableFuture.completedFuture(List.of()));
+    }
+
+    /**
+     * Test to make sure that a job scores every line of its file, skipping blank lines, and numbers the results
+     * across chunks.
+     */
+    @Test
+    public void testJobCompletes() throws Exception {
+        try (ScoringJobManager manager = new ScoringJobManager(bulkScorer, objectMapper, directory, 2)) {
+            ScoringJob job = manager.submit(addresses("A\nB\n\nC\nD\nE\n"), true);
+
+            awaitStatus(job, ScoringJob.Status.COMPLETED);
+
+            assertEquals(5, job.getTotal());
+            assertEquals(5, job.getProcessed());
+            assertEquals(0, job.getFailed());
+            assertEquals(List.of(0, 1, 2, 3, 4), resultIndexes(manager.resultsOf(job)));
+            assertEquals(ScoringJob.Status.COMPLETED, ScoringJob.load(directory.resolve(job.getId()).resolve("job.properties")).getStatus());
+        }
+    }
+
+    /**
+     * Test to make sure that a job interrupted by a shutdown is resumed from its last checkpoint by the next manager,
+     * without scoring the finished chunks again or duplicating any results.
+     */
+    @Test
+    public void testJobResumesAfterRestart() throws Exception {
+        CompletableFuture<GeocodedLocation> stuck = new CompletableFuture<>();
+        when(apiManager.geocodeAsync(eq("C"), eq(true))).thenReturn(stuck);
+
+        String id;
+        try (ScoringJobManager manager = new ScoringJobManager(bulkScorer, objectMapper, directory, 2)) {
+            ScoringJob job = manager.submit(addresses("A\nB\nC\nD\nE\n"), true);
+            id = job.getId();
+
+            // The first chunk is checkpointed; the second hangs on "C" until the manager shuts down
+            long deadline = System.currentTimeMillis() + 5000;
+            while (job.getProcessed() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(2, job.getProcessed());
+        }
+
+        ScoringJob checkpoint = ScoringJob.load(directory.resolve(id).resolve("job.properties"));
+        assertEquals(ScoringJob.Status.RUNNING, checkpoint.getStatus());
+        assertEquals(2, checkpoint.getProcessed());
+
+        // After the restart "C" geocodes normally, and "A" must not be scored again
+        APIManager restarted = mock(APIManager.class);
+        when(restarted.geocodeAsync(anyString(), eq(true))).thenAnswer(invocation -> CompletableFuture.completedFuture(APIManager.sampleData_geocode(invocation.getArgument(0))));
+        when(restarted.retrievePlacesOfCategoryAsync(any(LatLng.class), anyInt(), any(PlaceType.class), eq(true))).thenReturn(CompletableFuture.completedFuture(List.of()));
+        when(restarted.getWalkingDistancesAsync(any(GeocodedLocation.class), anyList(), eq(true))).thenReturn(CompletableFuture.completedFuture(List.of()));
+
+        try (ScoringJobManager manager = new ScoringJobManager(new BulkScorer(new LocationManager(restarted), 4, 10), objectMapper, directory, 2)) {
+            ScoringJob job = manager.get(id);
+
+            awaitStatus(job, ScoringJob.Status.COMPLETED);
+
+            assertEquals(5, job.getProcessed());
+            assertEquals(List.of(0, 1, 2, 3, 4), resultIndexes(manager.resultsOf(job)));
+            verify(restarted, never()).geocodeAsync(eq("A"), eq(true));
+        }
+    }
+
+    /**
+     * Test to make sure that addresses turned away by an exhausted quota are scored again once it recovers, instead of
+     * being checkpointed as failed, while an address that cannot be geocoded is recorded as failed.
+     */
+    @Test
+    public void testTransientFailuresRetried() throws Exception {
+        CompletableFuture<GeocodedLocation> quotaExceeded = CompletableFuture.failedFuture(new QuotaManager.QuotaExceededException(UpstreamApi.GEOCODING, Duration.ofMillis(20)));
+        when(apiManager.geocodeAsync(eq("B"), eq(true))).thenReturn(quotaExceeded)
+                .thenReturn(quotaExceeded)
+                .thenAnswer(invocation -> CompletableFuture.completedFuture(APIManager.sampleData_geocode("B")));
+        when(apiManager.geocodeAsync(eq("nowhere"), eq(true))).thenReturn(CompletableFuture.completedFuture(null));
+
+        try (ScoringJobManager manager = new ScoringJobManager(bulkScorer, objectMapper, directory, 3, Duration.ofMillis(10), Duration.ofMillis(100))) {
+            ScoringJob job = manager.submit(addresses("A\nB\nnowhere\nD\n"), true);
+
+            awaitStatus(job, ScoringJob.Status.COMPLETED);
+
+            assertEquals(4, job.getProcessed());
+            assertEquals(1, job.getFailed());
+            assertEquals(List.of(0, 1, 2, 3), resultIndexes(manager.resultsOf(job)));
+            verify(apiManager, times(3)).geocodeAsync(eq("B"), eq(true));
+
+            List<String> statuses = Files.readAllLines(manager.resultsOf(job)).stream().map(line -> {
+                try {
+                    return objectMapper.readTree(line).get("status").asText();
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+            }).toList();
+            assertEquals(List.of("ok", "ok", "invalid location", "ok"), statuses);
+        }
+    }
+
+    private static ByteArrayInputStream addresses(String lines) {
+        return new ByteArrayInputStream(lines.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void awaitStatus(ScoringJob job, ScoringJob.Status status) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (job.getStatus() != status && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(status, job.getStatus());
+    }
+
+    private List<Integer> resultIndexes(Path results) throws Exception {
+        List<String> lines = Files.readAllLines(results);
+        assertTrue(lines.stream().noneMatch(String::isBlank));
+
+        return lines.stream().map(line -> {
+            try {
+                JsonNode node = objectMapper.readTree(line);
+                return node.get("index").asInt();
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        }).sorted().toList();
+    }
+}
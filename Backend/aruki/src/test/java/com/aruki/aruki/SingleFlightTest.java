@@ -0,0 +1,142 @@
+package com.aruki.aruki;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class SingleFlightTest {
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Starts the leader, blocked on the latch, then starts the waiters once the leader's computation is in flight.
+     */
+    private List<Future<String>> startCallers(SingleFlight<String, String> flights, int callers, Callable<String> computation) throws InterruptedException {
+        List<Future<String>> futures = new ArrayList<>();
+        futures.add(executor.submit(() -> flights.execute("key", computation)));
+
+        while (flights.getInFlight() == 0) {
+            Thread.sleep(1);
+        }
+
+        for (int i = 1; i < callers; i++) {
+            futures.add(executor.submit(() -> flights.execute("key", computation)));
+        }
+
+        while (flights.getCoalesced() < callers - 1) {
+            Thread.sleep(1);
+        }
+
+        return futures;
+    }
+
+    @Test
+    public void testConcurrentCallersShareOneComputation() throws Exception {
+        SingleFlight<String, String> flights = new SingleFlight<>(Duration.ofSeconds(5));
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger computations = new AtomicInteger();
+
+        List<Future<String>> futures = startCallers(flights, 10, () -> {
+            computations.incrementAndGet();
+            release.await(5, TimeUnit.SECONDS);
+            return "result";
+        });
+        release.countDown();
+
+        for (Future<String> future : futures) {
+            assertEquals("result", future.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, computations.get());
+        assertEquals(0, flights.getInFlight());
+    }
+
+    @Test
+    public void testFailureReachesEveryWaiterAndIsNotCached() throws Exception {
+        SingleFlight<String, String> flights = new SingleFlight<>(Duration.ofSeconds(5));
+        CountDownLatch release = new CountDownLatch(1);
+
+        List<Future<String>> futures = startCallers(flights, 5, () -> {
+            release.await(5, TimeUnit.SECONDS);
+            throw new IOException("upstream failed");
+        });
+        release.countDown();
+
+        for (Future<String> future : futures) {
+            ExecutionException thrown = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(IOException.class, thrown.getCause());
+        }
+
+        // The failure is not remembered: the next call computes again
+        assertEquals("recovered", flights.execute("key", () -> "recovered"));
+    }
+
+    @Test
+    public void testWaiterTimesOut() throws Exception {
+        SingleFlight<String, String> flights = new SingleFlight<>(Duration.ofMillis(50));
+        CountDownLatch release = new CountDownLatch(1);
+
+        List<Future<String>> futures = startCallers(flights, 2, () -> {
+            release.await(5, TimeUnit.SECONDS);
+            return "slow";
+        });
+
+        ExecutionException thrown = assertThrows(ExecutionException.class, () -> futures.get(1).get(5, TimeUnit.SECONDS));
+        assertInstanceOf(SingleFlight.WaitTimeoutException.class, thrown.getCause());
+
+        release.countDown();
+        assertEquals("slow", futures.get(0).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testAsyncCallersShareOneComputation() throws Exception {
+        SingleFlight<String, String> flights = new SingleFlight<>(Duration.ofSeconds(5));
+        CompletableFuture<String> computation = new CompletableFuture<>();
+        AtomicInteger computations = new AtomicInteger();
+
+        CompletableFuture<String> leader = flights.executeAsync("key", () -> { computations.incrementAndGet(); return computation; });
+        CompletableFuture<String> waiter = flights.executeAsync("key", () -> { computations.incrementAndGet(); return computation; });
+
+        assertFalse(waiter.isDone());
+        computation.complete("result");
+
+        assertEquals("result", leader.get(5, TimeUnit.SECONDS));
+        assertEquals("result", waiter.get(5, TimeUnit.SECONDS));
+        assertEquals(1, computations.get());
+        assertEquals(0, flights.getInFlight());
+    }
+
+    @Test
+    public void testAsyncWaiterTimesOut() throws Exception {
+        SingleFlight<String, String> flights = new SingleFlight<>(Duration.ofMillis(50));
+        CompletableFuture<String> computation = new CompletableFuture<>();
+
+        CompletableFuture<String> leader = flights.executeAsync("key", () -> computation);
+        CompletableFuture<String> waiter = flights.executeAsync("key", () -> computation);
+
+        ExecutionException thrown = assertThrows(ExecutionException.class, () -> waiter.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(SingleFlight.WaitTimeoutException.class, thrown.getCause());
+
+        computation.complete("slow");
+        assertEquals("slow", leader.get(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,77 @@
+package com.aruki.aruki;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.maps.model.LatLng;
+
+public class SpatialIndexTest {
+
+    static final String[] types = {"restaurant"};
+
+    @Test
+    public void testGeohashEncode() {
+        assertEquals("9q8yyk", Geohash.encode(37.7749, -122.4194, 6));
+        assertEquals("u4pruydqqvj", Geohash.encode(57.64911, 10.40744, 11));
+    }
+
+    @Test
+    public void testGeohashCellContainsPoint() {
+        String cell = Geohash.encode(36.8529, -75.9780, 6);
+        double[] bounds = Geohash.bounds(cell);
+        LatLng center = Geohash.center(cell);
+
+        assertTrue(bounds[0] <= 36.8529 && 36.8529 <= bounds[2]);
+        assertTrue(bounds[1] <= -75.9780 && -75.9780 <= bounds[3]);
+        assertEquals(cell, Geohash.encode(center.lat, center.lng, 6));
+
+        // A precision 6 cell is about 1.2 km x 0.6 km, so its circumradius is about 0.7 km
+        double circumradius = Geohash.circumradiusMeters(cell);
+        assertTrue(circumradius > 500 && circumradius < 800);
+    }
+
+    @Test
+    public void testDistanceMeters() {
+        // One degree of latitude is about 111.2 km
+        assertEquals(111_195, GeoMath.distanceMeters(0, 0, 1, 0), 10);
+    }
+
+    /**
+     * Test to make sure that the KD-tree returns exactly the places a linear scan finds within the radius.
+     */
+    @Test
+    public void testWithinRadiusMatchesLinearScan() {
+        Random random = new Random(42);
+        List<Location> places = new ArrayList<>();
+
+        for (int i = 0; i < 500; i++) {
+            double lat = 36.85 + random.nextDouble(-0.03, 0.03);
+            double lng = -75.98 + random.nextDouble(-0.03, 0.03);
+            places.add(new Location("Place " + i, "Address " + i, types, "id" + i, lat, lng));
+        }
+        places.add(new Location("No Coordinates", "Unknown", types));
+
+        PoiIndex index = new PoiIndex(places);
+
+        for (int q = 0; q < 20; q++) {
+            double lat = 36.85 + random.nextDouble(-0.02, 0.02);
+            double lng = -75.98 + random.nextDouble(-0.02, 0.02);
+
+            List<String> expected = new ArrayList<>();
+            for (Location place : places) {
+                if (!place.hasCoordinates() || GeoMath.distanceMeters(lat, lng, place.getLatitude(), place.getLongitude()) <= 2000) {
+                    expected.add(place.getName());
+                }
+            }
+
+            List<String> actual = index.withinRadius(lat, lng, 2000).stream().map(Location::getName).toList();
+
+            assertEquals(expected.stream().sorted().toList(), actual.stream().sorted().toList());
+        }
+    }
+}
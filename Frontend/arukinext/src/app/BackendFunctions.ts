@@ -13,6 +13,8 @@ const productionURL = 'https://aruki-hhdubgd4gqg6dwgr.eastus-01.azurewebsites.ne
 const areWeLiveURL = 'areWeLive';
 const getPlacesURL = 'getPlaces';
 const getScoreURL = 'getScore';
+const getWalkAndScoreURL = 'getWalkAndScore';
+const getPlacesStreamURL = 'getPlacesStream';
 
 export const CLOSE_DISTANCE = 0.5; // 500 meters
 export const MEDIUM_DISTANCE = 1.0; // 1 km
@@ -309,6 +311,44 @@ export const getLocations = async (location: string): Promise<{ locations: Locat
     }
 }
 
+/**
+ * Streams the locations near a given location one category at a time, as soon as the backend has verified each
+ * category, instead of waiting for every category like getLocations().
+ * @param {string} location - The location to search near.
+ * @param {(category: string, locations: Location[]) => void} onCategory - Called once per category, in the order the categories finish, with its locations sorted by distance.
+ * @param {() => void} onComplete - Called once every category has been received.
+ * @param {(error: Error) => void} onError - Called instead of onComplete if the request fails.
+ * @returns {() => void} - Returns a function that closes the stream.
+ */
+export const streamLocations = (location: string, onCategory: (category: string, locations: Location[]) => void, onComplete: () => void, onError: (error: Error) => void): (() => void) => {
+    if (location === "test") {
+        location = "1029 Sandoval Drive, Virginia Beach, VA 23454";
+    }
+
+    const source = new EventSource(whatIsTheBaseURL() + getPlacesStreamURL + "?location=" + encodeURIComponent(location));
+
+    source.addEventListener("category", (event: MessageEvent) => {
+        const data = JSON.parse(event.data);
+        const locations: Location[] = data.places.map((locationData: Location) =>
+            new Location(locationData.name, locationData.address, locationData.types, locationData.distance));
+        onCategory(data.category, locations);
+    });
+
+    source.addEventListener("complete", () => {
+        source.close();
+        onComplete();
+    });
+
+    source.addEventListener("error", (event: Event) => {
+        source.close();
+        const status = (event instanceof MessageEvent && event.data) ? JSON.parse(event.data).status : "connection error";
+        console.error("Error streaming locations:", status);
+        onError(new Error(`Failed to stream locations: ${status}`));
+    });
+
+    return () => source.close();
+}
+
 /**
  * Represents the data of a category score returned by the backend API.
  * @class
@@ -392,3 +432,59 @@ export const getScores = async (location: string): Promise<ScoreResponse> => {
         }
     }
 }
+
+/**
+ * Fetches both the nearby locations and the walkability score for a given location with a single backend call.
+ * Use this instead of calling getLocations() and getScores() for the same address, which would make the backend
+ * search the area twice.
+ * @param {string} location - The location to search near.
+ * @returns {Promise<{locations: LocationResponse, scores: ScoreResponse}>} - Returns the locations in the same form as getLocations() and the scores in the same form as getScores().
+ * @throws Will throw an error if the API call fails or no data is received.
+ */
+export const getWalkAndScore = async (location: string): Promise<{ locations: LocationResponse, scores: ScoreResponse }> => {
+    try {
+        if (location === undefined) {
+            throw new Error("Location is undefined, is not properly being passed to getWalkAndScore");
+        }
+
+        if (location === "test") {
+            location = "1029 Sandoval Drive, Virginia Beach, VA 23454";
+        }
+
+        const response = await axios.get(whatIsTheBaseURL() + getWalkAndScoreURL, { params: { location: location } });
+
+        if (!response.data) {
+            throw new Error("No data received from getWalkAndScore API");
+        }
+
+        // The backend already groups the locations by category and sorts them by distance
+        const sortedLocations: Location[][] = placeTypes.map(placeType =>
+            (response.data.placesByCategory[placeType] ?? []).map((locationData: Location) =>
+                new Location(locationData.name, locationData.address, locationData.types, locationData.distance)));
+
+        // A location can be listed under several categories, but should only be counted once overall
+        const uniqueLocations = new Map<string, Location>();
+        sortedLocations.flat().forEach(location => uniqueLocations.set(location.name + "|" + location.address, location));
+
+        const viscinities = countLocationVicinities(Array.from(uniqueLocations.values()));
+        const viscinitiesByCategories = countLocationVicinitiesByCategories(sortedLocations);
+
+        const categoryScores: CategoryScore[] = [];
+        response.data.score.categoryScores.forEach((categoryScore: CategoryScore) => {
+            categoryScores.push(new CategoryScore(categoryScore.category, categoryScore.score, categoryScore.closePlaces, categoryScore.mediumPlaces, categoryScore.farPlaces));
+        });
+
+        return {
+            locations: new LocationResponse(sortedLocations, viscinities, viscinitiesByCategories),
+            scores: new ScoreResponse(response.data.score.walkabilityScore, categoryScores)
+        };
+    } catch (error) {
+        if (error instanceof Error) {
+            console.error("Error getting walk and score data:", error.message);
+            throw new Error(`Failed to get walk and score data: ${error.message}`);
+        } else {
+            console.error("Error getting walk and score data:", error);
+            throw new Error(`Failed to get walk and score data: ${error}`);
+        }
+    }
+}